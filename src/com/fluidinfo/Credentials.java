@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.fluidinfo.utils.Base64;
+
+/**
+ * A FluidDB username and password (or neither, for anonymous calls)
+ * 
+ * Credentials never change once made, so they can be handed between threads freely. The
+ * Authorization header is worked out once, when they are made, as is an identity that can
+ * go in cache keys without giving the password away.
+ * 
+ * @author rossjones
+ *
+ */
+public final class Credentials {
+	
+	/**
+	 * Keys the identities, so they can't be reversed (or guessed) outside this process
+	 */
+	private final static SecretKeySpec IDENTITY_KEY;
+	
+	static {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		IDENTITY_KEY = new SecretKeySpec(key, "HmacSHA256");
+	}
+	
+	/**
+	 * Each thread's Mac (request keys are worked out on every call, so it is kept)
+	 */
+	private final static ThreadLocal<Mac> IDENTITY_MAC = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac hmac = Mac.getInstance("HmacSHA256");
+				hmac.init(IDENTITY_KEY);
+				return hmac;
+			} catch (GeneralSecurityException e) {
+				// every Java platform has HmacSHA256
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+	
+	/**
+	 * No username or password: calls are made anonymously
+	 */
+	public final static Credentials ANONYMOUS = new Credentials("", "");
+	
+	private final String username;
+	
+	private final String password;
+	
+	/**
+	 * The value of the Authorization header (null when anonymous)
+	 */
+	private final String authorization;
+	
+	/**
+	 * Stands in for the authorization in keys (null when anonymous)
+	 */
+	private final String identity;
+	
+	/**
+	 * Constructor
+	 * @param username the FluidDB username (null is treated as "")
+	 * @param password the FluidDB password (null is treated as "")
+	 */
+	public Credentials(String username, String password) {
+		this.username = username == null ? "" : username;
+		this.password = password == null ? "" : password;
+		if(this.username.length() == 0 && this.password.length() == 0) {
+			this.authorization = null;
+		} else {
+			String userpass = this.username+":"+this.password;
+			this.authorization = "Basic "+Base64.encodeBytes(userpass.getBytes(StandardCharsets.UTF_8));
+		}
+		this.identity = identityOf(this.authorization);
+	}
+	
+	/**
+	 * Works out the identity for an Authorization header: the same for the same header within
+	 * this process, but different for a different password and no use for working it out
+	 * @param authorization the value of the Authorization header (may be null)
+	 * @return the identity, or null if there is no header
+	 */
+	public static String identityOf(String authorization) {
+		if(authorization == null) {
+			return null;
+		}
+		byte[] mac = IDENTITY_MAC.get().doFinal(authorization.getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder(33).append('#');
+		for(int i = 0; i < 16; i++) {
+			sb.append(Character.forDigit((mac[i] >> 4) & 0xf, 16)).append(Character.forDigit(mac[i] & 0xf, 16));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the username ("" if anonymous)
+	 */
+	public String getUsername() {
+		return this.username;
+	}
+	
+	/**
+	 * @return the password ("" if anonymous)
+	 */
+	public String getPassword() {
+		return this.password;
+	}
+	
+	/**
+	 * @return the value to send in the Authorization header, or null for anonymous calls
+	 */
+	public String getAuthorization() {
+		return this.authorization;
+	}
+	
+	/**
+	 * @return a stand-in for the username and password that is safe to keep in keys and 
+	 * logs (see identityOf), or null for anonymous calls
+	 */
+	public String getIdentity() {
+		return this.identity;
+	}
+	
+	/**
+	 * @return true if calls are made without logging in
+	 */
+	public boolean isAnonymous() {
+		return this.authorization == null;
+	}
+	
+	@Override
+	public String toString() {
+		// never the password
+		return "Credentials[" + (this.isAnonymous() ? "anonymous" : this.username) + "]";
+	}
+}
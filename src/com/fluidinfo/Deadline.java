@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation against FluidDB must be finished
+ * 
+ * A deadline is applied to the current thread, and every call made on that thread until 
+ * the scope is closed shares the same time budget - whether it is made directly through 
+ * FluidConnector.Call or by FluidDB and the FOM classes (e.g. Namespace.getItem followed by
+ * lookups of the child namespaces). Connect and read timeouts are cut down to the time 
+ * left, a call made after the deadline fails straight away with a FluidTimeoutException, 
+ * and calls made with callAsync carry the deadline onto the dispatcher's threads.
+ * 
+ * <pre>
+ * Deadline.Scope scope = Deadline.after(2000).apply();
+ * try {
+ *     Namespace ns = fdb.getNamespace("test");
+ *     for(String name : ns.getNamespaceNames()) { ... }
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * 
+ * @author rossjones
+ *
+ */
+public final class Deadline {
+	
+	private final static ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+	
+	/**
+	 * When the deadline runs out (in System.nanoTime terms)
+	 */
+	private final long expiresAt;
+	
+	private Deadline(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+	
+	/**
+	 * @param millis the time budget in milliseconds
+	 * @return a deadline the given time from now
+	 */
+	public static Deadline after(long millis) {
+		return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+	
+	/**
+	 * @return the deadline applied to the current thread, or null if there isn't one
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+	
+	/**
+	 * @return the time left in milliseconds (zero or less once the deadline has passed)
+	 */
+	public long remaining() {
+		long remaining = this.expiresAt - System.nanoTime();
+		return remaining <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+	}
+	
+	/**
+	 * @return true if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return this.expiresAt - System.nanoTime() <= 0;
+	}
+	
+	/**
+	 * @throws FluidTimeoutException if the deadline has passed
+	 */
+	public void check() throws FluidTimeoutException {
+		if(this.isExpired()) {
+			throw new FluidTimeoutException("Deadline exceeded");
+		}
+	}
+	
+	/**
+	 * Works out a timeout for the next step of an operation
+	 * @param timeout the usual timeout in milliseconds (0 means no timeout)
+	 * @return the smaller of the timeout and the time left (never 0, so never "no timeout")
+	 */
+	public int limit(int timeout) {
+		long remaining = this.remaining();
+		if(remaining <= 0) {
+			return 1;
+		}
+		if(timeout > 0 && timeout < remaining) {
+			return timeout;
+		}
+		return (int)Math.min(Integer.MAX_VALUE, remaining);
+	}
+	
+	/**
+	 * Applies the deadline to the current thread until the scope is closed. An earlier 
+	 * deadline already applied still wins.
+	 * @return the scope to close
+	 */
+	public Scope apply() {
+		Deadline previous = CURRENT.get();
+		if(previous == null || this.expiresAt - previous.expiresAt < 0) {
+			CURRENT.set(this);
+		}
+		return new Scope(previous);
+	}
+	
+	/**
+	 * Restores the previous deadline (if any) when closed
+	 */
+	public final static class Scope implements AutoCloseable {
+		
+		private final Deadline previous;
+		
+		private Scope(Deadline previous) {
+			this.previous = previous;
+		}
+		
+		public void close() {
+			if(this.previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(this.previous);
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "Deadline[remaining: "+this.remaining()+"ms]";
+	}
+}
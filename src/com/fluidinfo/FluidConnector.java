@@ -22,15 +22,40 @@
  */
 package com.fluidinfo;
 
-import java.net.*;
-import java.util.Enumeration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.*;
 
-import com.fluidinfo.utils.Base64;
+import com.fluidinfo.metrics.CallEvent;
+import com.fluidinfo.metrics.ConnectorMetrics;
+import com.fluidinfo.metrics.EndpointMetrics;
+import com.fluidinfo.metrics.PathTemplate;
+import com.fluidinfo.transport.CircuitBreaker;
+import com.fluidinfo.transport.Compression;
+import com.fluidinfo.transport.ConcurrencyLimiter;
+import com.fluidinfo.transport.CompressionStats;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.Dispatcher;
+import com.fluidinfo.transport.Hedger;
+import com.fluidinfo.transport.HttpURLConnectionTransport;
+import com.fluidinfo.transport.Interceptor;
+import com.fluidinfo.transport.InterceptorChain;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
+import com.fluidinfo.transport.RequestCoalescer;
+import com.fluidinfo.transport.ResponseCache;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.transport.Transport;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
 
 /**
  * A base class defining the call methods for all the other FluidDB classes
@@ -50,14 +75,14 @@ public class FluidConnector {
     */
     public final static String SandboxURL = "http://sandbox.fluidinfo.com";  
     
-    private String url = URL;
+    private volatile String url = URL;
     
     /**
     * Setter for the URL to use for connecting to FluidDB
     * @param url The URL to use for connecting to FluidDB
     */
     public void setUrl(String url) {
-        this.url = url;
+        this.shared.url = url;
     }
     
     /**
@@ -65,45 +90,698 @@ public class FluidConnector {
     * @return the URL used to connect to FluidDB
     */
     public String getUrl() {
-        return url;
+        return this.shared.url;
     }
     
     /**
-    * The FluidDB username
+    * The credentials calls are made with (replaced as a whole, never changed, so a call 
+    * never sees one user's name with another's password)
     */
-    private String username = "";
+    private volatile Credentials credentials = Credentials.ANONYMOUS;
     
     /**
     * @param username the username to set
     */
-    public void setUsername(String username) {
-        this.username = username;
+    public synchronized void setUsername(String username) {
+        this.credentials = new Credentials(username, this.credentials.getPassword());
     }
     
     /**
     * @return the username
     */
     public String getUsername() {
-        return username;
+        return this.credentials.getUsername();
     }
     
-    /**
-    * The FluidDB password
-    */
-    private String password = "";
-    
     /**
     * @param password the password to set
     */
-    public void setPassword(String password) {
-        this.password = password;
+    public synchronized void setPassword(String password) {
+        this.credentials = new Credentials(this.credentials.getUsername(), password);
     }
     
     /**
     * @return the password
     */
     public String getPassword() {
-        return password;
+        return this.credentials.getPassword();
+    }
+    
+    /**
+    * Sets the username and password together (use Credentials.ANONYMOUS to log out)
+    * @param credentials the credentials to make calls with
+    */
+    public synchronized void setCredentials(Credentials credentials) {
+        if(credentials == null) {
+            throw new IllegalArgumentException("credentials must not be null");
+        }
+        this.credentials = credentials;
+    }
+    
+    /**
+    * @return the credentials calls are made with
+    */
+    public Credentials getCredentials() {
+        return this.credentials;
+    }
+    
+    /**
+    * The connector that owns the settings, connections, caches and metrics: this one, or 
+    * the one a session was made from
+    */
+    private final FluidConnector shared;
+    
+    /**
+    * Constructor
+    */
+    public FluidConnector() {
+        this.shared = this;
+        this.transport = new HttpURLConnectionTransport();
+        this.callTransport = this.transport;
+        this.compressionStats = new CompressionStats();
+        this.circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+        this.metrics = new ConnectorMetrics();
+    }
+    
+    /**
+    * Makes a session (see withCredentials)
+    */
+    private FluidConnector(FluidConnector shared, Credentials credentials) {
+        this.shared = shared;
+        this.credentials = credentials;
+        this.compressionStats = shared.compressionStats;
+        this.circuitBreakers = shared.circuitBreakers;
+        this.metrics = shared.metrics;
+    }
+    
+    /**
+    * Makes a session: a connector that calls FluidDB with its own credentials but shares 
+    * everything else with this one - the transport and its connections, the interceptors, 
+    * timeouts, retries, circuit breakers, caches and metrics. Sessions are cheap, so one can 
+    * be made for each user (or even each request) from a single connector shared by many 
+    * threads. Changing a setting other than the credentials on a session changes it for 
+    * every connector sharing it.
+    * @param credentials the credentials for the session's calls
+    * @return the session
+    */
+    public FluidConnector withCredentials(Credentials credentials) {
+        if(credentials == null) {
+            throw new IllegalArgumentException("credentials must not be null");
+        }
+        return new FluidConnector(this.shared, credentials);
+    }
+    
+    /**
+    * Makes a session with its own username and password (see withCredentials(Credentials))
+    * @param username the username for the session's calls
+    * @param password the password for the session's calls
+    * @return the session
+    */
+    public FluidConnector withCredentials(String username, String password) {
+        return this.withCredentials(new Credentials(username, password));
+    }
+    
+    /**
+    * The engine used to carry calls to FluidDB
+    */
+    private volatile Transport transport;
+    
+    /**
+    * Sets the engine used to carry calls to FluidDB (HttpURLConnectionTransport by default)
+    * @param transport the transport to use
+    */
+    public void setTransport(Transport transport) {
+        this.shared.transport = transport;
+        this.updateCallTransport();
+    }
+    
+    /**
+    * @return the engine used to carry calls to FluidDB
+    */
+    public Transport getTransport() {
+        return this.shared.transport;
+    }
+    
+    /**
+    * Sets the pool of keep-alive connections to use for calls to FluidDB (a shortcut for 
+    * using a PooledTransport). Pass null to go back to opening a new HttpURLConnection for 
+    * every call.
+    * @param pool the connection pool to use
+    */
+    public void setConnectionPool(ConnectionPool pool) {
+        this.shared.transport = pool == null ? new HttpURLConnectionTransport() : new PooledTransport(pool);
+        this.updateCallTransport();
+    }
+    
+    /**
+    * @return the pool of keep-alive connections used for calls to FluidDB (or null if the 
+    * transport isn't pooled)
+    */
+    public ConnectionPool getConnectionPool() {
+        if(this.shared.transport instanceof PooledTransport){
+            return ((PooledTransport)this.shared.transport).getConnectionPool();
+        }
+        return null;
+    }
+    
+    /**
+    * The interceptors every attempt at a call passes through, outermost first (replaced, 
+    * never changed, so it can be read without locking)
+    */
+    private Interceptor[] interceptors = new Interceptor[0];
+    
+    /**
+    * The transport wrapped in the interceptors (just the transport if there are none)
+    */
+    private volatile Transport callTransport;
+    
+    private void updateCallTransport() {
+        synchronized(this.shared) {
+            Transport transport = this.shared.transport;
+            this.shared.callTransport = this.shared.interceptors.length == 0 ? transport : new InterceptorChain(transport, this.shared.interceptors);
+        }
+    }
+    
+    /**
+    * Adds an interceptor to the end of the chain (so it sits closest to the transport). 
+    * Interceptors see every attempt at a call, including retries and hedges, and can rewrite
+    * the request, answer it themselves or time and inspect the response.
+    * @param interceptor the interceptor to add
+    */
+    public void addInterceptor(Interceptor interceptor) {
+        synchronized(this.shared) {
+            if(interceptor == null) {
+                throw new IllegalArgumentException("interceptor must not be null");
+            }
+            Interceptor[] interceptors = Arrays.copyOf(this.shared.interceptors, this.shared.interceptors.length + 1);
+            interceptors[interceptors.length - 1] = interceptor;
+            this.shared.interceptors = interceptors;
+            this.updateCallTransport();
+        }
+    }
+    
+    /**
+    * Removes an interceptor from the chain
+    * @param interceptor the interceptor to remove
+    * @return true if it was in the chain
+    */
+    public boolean removeInterceptor(Interceptor interceptor) {
+        synchronized(this.shared) {
+            List<Interceptor> interceptors = new ArrayList<Interceptor>(Arrays.asList(this.shared.interceptors));
+            if(!interceptors.remove(interceptor)) {
+                return false;
+            }
+            this.shared.interceptors = interceptors.toArray(new Interceptor[interceptors.size()]);
+            this.updateCallTransport();
+            return true;
+        }
+    }
+    
+    /**
+    * @return the interceptors in the chain, outermost first
+    */
+    public List<Interceptor> getInterceptors() {
+        synchronized(this.shared) {
+            return Collections.unmodifiableList(Arrays.asList(this.shared.interceptors.clone()));
+        }
+    }
+    
+    /**
+    * Whether to ask FluidDB to compress its responses
+    */
+    private volatile boolean compressionEnabled = false;
+    
+    /**
+    * PUT bodies at least this big are gzipped (0 means never)
+    */
+    private volatile int requestCompressionThreshold = 0;
+    
+    /**
+    * Bytes before and after compression
+    */
+    private final CompressionStats compressionStats;
+    
+    /**
+    * Sets whether to ask FluidDB to gzip or deflate its responses (off by default)
+    * @param compressionEnabled true to send "Accept-Encoding: gzip, deflate"
+    */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.shared.compressionEnabled = compressionEnabled;
+    }
+    
+    /**
+    * @return true if FluidDB is asked to compress its responses
+    */
+    public boolean isCompressionEnabled() {
+        return this.shared.compressionEnabled;
+    }
+    
+    /**
+    * Sets the size at which PUT bodies (e.g. large tag values) are gzipped before they are 
+    * sent. The server must accept "Content-Encoding: gzip" requests.
+    * @param threshold the size in bytes, 0 to never compress request bodies (the default)
+    */
+    public void setRequestCompressionThreshold(int threshold) {
+        this.shared.requestCompressionThreshold = threshold;
+    }
+    
+    /**
+    * @return the size at which PUT bodies are gzipped (0 means never)
+    */
+    public int getRequestCompressionThreshold() {
+        return this.shared.requestCompressionThreshold;
+    }
+    
+    /**
+    * @return the counts of bytes sent and received before and after compression
+    */
+    public CompressionStats getCompressionStats() {
+        return this.compressionStats;
+    }
+    
+    /**
+    * The default connect timeout in milliseconds
+    */
+    public final static int DEFAULT_CONNECT_TIMEOUT = 10000;
+    
+    /**
+    * The default read timeout in milliseconds
+    */
+    public final static int DEFAULT_READ_TIMEOUT = 60000;
+    
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    
+    /**
+    * Sets how long to wait for a connection to FluidDB to open. Running out of time throws
+    * a FluidTimeoutException.
+    * @param connectTimeout the timeout in milliseconds (0 means wait forever)
+    */
+    public void setConnectTimeout(int connectTimeout) {
+        if(connectTimeout < 0) {
+            throw new IllegalArgumentException("connectTimeout must not be negative");
+        }
+        this.shared.connectTimeout = connectTimeout;
+    }
+    
+    /**
+    * @return the connect timeout in milliseconds (0 means wait forever)
+    */
+    public int getConnectTimeout() {
+        return this.shared.connectTimeout;
+    }
+    
+    /**
+    * Sets how long to wait for FluidDB to send (more of) a response. Running out of time 
+    * throws a FluidTimeoutException.
+    * @param readTimeout the timeout in milliseconds (0 means wait forever)
+    */
+    public void setReadTimeout(int readTimeout) {
+        if(readTimeout < 0) {
+            throw new IllegalArgumentException("readTimeout must not be negative");
+        }
+        this.shared.readTimeout = readTimeout;
+    }
+    
+    /**
+    * @return the read timeout in milliseconds (0 means wait forever)
+    */
+    public int getReadTimeout() {
+        return this.shared.readTimeout;
+    }
+    
+    /**
+    * How to retry failed idempotent calls (null means never retry)
+    */
+    private volatile RetryPolicy retryPolicy = null;
+    
+    /**
+    * Consecutive failures that trip an endpoint's circuit breaker (0 means no breakers)
+    */
+    private volatile int circuitBreakerThreshold = 0;
+    
+    /**
+    * How long (in milliseconds) a tripped circuit breaker stays open
+    */
+    private volatile long circuitBreakerOpenDuration = 0;
+    
+    /**
+    * The circuit breakers keyed by endpoint
+    */
+    private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers;
+    
+    /**
+    * Sets how failed GET, HEAD, PUT and DELETE calls are retried (POSTs are never retried)
+    * @param retryPolicy the policy to use, or null to never retry (the default)
+    */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.shared.retryPolicy = retryPolicy;
+    }
+    
+    /**
+    * @return the policy used to retry failed calls (null if calls are never retried)
+    */
+    public RetryPolicy getRetryPolicy() {
+        return this.shared.retryPolicy;
+    }
+    
+    /**
+    * Turns on a circuit breaker for each endpoint (e.g. http://fluiddb.fluidinfo.com/objects). 
+    * Once an endpoint fails (an IOException or a 5xx response) failureThreshold times in a 
+    * row calls to it throw a CircuitBreakerOpenException straight away until openDuration 
+    * has passed.
+    * @param failureThreshold consecutive failures that trip a breaker, 0 to turn breakers off
+    * @param openDuration how long (in milliseconds) a tripped breaker stays open
+    */
+    public void setCircuitBreaker(int failureThreshold, long openDuration) {
+        if(failureThreshold < 0 || openDuration < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.shared.circuitBreakerOpenDuration = openDuration;
+        this.shared.circuitBreakerThreshold = failureThreshold;
+        this.circuitBreakers.clear();
+    }
+    
+    /**
+    * @param endpoint the endpoint, e.g. http://fluiddb.fluidinfo.com/objects
+    * @return the endpoint's circuit breaker (null if it hasn't been called or breakers are off)
+    */
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        return this.circuitBreakers.get(endpoint);
+    }
+    
+    /**
+    * @return the circuit breakers for every endpoint called so far
+    */
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(this.circuitBreakers.values());
+    }
+    
+    /**
+    * Hedges slow GET and HEAD calls (null means no hedging)
+    */
+    private volatile Hedger hedger = null;
+    
+    /**
+    * Turns on hedging: a GET or HEAD that takes longer than most recent ones did is sent a
+    * second time and the first answer is used
+    * @param hedger the hedger to use, or null to turn hedging off (the default)
+    */
+    public void setHedger(Hedger hedger) {
+        this.shared.hedger = hedger;
+    }
+    
+    /**
+    * @return the hedger (with its counts of hedges sent and won), or null if hedging is off
+    */
+    public Hedger getHedger() {
+        return this.shared.hedger;
+    }
+    
+    /**
+    * Limits the number of calls in flight (null means no limit)
+    */
+    private volatile ConcurrencyLimiter concurrencyLimiter = null;
+    
+    /**
+    * Puts an adaptive limit on the number of calls in flight to FluidDB, which also holds
+    * calls back when FluidDB sends a 429 or 503 with a Retry-After header
+    * @param limiter the limiter to use, or null for no limit (the default)
+    */
+    public void setConcurrencyLimiter(ConcurrencyLimiter limiter) {
+        this.shared.concurrencyLimiter = limiter;
+    }
+    
+    /**
+    * @return the limiter (with its current limit, queue depth and rejection count), or null 
+    * if there is no limit
+    */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return this.shared.concurrencyLimiter;
+    }
+    
+    /**
+    * Works out the endpoint a request is for: the base URL plus the first path segment
+    * @param request the request
+    * @return the endpoint, e.g. http://fluiddb.fluidinfo.com/namespaces
+    */
+    private static String endpointOf(FluidRequest request) {
+        String url = request.getUrl();
+        String path = request.getPath() == null ? "" : request.getPath();
+        int start = 0;
+        while(start < path.length() && path.charAt(start) == '/') {
+            start++;
+        }
+        int end = path.indexOf('/', start);
+        if(end < 0) {
+            end = path.length();
+        }
+        StringBuilder sb = new StringBuilder(url.length() + end - start + 1);
+        sb.append(url);
+        if(url.length() == 0 || url.charAt(url.length() - 1) != '/') {
+            sb.append('/');
+        }
+        return sb.append(path, start, end).toString();
+    }
+    
+    /**
+    * Shares the responses of identical GET and HEAD calls in flight at once (null means 
+    * no coalescing)
+    */
+    private volatile RequestCoalescer coalescer = null;
+    
+    /**
+    * Turns on coalescing: a GET or HEAD made while an identical one (same path, arguments 
+    * and credentials) is in flight waits for, and shares, the first one's FluidResponse
+    * @param coalescer the coalescer to use, or null to turn coalescing off (the default)
+    */
+    public void setRequestCoalescer(RequestCoalescer coalescer) {
+        this.shared.coalescer = coalescer;
+    }
+    
+    /**
+    * @return the coalescer (with its counts of calls sent and coalesced), or null if 
+    * coalescing is off
+    */
+    public RequestCoalescer getRequestCoalescer() {
+        return this.shared.coalescer;
+    }
+    
+    /**
+    * Keeps GET responses for revalidation (null means no cache)
+    */
+    private volatile ResponseCache responseCache = null;
+    
+    /**
+    * Turns on the response cache: GET responses with an ETag, Last-Modified date or 
+    * Cache-Control max-age are kept and revalidated with If-None-Match/If-Modified-Since
+    * @param cache the cache to use, or null to turn caching off (the default)
+    */
+    public void setResponseCache(ResponseCache cache) {
+        this.shared.responseCache = cache;
+    }
+    
+    /**
+    * @return the response cache (with its hit, revalidation and miss counts), or null if 
+    * caching is off
+    */
+    public ResponseCache getResponseCache() {
+        return this.shared.responseCache;
+    }
+    
+    /**
+    * What other layers keep per connector (e.g. the FOM's identity map), keyed by its type
+    */
+    private final ConcurrentHashMap<Class<?>, Object> attachments = new ConcurrentHashMap<Class<?>, Object>();
+    
+    /**
+    * Keeps something on the connector (and its sessions) for another layer, such as the 
+    * FOM's IdentityMap and NegativeCache, without the connector having to know about it
+    * @param type the type of the thing kept, which is also its key
+    * @param attachment the thing to keep, or null to forget it
+    */
+    public <T> void setAttachment(Class<T> type, T attachment) {
+        if(attachment == null) {
+            this.shared.attachments.remove(type);
+        } else {
+            this.shared.attachments.put(type, type.cast(attachment));
+        }
+    }
+    
+    /**
+    * @param type the type of the thing kept
+    * @return the thing kept by setAttachment, or null if there isn't one
+    */
+    public <T> T getAttachment(Class<T> type) {
+        return type.cast(this.shared.attachments.get(type));
+    }
+    
+    /**
+    * Sends a request, sharing the response of an identical one in flight if coalescing is on
+    */
+    private final RequestCoalescer.Call coalescingSender = new RequestCoalescer.Call() {
+        public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+            RequestCoalescer coalescer = FluidConnector.this.coalescer;
+            // a response streamed to one caller's target can't be shared
+            if(coalescer != null && RequestCoalescer.isCoalescable(request.getMethod()) && request.getResponseBody() == null){
+                return coalescer.send(request, FluidConnector.this.sender);
+            }
+            return FluidConnector.this.sender.send(request);
+        }
+    };
+    
+    /**
+    * Latencies and counters per method and path template
+    */
+    private final ConnectorMetrics metrics;
+    
+    /**
+    * @return the latency histograms and counters for the calls made (see 
+    * ConnectorMetrics.registerMBean to publish them over JMX)
+    */
+    public ConnectorMetrics getMetrics() {
+        return this.metrics;
+    }
+    
+    /**
+    * Sends a request and records how long it took and how many bytes came back
+    */
+    private final RequestCoalescer.Call sender = new RequestCoalescer.Call() {
+        public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+            EndpointMetrics endpoint = FluidConnector.this.metrics.getEndpoint(request.getMethod(), request.getPath());
+            long requestLength = Math.max(0, request.getBodyLength());
+            long start = endpoint.started();
+            FluidResponse response;
+            try {
+                response = FluidConnector.this.execute(request);
+            } catch (Throwable t) {
+                endpoint.failed(start, requestLength);
+                throw t;
+            }
+            endpoint.succeeded(start, requestLength, response.getResponseCode(), response.getResponseWireLength());
+            long responseLength = response.getResponseStreamedLength() >= 0 ? response.getResponseStreamedLength() : response.getResponseLength();
+            FluidConnector.this.compressionStats.recordResponse(response.getResponseWireLength(), responseLength);
+            return response;
+        }
+    };
+    
+    /**
+    * Sends a request through the transport, retrying and tripping circuit breakers as 
+    * configured
+    * @param request the request to send
+    * @return the response from the final attempt
+    * @throws FluidException if the endpoint's circuit breaker is open
+    * @throws IOException if the final attempt failed
+    */
+    private FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+        RetryPolicy policy = this.retryPolicy;
+        // two copies of a streamed response would both write to its target
+        Hedger hedger = Hedger.isHedgeable(request.getMethod()) && request.getResponseBody() == null ? this.hedger : null;
+        CircuitBreaker breaker = null;
+        int threshold = this.circuitBreakerThreshold;
+        if(threshold > 0) {
+            String endpoint = endpointOf(request);
+            breaker = this.circuitBreakers.get(endpoint);
+            if(breaker == null) {
+                CircuitBreaker created = new CircuitBreaker(endpoint, threshold, this.circuitBreakerOpenDuration);
+                breaker = this.circuitBreakers.putIfAbsent(endpoint, created);
+                if(breaker == null) {
+                    breaker = created;
+                }
+            }
+        }
+        ConcurrencyLimiter limiter = this.concurrencyLimiter;
+        Deadline deadline = Deadline.current();
+        int retries = 0;
+        while(true) {
+            if(deadline == null) {
+                request.setConnectTimeout(this.connectTimeout);
+                request.setReadTimeout(this.readTimeout);
+            } else {
+                deadline.check();
+                request.setConnectTimeout(deadline.limit(this.connectTimeout));
+                request.setReadTimeout(deadline.limit(this.readTimeout));
+            }
+            if(limiter != null) {
+                if(deadline == null) {
+                    limiter.acquire();
+                } else {
+                    limiter.acquire(deadline.remaining());
+                }
+            }
+            request.setAttempts(retries + 1);
+            FluidResponse response = null;
+            IOException failure = null;
+            FluidTimeoutException timeout = null;
+            int responseCode = -1;
+            long start = System.nanoTime();
+            try {
+                if(breaker != null && !breaker.allowRequest()) {
+                    throw new CircuitBreakerOpenException("Circuit breaker open for "+breaker.getEndpoint());
+                }
+                try {
+                    Transport transport = this.callTransport;
+                    response = hedger == null ? transport.send(request) : hedger.send(transport, request);
+                    responseCode = response.getResponseCode();
+                } catch (IOException e) {
+                    failure = e;
+                } catch (FluidTimeoutException e) {
+                    // FluidDB is struggling (or gone), but the call may have been done so 
+                    // it isn't retried
+                    timeout = e;
+                }
+                if(breaker != null) {
+                    if(failure != null || timeout != null || responseCode >= 500) {
+                        breaker.recordFailure();
+                    } else {
+                        breaker.recordSuccess();
+                    }
+                }
+            } finally {
+                if(limiter != null) {
+                    if(response == null && failure == null && timeout == null) {
+                        // no call made
+                        limiter.release(-1, false, -1);
+                    } else {
+                        boolean overloaded = failure != null || timeout != null || responseCode >= 500 || responseCode == 429;
+                        long retryAfter = responseCode == 429 || responseCode == 503 ? RetryPolicy.getRetryAfter(response) : -1;
+                        limiter.release(System.nanoTime() - start, overloaded, retryAfter);
+                    }
+                }
+            }
+            if(timeout != null) {
+                throw timeout;
+            }
+            if(policy == null || !request.isRepeatable() || !policy.shouldRetry(request.getMethod(), retries, responseCode, failure)) {
+                if(failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            long backoff = policy.getBackoff(retries++);
+            long retryAfter = RetryPolicy.getRetryAfter(response);
+            if(retryAfter > policy.getMaxBackoff()) {
+                // FluidDB wants us to wait longer than we're prepared to
+                return response;
+            }
+            backoff = Math.max(backoff, retryAfter);
+            if(deadline != null && backoff >= deadline.remaining()) {
+                // no time left for another go
+                if(failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+            if(backoff > 0) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FluidException("Interrupted while waiting to retry", e);
+                }
+            }
+        }
     }
     
     /**
@@ -159,112 +837,276 @@ public class FluidConnector {
      * @throws IOException Will get thrown if we can't extract the errorStream from the connection
      */
     public FluidResponse Call(Method m, String path, String body, Hashtable<String, String> args, String content_type) throws FluidException, IOException {   
-        // Build the URI we'll be calling
-        StringBuffer uri = new StringBuffer();
-        uri.append( this.url );
-        uri.append( path);
+        // Content type and body for POST/PUT requests
+        byte[] data = null;
+        String contentType = "text/plain; charset=utf-8";
+        if ( !(body == "" || body == null) ){
+            data = body.getBytes(StandardCharsets.UTF_8);
+            contentType = content_type;
+        }
         
-        if (args.size() > 0){
-            try{
-                uri.append("?");
-                Vector<String> argList = new Vector<String>();
-                Enumeration<String> e = args.keys();
-                while( e.hasMoreElements()){
-                    String k = e.nextElement();
-                    argList.add( k + "=" + URLEncoder.encode(args.get(k), "UTF-8") );
+        // Big PUT bodies can be compressed
+        String contentEncoding = null;
+        if ( data != null ){
+            int uncompressed = data.length;
+            int threshold = this.shared.requestCompressionThreshold;
+            if ( m == Method.PUT && threshold > 0 && data.length >= threshold ){
+                byte[] compressed = Compression.gzip(data);
+                if ( compressed.length < data.length ){
+                    data = compressed;
+                    contentEncoding = "gzip";
                 }
-                uri.append( StringUtil.join(argList, "&") );
-            } catch (Exception e){
-                throw new FluidException(e);
             }
+            this.compressionStats.recordRequest(uncompressed, data.length);
         }
         
-        // Declare some vars we'll use in a moment...
-        BufferedReader    reader      = null;
-        OutputStream      writer      = null;
-        HttpURLConnection connection  = null;
-        StringBuffer      sb          = new StringBuffer();
-        String            line        = "";
-        FluidResponse 	  response	  = null;
+        // Build the request we'll be sending
+        FluidRequest request = new FluidRequest(m, this.shared.url, path, args, data, contentType);
+        return this.send(request, contentEncoding);
+    }
+    
+    /**
+     * Makes a call to FluidDB, streaming the body from its source rather than holding it 
+     * in memory
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param body The body to send
+     * @param content_type The value for the Content-Type header
+     * @return The response from FluidDB
+     * @throws FluidException If an error occurs, such as no such resource
+     * @throws IOException If the body couldn't be read or sent
+     */
+    public FluidResponse Call(Method m, String path, RequestBody body, String content_type) throws FluidException, IOException {
+        return this.Call(m, path, body, new Hashtable<String, String>(), content_type);
+    }
+    
+    /**
+     * Makes a call to FluidDB, streaming the body from its source rather than holding it 
+     * in memory (a body read from an InputStream can't be sent twice, so the call isn't 
+     * retried)
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param body The body to send
+     * @param args A dictionary of arguments to pass with the request
+     * @param content_type The value for the Content-Type header
+     * @return The response from FluidDB
+     * @throws FluidException If an error occurs, such as no such resource or malformed
+     *         arguments
+     * @throws IOException If the body couldn't be read or sent
+     */
+    public FluidResponse Call(Method m, String path, RequestBody body, Hashtable<String, String> args, String content_type) throws FluidException, IOException {
+        FluidRequest request = new FluidRequest(m, this.shared.url, path, args, null, content_type);
+        request.setRequestBody(body);
+        return this.send(request, null);
+    }
+    
+    /**
+     * Makes a call to FluidDB, copying the body of a successful response straight to a 
+     * target rather than holding it in memory
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param target Where to copy the body
+     * @return The response from FluidDB (see FluidResponse.getResponseStreamedLength)
+     * @throws FluidException If an error occurs, such as no such resource
+     * @throws IOException If the body couldn't be read or written
+     */
+    public FluidResponse Call(Method m, String path, ResponseBody target) throws FluidException, IOException {
+        return this.Call(m, path, target, 0, -1);
+    }
+    
+    /**
+     * Makes a call to FluidDB for part of a resource, copying the body of a successful 
+     * response straight to a target rather than holding it in memory. The response is a 206
+     * if FluidDB sent just the part asked for and a 200 if it sent all of it.
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param target Where to copy the body
+     * @param offset The first byte wanted
+     * @param length The number of bytes wanted, or -1 for everything from the offset on
+     * @return The response from FluidDB (see FluidResponse.getResponseStreamedLength)
+     * @throws FluidException If an error occurs, such as no such resource
+     * @throws IOException If the body couldn't be read or written
+     */
+    public FluidResponse Call(Method m, String path, ResponseBody target, long offset, long length) throws FluidException, IOException {
+        if(offset < 0 || length == 0 || length < -1){
+            throw new IllegalArgumentException("Invalid range: offset "+offset+", length "+length);
+        }
+        FluidRequest request = new FluidRequest(m, this.shared.url, path, new Hashtable<String, String>(), null, "text/plain; charset=utf-8");
+        request.setResponseBody(target);
+        if(offset > 0 || length > 0){
+            request.setHeader("Range", "bytes="+offset+"-"+(length < 0 ? "" : Long.toString(offset + length - 1)));
+        }
+        return this.send(request, null);
+    }
+    
+    /**
+     * Adds the standard headers to a request and sends it through the cache (if there is one)
+     * @param request the request to send
+     * @param contentEncoding the encoding the body was compressed with (null if it wasn't)
+     * @return the response from FluidDB
+     * @throws FluidException
+     * @throws IOException
+     */
+    private FluidResponse send(FluidRequest request, String contentEncoding) throws FluidException, IOException {
+        request.setHeader("Accept", "*/*");
+        request.setHeader("User-Agent", "JFluidDB");
+        if ( request.getContentType() != null ){
+            request.setHeader("Content-Type", request.getContentType());
+        }
+        if ( contentEncoding != null ){
+            request.setHeader("Content-Encoding", contentEncoding);
+        }
+        // a range is of the encoded body, so ask for ranges of the plain one
+        if ( this.shared.compressionEnabled && request.getHeader("Range") == null ){
+            request.setHeader("Accept-Encoding", Compression.ACCEPT_ENCODING);
+        }
+        // Authorization header (if required)
+        request.setCredentials(this.credentials);
         
-        // Lets build the HTTP request and attempt to get a response
-        try{
-            // Basic setup of the connection to FluidDB
-            connection = (HttpURLConnection)new URL( uri.toString() ).openConnection();
-            connection.setRequestMethod(  m.toString().toUpperCase() );
-            if ( m == Method.POST || m == Method.PUT )
-                connection.setDoInput(true);
-            connection.setDoOutput(true);
-            //connection.setReadTimeout(5000);
-            connection.setRequestProperty("Accept", "*/*");
-            connection.setRequestProperty("user-agent", "JFluidDB");
-            // Authorization header (if required)
-            if(!(this.password == "" & this.username == "")){
-                String userpass = this.username+":"+password;
-                connection.setRequestProperty("Authorization", "Basic "+Base64.encodeBytes(userpass.getBytes()));
-            }
-            // Content type and body for POST/PUT requests
-            if ( body == "" || body == null){
-                connection.setRequestProperty("content-type", "text/plain; charset=utf-8");
+        CallEvent event = new CallEvent();
+        event.begin();
+        FluidResponse response = null;
+        try {
+            ResponseCache cache = this.shared.responseCache;
+            if(cache != null && request.getResponseBody() == null){
+                response = cache.send(request, this.shared.coalescingSender);
             } else {
-                byte[] data = body.getBytes("UTF-8");
-                connection.setRequestProperty("content-type", content_type);
-                connection.setRequestProperty("content-length", new Integer(data.length).toString() );
-                writer = connection.getOutputStream();
-                writer.write(data);
-                writer.close();
+                response = this.shared.coalescingSender.send(request);
+            }
+            return response;
+        } finally {
+            event.end();
+            if(event.shouldCommit()){
+                commit(event, request, response);
             }
-            
-            // Read the entire response
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            while ((line = reader.readLine()) != null){
-                sb.append(line);
+        }
+    }
+    
+    /**
+    * Fills in and records a Flight Recorder event for a call
+    * @param event the event, which has already been ended
+    * @param request the request sent
+    * @param response the response, or null if the call failed
+    */
+    private static void commit(CallEvent event, FluidRequest request, FluidResponse response) {
+        event.method = request.getMethod().toString();
+        event.path = request.getPath();
+        event.pathTemplate = PathTemplate.of(request.getPath());
+        event.requestBytes = Math.max(0, request.getBodyLength());
+        event.attempts = request.getAttempts();
+        if(response == null){
+            event.status = -1;
+            event.outcome = CallEvent.FAILED;
+        } else {
+            event.status = response.getResponseCode();
+            event.responseBytes = response.getResponseWireLength();
+            event.requestId = response.getResponseHeader("X-FluidDB-Request-Id");
+            if(event.requestId == null){
+                event.requestId = response.getErrorRequestID();
             }
-            reader.close();
-            response = this.BuildResponse(connection, sb.toString());		 
-        } catch (FileNotFoundException fnfe){
-            // Build a 404 response
-            response = this.BuildResponse(connection, connection.getURL().toString());
-        } catch ( IOException e) {
-            // Build a 401 (usually)
-            response = this.BuildResponse(connection, connection.getURL().toString());
-        } catch ( Exception e ) {
-            // catch all of the other exceptions so that we can provide more 
-            // fine-grained error handling for the response object otherwise barf with
-            // a FluidException
-            if(connection.getHeaderFields().containsKey("X-FluidDB-Error-Class")) {
-                response =  this.BuildResponse(connection, "");
+            if(response.getResponseSource() == FluidResponse.Source.CACHE){
+                event.outcome = CallEvent.CACHED;
+            } else if(response.getResponseSource() == FluidResponse.Source.REVALIDATED){
+                event.outcome = CallEvent.REVALIDATED;
+            } else if(event.attempts == 0){
+                event.outcome = CallEvent.COALESCED;
+            } else if(event.attempts > 1){
+                event.outcome = CallEvent.RETRIED;
             } else {
-                throw new FluidException(e);
+                event.outcome = CallEvent.NETWORK;
             }
-        } finally {
-            // Tidy up after ourselves ;-)
-            connection.disconnect();
-            reader = null;
-            writer = null;
-            connection = null;
         }
-        // et voila!
-        return response;
+        event.commit();
     }
 
     /**
-     * Utility method to build new FluidDBResponse instances given a connection and some content
-     * 
-     * @param connection The connection made to FluidDB
-     * @param content The payload of the response
-     * @return a new FluidDBResponse instance
-     * @throws IOException
+    * Runs the calls made with callAsync (created on first use)
+    */
+    private Dispatcher dispatcher = null;
+    
+    /**
+    * Sets the dispatcher used to run asynchronous calls
+    * @param dispatcher the dispatcher to use
+    */
+    public void setDispatcher(Dispatcher dispatcher) {
+        synchronized(this.shared) {
+            this.shared.dispatcher = dispatcher;
+        }
+    }
+    
+    /**
+    * @return the dispatcher used to run asynchronous calls
+    */
+    public Dispatcher getDispatcher() {
+        synchronized(this.shared) {
+            if(this.shared.dispatcher == null) {
+                this.shared.dispatcher = new Dispatcher();
+            }
+            return this.shared.dispatcher;
+        }
+    }
+    
+    /**
+     * Makes a call to FluidDB without blocking the calling thread
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @return A future for the result
      */
-    private FluidResponse BuildResponse(HttpURLConnection connection, String content) throws IOException {
-        // Grab some useful information
-        int responseCode = connection.getResponseCode();
-        String responseMessage = connection.getResponseMessage();
-        String responseEncoding = connection.getHeaderField("Content-Type");
-        String responseError = connection.getHeaderField("X-FluidDB-Error-Class");
-        String requestID = connection.getHeaderField("X-FluidDB-Request-Id");
-        // Build the FluidResponse object
-        return new FluidResponse(responseCode, responseMessage, responseEncoding, content, responseError, requestID);
+    public CompletableFuture<FluidResponse> callAsync(Method m, String path) {
+        return this.callAsync(m, path, "");
+    }
+    
+    /**
+     * Makes a call to FluidDB without blocking the calling thread
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param body An optional body to send with the request
+     * @return A future for the result
+     */
+    public CompletableFuture<FluidResponse> callAsync(Method m, String path, String body) {
+        return this.callAsync(m, path, body, new Hashtable<String, String>());
+    }
+    
+    /**
+     * Makes a call to FluidDB without blocking the calling thread
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param body An optional body to send with the request
+     * @param args A dictionary of arguments to pass with the request
+     * @return A future for the result
+     */
+    public CompletableFuture<FluidResponse> callAsync(Method m, String path, String body, Hashtable<String, String> args) {
+        return this.callAsync(m, path, body, args, "application/json; charset=utf-8");
+    }
+    
+    /**
+     * Makes a call to FluidDB without blocking the calling thread. The call is run by the 
+     * connector's Dispatcher and the future completes exceptionally with a FluidException 
+     * or IOException where the equivalent Call would have thrown one.
+     * @param m The type of HTTP method to use 
+     * @param path The path to call
+     * @param body An optional body to send with the request
+     * @param args A dictionary of arguments to pass with the request
+     * @param content_type The value for the Content-Type header
+     * @return A future for the result
+     */
+    public CompletableFuture<FluidResponse> callAsync(final Method m, final String path, final String body, Hashtable<String, String> args, final String content_type) {
+        // take a copy so the caller is free to reuse their dictionary
+        final Hashtable<String, String> argsCopy = new Hashtable<String, String>(args);
+        // the call shares the caller's deadline (if any)
+        final Deadline deadline = Deadline.current();
+        return this.getDispatcher().submit(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                if(deadline == null) {
+                    return Call(m, path, body, argsCopy, content_type);
+                }
+                Deadline.Scope scope = deadline.apply();
+                try {
+                    return Call(m, path, body, argsCopy, content_type);
+                } finally {
+                    scope.close();
+                }
+            }
+        });
     }
 }
-	
@@ -23,6 +23,9 @@ package com.fluidinfo;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -80,6 +83,16 @@ public class FluidDB {
 		this.fdb.setUrl(this.url);
 	}
 	
+	/**
+	 * Constructor
+	 * @param fdb The connector to call FluidDB with (e.g. one shared with other threads, or 
+	 * a session made with FluidConnector.withCredentials)
+	 */
+	public FluidDB(FluidConnector fdb){
+		this.url = fdb.getUrl();
+		this.fdb = fdb;
+	}
+	
 	/**
 	 * Sets the credentials for connecting to the FluidDB
 	 * 
@@ -87,16 +100,46 @@ public class FluidDB {
 	 * @param password the fluidDB password
 	 */
 	public void Login(String username, String password){
-		this.fdb.setUsername(username);
-		this.fdb.setPassword(password);
+		this.fdb.setCredentials(new Credentials(username, password));
 	}
 	
 	/**
 	 * Sets the connection to FluidDB as anonymous
 	 */
 	public void Logout(){
-		this.fdb.setUsername("");
-		this.fdb.setPassword("");
+		this.fdb.setCredentials(Credentials.ANONYMOUS);
+	}
+	
+	/**
+	 * Returns a FluidDB that calls as another user, sharing this one's connections, caches,
+	 * metrics and settings. Logging the session in or out leaves this FluidDB alone, so a 
+	 * single FluidDB can serve many users from many threads with a session for each.
+	 * 
+	 * @param username the fluidDB username for the session
+	 * @param password the fluidDB password for the session
+	 * @return the session
+	 */
+	public FluidDB session(String username, String password){
+		return new FluidDB(this.fdb.withCredentials(username, password));
+	}
+	
+	/**
+	 * Runs some work against FluidDB (e.g. getting a namespace and then each of its 
+	 * children) within one time budget. Every call the work makes, directly or through the
+	 * FOM classes, shares the deadline; once it has passed calls fail straight away with a 
+	 * FluidTimeoutException. See Deadline for applying a deadline by hand.
+	 * @param millis the time budget in milliseconds
+	 * @param work the work to do
+	 * @return whatever the work returns
+	 * @throws Exception whatever the work throws (a FluidTimeoutException if it ran out of time)
+	 */
+	public <T> T withDeadline(long millis, Callable<T> work) throws Exception {
+		Deadline.Scope scope = Deadline.after(millis).apply();
+		try {
+			return work.call();
+		} finally {
+			scope.close();
+		}
 	}
 	
 	/**
@@ -110,9 +153,8 @@ public class FluidDB {
 	 */
 	public Namespace getNamespace(String path) throws FOMException, FluidException, IOException, JSONException{
 		Namespace childNamespace = new Namespace(this.fdb, "", path);
-		// populate it
-		childNamespace.getItem();
-		return childNamespace;
+		// populate it (or hand back the one already populated)
+		return IdentityMap.load(childNamespace);
 	}
 	
 	/**
@@ -125,9 +167,7 @@ public class FluidDB {
 	 * @throws JSONException
 	 */
 	public Tag getTag(String path) throws FOMException, FluidException, IOException, JSONException {
-		Tag childTag = new Tag(this.fdb, "", path);
-		childTag.getItem();
-		return childTag;
+		return IdentityMap.load(new Tag(this.fdb, "", path));
 	}
 	
 	/**
@@ -152,9 +192,7 @@ public class FluidDB {
 	 * @throws FluidException 
 	 */
 	public User getUser(String username) throws FOMException, FluidException, IOException, JSONException {
-        User user = new User(this.fdb, "", username);
-        user.getItem();
-        return user;
+        return IdentityMap.load(new User(this.fdb, "", username));
     }
 	
 	/**
@@ -188,9 +226,17 @@ public class FluidDB {
 	 * @throws JSONException
 	 */
 	public Object getObject(String id) throws FOMException, FluidException, IOException, JSONException {
-	    Object o = new Object(this.fdb, id, id);
-        o.getItem();
-        return o;
+	    return IdentityMap.load(new Object(this.fdb, id, id));
+	}
+	
+	/**
+	 * Gets an object with the provided id without blocking the calling thread
+	 * @param id the id of the object to return
+	 * @return a future for the object with the referenced id
+	 * @throws FOMException
+	 */
+	public CompletableFuture<Object> getObjectAsync(String id) throws FOMException {
+	    return IdentityMap.loadAsync(new Object(this.fdb, id, id));
 	}
 	
 	/**
@@ -235,6 +281,35 @@ public class FluidDB {
 	    Hashtable<String, String> args = new Hashtable<String, String>();
 	    args.put("query", query);
 	    FluidResponse r = this.fdb.Call(Method.GET, "/objects", "", args);
+	    return this.getIdsFromSearchResponse(r);
+	}
+	
+	/**
+	 * Given a query, will return a future for the list of object ids that match without 
+	 * blocking the calling thread (see searchObjects for the query language)
+	 * @param query The query
+	 * @return A future for an array of the matching object ids
+	 */
+	public CompletableFuture<String[]> searchObjectsAsync(String query) {
+	    Hashtable<String, String> args = new Hashtable<String, String>();
+	    args.put("query", query);
+	    return this.fdb.callAsync(Method.GET, "/objects", "", args).thenApply(r -> {
+	        try {
+	            return this.getIdsFromSearchResponse(r);
+	        } catch (Exception e) {
+	            throw new CompletionException(e);
+	        }
+	    });
+	}
+	
+	/**
+	 * Extracts the matching object ids from the response to a search
+	 * @param r The response from FluidDB
+	 * @return An array of the matching object ids
+	 * @throws FluidException If FluidDB returned an error
+	 * @throws JSONException
+	 */
+	private String[] getIdsFromSearchResponse(FluidResponse r) throws FluidException, JSONException {
 	    if(r.getResponseCode()==200) {
             JSONArray ids = StringUtil.getJsonObjectFromString(r.getResponseContent()).getJSONArray("ids");
             return StringUtil.getStringArrayFromJSONArray(ids);
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fluidinfo.transport.Cancellation;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * 
+ * A simple class used to hold everything a Transport needs to make a call to FluidDB
+ * 
+ * @author rossjones
+ *
+ */
+public class FluidRequest {
+	
+	private Method method;
+	private String url;
+	private String path;
+	private Hashtable<String, String> args;
+	private byte[] body;
+	private RequestBody requestBody;
+	private ResponseBody responseBody;
+	private Cancellation cancellation;
+	private String contentType;
+	private Map<String, String> headers = new LinkedHashMap<String, String>();
+	private int connectTimeout = 0;
+	private int readTimeout = 0;
+	private int attempts = 0;
+	private String authorization;
+	private String identity;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param method - the HTTP method to use
+	 * @param url - the URL for FluidDB (e.g. http://fluiddb.fluidinfo.com)
+	 * @param path - the path to call (e.g. /objects)
+	 * @param args - the arguments to pass in the query string
+	 * @param body - the body to send (null if there isn't one)
+	 * @param contentType - the content-type of the body
+	 */
+	public FluidRequest(Method method, String url, String path, Hashtable<String, String> args, byte[] body, String contentType) {
+		this.method = method;
+		this.url = url;
+		this.path = path;
+		this.args = args == null ? new Hashtable<String, String>() : args;
+		this.body = body;
+		this.contentType = contentType;
+	}
+	
+	/**
+	 * Copy constructor (the arguments and headers are copied, the body and cancellation are 
+	 * shared)
+	 * 
+	 * @param other - the request to copy
+	 */
+	public FluidRequest(FluidRequest other) {
+		this(other.method, other.url, other.path, new Hashtable<String, String>(other.args), other.body, other.contentType);
+		this.requestBody = other.requestBody;
+		this.responseBody = other.responseBody;
+		this.cancellation = other.cancellation;
+		this.authorization = other.authorization;
+		this.identity = other.identity;
+		this.headers.putAll(other.headers);
+		this.connectTimeout = other.connectTimeout;
+		this.readTimeout = other.readTimeout;
+	}
+	
+	/**
+	 * @return the HTTP method to use
+	 */
+	public Method getMethod() {
+		return this.method;
+	}
+	
+	/**
+	 * @param method the HTTP method to use
+	 */
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+	
+	/**
+	 * @return the URL for FluidDB
+	 */
+	public String getUrl() {
+		return this.url;
+	}
+	
+	/**
+	 * @return the path to call
+	 */
+	public String getPath() {
+		return this.path;
+	}
+	
+	/**
+	 * @param path the path to call (e.g. /objects)
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+	
+	/**
+	 * @return the arguments to pass in the query string
+	 */
+	public Hashtable<String, String> getArgs() {
+		return this.args;
+	}
+	
+	/**
+	 * @param args the arguments to pass in the query string
+	 */
+	public void setArgs(Hashtable<String, String> args) {
+		this.args = args == null ? new Hashtable<String, String>() : args;
+	}
+	
+	/**
+	 * @return the body to send (null if there isn't one)
+	 */
+	public byte[] getBody() {
+		return this.body;
+	}
+	
+	/**
+	 * @param body the body to send (null if there isn't one) - remove any Content-Encoding
+	 * header if the new body isn't compressed
+	 */
+	public void setBody(byte[] body) {
+		this.body = body;
+	}
+	
+	/**
+	 * @return the body to stream to FluidDB instead of the byte array body (null if there 
+	 * isn't one)
+	 */
+	public RequestBody getRequestBody() {
+		return this.requestBody;
+	}
+	
+	/**
+	 * @param requestBody the body to stream to FluidDB, which takes the place of the byte 
+	 * array body (null to send the byte array)
+	 */
+	public void setRequestBody(RequestBody requestBody) {
+		this.requestBody = requestBody;
+	}
+	
+	/**
+	 * @return the number of bytes in the body to send (0 if there isn't one, -1 if a 
+	 * streamed body's length isn't known)
+	 */
+	public long getBodyLength() {
+		if(this.requestBody != null) {
+			return this.requestBody.getLength();
+		}
+		return this.body == null ? 0 : this.body.length;
+	}
+	
+	/**
+	 * @return where to copy the body of a successful response instead of keeping it in the
+	 * FluidResponse (null to keep it)
+	 */
+	public ResponseBody getResponseBody() {
+		return this.responseBody;
+	}
+	
+	/**
+	 * @param responseBody where to copy the body of a successful response (null to keep it
+	 * in the FluidResponse)
+	 */
+	public void setResponseBody(ResponseBody responseBody) {
+		this.responseBody = responseBody;
+	}
+	
+	/**
+	 * @return the means of aborting the request while it is being sent (null if it can't be)
+	 */
+	public Cancellation getCancellation() {
+		return this.cancellation;
+	}
+	
+	/**
+	 * @param cancellation the means of aborting the request while it is being sent (null 
+	 * if it can't be)
+	 */
+	public void setCancellation(Cancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	/**
+	 * @return true if the request can be sent again (false once a body read from a stream 
+	 * has been used or part of a response has been written to a stream)
+	 */
+	public boolean isRepeatable() {
+		return (this.requestBody == null || this.requestBody.isRepeatable()) 
+			&& (this.responseBody == null || this.responseBody.isRepeatable());
+	}
+	
+	/**
+	 * @return the content-type of the body
+	 */
+	public String getContentType() {
+		return this.contentType;
+	}
+	
+	/**
+	 * Sets the content-type of the body (and the Content-Type header sent)
+	 * @param contentType the content-type of the body
+	 */
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+		this.removeHeader("Content-Type");
+		if(contentType != null) {
+			this.setHeader("Content-Type", contentType);
+		}
+	}
+	
+	/**
+	 * @return the connect timeout in milliseconds (0 means no timeout)
+	 */
+	public int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+	
+	/**
+	 * @param connectTimeout the connect timeout in milliseconds (0 means no timeout)
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+	
+	/**
+	 * @return the read timeout in milliseconds (0 means no timeout)
+	 */
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+	
+	/**
+	 * @param readTimeout the read timeout in milliseconds (0 means no timeout)
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+	
+	/**
+	 * @return the number of times the connector has tried to send the request (0 if it
+	 * was answered from the cache or by an identical call already in flight)
+	 */
+	public int getAttempts() {
+		return this.attempts;
+	}
+	
+	/**
+	 * @param attempts the number of times the request has been sent
+	 */
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+	
+	/**
+	 * @return the HTTP headers to send (Content-Length is left to the transport)
+	 */
+	public Map<String, String> getHeaders() {
+		return this.headers;
+	}
+	
+	/**
+	 * Sets an HTTP header to send with the request
+	 * @param name the name of the header
+	 * @param value the value of the header
+	 */
+	public void setHeader(String name, String value) {
+		this.headers.put(name, value);
+	}
+	
+	/**
+	 * Sets the Authorization header for some credentials, remembering their identity for 
+	 * getRequestKey so it doesn't have to be worked out from the header again
+	 * @param credentials the credentials to call FluidDB with
+	 */
+	public void setCredentials(Credentials credentials) {
+		this.authorization = credentials.getAuthorization();
+		this.identity = credentials.getIdentity();
+		if(this.authorization != null) {
+			this.setHeader("Authorization", this.authorization);
+		}
+	}
+	
+	/**
+	 * Removes an HTTP header (ignoring case)
+	 * @param name the name of the header
+	 */
+	public void removeHeader(String name) {
+		this.headers.keySet().removeIf(header -> header.equalsIgnoreCase(name));
+	}
+	
+	/**
+	 * Gets the value of a header set on the request (ignoring case)
+	 * @param name the name of the header
+	 * @return the value of the header or null if it isn't set
+	 */
+	public String getHeader(String name) {
+		for(Map.Entry<String, String> header : this.headers.entrySet()) {
+			if(header.getKey().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Appends the path and (if there are any arguments) the query string to a buffer
+	 * @param sb the buffer to append to
+	 * @return sb
+	 */
+	public StringBuilder appendPathAndQuery(StringBuilder sb) {
+		sb.append(this.path);
+		if(this.args.size() > 0) {
+			sb.append('?');
+			this.appendQueryString(sb);
+		}
+		return sb;
+	}
+	
+	/**
+	 * Appends the query string (without the leading "?") built from the arguments
+	 * @param sb the buffer to append to
+	 * @return sb
+	 */
+	public StringBuilder appendQueryString(StringBuilder sb) {
+		boolean first = true;
+		for(Map.Entry<String, String> arg : this.args.entrySet()) {
+			if(!first) {
+				sb.append('&');
+			}
+			first = false;
+			sb.append(arg.getKey()).append('=');
+			StringUtil.appendURLEncoded(sb, arg.getValue());
+		}
+		return sb;
+	}
+	
+	/**
+	 * Builds the query string (without the leading "?") from the arguments
+	 * @return the encoded query string, empty if there are no arguments
+	 */
+	public String getQueryString() {
+		return this.appendQueryString(buffer()).toString();
+	}
+	
+	/**
+	 * Builds the full URI to call
+	 * @return the URL, path and query string
+	 */
+	public String getURI() {
+		return this.appendPathAndQuery(buffer().append(this.url)).toString();
+	}
+	
+	/**
+	 * Builds a key that is the same for any two requests that would get the same answer
+	 * from FluidDB: the method, URI (with the arguments in a fixed order) and credentials
+	 * (as the identity from setCredentials, or Credentials.identityOf an Authorization header
+	 * set any other way, never the header itself)
+	 * @return the key
+	 */
+	public String getRequestKey() {
+		StringBuilder sb = buffer().append(this.method).append(' ').append(this.url).append(this.path);
+		char separator = '?';
+		for(Map.Entry<String, String> arg : new TreeMap<String, String>(this.args).entrySet()) {
+			sb.append(separator).append(arg.getKey()).append('=');
+			StringUtil.appendURLEncoded(sb, arg.getValue());
+			separator = '&';
+		}
+		String authorization = this.getHeader("Authorization");
+		String identity = authorization != null && authorization.equals(this.authorization) ? this.identity : Credentials.identityOf(authorization);
+		if(identity != null) {
+			sb.append(' ').append(identity);
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * The calling thread's scratch buffer, emptied ready for use
+	 */
+	private static StringBuilder buffer() {
+		StringBuilder sb = BUFFER.get();
+		if(sb.capacity() > MAX_BUFFER_SIZE) {
+			// don't hang on to the space used by one huge query
+			sb = new StringBuilder(256);
+			BUFFER.set(sb);
+		}
+		sb.setLength(0);
+		return sb;
+	}
+	
+	private final static int MAX_BUFFER_SIZE = 16384;
+	
+	private final static ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+}
@@ -21,6 +21,13 @@
  */
 package com.fluidinfo;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * 
  * A simple class used to hold the raw results from a call to FluidDB
@@ -30,12 +37,29 @@ package com.fluidinfo;
  */
 public class FluidResponse {
 	
+	/**
+	 * Where a response came from
+	 */
+	public enum Source {
+		/** FluidDB sent the whole response */
+		NETWORK,
+		/** the response cache had a fresh copy so FluidDB wasn't asked */
+		CACHE,
+		/** FluidDB said (with a 304) that the cached copy is still good */
+		REVALIDATED
+	}
+	
 	private int responseCode;
 	private String responseMessage;
 	private String responseContentType;
 	private String responseContent;
+	private byte[] responseBytes;
+	private long responseWireLength = -1;
+	private long responseStreamedLength = -1;
 	private String responseError;
 	private String responseRequestID;
+	private Map<String, String> responseHeaders;
+	private Source responseSource = Source.NETWORK;
 	
 	/**
 	 * Gets the HTTP response code returned from FluidDB (e.g. 200, 404)
@@ -70,9 +94,73 @@ public class FluidResponse {
 	 * @return the raw content of the response from FluidDB
 	 */
 	public String getResponseContent(){
+		// Only decode the body the first time someone asks for it as a String
+		if(this.responseContent == null && this.responseBytes != null){
+			this.responseContent = decode(this.responseBytes, this.responseContentType);
+		}
 		return this.responseContent;
 	}
 	
+	/**
+	 * The raw bytes of the response from FluidDB (exactly as sent - no decoding has happened)
+	 * 
+	 * @return the raw bytes of the response from FluidDB (do not modify)
+	 */
+	public byte[] getResponseBytes(){
+		if(this.responseBytes == null){
+			this.responseBytes = this.responseContent == null ? new byte[0] : encode(this.responseContent);
+		}
+		return this.responseBytes;
+	}
+	
+	/**
+	 * The raw content of the response from FluidDB as a stream of bytes
+	 * 
+	 * @return a stream over the raw bytes of the response from FluidDB
+	 */
+	public InputStream getResponseStream(){
+		return new ByteArrayInputStream(this.getResponseBytes());
+	}
+	
+	/**
+	 * The length in bytes of the response from FluidDB
+	 * 
+	 * @return the length in bytes of the response from FluidDB
+	 */
+	public int getResponseLength(){
+		return this.getResponseBytes().length;
+	}
+	
+	/**
+	 * The number of bytes of content that actually came over the wire (less than the 
+	 * response length if FluidDB compressed the response)
+	 * 
+	 * @return the number of bytes of content that came over the wire
+	 */
+	public long getResponseWireLength(){
+		return this.responseWireLength < 0 ? this.getResponseLength() : this.responseWireLength;
+	}
+	
+	/**
+	 * The number of bytes of content copied straight to the request's ResponseBody instead
+	 * of being kept in this response
+	 * 
+	 * @return the number of bytes streamed, or -1 if the content wasn't streamed
+	 */
+	public long getResponseStreamedLength(){
+		return this.responseStreamedLength;
+	}
+	
+	/**
+	 * Records that the content was streamed to the request's ResponseBody (used by the 
+	 * transports)
+	 * 
+	 * @param ResponseStreamedLength - the number of bytes streamed
+	 */
+	public void setResponseStreamedLength(long ResponseStreamedLength){
+		this.responseStreamedLength = ResponseStreamedLength;
+	}
+	
 	/**
 	 * The error message returned by FluidDB
 	 * 
@@ -91,6 +179,68 @@ public class FluidResponse {
 		return this.responseRequestID;
 	}
 	
+	/**
+	 * A header returned by FluidDB (e.g. Retry-After)
+	 * 
+	 * @param name - the name of the header (case doesn't matter)
+	 * @return the value of the header, or null if it wasn't sent
+	 */
+	public String getResponseHeader(String name){
+		return this.responseHeaders == null ? null : this.responseHeaders.get(name);
+	}
+	
+	/**
+	 * All the headers returned by FluidDB (repeated headers are joined with commas)
+	 * 
+	 * @return a read-only map of header names (case doesn't matter) to values
+	 */
+	public Map<String, String> getResponseHeaders(){
+		if(this.responseHeaders == null){
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(this.responseHeaders);
+	}
+	
+	/**
+	 * Sets the headers returned by FluidDB (used by the transports)
+	 * 
+	 * @param ResponseHeaders - the headers, looked up without regard to case
+	 */
+	public void setResponseHeaders(Map<String, String> ResponseHeaders){
+		if(ResponseHeaders instanceof TreeMap && ((TreeMap<String, String>)ResponseHeaders).comparator() == String.CASE_INSENSITIVE_ORDER){
+			this.responseHeaders = ResponseHeaders;
+		} else {
+			this.responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+			this.responseHeaders.putAll(ResponseHeaders);
+		}
+	}
+	
+	/**
+	 * Where the response came from: the network, the response cache, or the response cache
+	 * after FluidDB confirmed it was still good
+	 * 
+	 * @return the source of the response
+	 */
+	public Source getResponseSource(){
+		return this.responseSource;
+	}
+	
+	/**
+	 * Makes a copy of the response (sharing its content and headers) with a different source
+	 * 
+	 * @param ResponseSource - where the copy came from
+	 * @return the copy
+	 */
+	public FluidResponse copyWithSource(Source ResponseSource){
+		FluidResponse copy = new FluidResponse(this.responseCode, this.responseMessage, this.responseContentType, this.responseContent, this.responseError, this.responseRequestID);
+		copy.responseBytes = this.responseBytes;
+		copy.responseWireLength = this.responseWireLength;
+		copy.responseStreamedLength = this.responseStreamedLength;
+		copy.responseHeaders = this.responseHeaders;
+		copy.responseSource = ResponseSource;
+		return copy;
+	}
+	
 	/**
 	 * Constructor
 	 * 
@@ -121,4 +271,66 @@ public class FluidResponse {
 		this.responseError=ResponseError;
 		this.responseRequestID=RequestID;
 	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ResponseCode - the HTTP response code returned from FluidDB (e.g. 200, 404)
+	 * @param ResponseMessage - the response message returned from FluidDB (e.g. OK, Not Found etc)
+	 * @param ResponseContentType - the content-type returned from FluidDB (usually "application/json")
+	 * @param ResponseBytes - the raw bytes of the response from FluidDB (decoded on demand using the 
+	 * charset in the content-type, UTF-8 if there isn't one)
+	 * @param ResponseError - the error class returned by FluidDB (if any)
+	 * @param RequestID - the ID of the request returned by FluidDB
+	 */
+	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, byte[] ResponseBytes, String ResponseError, String RequestID) {
+		this(ResponseCode, ResponseMessage, ResponseContentType, (String)null, ResponseError, RequestID);
+		this.responseBytes=ResponseBytes;
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ResponseCode - the HTTP response code returned from FluidDB (e.g. 200, 404)
+	 * @param ResponseMessage - the response message returned from FluidDB (e.g. OK, Not Found etc)
+	 * @param ResponseContentType - the content-type returned from FluidDB (usually "application/json")
+	 * @param ResponseBytes - the raw (decompressed) bytes of the response from FluidDB
+	 * @param ResponseError - the error class returned by FluidDB (if any)
+	 * @param RequestID - the ID of the request returned by FluidDB
+	 * @param ResponseWireLength - the number of bytes of content that came over the wire
+	 */
+	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, byte[] ResponseBytes, String ResponseError, String RequestID, long ResponseWireLength) {
+		this(ResponseCode, ResponseMessage, ResponseContentType, ResponseBytes, ResponseError, RequestID);
+		this.responseWireLength=ResponseWireLength;
+	}
+	
+	/**
+	 * Works out the charset from a Content-Type header, defaulting to UTF-8
+	 */
+	static String charsetOf(String contentType){
+		if(contentType != null){
+			int i = contentType.toLowerCase().indexOf("charset=");
+			if(i != -1){
+				String charset = contentType.substring(i + 8);
+				int end = charset.indexOf(';');
+				if(end != -1){
+					charset = charset.substring(0, end);
+				}
+				return charset.replace("\"", "").trim();
+			}
+		}
+		return "UTF-8";
+	}
+	
+	private static String decode(byte[] bytes, String contentType){
+		try {
+			return new String(bytes, charsetOf(contentType));
+		} catch (UnsupportedEncodingException e) {
+			return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+		}
+	}
+	
+	private static byte[] encode(String content){
+		return content.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+	}
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs benchmarks the way JMH does - timed warm up iterations, then timed measurement 
+ * iterations - and reports the throughput (with a 99.9% confidence interval) and the bytes
+ * allocated per operation
+ * 
+ * Results can be written to a CSV file and compared against one saved from an earlier 
+ * version, so that regressions in speed or allocation stand out.
+ * 
+ * Options (before the optional name filter):
+ *   -w n      warm up iterations (default 5)
+ *   -i n      measurement iterations (default 5)
+ *   -t ms     length of each iteration in milliseconds (default 1000)
+ *   -o file   write the results to a CSV file
+ *   -b file   compare the results with a CSV file written earlier
+ * 
+ * @author rossjones
+ *
+ */
+public class Harness {
+    
+    /**
+     * A single operation to measure
+     */
+    public static abstract class Benchmark {
+        private final String name;
+        
+        public Benchmark(String name) {
+            this.name = name;
+        }
+        
+        public String getName() {
+            return this.name;
+        }
+        
+        /**
+         * Performs the operation once (pass results to Harness.consume so that the JIT can't
+         * throw the work away)
+         */
+        public abstract void run() throws Exception;
+    }
+    
+    /**
+     * The measurements for one benchmark
+     */
+    public static class Result {
+        final String name;
+        final double opsPerSecond;
+        final double error;
+        final double bytesPerOp;
+        final double allocationRate;
+        
+        Result(String name, double opsPerSecond, double error, double bytesPerOp, double allocationRate) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.error = error;
+            this.bytesPerOp = bytesPerOp;
+            this.allocationRate = allocationRate;
+        }
+    }
+    
+    /**
+     * Two-sided 99.9% Student's t values for 1 to 10 degrees of freedom
+     */
+    private final static double[] T_999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+    
+    /**
+     * A change in throughput or allocation smaller than this fraction isn't reported as a
+     * regression
+     */
+    private final static double TOLERANCE = 0.05;
+    
+    private static volatile Object sink;
+    
+    private int warmupIterations = 5;
+    
+    private int measurementIterations = 5;
+    
+    private long iterationMillis = 1000;
+    
+    private String output = null;
+    
+    private String baseline = null;
+    
+    private String filter = null;
+    
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    
+    /**
+     * @param args the command line options (see above)
+     */
+    public Harness(String[] args) {
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-w")) {
+                this.warmupIterations = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-i")) {
+                this.measurementIterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if(args[i].equals("-t")) {
+                this.iterationMillis = Long.parseLong(args[++i]);
+            } else if(args[i].equals("-o")) {
+                this.output = args[++i];
+            } else if(args[i].equals("-b")) {
+                this.baseline = args[++i];
+            } else {
+                this.filter = args[i];
+            }
+        }
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+    }
+    
+    /**
+     * Stops the JIT from treating a result as unused
+     * @param result the result of an operation
+     */
+    public static void consume(Object result) {
+        sink = result;
+    }
+    
+    /**
+     * Runs the benchmarks whose names contain the filter, printing the results as it goes
+     * @param benchmarks the benchmarks to run
+     * @return false if any benchmark regressed against the baseline
+     * @throws Exception if a benchmark fails or a file can't be read or written
+     */
+    public boolean run(List<Benchmark> benchmarks) throws Exception {
+        Map<String, Result> previous = this.baseline == null ? new HashMap<String, Result>() : read(this.baseline);
+        List<Result> results = new ArrayList<Result>();
+        boolean passed = true;
+        System.out.println(String.format("%-44s %14s %12s %12s %12s %s", "Benchmark", "ops/s", "error", "bytes/op", "MB/s", 
+                previous.isEmpty() ? "" : "vs baseline"));
+        for(Benchmark benchmark : benchmarks) {
+            if(this.filter != null && !benchmark.getName().contains(this.filter)) {
+                continue;
+            }
+            Result result = this.measure(benchmark);
+            results.add(result);
+            String comparison = "";
+            Result before = previous.get(result.name);
+            if(before != null) {
+                double speed = result.opsPerSecond / before.opsPerSecond - 1;
+                double allocation = result.bytesPerOp - before.bytesPerOp;
+                boolean slower = before.opsPerSecond - result.opsPerSecond > result.error + before.error 
+                        && -speed > TOLERANCE;
+                boolean bigger = allocation > 8 && allocation > before.bytesPerOp * TOLERANCE;
+                comparison = String.format(Locale.ROOT, "%+.1f%% ops/s %+.0f bytes/op%s", speed * 100, allocation, 
+                        slower || bigger ? "  REGRESSION" : "");
+                passed &= !(slower || bigger);
+            }
+            System.out.println(String.format(Locale.ROOT, "%-44s %14.1f %12.1f %12.1f %12.1f %s", result.name, result.opsPerSecond,
+                    result.error, result.bytesPerOp, result.allocationRate, comparison));
+        }
+        if(this.output != null) {
+            write(this.output, results);
+        }
+        return passed;
+    }
+    
+    private Result measure(Benchmark benchmark) throws Exception {
+        for(int i = 0; i < this.warmupIterations; i++) {
+            this.iteration(benchmark, new long[2]);
+        }
+        double[] rates = new double[this.measurementIterations];
+        long ops = 0;
+        long bytes = 0;
+        long nanos = 0;
+        long[] counts = new long[2];
+        for(int i = 0; i < rates.length; i++) {
+            long thread = Thread.currentThread().getId();
+            long bytesBefore = this.threads.getThreadAllocatedBytes(thread);
+            long elapsed = this.iteration(benchmark, counts);
+            bytes += this.threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            ops += counts[0];
+            nanos += elapsed;
+            rates[i] = counts[0] * 1e9 / elapsed;
+        }
+        double mean = 0;
+        for(double rate : rates) {
+            mean += rate;
+        }
+        mean /= rates.length;
+        double error = 0;
+        if(rates.length > 1) {
+            double variance = 0;
+            for(double rate : rates) {
+                variance += (rate - mean) * (rate - mean);
+            }
+            variance /= rates.length - 1;
+            int df = rates.length - 1;
+            double t = df <= T_999.length ? T_999[df - 1] : df <= 20 ? 3.85 : df <= 30 ? 3.65 : 3.29;
+            error = t * Math.sqrt(variance / rates.length);
+        }
+        return new Result(benchmark.getName(), mean, error, (double)bytes / ops, bytes / (nanos / 1e9) / (1024 * 1024));
+    }
+    
+    /**
+     * Runs the operation repeatedly for one iteration, in batches that grow until checking 
+     * the clock costs next to nothing
+     * @param counts set to the number of operations run
+     * @return the time taken in nanoseconds
+     */
+    private long iteration(Benchmark benchmark, long[] counts) throws Exception {
+        long start = System.nanoTime();
+        long end = start + this.iterationMillis * 1000000L;
+        long ops = 0;
+        int batch = 1;
+        long now;
+        while(true) {
+            long batchStart = System.nanoTime();
+            for(int i = 0; i < batch; i++) {
+                benchmark.run();
+            }
+            ops += batch;
+            now = System.nanoTime();
+            if(now >= end) {
+                break;
+            }
+            if(now - batchStart < 1000000L && batch < (1 << 20)) {
+                batch <<= 1;
+            }
+        }
+        counts[0] = ops;
+        return now - start;
+    }
+    
+    private static void write(String file, List<Result> results) throws IOException {
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        try {
+            out.println("benchmark,ops_per_s,error,bytes_per_op,alloc_mb_per_s");
+            for(Result result : results) {
+                out.println(String.format(Locale.ROOT, "\"%s\",%.3f,%.3f,%.3f,%.3f", result.name, result.opsPerSecond,
+                        result.error, result.bytesPerOp, result.allocationRate));
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static Map<String, Result> read(String file) throws IOException {
+        Map<String, Result> results = new HashMap<String, Result>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            in.readLine();
+            String line;
+            while((line = in.readLine()) != null) {
+                int quote = line.lastIndexOf('"');
+                if(!line.startsWith("\"") || quote <= 0) {
+                    continue;
+                }
+                String name = line.substring(1, quote);
+                String[] values = line.substring(quote + 2).split(",");
+                results.put(name, new Result(name, Double.parseDouble(values[0]), Double.parseDouble(values[1]),
+                        Double.parseDouble(values[2]), Double.parseDouble(values[3])));
+            }
+        } finally {
+            in.close();
+        }
+        return results;
+    }
+}
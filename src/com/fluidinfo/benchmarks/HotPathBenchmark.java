@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.Transport;
+import com.fluidinfo.utils.Base64;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Throughput and allocation of the client's hot paths: path joining, the Authorization 
+ * header, JSON decoding and encoding, and a full call to a stub server on localhost
+ * 
+ * Run with: java com.fluidinfo.benchmarks.HotPathBenchmark [-o results.csv] [-b baseline.csv] [name]
+ * (see Harness for all the options). Save the results of a release with -o and compare later 
+ * builds against them with -b: the exit status is 1 if anything regressed.
+ * 
+ * @author rossjones
+ *
+ */
+public class HotPathBenchmark {
+    
+    private final static String NAMESPACE_JSON = "{\"id\": \"5e7a2bd1-59b2-4d7b-8d0b-4f3e5c4d2a11\", "
+            + "\"description\": \"Books I've read\", "
+            + "\"namespaceNames\": [\"fiction\", \"history\", \"science\", \"travel\"], "
+            + "\"tagNames\": [\"title\", \"author\", \"rating\", \"isbn\", \"published\", \"publisher\", \"pages\", \"read\"]}";
+    
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness(args);
+        
+        final String[] path = {"/objects", "5e7a2bd1-59b2-4d7b-8d0b-4f3e5c4d2a11", "test/books/title"};
+        final String[] words = {"has", "test/books/rating", "and", "test/books/author", "matches", "\"Lawrence\"", "except", "has test/books/read"};
+        final String userpass = "benchmark:secret-password";
+        final JSONArray names = StringUtil.getJsonObjectFromString(NAMESPACE_JSON).getJSONArray("tagNames");
+        final String[] keywords = {"adventure", "desert", "war", "memoir", "arabia", "history"};
+        
+        // tag values go to a transport that answers straight away
+        final FluidResponse noContent = new FluidResponse(204, "No Content", "text/plain", new byte[0], null, null);
+        FluidConnector canned = new FluidConnector();
+        canned.setUsername("benchmark");
+        canned.setPassword("secret-password");
+        canned.setTransport(new Transport() {
+            public FluidResponse send(FluidRequest request) {
+                Harness.consume(request.getURI());
+                return noContent;
+            }
+            public void close() {
+            }
+        });
+        final Object book = new Object(canned, path[1], path[1]);
+        final Tag tag = new Tag(canned, "", "test/books/keywords");
+        
+        // a stub server for the round trips (with Nagle's algorithm off, otherwise every
+        // response waits on a delayed ACK)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        final byte[] body = NAMESPACE_JSON.getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:"+server.getAddress().getPort();
+        final FluidConnector direct = new FluidConnector();
+        direct.setUrl(url);
+        final FluidConnector pooled = new FluidConnector();
+        pooled.setUrl(url);
+        pooled.setTransport(new PooledTransport(new ConnectionPool()));
+        
+        List<Harness.Benchmark> benchmarks = new ArrayList<Harness.Benchmark>();
+        benchmarks.add(new Harness.Benchmark("StringUtil.URIJoin") {
+            public void run() {
+                Harness.consume(StringUtil.URIJoin(path));
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("StringUtil.join") {
+            public void run() {
+                Harness.consume(StringUtil.join(words, " "));
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("Base64.encodeBytes (Authorization)") {
+            public void run() {
+                Harness.consume("Basic "+Base64.encodeBytes(userpass.getBytes(StandardCharsets.UTF_8)));
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("StringUtil.getJsonObjectFromString") {
+            public void run() throws Exception {
+                Harness.consume(StringUtil.getJsonObjectFromString(NAMESPACE_JSON));
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("StringUtil.getStringArrayFromJSONArray") {
+            public void run() throws Exception {
+                Harness.consume(StringUtil.getStringArrayFromJSONArray(names));
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("Object.tag(Tag, String[])") {
+            public void run() throws Exception {
+                book.tag(tag, keywords);
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("FluidConnector.Call round trip") {
+            public void run() throws Exception {
+                Harness.consume(direct.Call(Method.GET, "/namespaces/test/books").getResponseContent());
+            }
+        });
+        benchmarks.add(new Harness.Benchmark("FluidConnector.Call round trip (pooled)") {
+            public void run() throws Exception {
+                Harness.consume(pooled.Call(Method.GET, "/namespaces/test/books").getResponseContent());
+            }
+        });
+        
+        boolean passed;
+        try {
+            passed = harness.run(benchmarks);
+        } finally {
+            pooled.getTransport().close();
+            server.stop(0);
+        }
+        if(!passed) {
+            System.exit(1);
+        }
+    }
+}
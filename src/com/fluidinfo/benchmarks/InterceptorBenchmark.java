@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.Interceptor;
+import com.fluidinfo.transport.Transport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Measures what each pass-through interceptor adds to a call through FluidConnector.Call
+ * (bytes allocated and time taken), for chains of 0, 1, 2, 4 and 8 interceptors
+ * 
+ * Nothing goes over the network: the transport renders the full URI and returns a canned
+ * response.
+ * 
+ * Run with: java com.fluidinfo.benchmarks.InterceptorBenchmark [iterations]
+ * 
+ * @author rossjones
+ *
+ */
+public class InterceptorBenchmark {
+    
+    private final static FluidResponse RESPONSE = new FluidResponse(200, "OK", "application/json", new byte[0], null, null);
+    
+    private final static int[] CHAIN_LENGTHS = {0, 1, 2, 4, 8};
+    
+    /**
+     * Somewhere to put results so the JIT can't throw the work away
+     */
+    private static int sink = 0;
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM can't measure per-thread allocation");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        
+        Interceptor passThrough = new Interceptor() {
+            public FluidResponse intercept(Chain chain) throws FluidException, IOException {
+                return chain.proceed(chain.request());
+            }
+        };
+        
+        System.out.println(String.format("%-14s %12s %12s %16s %16s", "interceptors", "bytes/call", "ns/call", "bytes/interceptor", "ns/interceptor"));
+        double baseBytes = 0;
+        double baseNanos = 0;
+        for(int length : CHAIN_LENGTHS) {
+            FluidConnector fdb = new FluidConnector();
+            fdb.setUsername("benchmark");
+            fdb.setPassword("secret-password");
+            fdb.setTransport(new Transport() {
+                public FluidResponse send(FluidRequest request) {
+                    sink += request.getURI().length();
+                    return RESPONSE;
+                }
+                public void close() {
+                }
+            });
+            for(int i=0; i<length; i++) {
+                fdb.addInterceptor(passThrough);
+            }
+            // warm up so that we measure JIT compiled code
+            measure(fdb, threads, iterations);
+            double[] result = measure(fdb, threads, iterations);
+            if(length == 0) {
+                baseBytes = result[0];
+                baseNanos = result[1];
+                System.out.println(String.format("%-14d %12.1f %12.1f %16s %16s", length, result[0], result[1], "-", "-"));
+            } else {
+                System.out.println(String.format("%-14d %12.1f %12.1f %16.1f %16.1f", length, result[0], result[1],
+                        (result[0] - baseBytes) / length, (result[1] - baseNanos) / length));
+            }
+        }
+        if(sink == 42) {
+            System.out.println();
+        }
+    }
+    
+    /**
+     * @return the bytes allocated and nanoseconds taken per call
+     */
+    private static double[] measure(FluidConnector fdb, com.sun.management.ThreadMXBean threads, int iterations) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for(int i=0; i<iterations; i++) {
+            sink += fdb.Call(Method.GET, "/objects/5e7a2bd1-59b2-4d7b-8d0b-4f3e5c4d2a11").getResponseCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        return new double[] {(double)bytes / iterations, (double)elapsed / iterations};
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.metrics.LatencyHistogram;
+
+/**
+ * Replays a mix of FluidDB work - creating objects, tagging them, searching and fetching tag
+ * values - at a fixed rate for as long as asked, then reports the latency distribution of 
+ * each kind of operation
+ * 
+ * Operations are started on an open-loop schedule: the Nth one is due N/rate seconds after
+ * the start whether or not earlier ones have finished, and its response time is measured 
+ * from when it was due rather than from when a worker got round to it. A slow server 
+ * therefore shows up as queueing in the results instead of quietly lowering the rate 
+ * (coordinated omission). Service times (from when a worker started the operation) are
+ * reported as well.
+ * 
+ * Without -url an emulator is started in-process (and -latency, -jitter and -errors set 
+ * what it injects).
+ * 
+ * Run with: java com.fluidinfo.benchmarks.LoadGenerator [options]
+ *   -url URL          the FluidDB to load (default: an in-process emulator)
+ *   -user name        the user to run as (default: loadtest)
+ *   -password pw      their password
+ *   -rate n           operations started per second (default 100)
+ *   -duration s       seconds to measure for (default 60)
+ *   -warmup s         seconds to run before measuring (default 10)
+ *   -threads n        worker threads (default 64)
+ *   -mix spec         relative weights, e.g. create=1,tag=3,search=1,fetch=5 (the default)
+ *   -seed n           objects to create and tag before starting (default 100)
+ *   -report s         seconds between progress lines (default 10)
+ *   -latency ms, -jitter ms, -errors rate   faults for the emulator to inject
+ * 
+ * @author rossjones
+ *
+ */
+public class LoadGenerator {
+    
+    /**
+     * The kinds of work in a mix
+     */
+    enum Operation {
+        CREATE, TAG, SEARCH, FETCH
+    }
+    
+    /**
+     * What's been measured for one kind of operation
+     */
+    private static class Stats {
+        final LatencyHistogram responseTime = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+    
+    /**
+     * The most objects remembered for tagging and fetching
+     */
+    private final static int POOL_SIZE = 10000;
+    
+    private final static double[] PERCENTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999, 0.99999};
+    
+    private String url = null;
+    private String username = "loadtest";
+    private String password = "loadtest";
+    private double rate = 100;
+    private long duration = 60;
+    private long warmup = 10;
+    private int threads = 64;
+    private String mix = "create=1,tag=3,search=1,fetch=5";
+    private int seed = 100;
+    private long reportInterval = 10;
+    private long latency = 0;
+    private long jitter = 0;
+    private double errorRate = 0;
+    
+    private final int[] weights = new int[Operation.values().length];
+    private int totalWeight = 0;
+    
+    private final Stats[] stats = new Stats[Operation.values().length];
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final AtomicLong intervalErrors = new AtomicLong();
+    private volatile String lastError = null;
+    
+    private FluidDB fdb;
+    private Tag rating;
+    private String ratingPath;
+    
+    /**
+     * Objects created (for tagging) and objects tagged (for fetching), as rings
+     */
+    private final AtomicReferenceArray<Object> created = new AtomicReferenceArray<Object>(POOL_SIZE);
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicReferenceArray<Object> tagged = new AtomicReferenceArray<Object>(POOL_SIZE);
+    private final AtomicLong taggedCount = new AtomicLong();
+    
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(args);
+        generator.run();
+    }
+    
+    LoadGenerator(String[] args) {
+        for(int i = 0; i < args.length; i++) {
+            String option = args[i];
+            String value = args[++i];
+            if(option.equals("-url")) {
+                this.url = value;
+            } else if(option.equals("-user")) {
+                this.username = value;
+            } else if(option.equals("-password")) {
+                this.password = value;
+            } else if(option.equals("-rate")) {
+                this.rate = Double.parseDouble(value);
+            } else if(option.equals("-duration")) {
+                this.duration = Long.parseLong(value);
+            } else if(option.equals("-warmup")) {
+                this.warmup = Long.parseLong(value);
+            } else if(option.equals("-threads")) {
+                this.threads = Integer.parseInt(value);
+            } else if(option.equals("-mix")) {
+                this.mix = value;
+            } else if(option.equals("-seed")) {
+                this.seed = Integer.parseInt(value);
+            } else if(option.equals("-report")) {
+                this.reportInterval = Long.parseLong(value);
+            } else if(option.equals("-latency")) {
+                this.latency = Long.parseLong(value);
+            } else if(option.equals("-jitter")) {
+                this.jitter = Long.parseLong(value);
+            } else if(option.equals("-errors")) {
+                this.errorRate = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option "+option);
+            }
+        }
+        for(String part : this.mix.split(",")) {
+            String[] weight = part.split("=");
+            Operation op = Operation.valueOf(weight[0].trim().toUpperCase(Locale.ROOT));
+            this.weights[op.ordinal()] = Integer.parseInt(weight[1].trim());
+            this.totalWeight += this.weights[op.ordinal()];
+        }
+        if(this.totalWeight <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation");
+        }
+        for(int i = 0; i < this.stats.length; i++) {
+            this.stats[i] = new Stats();
+        }
+    }
+    
+    void run() throws Exception {
+        FluidDBEmulator emulator = null;
+        if(this.url == null) {
+            emulator = new FluidDBEmulator();
+            emulator.addUser(this.username, this.password);
+            this.url = emulator.start();
+        }
+        this.fdb = new FluidDB(this.url);
+        this.fdb.Login(this.username, this.password);
+        String name = "loadtest-"+UUID.randomUUID().toString().substring(0, 8);
+        Namespace namespace = this.fdb.getNamespace(this.username).createNamespace(name, "Created by LoadGenerator");
+        this.rating = namespace.createTag("rating", "A random rating", true);
+        this.ratingPath = this.username+"/"+name+"/rating";
+        System.out.println("Loading "+this.url+" at "+this.rate+" ops/s with "+this.mix+" (tags in "+this.username+"/"+name+")");
+        for(int i = 0; i < this.seed; i++) {
+            this.perform(Operation.CREATE);
+            this.perform(Operation.TAG);
+        }
+        if(emulator != null) {
+            emulator.setLatency(this.latency);
+            emulator.setJitter(this.jitter);
+            emulator.setErrorRate(this.errorRate);
+        }
+        
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor workers = (ThreadPoolExecutor)Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "JFluidDB-load-"+threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(this.warmup);
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(this.duration);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(this.reportInterval);
+        long lastReport = start;
+        System.out.println(String.format("%8s %10s %8s %8s %10s %10s %10s", "time(s)", "ops/s", "errors", "backlog", "p50(ms)", "p99(ms)", "max(ms)"));
+        for(long i = 0; ; i++) {
+            final long due = start + (long)(i * 1e9 / this.rate);
+            if(due >= end) {
+                break;
+            }
+            long now = System.nanoTime();
+            while(now >= nextReport) {
+                this.report(now - start, now - lastReport, workers.getQueue().size());
+                lastReport = now;
+                nextReport += TimeUnit.SECONDS.toNanos(this.reportInterval);
+            }
+            if(due > now) {
+                LockSupport.parkNanos(due - now);
+            }
+            final Operation op = this.next();
+            final boolean measured = due >= measureFrom;
+            workers.execute(new Runnable() {
+                public void run() {
+                    LoadGenerator.this.execute(op, due, measured);
+                }
+            });
+        }
+        workers.shutdown();
+        if(!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.out.println("Gave up waiting for "+workers.getQueue().size()+" queued operations");
+            workers.shutdownNow();
+        }
+        long now = System.nanoTime();
+        this.report(now - start, now - lastReport, 0);
+        this.summarize(TimeUnit.SECONDS.toNanos(this.duration));
+        
+        try {
+            this.rating.delete();
+            namespace.delete();
+        } catch (Exception e) {
+            System.out.println("Couldn't tidy up "+this.username+"/"+name+": "+e);
+        }
+        if(emulator != null) {
+            emulator.stop();
+        }
+    }
+    
+    /**
+     * @return an operation picked at random according to the mix
+     */
+    private Operation next() {
+        int pick = ThreadLocalRandom.current().nextInt(this.totalWeight);
+        for(Operation op : Operation.values()) {
+            pick -= this.weights[op.ordinal()];
+            if(pick < 0) {
+                return op;
+            }
+        }
+        return Operation.FETCH;
+    }
+    
+    private void execute(Operation op, long due, boolean measured) {
+        long started = System.nanoTime();
+        boolean failed = false;
+        try {
+            this.perform(op);
+        } catch (Exception e) {
+            failed = true;
+            this.lastError = op+": "+e;
+        }
+        if(!measured) {
+            return;
+        }
+        long now = System.nanoTime();
+        Stats stats = this.stats[op.ordinal()];
+        stats.responseTime.record(now - due);
+        stats.serviceTime.record(now - started);
+        this.overall.record(now - due);
+        this.interval.record(now - due);
+        if(failed) {
+            stats.errors.incrementAndGet();
+            this.intervalErrors.incrementAndGet();
+        }
+    }
+    
+    private void perform(Operation op) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch(op) {
+            case CREATE:
+                Object object = this.fdb.createObject("LoadGenerator "+UUID.randomUUID());
+                this.created.set((int)(this.createdCount.getAndIncrement() % POOL_SIZE), object);
+                break;
+            case TAG:
+                Object target = pick(this.created, this.createdCount);
+                target.tag(this.rating, random.nextInt(10));
+                this.tagged.set((int)(this.taggedCount.getAndIncrement() % POOL_SIZE), target);
+                break;
+            case SEARCH:
+                this.fdb.searchObjects(this.ratingPath+" > "+random.nextInt(10));
+                break;
+            case FETCH:
+                pick(this.tagged, this.taggedCount).getTagValue(this.rating);
+                break;
+        }
+    }
+    
+    private static Object pick(AtomicReferenceArray<Object> pool, AtomicLong count) {
+        long size = Math.min(count.get(), POOL_SIZE);
+        Object object = null;
+        while(object == null) {
+            // a slot may be claimed but not filled in yet
+            object = pool.get((int)ThreadLocalRandom.current().nextLong(size));
+        }
+        return object;
+    }
+    
+    /**
+     * Prints a progress line for the operations finished since the last one
+     */
+    private void report(long elapsed, long sinceLast, int backlog) {
+        LatencyHistogram.Snapshot snapshot = this.interval.snapshot();
+        this.interval.reset();
+        long errors = this.intervalErrors.getAndSet(0);
+        System.out.println(String.format(Locale.ROOT, "%8.1f %10.1f %8d %8d %10.2f %10.2f %10.2f", elapsed / 1e9, 
+                snapshot.getCount() * 1e9 / Math.max(1, sinceLast), errors, backlog, millis(snapshot.getPercentile(0.5)),
+                millis(snapshot.getPercentile(0.99)), millis(snapshot.getMax())));
+    }
+    
+    /**
+     * Prints the latency distribution for each operation and for them all together
+     */
+    private void summarize(long measuredNanos) {
+        System.out.println();
+        System.out.println("Response times in ms (from when each operation was due), service times in brackets");
+        System.out.println(String.format("%-8s %8s %7s %8s %17s %17s %17s %17s %17s", "op", "count", "errors", "ops/s", "p50", "p90", "p99", "p99.9", "max"));
+        for(Operation op : Operation.values()) {
+            Stats stats = this.stats[op.ordinal()];
+            LatencyHistogram.Snapshot response = stats.responseTime.snapshot();
+            LatencyHistogram.Snapshot service = stats.serviceTime.snapshot();
+            if(response.getCount() == 0) {
+                continue;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-8s %8d %7d %8.1f %17s %17s %17s %17s %17s", op.toString().toLowerCase(Locale.ROOT),
+                    response.getCount(), stats.errors.get(), response.getCount() * 1e9 / measuredNanos,
+                    pair(response.getPercentile(0.5), service.getPercentile(0.5)), pair(response.getPercentile(0.9), service.getPercentile(0.9)),
+                    pair(response.getPercentile(0.99), service.getPercentile(0.99)), pair(response.getPercentile(0.999), service.getPercentile(0.999)),
+                    pair(response.getMax(), service.getMax())));
+        }
+        // the distribution of every response time, laid out the way HdrHistogram prints it
+        LatencyHistogram.Snapshot overall = this.overall.snapshot();
+        System.out.println();
+        System.out.println(String.format("%12s %14s %10s %18s", "Value(ms)", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        for(double percentile : PERCENTILES) {
+            System.out.println(String.format(Locale.ROOT, "%12.3f %14.6f %10d %18.2f", millis(overall.getPercentile(percentile)), percentile,
+                    (long)Math.ceil(percentile * overall.getCount()), 1 / (1 - percentile)));
+        }
+        System.out.println(String.format(Locale.ROOT, "#[Mean = %.3f, Max = %.3f, Total count = %d]", overall.getMean() / 1000.0,
+                millis(overall.getMax()), overall.getCount()));
+        if(this.lastError != null) {
+            System.out.println("Last error: "+this.lastError);
+        }
+    }
+    
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+    
+    private static String pair(long response, long service) {
+        return String.format(Locale.ROOT, "%.2f (%.2f)", millis(response), millis(service));
+    }
+}
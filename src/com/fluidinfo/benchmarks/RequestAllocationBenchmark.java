@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.Transport;
+import com.fluidinfo.utils.Base64;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * Measures the bytes allocated (and time taken) per call to build a request, comparing the 
+ * original request building code with the current code path through FluidConnector.Call
+ * 
+ * Nothing goes over the network: the transport renders the full URI and headers (the work
+ * every real transport has to do) and returns a canned response.
+ * 
+ * Run with: java com.fluidinfo.benchmarks.RequestAllocationBenchmark [iterations]
+ * 
+ * @author rossjones
+ *
+ */
+public class RequestAllocationBenchmark {
+    
+    private final static String URL = FluidConnector.URL;
+    
+    private final static String USERNAME = "benchmark";
+    
+    private final static String PASSWORD = "secret-password";
+    
+    private final static FluidResponse RESPONSE = new FluidResponse(200, "OK", "application/json", new byte[0], null, null);
+    
+    /**
+     * Somewhere to put results so the JIT can't throw the work away
+     */
+    private static int sink = 0;
+    
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if(!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM can't measure per-thread allocation");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        
+        final Hashtable<String, String> searchArgs = new Hashtable<String, String>();
+        searchArgs.put("query", "has fluiddb/about and benchmark/rating > 5");
+        final String[] tagPath = {"/objects/5e7a2bd1-59b2-4d7b-8d0b-4f3e5c4d2a11", "benchmark/books/title"};
+        
+        final FluidConnector fdb = new FluidConnector();
+        fdb.setUrl(URL);
+        fdb.setUsername(USERNAME);
+        fdb.setPassword(PASSWORD);
+        fdb.setTransport(new Transport() {
+            public FluidResponse send(FluidRequest request) {
+                sink += request.getURI().length();
+                sink += request.getHeaders().size();
+                return RESPONSE;
+            }
+            public void close() {
+            }
+        });
+        
+        Benchmark[] benchmarks = {
+            new Benchmark("URIJoin (regex, before)") {
+                void run() {
+                    sink += legacyURIJoin(tagPath).length();
+                }
+            },
+            new Benchmark("URIJoin (after)") {
+                void run() {
+                    sink += StringUtil.URIJoin(tagPath).length();
+                }
+            },
+            new Benchmark("search request (before)") {
+                void run() throws Exception {
+                    sink += legacyBuildRequest("/objects", searchArgs, "");
+                }
+            },
+            new Benchmark("search request (after)") {
+                void run() throws Exception {
+                    sink += fdb.Call(Method.GET, "/objects", "", searchArgs).getResponseCode();
+                }
+            },
+            new Benchmark("tag value PUT (before)") {
+                void run() throws Exception {
+                    sink += legacyBuildRequest(legacyURIJoin(tagPath), new Hashtable<String, String>(), "\"Seven Pillars of Wisdom\"");
+                }
+            },
+            new Benchmark("tag value PUT (after)") {
+                void run() throws Exception {
+                    sink += fdb.Call(Method.PUT, StringUtil.URIJoin(tagPath), "\"Seven Pillars of Wisdom\"", new Hashtable<String, String>(), "application/vnd.fluiddb.value+json").getResponseCode();
+                }
+            }
+        };
+        
+        System.out.println(String.format("%-28s %12s %12s", "benchmark", "bytes/call", "ns/call"));
+        for(Benchmark benchmark : benchmarks) {
+            // warm up so that we measure JIT compiled code
+            benchmark.measure(threads, iterations);
+            benchmark.measure(threads, iterations);
+            System.out.println(String.format("%-28s %12.1f %12.1f", benchmark.name, benchmark.bytesPerCall, benchmark.nanosPerCall));
+        }
+        if(sink == 42) {
+            System.out.println();
+        }
+    }
+    
+    /**
+     * A single thing to measure
+     */
+    private static abstract class Benchmark {
+        final String name;
+        double bytesPerCall;
+        double nanosPerCall;
+        
+        Benchmark(String name) {
+            this.name = name;
+        }
+        
+        abstract void run() throws Exception;
+        
+        void measure(com.sun.management.ThreadMXBean threads, int iterations) throws Exception {
+            long thread = Thread.currentThread().getId();
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for(int i=0; i<iterations; i++) {
+                this.run();
+            }
+            long elapsed = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            this.bytesPerCall = (double)bytes / iterations;
+            this.nanosPerCall = (double)elapsed / iterations;
+        }
+    }
+    
+    /**
+     * URIJoin as it was originally written
+     */
+    private static String legacyURIJoin(String[] s) {
+        return StringUtil.join(s, "/").replaceAll("/[/]*", "/");
+    }
+    
+    /**
+     * The original request building code from FluidConnector.Call (everything up to the
+     * point the HttpURLConnection was opened), kept as it was (boxed Integer and all) so the
+     * baseline allocates what the original did
+     */
+    @SuppressWarnings("removal")
+    private static int legacyBuildRequest(String path, Hashtable<String, String> args, String body) throws Exception {
+        StringBuffer uri = new StringBuffer();
+        uri.append( URL );
+        uri.append( path);
+        if (args.size() > 0){
+            uri.append("?");
+            Vector<String> argList = new Vector<String>();
+            Enumeration<String> e = args.keys();
+            while( e.hasMoreElements()){
+                String k = e.nextElement();
+                argList.add( k + "=" + URLEncoder.encode(args.get(k), "UTF-8") );
+            }
+            uri.append( StringUtil.join(argList, "&") );
+        }
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put("Accept", "*/*");
+        headers.put("user-agent", "JFluidDB");
+        String userpass = USERNAME+":"+PASSWORD;
+        headers.put("Authorization", "Basic "+Base64.encodeBytes(userpass.getBytes()));
+        if ( body == "" || body == null){
+            headers.put("content-type", "text/plain; charset=utf-8");
+        } else {
+            byte[] data = body.getBytes("UTF-8");
+            headers.put("content-type", "application/json; charset=utf-8");
+            headers.put("content-length", new Integer(data.length).toString() );
+        }
+        return uri.toString().length() + headers.size();
+    }
+}
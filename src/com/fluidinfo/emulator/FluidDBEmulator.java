@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.transport.Compression;
+import com.fluidinfo.transport.ResponseBody;
+import com.fluidinfo.transport.Transport;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StreamUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for FluidDB that keeps everything in memory, so that the library can
+ * be load tested (and its tests run) without the sandbox
+ * 
+ * It answers the /objects (including queries and tag values), /about, /namespaces, /tags and 
+ * /users calls the library makes, either over HTTP on localhost (see start) or directly 
+ * through getTransport. Latency, jitter and errors can be injected to see how the client 
+ * copes with a slow or failing server.
+ * 
+ * Users can only change things in their own namespace. Anyone can read anything.
+ * 
+ * Run with: java com.fluidinfo.emulator.FluidDBEmulator [port] [username:password ...]
+ * 
+ * @author rossjones
+ *
+ */
+public class FluidDBEmulator {
+    
+    /**
+     * The user that owns the fluiddb namespace (and can change anything)
+     */
+    public final static String ADMIN = "fluiddb";
+    
+    private final Store store = new Store();
+    
+    private HttpServer server = null;
+    
+    private ExecutorService threads = null;
+    
+    private volatile long latency = 0;
+    
+    private volatile long jitter = 0;
+    
+    private volatile double errorRate = 0;
+    
+    private volatile int errorStatus = 503;
+    
+    private final AtomicLong requestCount = new AtomicLong();
+    
+    private final AtomicLong errorCount = new AtomicLong();
+    
+    public static void main(String[] args) throws IOException {
+        FluidDBEmulator emulator = new FluidDBEmulator();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        for(int i = 1; i < args.length; i++) {
+            int colon = args[i].indexOf(':');
+            emulator.addUser(args[i].substring(0, colon), args[i].substring(colon + 1));
+        }
+        System.out.println("FluidDB emulator listening on "+emulator.start(port));
+        // the server's threads are daemons, so wait here until killed
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            emulator.stop();
+        }
+    }
+    
+    /**
+     * Adds a user (and a namespace of the same name for them to use)
+     * @param username the user's name
+     * @param password the user's password
+     */
+    public void addUser(String username, String password) {
+        this.store.addUser(username, password);
+    }
+    
+    /**
+     * Starts answering HTTP requests on an ephemeral port on localhost
+     * @return the URL to give FluidConnector.setUrl
+     * @throws IOException if the server can't be started
+     */
+    public String start() throws IOException {
+        return this.start(0);
+    }
+    
+    /**
+     * Starts answering HTTP requests on localhost
+     * @param port the port to listen on (0 for any free port)
+     * @return the URL to give FluidConnector.setUrl
+     * @throws IOException if the server can't be started
+     */
+    public synchronized String start(int port) throws IOException {
+        if(this.server != null) {
+            return this.getUrl();
+        }
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            // otherwise each response can sit waiting for a delayed ACK
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+        this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "JFluidDB-emulator-"+count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.server.setExecutor(this.threads);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                FluidDBEmulator.this.handle(exchange);
+            }
+        });
+        // the dispatcher thread takes after the thread that starts it, so start it from a
+        // daemon thread: an emulator that's never stopped mustn't keep the JVM running
+        final HttpServer server = this.server;
+        Thread starter = new Thread(new Runnable() {
+            public void run() {
+                server.start();
+            }
+        }, "JFluidDB-emulator-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return this.getUrl();
+    }
+    
+    /**
+     * @return the URL the emulator is listening on, or null if it hasn't been started
+     */
+    public synchronized String getUrl() {
+        return this.server == null ? null : "http://127.0.0.1:"+this.server.getAddress().getPort();
+    }
+    
+    /**
+     * Stops answering HTTP requests (the data is kept, so it can be started again)
+     */
+    public synchronized void stop() {
+        if(this.server != null) {
+            this.server.stop(0);
+            this.threads.shutdownNow();
+            this.server = null;
+            this.threads = null;
+        }
+    }
+    
+    /**
+     * A transport that calls straight into the emulator without going through HTTP (latency
+     * longer than the request's read timeout ends in a FluidTimeoutException, as it would 
+     * over the network)
+     * @return the transport
+     */
+    public Transport getTransport() {
+        return new Transport() {
+            public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+                long delay = FluidDBEmulator.this.nextDelay();
+                int timeout = request.getReadTimeout();
+                if(timeout > 0 && delay > timeout) {
+                    sleep(timeout);
+                    throw new FluidTimeoutException("Timed out calling FluidDB: Read timed out");
+                }
+                sleep(delay);
+                if(request.getRequestBody() != null) {
+                    // read a streamed body as the server would
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    request.getRequestBody().writeTo(body);
+                    FluidRequest buffered = new FluidRequest(request);
+                    buffered.setRequestBody(null);
+                    buffered.setBody(body.toByteArray());
+                    request = buffered;
+                }
+                String contentEncoding = request.getHeader("Content-Encoding");
+                if(Compression.isEncoded(contentEncoding) && request.getBody() != null) {
+                    FluidRequest decoded = new FluidRequest(request);
+                    decoded.setBody(StreamUtil.readToEnd(Compression.decode(new ByteArrayInputStream(request.getBody()), contentEncoding)));
+                    request = decoded;
+                }
+                FluidResponse response = FluidDBEmulator.this.answer(request);
+                ResponseBody target = request.getResponseBody();
+                if(target != null && ResponseBody.isStreamed(response.getResponseCode())) {
+                    byte[] content = response.getResponseBytes();
+                    FluidResponse streamed = new FluidResponse(response.getResponseCode(), response.getResponseMessage(), 
+                            response.getResponseContentType(), new byte[0], response.getResponseError(), response.getErrorRequestID(), content.length);
+                    streamed.setResponseHeaders(response.getResponseHeaders());
+                    streamed.setResponseStreamedLength(target.readFrom(new ByteArrayInputStream(content), content.length));
+                    response = streamed;
+                }
+                return response;
+            }
+            public void close() {
+            }
+        };
+    }
+    
+    /**
+     * @param latency the time in milliseconds to wait before answering each request
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+    
+    /**
+     * @return the time in milliseconds waited before answering each request
+     */
+    public long getLatency() {
+        return this.latency;
+    }
+    
+    /**
+     * @param jitter the most time in milliseconds to wait on top of the latency (each request
+     * waits a random amount up to this)
+     */
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+    
+    /**
+     * @return the most extra time in milliseconds waited before answering a request
+     */
+    public long getJitter() {
+        return this.jitter;
+    }
+    
+    /**
+     * @param errorRate the fraction of requests (0 to 1) to fail with the error status 
+     * instead of answering
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+    
+    /**
+     * @return the fraction of requests failed on purpose
+     */
+    public double getErrorRate() {
+        return this.errorRate;
+    }
+    
+    /**
+     * @param errorStatus the status code injected errors are answered with (503 by default)
+     */
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+    
+    /**
+     * @return the status code injected errors are answered with
+     */
+    public int getErrorStatus() {
+        return this.errorStatus;
+    }
+    
+    /**
+     * @return the number of requests answered (including injected errors)
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+    
+    /**
+     * @return the number of injected errors
+     */
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+    
+    /**
+     * @return the number of objects held (including those behind users, namespaces and tags)
+     */
+    public int getObjectCount() {
+        return this.store.getObjectCount();
+    }
+    
+    /**
+     * @return the time to wait before answering the next request
+     */
+    private long nextDelay() {
+        long jitter = this.jitter;
+        return this.latency + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+    }
+    
+    private static void sleep(long millis) throws FluidException {
+        if(millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FluidException("Interrupted while waiting to answer", e);
+            }
+        }
+    }
+    
+    /**
+     * Answers a request (after any delay), injecting errors at the configured rate
+     */
+    private FluidResponse answer(FluidRequest request) {
+        String requestId = Long.toString(this.requestCount.incrementAndGet());
+        Store.Result result;
+        double errorRate = this.errorRate;
+        if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            this.errorCount.incrementAndGet();
+            result = new Store.Result(this.errorStatus, "Injected Error", "text/plain", new byte[0], "TInjectedError");
+        } else {
+            result = this.store.handle(request);
+        }
+        FluidResponse response = new FluidResponse(result.code, result.message, result.contentType, result.body, result.error, requestId);
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("X-FluidDB-Request-Id", requestId);
+        if(result.contentType != null) {
+            headers.put("Content-Type", result.contentType);
+        }
+        if(result.error != null) {
+            headers.put("X-FluidDB-Error-Class", result.error);
+        }
+        if(result.contentRange != null) {
+            headers.put("Content-Range", result.contentRange);
+        }
+        response.setResponseHeaders(headers);
+        return response;
+    }
+    
+    /**
+     * Answers a request that came in over HTTP
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Method m;
+            try {
+                m = Method.valueOf(exchange.getRequestMethod().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            InputStream in = Compression.decode(exchange.getRequestBody(), contentEncoding);
+            byte[] body = StreamUtil.readToEnd(in);
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            FluidRequest request = new FluidRequest(m, "", exchange.getRequestURI().getPath(), parseQuery(exchange.getRequestURI().getRawQuery()), body, contentType);
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if(authorization != null) {
+                request.setHeader("Authorization", authorization);
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if(range != null) {
+                request.setHeader("Range", range);
+            }
+            try {
+                sleep(this.nextDelay());
+            } catch (FluidException e) {
+                return;
+            }
+            FluidResponse response = this.answer(request);
+            for(Map.Entry<String, String> header : response.getResponseHeaders().entrySet()) {
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+            }
+            byte[] content = response.getResponseBytes();
+            if(m == Method.HEAD || content == null || content.length == 0) {
+                exchange.sendResponseHeaders(response.getResponseCode(), -1);
+            } else {
+                exchange.sendResponseHeaders(response.getResponseCode(), content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content);
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static Hashtable<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        if(query == null || query.length() == 0) {
+            return args;
+        }
+        for(String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if(equals < 0) {
+                args.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                args.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return args;
+    }
+}
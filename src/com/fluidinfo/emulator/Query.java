@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.emulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A parsed FluidDB query, e.g. has sara/rating and (tim/rating > 5 or mike/rating > 7)
+ * 
+ * Supports has, =, !=, <, <=, >, >=, contains and matches combined with and, or, except and
+ * parentheses. Text matching is a simple case insensitive substring match rather than Lucene.
+ * 
+ * @author rossjones
+ *
+ */
+abstract class Query {
+    
+    /**
+     * What a tag path must look like: namespace/.../tag, with no leading or trailing slash
+     */
+    private final static Pattern TAG_PATH = Pattern.compile("[\\w:.\\-]+(/[\\w:.\\-]+)+");
+    
+    /**
+     * The paths of the tags a parsed query refers to (so the caller can check they exist)
+     */
+    Set<String> tags = Collections.emptySet();
+    
+    /**
+     * @param object an object
+     * @return true if the object matches the query
+     */
+    abstract boolean matches(Store.StoredObject object);
+    
+    /**
+     * Parses a query
+     * @param query the query
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query can't be parsed (including tag paths 
+     * that aren't well formed, e.g. /test/rating)
+     */
+    static Query parse(String query) {
+        Parser parser = new Parser(tokenize(query));
+        Query parsed = parser.or();
+        if(parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected "+parser.tokens.get(parser.position));
+        }
+        parsed.tags = parser.tags;
+        return parsed;
+    }
+    
+    /**
+     * Splits a query into words, operators, parentheses and quoted strings (which keep their
+     * opening quote so they can be told apart from words)
+     */
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int length = query.length();
+        while(i < length) {
+            char c = query.charAt(i);
+            if(Character.isWhitespace(c)) {
+                i++;
+            } else if(c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if(c == '"') {
+                StringBuilder sb = new StringBuilder("\"");
+                i++;
+                while(true) {
+                    if(i >= length) {
+                        throw new IllegalArgumentException("Unterminated string");
+                    }
+                    char d = query.charAt(i++);
+                    if(d == '"') {
+                        break;
+                    }
+                    if(d == '\\' && i < length) {
+                        d = query.charAt(i++);
+                    }
+                    sb.append(d);
+                }
+                tokens.add(sb.toString());
+            } else if(c == '<' || c == '>' || c == '=' || c == '!') {
+                if(i + 1 < length && query.charAt(i + 1) == '=') {
+                    tokens.add(query.substring(i, i + 2));
+                    i += 2;
+                } else if(c == '!') {
+                    throw new IllegalArgumentException("Expected != at "+i);
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            } else {
+                int start = i;
+                while(i < length && !Character.isWhitespace(query.charAt(i)) && "()\"<>=!".indexOf(query.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+    
+    private static class Parser {
+        final List<String> tokens;
+        final Set<String> tags = new TreeSet<String>();
+        int position = 0;
+        
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+        
+        String peek() {
+            return this.position < this.tokens.size() ? this.tokens.get(this.position) : null;
+        }
+        
+        String next() {
+            if(this.position >= this.tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of query");
+            }
+            return this.tokens.get(this.position++);
+        }
+        
+        Query or() {
+            Query left = this.and();
+            while("or".equalsIgnoreCase(this.peek())) {
+                this.next();
+                final Query a = left;
+                final Query b = this.and();
+                left = new Query() {
+                    boolean matches(Store.StoredObject object) {
+                        return a.matches(object) || b.matches(object);
+                    }
+                };
+            }
+            return left;
+        }
+        
+        Query and() {
+            Query left = this.primary();
+            while("and".equalsIgnoreCase(this.peek()) || "except".equalsIgnoreCase(this.peek())) {
+                final boolean except = "except".equalsIgnoreCase(this.next());
+                final Query a = left;
+                final Query b = this.primary();
+                left = new Query() {
+                    boolean matches(Store.StoredObject object) {
+                        return a.matches(object) && (except ? !b.matches(object) : b.matches(object));
+                    }
+                };
+            }
+            return left;
+        }
+        
+        Query primary() {
+            String token = this.next();
+            if(token.equals("(")) {
+                Query inner = this.or();
+                if(!")".equals(this.next())) {
+                    throw new IllegalArgumentException("Expected )");
+                }
+                return inner;
+            }
+            if(token.equalsIgnoreCase("has")) {
+                final String tag = this.tag(this.next());
+                return new Query() {
+                    boolean matches(Store.StoredObject object) {
+                        return object.tags.containsKey(tag);
+                    }
+                };
+            }
+            final String tag = this.tag(token);
+            final String operator = this.next().toLowerCase();
+            final java.lang.Object operand = literal(this.next());
+            if(!operator.equals("=") && !operator.equals("!=") && !operator.equals("<") && !operator.equals("<=") 
+                    && !operator.equals(">") && !operator.equals(">=") && !operator.equals("contains") && !operator.equals("matches")) {
+                throw new IllegalArgumentException("Unknown operator "+operator);
+            }
+            if((operator.equals("contains") || operator.equals("matches")) && !(operand instanceof String)) {
+                throw new IllegalArgumentException(operator+" needs a string");
+            }
+            return new Query() {
+                boolean matches(Store.StoredObject object) {
+                    Store.Value value = object.tags.get(tag);
+                    return value != null && value.primitive != null && compare(value.primitive, operator, operand);
+                }
+            };
+        }
+        
+        /**
+         * @return the token, if it is a well formed tag path
+         */
+        String tag(String token) {
+            if(!TAG_PATH.matcher(token).matches()) {
+                throw new IllegalArgumentException("Expected a tag, got "+token);
+            }
+            this.tags.add(token);
+            return token;
+        }
+    }
+    
+    /**
+     * @return the value of a literal in a query: a String, Double, Boolean or JSONObject.NULL
+     */
+    private static java.lang.Object literal(String token) {
+        if(token.startsWith("\"")) {
+            return token.substring(1);
+        } else if(token.equals("true") || token.equals("false")) {
+            return Boolean.valueOf(token);
+        } else if(token.equals("null")) {
+            return JSONObject.NULL;
+        }
+        try {
+            return Double.valueOf(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value "+token);
+        }
+    }
+    
+    private static boolean compare(java.lang.Object value, String operator, java.lang.Object operand) {
+        if(operator.equals("contains")) {
+            if(!(value instanceof JSONArray)) {
+                return false;
+            }
+            JSONArray set = (JSONArray)value;
+            try {
+                for(int i = 0; i < set.length(); i++) {
+                    if(set.getString(i).equalsIgnoreCase((String)operand)) {
+                        return true;
+                    }
+                }
+            } catch (JSONException e) {
+                return false;
+            }
+            return false;
+        }
+        if(operator.equals("matches")) {
+            return value instanceof String && ((String)value).toLowerCase().contains(((String)operand).toLowerCase());
+        }
+        if(value instanceof Number && operand instanceof Double) {
+            int c = Double.compare(((Number)value).doubleValue(), (Double)operand);
+            if(operator.equals("=")) {
+                return c == 0;
+            } else if(operator.equals("!=")) {
+                return c != 0;
+            } else if(operator.equals("<")) {
+                return c < 0;
+            } else if(operator.equals("<=")) {
+                return c <= 0;
+            } else if(operator.equals(">")) {
+                return c > 0;
+            }
+            return c >= 0;
+        }
+        if(operator.equals("=")) {
+            return value.equals(operand);
+        } else if(operator.equals("!=")) {
+            return !value.equals(operand);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,731 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.emulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.utils.Method;
+
+/**
+ * The users, namespaces, tags and objects held by the emulator, and the code that answers
+ * requests against them the way FluidDB does
+ * 
+ * Everything is kept in memory behind a read/write lock, so reads (the common case in a
+ * load test) don't hold each other up.
+ * 
+ * @author rossjones
+ *
+ */
+class Store {
+    
+    final static String VALUE_TYPE = "application/vnd.fluiddb.value+json";
+    
+    final static String JSON_TYPE = "application/json";
+    
+    final static String ABOUT_TAG = "fluiddb/about";
+    
+    /**
+     * A namespace or tag
+     */
+    static class Item {
+        final String id;
+        String description;
+        final boolean indexed;
+        
+        Item(String id, String description, boolean indexed) {
+            this.id = id;
+            this.description = description;
+            this.indexed = indexed;
+        }
+    }
+    
+    /**
+     * The value of a tag on an object
+     */
+    static class Value {
+        final byte[] bytes;
+        final String contentType;
+        
+        /**
+         * The decoded value (a Number, String, Boolean, JSONArray or JSONObject.NULL), or null
+         * for an opaque value
+         */
+        final java.lang.Object primitive;
+        
+        Value(byte[] bytes, String contentType, java.lang.Object primitive) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            this.primitive = primitive;
+        }
+    }
+    
+    /**
+     * An object and its tag values (keyed by tag path)
+     */
+    static class StoredObject {
+        final String id;
+        final Map<String, Value> tags = new TreeMap<String, Value>();
+        
+        StoredObject(String id) {
+            this.id = id;
+        }
+        
+        String getAbout() {
+            Value about = this.tags.get(ABOUT_TAG);
+            return about == null ? null : (String)about.primitive;
+        }
+    }
+    
+    /**
+     * The answer to a request, before the emulator adds its headers
+     */
+    static class Result {
+        final int code;
+        final String message;
+        final String contentType;
+        final byte[] body;
+        final String error;
+        
+        /**
+         * The Content-Range header for a partial (or unsatisfiable) response, otherwise null
+         */
+        String contentRange = null;
+        
+        Result(int code, String message, String contentType, byte[] body, String error) {
+            this.code = code;
+            this.message = message;
+            this.contentType = contentType;
+            this.body = body;
+            this.error = error;
+        }
+    }
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final Map<String, String> passwords = new HashMap<String, String>();
+    
+    private final Map<String, String> userIds = new HashMap<String, String>();
+    
+    private final TreeMap<String, Item> namespaces = new TreeMap<String, Item>();
+    
+    private final TreeMap<String, Item> tags = new TreeMap<String, Item>();
+    
+    private final Map<String, StoredObject> objects = new LinkedHashMap<String, StoredObject>();
+    
+    private final Map<String, String> abouts = new HashMap<String, String>();
+    
+    Store() {
+        this.addUser(FluidDBEmulator.ADMIN, UUID.randomUUID().toString());
+        String[] namespaces = {"fluiddb/users", "fluiddb/namespaces", "fluiddb/tags"};
+        for(String namespace : namespaces) {
+            this.createItem(this.namespaces, namespace, "", false);
+        }
+        String[] tags = {ABOUT_TAG, "fluiddb/users/username", "fluiddb/users/name", "fluiddb/namespaces/path", 
+                "fluiddb/namespaces/description", "fluiddb/tags/path", "fluiddb/tags/description"};
+        for(String tag : tags) {
+            this.createItem(this.tags, tag, "", true);
+        }
+    }
+    
+    /**
+     * Adds a user with a namespace of their own (replacing the password if they exist)
+     */
+    void addUser(String name, String password) {
+        this.lock.writeLock().lock();
+        try {
+            this.passwords.put(name, password);
+            if(!this.userIds.containsKey(name)) {
+                String id = this.createObject("Object for the user named "+name);
+                this.setSystemTag(id, "fluiddb/users/username", name);
+                this.setSystemTag(id, "fluiddb/users/name", name);
+                this.userIds.put(name, id);
+                this.createItem(this.namespaces, name, "Namespace for the user "+name, false);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return the number of objects held
+     */
+    int getObjectCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.objects.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Works out who's making a request from its Authorization header
+     * @return the user name, "" for an anonymous request or null if the credentials are wrong
+     */
+    private String authenticate(String authorization) {
+        if(authorization == null) {
+            return "";
+        }
+        if(!authorization.startsWith("Basic ")) {
+            return null;
+        }
+        String userpass;
+        try {
+            userpass = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+        int colon = userpass.indexOf(':');
+        if(colon < 0) {
+            return null;
+        }
+        String name = userpass.substring(0, colon);
+        String password;
+        this.lock.readLock().lock();
+        try {
+            password = this.passwords.get(name);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return password != null && password.equals(userpass.substring(colon + 1)) ? name : null;
+    }
+    
+    /**
+     * Answers a request
+     * @param request the request (with its body already decoded)
+     * @return the answer
+     */
+    Result handle(FluidRequest request) {
+        String user = this.authenticate(request.getHeader("Authorization"));
+        if(user == null) {
+            return error(401, "Unauthorized", "TPasswordIncorrect");
+        }
+        String path = request.getPath() == null ? "" : request.getPath();
+        int start = 0;
+        int end = path.length();
+        while(start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while(end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        path = path.substring(start, end);
+        int slash = path.indexOf('/');
+        String root = slash < 0 ? path : path.substring(0, slash);
+        String rest = slash < 0 ? "" : path.substring(slash + 1);
+        Method m = request.getMethod();
+        try {
+            if(root.equals("objects")) {
+                return this.objects(m, rest, request, user);
+            } else if(root.equals("about")) {
+                return this.about(m, rest, request, user);
+            } else if(root.equals("namespaces")) {
+                return this.namespaces(m, rest, request, user);
+            } else if(root.equals("tags")) {
+                return this.tags(m, rest, request, user);
+            } else if(root.equals("users")) {
+                return this.users(m, rest);
+            }
+            return error(404, "Not Found", "TNoSuchResource");
+        } catch (JSONException e) {
+            return error(400, "Bad Request", "TBadRequest");
+        }
+    }
+    
+    private Result objects(Method m, String rest, FluidRequest request, String user) throws JSONException {
+        if(rest.length() == 0) {
+            if(m == Method.GET) {
+                return this.search(request.getArgs().get("query"));
+            } else if(m == Method.POST) {
+                // anyone can create an object
+                String about = null;
+                if(request.getBody() != null && request.getBody().length > 0) {
+                    JSONObject payload = parse(request);
+                    about = payload.has("about") && payload.get("about") != JSONObject.NULL ? payload.getString("about") : null;
+                }
+                String id;
+                this.lock.writeLock().lock();
+                try {
+                    id = about == null ? null : this.abouts.get(about);
+                    if(id == null) {
+                        id = this.createObject(about);
+                    }
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+                return created(id, "/objects/"+id);
+            }
+            return error(405, "Method Not Allowed", "TBadRequest");
+        }
+        int slash = rest.indexOf('/');
+        String id = slash < 0 ? rest : rest.substring(0, slash);
+        String tag = slash < 0 ? "" : rest.substring(slash + 1);
+        if(tag.length() == 0) {
+            if(m != Method.GET && m != Method.HEAD) {
+                return error(405, "Method Not Allowed", "TBadRequest");
+            }
+            this.lock.readLock().lock();
+            try {
+                StoredObject object = this.objects.get(id);
+                if(object == null) {
+                    return error(404, "Not Found", "TNoSuchResource");
+                }
+                JSONObject result = new JSONObject();
+                result.put("tagPaths", new JSONArray(object.tags.keySet()));
+                if("True".equalsIgnoreCase(request.getArgs().get("showAbout"))) {
+                    String about = object.getAbout();
+                    result.put("about", about == null ? JSONObject.NULL : about);
+                }
+                return json(200, result);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        return this.tagValue(m, id, tag, request, user);
+    }
+    
+    private Result about(Method m, String rest, FluidRequest request, String user) throws JSONException {
+        int slash = rest.indexOf('/');
+        String about = slash < 0 ? rest : rest.substring(0, slash);
+        String tag = slash < 0 ? "" : rest.substring(slash + 1);
+        if(about.length() == 0) {
+            return error(404, "Not Found", "TNoSuchResource");
+        }
+        String id;
+        if(m == Method.POST && tag.length() == 0) {
+            this.lock.writeLock().lock();
+            try {
+                id = this.abouts.get(about);
+                if(id == null) {
+                    id = this.createObject(about);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            return created(id, "/about/"+about);
+        }
+        this.lock.readLock().lock();
+        try {
+            id = this.abouts.get(about);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if(id == null) {
+            return error(404, "Not Found", "TNoSuchResource");
+        }
+        return this.objects(m, tag.length() == 0 ? id : id+"/"+tag, request, user);
+    }
+    
+    private Result tagValue(Method m, String id, String tag, FluidRequest request, String user) throws JSONException {
+        if(m == Method.GET || m == Method.HEAD) {
+            this.lock.readLock().lock();
+            try {
+                StoredObject object = this.objects.get(id);
+                Value value = object == null ? null : object.tags.get(tag);
+                if(value == null) {
+                    return error(404, "Not Found", "TNoInstanceOnObject");
+                }
+                String range = request.getHeader("Range");
+                if(m == Method.GET && range != null) {
+                    return range(value, range);
+                }
+                return new Result(200, "OK", value.contentType, m == Method.HEAD ? new byte[0] : value.bytes, null);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        if(m != Method.PUT && m != Method.DELETE) {
+            return error(405, "Method Not Allowed", "TBadRequest");
+        }
+        if(!canWrite(user, tag)) {
+            return error(401, "Unauthorized", "TPathPermissionDenied");
+        }
+        Value value = null;
+        if(m == Method.PUT) {
+            String contentType = request.getContentType();
+            byte[] body = request.getBody() == null ? new byte[0] : request.getBody();
+            if(contentType != null && contentType.startsWith(VALUE_TYPE)) {
+                java.lang.Object primitive = new JSONTokener(new String(body, StandardCharsets.UTF_8)).nextValue();
+                if(primitive instanceof JSONObject) {
+                    return error(400, "Bad Request", "TBadRequest");
+                }
+                value = new Value(body, VALUE_TYPE, primitive);
+            } else {
+                value = new Value(body, contentType == null ? "application/octet-stream" : contentType, null);
+            }
+        }
+        this.lock.writeLock().lock();
+        try {
+            StoredObject object = this.objects.get(id);
+            if(object == null) {
+                return error(404, "Not Found", "TNoSuchResource");
+            }
+            if(!this.tags.containsKey(tag)) {
+                return error(404, "Not Found", "TNonexistentTag");
+            }
+            if(value == null) {
+                if(object.tags.remove(tag) == null) {
+                    return error(404, "Not Found", "TNoInstanceOnObject");
+                }
+            } else {
+                object.tags.put(tag, value);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        return new Result(204, "No Content", null, new byte[0], null);
+    }
+    
+    /**
+     * Answers a GET for a single byte range of a value (e.g. "bytes=0-99", "bytes=100-" or
+     * "bytes=-100"), sending the whole value for anything else
+     */
+    private static Result range(Value value, String range) {
+        long length = value.bytes.length;
+        long first;
+        long last;
+        try {
+            if(!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+                return new Result(200, "OK", value.contentType, value.bytes, null);
+            }
+            String spec = range.substring(6).trim();
+            int dash = spec.indexOf('-');
+            String start = spec.substring(0, dash).trim();
+            String end = spec.substring(dash + 1).trim();
+            if(start.length() == 0) {
+                // the last so many bytes
+                first = Math.max(0, length - Long.parseLong(end));
+                last = length - 1;
+            } else {
+                first = Long.parseLong(start);
+                last = end.length() == 0 ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+            }
+        } catch (RuntimeException e) {
+            return new Result(200, "OK", value.contentType, value.bytes, null);
+        }
+        if(first >= length || last < first) {
+            Result result = error(416, "Range Not Satisfiable", "TBadRequest");
+            result.contentRange = "bytes */"+length;
+            return result;
+        }
+        Result result = new Result(206, "Partial Content", value.contentType, Arrays.copyOfRange(value.bytes, (int)first, (int)last + 1), null);
+        result.contentRange = "bytes "+first+"-"+last+"/"+length;
+        return result;
+    }
+    
+    private Result search(String query) {
+        if(query == null) {
+            return error(400, "Bad Request", "TBadArgument");
+        }
+        Query parsed;
+        try {
+            parsed = Query.parse(query);
+        } catch (IllegalArgumentException e) {
+            return error(400, "Bad Request", "TParseError");
+        }
+        List<String> ids = new ArrayList<String>();
+        this.lock.readLock().lock();
+        try {
+            for(String tag : parsed.tags) {
+                if(!this.tags.containsKey(tag)) {
+                    return error(404, "Not Found", "TNonexistentTag");
+                }
+            }
+            for(StoredObject object : this.objects.values()) {
+                if(parsed.matches(object)) {
+                    ids.add(object.id);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        try {
+            return json(200, new JSONObject().put("ids", new JSONArray(ids)));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private Result namespaces(Method m, String path, FluidRequest request, String user) throws JSONException {
+        Hashtable<String, String> args = request.getArgs();
+        if(m == Method.GET || m == Method.HEAD) {
+            this.lock.readLock().lock();
+            try {
+                Item namespace = this.namespaces.get(path);
+                if(namespace == null) {
+                    return error(404, "Not Found", "TNonexistentNamespace");
+                }
+                JSONObject result = new JSONObject();
+                result.put("id", namespace.id);
+                if("True".equalsIgnoreCase(args.get("returnDescription"))) {
+                    result.put("description", namespace.description);
+                }
+                if("True".equalsIgnoreCase(args.get("returnNamespaces"))) {
+                    result.put("namespaceNames", new JSONArray(children(this.namespaces, path)));
+                }
+                if("True".equalsIgnoreCase(args.get("returnTags"))) {
+                    result.put("tagNames", new JSONArray(children(this.tags, path)));
+                }
+                return json(200, result);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        if(m == Method.POST) {
+            JSONObject payload = parse(request);
+            String name = payload.getString("name");
+            return this.create(this.namespaces, path, name, payload.optString("description", ""), false, user, "/namespaces/", "TNamespaceAlreadyExists");
+        }
+        if(!canWrite(user, path)) {
+            return error(401, "Unauthorized", "TPathPermissionDenied");
+        }
+        if(m == Method.PUT) {
+            return this.setDescription(this.namespaces, path, parse(request), "TNonexistentNamespace");
+        }
+        if(m == Method.DELETE) {
+            this.lock.writeLock().lock();
+            try {
+                if(!this.namespaces.containsKey(path)) {
+                    return error(404, "Not Found", "TNonexistentNamespace");
+                }
+                if(!children(this.namespaces, path).isEmpty() || !children(this.tags, path).isEmpty()) {
+                    return error(412, "Precondition Failed", "TNamespaceNotEmpty");
+                }
+                this.namespaces.remove(path);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            return new Result(204, "No Content", null, new byte[0], null);
+        }
+        return error(405, "Method Not Allowed", "TBadRequest");
+    }
+    
+    private Result tags(Method m, String path, FluidRequest request, String user) throws JSONException {
+        if(m == Method.GET || m == Method.HEAD) {
+            this.lock.readLock().lock();
+            try {
+                Item tag = this.tags.get(path);
+                if(tag == null) {
+                    return error(404, "Not Found", "TNonexistentTag");
+                }
+                JSONObject result = new JSONObject();
+                result.put("id", tag.id);
+                result.put("indexed", tag.indexed);
+                if("True".equalsIgnoreCase(request.getArgs().get("returnDescription"))) {
+                    result.put("description", tag.description);
+                }
+                return json(200, result);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+        if(m == Method.POST) {
+            // the path is the namespace the tag goes in
+            JSONObject payload = parse(request);
+            String name = payload.getString("name");
+            return this.create(this.tags, path, name, payload.optString("description", ""), payload.optBoolean("indexed", false), user, "/tags/", "TTagAlreadyExists");
+        }
+        if(!canWrite(user, path)) {
+            return error(401, "Unauthorized", "TPathPermissionDenied");
+        }
+        if(m == Method.PUT) {
+            return this.setDescription(this.tags, path, parse(request), "TNonexistentTag");
+        }
+        if(m == Method.DELETE) {
+            this.lock.writeLock().lock();
+            try {
+                if(this.tags.remove(path) == null) {
+                    return error(404, "Not Found", "TNonexistentTag");
+                }
+                for(StoredObject object : this.objects.values()) {
+                    object.tags.remove(path);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            return new Result(204, "No Content", null, new byte[0], null);
+        }
+        return error(405, "Method Not Allowed", "TBadRequest");
+    }
+    
+    private Result users(Method m, String name) throws JSONException {
+        if(m != Method.GET && m != Method.HEAD) {
+            return error(405, "Method Not Allowed", "TBadRequest");
+        }
+        this.lock.readLock().lock();
+        try {
+            String id = this.userIds.get(name);
+            if(id == null) {
+                return error(404, "Not Found", "TNoSuchUser");
+            }
+            return json(200, new JSONObject().put("id", id).put("name", name));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Creates a namespace or tag called name in the namespace at parent
+     */
+    private Result create(Map<String, Item> items, String parent, String name, String description, boolean indexed, String user, String root, String exists) throws JSONException {
+        if(name.length() == 0 || name.indexOf('/') >= 0) {
+            return error(400, "Bad Request", "TInvalidPath");
+        }
+        if(!canWrite(user, parent)) {
+            return error(401, "Unauthorized", "TPathPermissionDenied");
+        }
+        String path = parent+"/"+name;
+        String id;
+        this.lock.writeLock().lock();
+        try {
+            if(!this.namespaces.containsKey(parent)) {
+                return error(404, "Not Found", "TNonexistentNamespace");
+            }
+            if(items.containsKey(path)) {
+                return error(412, "Precondition Failed", exists);
+            }
+            id = this.createItem(items, path, description, indexed);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        return created(id, root+path);
+    }
+    
+    private Result setDescription(Map<String, Item> items, String path, JSONObject payload, String missing) throws JSONException {
+        String description = payload.getString("description");
+        this.lock.writeLock().lock();
+        try {
+            Item item = items.get(path);
+            if(item == null) {
+                return error(404, "Not Found", missing);
+            }
+            item.description = description;
+            this.setSystemTag(item.id, items == this.tags ? "fluiddb/tags/description" : "fluiddb/namespaces/description", description);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        return new Result(204, "No Content", null, new byte[0], null);
+    }
+    
+    /**
+     * Creates a namespace or tag and the object that goes with it (the caller holds the write
+     * lock)
+     * @return the new object's id
+     */
+    private String createItem(Map<String, Item> items, String path, String description, boolean indexed) {
+        String kind = items == this.tags ? "tags" : "namespaces";
+        String id = this.createObject("Object for the "+(items == this.tags ? "attribute " : "namespace ")+path);
+        this.setSystemTag(id, "fluiddb/"+kind+"/path", path);
+        this.setSystemTag(id, "fluiddb/"+kind+"/description", description);
+        items.put(path, new Item(id, description, indexed));
+        return id;
+    }
+    
+    /**
+     * Sets one of the string values FluidDB keeps on the objects for users, namespaces and 
+     * tags (the caller holds the write lock)
+     */
+    private void setSystemTag(String id, String tag, String value) {
+        this.objects.get(id).tags.put(tag, new Value(JSONObject.quote(value).getBytes(StandardCharsets.UTF_8), VALUE_TYPE, value));
+    }
+    
+    /**
+     * Creates an object (the caller holds the write lock)
+     * @param about the about tag's value (may be null)
+     * @return the new object's id
+     */
+    private String createObject(String about) {
+        String id = UUID.randomUUID().toString();
+        StoredObject object = new StoredObject(id);
+        this.objects.put(id, object);
+        if(about != null) {
+            this.setSystemTag(id, ABOUT_TAG, about);
+            this.abouts.put(about, id);
+        }
+        return id;
+    }
+    
+    /**
+     * @return the names of the items directly underneath a namespace
+     */
+    private static List<String> children(TreeMap<String, Item> items, String namespace) {
+        List<String> names = new ArrayList<String>();
+        String prefix = namespace+"/";
+        for(String path : items.tailMap(prefix).keySet()) {
+            if(!path.startsWith(prefix)) {
+                break;
+            }
+            if(path.indexOf('/', prefix.length()) < 0) {
+                names.add(path.substring(prefix.length()));
+            }
+        }
+        return names;
+    }
+    
+    /**
+     * Users can change anything in their own namespace (the admin user can change anything)
+     */
+    private static boolean canWrite(String user, String path) {
+        if(user.length() == 0) {
+            return false;
+        }
+        return user.equals(FluidDBEmulator.ADMIN) || path.equals(user) || path.startsWith(user+"/");
+    }
+    
+    private static JSONObject parse(FluidRequest request) throws JSONException {
+        byte[] body = request.getBody();
+        if(body == null || body.length == 0) {
+            throw new JSONException("No body");
+        }
+        return new JSONObject(new String(body, StandardCharsets.UTF_8));
+    }
+    
+    private static Result json(int code, JSONObject result) {
+        return new Result(code, code == 201 ? "Created" : "OK", JSON_TYPE, result.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
+    
+    private static Result created(String id, String uri) throws JSONException {
+        return json(201, new JSONObject().put("id", id).put("URI", uri));
+    }
+    
+    private static Result error(int code, String message, String error) {
+        return new Result(code, message, "text/plain", new byte[0], error);
+    }
+}
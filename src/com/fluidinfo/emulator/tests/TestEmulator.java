@@ -0,0 +1,192 @@
+package com.fluidinfo.emulator.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Hashtable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * Checks the emulator behaves like FluidDB, over HTTP and in-process (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestEmulator {
+
+    private FluidDBEmulator emulator = null;
+
+    private FluidConnector fdb = null;
+
+    @Before
+    public void setUp() throws Exception {
+        this.emulator = new FluidDBEmulator();
+        this.emulator.addUser("test", "secret");
+        this.emulator.addUser("other", "secret");
+        this.fdb = this.connect("test");
+        this.fdb.setUrl(this.emulator.start());
+    }
+
+    @After
+    public void tearDown() {
+        this.emulator.stop();
+    }
+
+    private FluidConnector connect(String username) {
+        FluidConnector fdb = new FluidConnector();
+        fdb.setUsername(username);
+        fdb.setPassword("secret");
+        return fdb;
+    }
+
+    private String[] search(String query) throws Exception {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", query);
+        FluidResponse response = this.fdb.Call(Method.GET, "/objects", "", args);
+        assertEquals(200, response.getResponseCode());
+        JSONArray ids = StringUtil.getJsonObjectFromString(response.getResponseContent()).getJSONArray("ids");
+        return StringUtil.getStringArrayFromJSONArray(ids);
+    }
+
+    @Test
+    public void testNamespacesTagsAndValues() throws Exception {
+        Namespace root = new Namespace(this.fdb, "", "test");
+        Namespace books = root.createNamespace("books", "Books I've read");
+        Tag rating = books.createTag("rating", "Out of ten", true);
+        Tag title = books.createTag("title", "The title", false);
+        root.getItem();
+        assertArrayEquals(new String[] {"books"}, root.getNamespaceNames());
+        books.getItem();
+        assertEquals("Books I've read", books.getDescription());
+        assertEquals(2, books.getTagNames().length);
+
+        FluidResponse created = this.fdb.Call(Method.POST, "/objects", "{\"about\": \"Seven Pillars of Wisdom\"}");
+        assertEquals(201, created.getResponseCode());
+        String id = StringUtil.getJsonObjectFromString(created.getResponseContent()).getString("id");
+        Object book = new Object(this.fdb, id, id);
+        book.tag(rating, 9);
+        book.tag(title, "Seven Pillars of Wisdom");
+        book.getItem();
+        assertEquals("Seven Pillars of Wisdom", book.getAbout());
+        assertEquals(3, book.getTagPaths().length);
+        assertTrue(book.hasTag(rating));
+        assertEquals("9", book.getTagValue(rating).getResponseContent());
+        assertEquals("application/vnd.fluiddb.value+json", book.getTagValue(rating).getResponseContentType());
+
+        // deleting a tag takes its values with it
+        title.delete();
+        assertFalse(book.hasTag(title));
+        // a namespace with tags in can't be deleted
+        assertEquals(412, this.fdb.Call(Method.DELETE, "/namespaces/test/books").getResponseCode());
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        Tag rating = new Namespace(this.fdb, "", "test").createTag("rating", "", true);
+        Tag keywords = new Namespace(this.fdb, "", "test").createTag("keywords", "", true);
+        String[] ids = new String[4];
+        for(int i = 0; i < ids.length; i++) {
+            FluidResponse created = this.fdb.Call(Method.POST, "/objects", "{\"about\": \"book "+i+"\"}");
+            ids[i] = StringUtil.getJsonObjectFromString(created.getResponseContent()).getString("id");
+            Object book = new Object(this.fdb, ids[i], ids[i]);
+            book.tag(rating, i * 3);
+            if(i % 2 == 0) {
+                book.tag(keywords, new String[] {"adventure", "Kids"});
+            }
+        }
+        assertEquals(4, this.search("has test/rating").length);
+        assertArrayEquals(new String[] {ids[2], ids[3]}, this.search("test/rating > 5"));
+        assertArrayEquals(new String[] {ids[0], ids[2]}, this.search("test/keywords contains \"kids\""));
+        assertArrayEquals(new String[] {ids[1]}, this.search("fluiddb/about = \"book 1\""));
+        assertArrayEquals(new String[] {ids[3]}, this.search("fluiddb/about matches \"OK 3\""));
+        assertArrayEquals(new String[] {ids[1], ids[3]}, this.search("has test/rating except has test/keywords"));
+        assertArrayEquals(new String[] {ids[0], ids[3]}, this.search("test/rating = 0 or (test/rating >= 6 and has test/rating except test/rating < 9)"));
+        // every user has a username
+        assertEquals(3, this.search("has fluiddb/users/username").length);
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", "has (");
+        assertEquals(400, this.fdb.Call(Method.GET, "/objects", "", args).getResponseCode());
+        // tag paths must be well formed and exist, as FluidDB insists
+        args.put("query", "/test/rating = 1");
+        assertEquals(400, this.fdb.Call(Method.GET, "/objects", "", args).getResponseCode());
+        args.put("query", "has test");
+        assertEquals(400, this.fdb.Call(Method.GET, "/objects", "", args).getResponseCode());
+        args.put("query", "test/nothing = 1");
+        assertEquals(404, this.fdb.Call(Method.GET, "/objects", "", args).getResponseCode());
+    }
+
+    @Test
+    public void testPermissions() throws Exception {
+        FluidConnector other = this.connect("other");
+        other.setUrl(this.fdb.getUrl());
+        String payload = new JSONObject().put("name", "mine").put("description", "").toString();
+        assertEquals(401, other.Call(Method.POST, "/namespaces/test", payload).getResponseCode());
+        assertEquals(201, other.Call(Method.POST, "/namespaces/other", payload).getResponseCode());
+        // anyone can read
+        other.setUsername("");
+        other.setPassword("");
+        assertEquals(200, other.Call(Method.GET, "/namespaces/test").getResponseCode());
+        // but wrong credentials are refused
+        other.setUsername("test");
+        other.setPassword("wrong");
+        FluidResponse refused = other.Call(Method.GET, "/namespaces/test");
+        assertEquals(401, refused.getResponseCode());
+        assertEquals("TPasswordIncorrect", refused.getResponseError());
+        assertNotNull(refused.getErrorRequestID());
+    }
+
+    @Test
+    public void testInjectedErrorsAndLatency() throws Exception {
+        this.emulator.setErrorRate(1);
+        assertEquals(503, this.fdb.Call(Method.GET, "/users/test").getResponseCode());
+        assertEquals(1, this.emulator.getErrorCount());
+        this.emulator.setErrorRate(0);
+        this.emulator.setLatency(100);
+        this.emulator.setJitter(50);
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/users/test").getResponseCode());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 100);
+        assertTrue(elapsed < 1000);
+    }
+
+    @Test
+    public void testTransport() throws Exception {
+        FluidConnector direct = this.connect("test");
+        direct.setTransport(this.emulator.getTransport());
+        direct.setRequestCompressionThreshold(16);
+        Tag notes = new Namespace(direct, "", "test").createTag("notes", "", false);
+        FluidResponse created = direct.Call(Method.POST, "/objects", "{}");
+        String id = StringUtil.getJsonObjectFromString(created.getResponseContent()).getString("id");
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            text.append("Lots of notes. ");
+        }
+        // sent gzipped
+        new Object(direct, id, id).tag(notes, text.toString());
+        // and visible over HTTP
+        Object read = new Object(this.fdb, id, id);
+        assertEquals(JSONObject.quote(text.toString()), read.getTagValue(notes).getResponseContent());
+        // a slow answer times out the same way it would over the network
+        this.emulator.setLatency(500);
+        direct.setReadTimeout(50);
+        try {
+            direct.Call(Method.GET, "/users/test");
+            fail("Expected a FluidTimeoutException");
+        } catch (FluidTimeoutException e) {
+            // expected
+        }
+    }
+}
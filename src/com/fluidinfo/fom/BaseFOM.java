@@ -23,12 +23,16 @@ package com.fluidinfo.fom;
 
 import java.io.IOException;
 import java.util.Hashtable;
-import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.fluidinfo.*;
+import com.fluidinfo.metrics.FOMEvent;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
 import com.fluidinfo.utils.*;
 
 /**
@@ -51,7 +55,7 @@ public abstract class BaseFOM implements FOMInterface {
 	 * The id of the object in FluidDB that corresponds to the thing represented by the 
 	 * instance.
 	 */
-	protected String id = "";
+	protected volatile String id = "";
 	
 	/**
 	 * The instance's "root" path (namespaces, objects, tags etc)
@@ -62,6 +66,13 @@ public abstract class BaseFOM implements FOMInterface {
 	 * The instance's path within FluidDB underneath the root path
 	 */
 	protected String path = "";
+	
+	/**
+	 * Held while lazily getting the instance's fields from FluidDB, so when many threads 
+	 * want a missing field only one of them fetches it while the others wait. Getters check
+	 * the (volatile) field first so, once it's there, reading it takes no lock.
+	 */
+	protected final java.lang.Object loading = new java.lang.Object();
 
 	/**
 	 * Constructor
@@ -86,12 +97,24 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @return the instance's path in FluidDB
 	 */
 	public String getPath(){
-		Vector<String> paths = new Vector<String>();
-		paths.add(this.rootPath);
-		paths.add(this.path);
+		String[] paths = {this.rootPath, this.path};
 		return StringUtil.URIJoin(paths);
 	}
 	
+	/**
+	 * Returns the path of the namespace this instance lives in, underneath the root path 
+	 * (e.g. test/books for the tag test/books/rating)
+	 * @return the path of the parent namespace, or "" at the top level
+	 */
+	protected String getParentPath(){
+		String path = this.path == null ? "" : this.path;
+		while (path.endsWith("/")){
+			path=path.substring(0, path.length()-1);
+		}
+		int slash = path.lastIndexOf("/");
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+	
 	/**
 	 * Given a path will return the name of the thing referenced (the last item in the path)
 	 * @param path The path to the item
@@ -189,7 +212,170 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @throws IOException
 	 */
 	protected FluidResponse Call(final Method m, int expectedReturnCode, final String body, final Hashtable<String, String> args, String callPath, String content_type) throws FluidException, IOException{
-		FluidResponse response = this.fdb.Call(m, callPath, body, args, content_type);
+		FOMEvent event = this.beginEvent();
+		FluidResponse response = null;
+		try {
+			if(m == Method.GET && NegativeCache.isAbsent(this.fdb, callPath)){
+				// FluidDB has already said it isn't there
+				response = NegativeCache.notFound(callPath);
+			} else {
+				long since = NegativeCache.begin(this.fdb);
+				response = this.fdb.Call(m, callPath, body, args, content_type);
+				if(m == Method.GET && response.getResponseCode() == 404){
+					NegativeCache.absent(this.fdb, callPath, since);
+				}
+			}
+			return this.checkResponse(response, expectedReturnCode);
+		} finally {
+			event.end();
+			if(event.shouldCommit()){
+				event.method = m.toString();
+				event.status = response == null ? -1 : response.getResponseCode();
+				this.commitEvent(event, "Call", callPath, event.status == expectedReturnCode);
+			}
+		}
+	}
+	
+	/**
+	 * Used to call to the FluidDB instance with a body streamed from its source
+	 * @param m the HTTP method for the call
+	 * @param expectedReturnCode the expected return code for a successful call
+	 * @param body the body to stream to FluidDB
+	 * @param callPath the URI to call in FluidDB
+	 * @param content_type the Content-Type header to be sent
+	 * @return the result from FluidDB
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	protected FluidResponse Call(final Method m, int expectedReturnCode, final RequestBody body, String callPath, String content_type) throws FluidException, IOException{
+		FOMEvent event = this.beginEvent();
+		FluidResponse response = null;
+		try {
+			response = this.fdb.Call(m, callPath, body, content_type);
+			return this.checkResponse(response, expectedReturnCode);
+		} finally {
+			event.end();
+			if(event.shouldCommit()){
+				event.method = m.toString();
+				event.status = response == null ? -1 : response.getResponseCode();
+				this.commitEvent(event, "Call", callPath, event.status == expectedReturnCode);
+			}
+		}
+	}
+	
+	/**
+	 * Used to call to the FluidDB instance for (part of) a value, copying it straight to a 
+	 * target. A 200 is expected, or a 206 if part of the value was asked for.
+	 * @param m the HTTP method for the call
+	 * @param target where to copy the body of the response
+	 * @param offset the first byte wanted
+	 * @param length the number of bytes wanted (-1 for everything from the offset on)
+	 * @param callPath the URI to call in FluidDB
+	 * @return the result from FluidDB
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	protected FluidResponse Call(final Method m, final ResponseBody target, long offset, long length, String callPath) throws FluidException, IOException{
+		FOMEvent event = this.beginEvent();
+		FluidResponse response = null;
+		int expectedReturnCode = 200;
+		try {
+			response = this.fdb.Call(m, callPath, target, offset, length);
+			if((offset > 0 || length > 0) && response.getResponseCode() == 206){
+				expectedReturnCode = 206;
+			}
+			return this.checkResponse(response, expectedReturnCode);
+		} finally {
+			event.end();
+			if(event.shouldCommit()){
+				event.method = m.toString();
+				event.status = response == null ? -1 : response.getResponseCode();
+				this.commitEvent(event, "Call", callPath, event.status == expectedReturnCode);
+			}
+		}
+	}
+	
+	/**
+	 * Starts timing an operation for Flight Recorder
+	 * @return the event to pass to commitEvent once the operation is over
+	 */
+	protected FOMEvent beginEvent() {
+		FOMEvent event = new FOMEvent();
+		event.begin();
+		return event;
+	}
+	
+	/**
+	 * Records an operation with Flight Recorder (if it's recording)
+	 * @param event the event returned from beginEvent
+	 * @param operation the name of the operation, e.g. getItem
+	 * @param succeeded true if the operation completed without throwing
+	 */
+	protected void commitEvent(FOMEvent event, String operation, boolean succeeded) {
+		event.end();
+		if(event.shouldCommit()){
+			this.commitEvent(event, operation, this.getPath(), succeeded);
+		}
+	}
+	
+	private void commitEvent(FOMEvent event, String operation, String path, boolean succeeded) {
+		event.operation = operation;
+		event.type = this.getClass().getSimpleName();
+		event.path = path;
+		event.succeeded = succeeded;
+		event.commit();
+	}
+	
+	/**
+	 * Used to call to the FluidDB instance without blocking the calling thread
+	 * @param m the HTTP method for the call
+	 * @param expectedReturnCode the expected return code for a successful call
+	 * @param body a String representation of the json based body
+	 * @param args an argument dictionary to append to the end of the call URL
+	 * @param callPath the URI to call in FluidDB
+	 * @param content_type the Content-Type header to be sent
+	 * @return a future for the result from FluidDB, completed exceptionally with a 
+	 * FluidException if the expected return code doesn't come back
+	 */
+	protected CompletableFuture<FluidResponse> CallAsync(final Method m, final int expectedReturnCode, final String body, final Hashtable<String, String> args, final String callPath, String content_type) {
+		final FOMEvent event = this.beginEvent();
+		CompletableFuture<FluidResponse> call;
+		if(m == Method.GET && NegativeCache.isAbsent(this.fdb, callPath)){
+			// FluidDB has already said it isn't there
+			call = CompletableFuture.completedFuture(NegativeCache.notFound(callPath));
+		} else {
+			final long since = NegativeCache.begin(this.fdb);
+			call = this.fdb.callAsync(m, callPath, body, args, content_type).thenApply(response -> {
+				if(m == Method.GET && response.getResponseCode() == 404){
+					NegativeCache.absent(this.fdb, callPath, since);
+				}
+				return response;
+			});
+		}
+		return call.whenComplete((response, e) -> {
+			event.end();
+			if(event.shouldCommit()){
+				event.method = m.toString();
+				event.status = response == null ? -1 : response.getResponseCode();
+				this.commitEvent(event, "Call", callPath, event.status == expectedReturnCode);
+			}
+		}).thenApply(response -> {
+			try {
+				return this.checkResponse(response, expectedReturnCode);
+			} catch (FluidException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+	
+	/**
+	 * Checks FluidDB responded with the expected return code
+	 * @param response the response from FluidDB
+	 * @param expectedReturnCode the expected return code for a successful call
+	 * @return the response
+	 * @throws FluidException if the response code isn't the one expected
+	 */
+	protected FluidResponse checkResponse(FluidResponse response, int expectedReturnCode) throws FluidException {
 		if(response.getResponseCode()==expectedReturnCode){
 			return response;
 		} else {
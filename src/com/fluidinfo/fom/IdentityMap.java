@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.fom;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONException;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+
+/**
+ * Keeps the namespaces, tags, users and objects fetched through a connector, so asking for 
+ * the same one again hands back the same (already hydrated) instance without calling 
+ * FluidDB
+ * 
+ * Instances are keyed by their path (e.g. /tags/test/rating) and the credentials they were 
+ * fetched with, so one user is never handed an instance fetched by (and calling FluidDB as)
+ * another. The map holds a bounded number of instances, evicting the least recently used 
+ * first, and each is only handed back until its time to live runs out.
+ * 
+ * Changes made through the FOM classes are written through: setDescription keeps the 
+ * changed instance, createTag and createNamespace keep the new one, and delete, createTag, 
+ * createNamespace and tagging an object throw away whatever is kept for the paths they 
+ * change (for every user). Changes made any other way (e.g. by another client) are seen 
+ * once the time to live runs out.
+ * 
+ * @author rossjones
+ *
+ */
+public class IdentityMap {
+	
+	/**
+	 * The default bound on the number of instances kept
+	 */
+	public final static int DEFAULT_MAX_ENTRIES = 10000;
+	
+	/**
+	 * The default time an instance is kept for in milliseconds
+	 */
+	public final static long DEFAULT_TIME_TO_LIVE = 60000;
+	
+	/**
+	 * A kept instance
+	 */
+	private final static class Entry {
+		final String key;
+		final String resource;
+		final BaseFOM item;
+		final long expires;
+		
+		Entry(String key, String resource, BaseFOM item, long expires) {
+			this.key = key;
+			this.resource = resource;
+			this.item = item;
+			this.expires = expires;
+		}
+	}
+	
+	private final int maxEntries;
+	
+	private final long timeToLive;
+	
+	/**
+	 * Entries in least recently used order
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	
+	/**
+	 * The keys of the entries for each path (one per set of credentials)
+	 */
+	private final Map<String, Set<String>> keysByResource = new HashMap<String, Set<String>>();
+	
+	private long hits = 0;
+	
+	private long misses = 0;
+	
+	private long evictions = 0;
+	
+	private long expirations = 0;
+	
+	private long invalidations = 0;
+	
+	/**
+	 * Default constructor
+	 */
+	public IdentityMap() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+	}
+	
+	/**
+	 * Constructor
+	 * @param maxEntries the bound on the number of instances kept
+	 * @param timeToLive how long an instance is handed back for in milliseconds
+	 */
+	public IdentityMap(int maxEntries, long timeToLive) {
+		if(maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		if(timeToLive < 1) {
+			throw new IllegalArgumentException("timeToLive must be at least 1");
+		}
+		this.maxEntries = maxEntries;
+		this.timeToLive = timeToLive;
+	}
+	
+	/**
+	 * Turns on the identity map for a connector and its sessions: namespaces, tags, users and 
+	 * objects fetched through the FOM classes are kept (per set of credentials) and the same
+	 * instance handed back next time
+	 * @param fdb the connector
+	 * @param map the identity map to use, or null to turn it off (the default)
+	 */
+	public static void attach(FluidConnector fdb, IdentityMap map) {
+		fdb.setAttachment(IdentityMap.class, map);
+	}
+	
+	/**
+	 * @param fdb a connector
+	 * @return the connector's identity map (with its hit and miss counts), or null if it is off
+	 */
+	public static IdentityMap of(FluidConnector fdb) {
+		return fdb.getAttachment(IdentityMap.class);
+	}
+	
+	/**
+	 * Hands back the kept instance with the same path and credentials as an item or, if 
+	 * there isn't one, hydrates the item (with getItem) and keeps it. Without an identity 
+	 * map on the item's connector the item is just hydrated.
+	 * @param item a new (unhydrated) instance naming the namespace, tag, user or object wanted
+	 * @return the kept instance, or the item itself
+	 * @throws FluidException
+	 * @throws IOException
+	 * @throws FOMException
+	 * @throws JSONException
+	 */
+	public static <T extends BaseFOM> T load(T item) throws FluidException, IOException, FOMException, JSONException {
+		IdentityMap map = of(item.fdb);
+		if(map == null) {
+			item.getItem();
+			return item;
+		}
+		T kept = map.get(item);
+		if(kept != null) {
+			return kept;
+		}
+		item.getItem();
+		return map.put(item);
+	}
+	
+	/**
+	 * Gets an object without blocking, handing back the instance kept if the connector has
+	 * an identity map
+	 * @param item a new (unhydrated) instance naming the object wanted
+	 * @return a future for the kept instance, or the item itself once hydrated
+	 */
+	public static CompletableFuture<Object> loadAsync(final Object item) {
+		final IdentityMap map = of(item.fdb);
+		if(map == null) {
+			return item.getItemAsync().thenApply(v -> item);
+		}
+		Object kept = map.get(item);
+		if(kept != null) {
+			return CompletableFuture.completedFuture(kept);
+		}
+		return item.getItemAsync().thenApply(v -> map.put(item));
+	}
+	
+	/**
+	 * Throws away whatever is kept for some paths on behalf of every user, if the connector 
+	 * has an identity map
+	 * @param fdb the connector the change was made through
+	 * @param paths the paths that changed (e.g. /namespaces/test)
+	 */
+	static void invalidate(FluidConnector fdb, String... paths) {
+		IdentityMap map = of(fdb);
+		if(map != null) {
+			for(String path : paths) {
+				map.invalidate(path);
+			}
+		}
+	}
+	
+	/**
+	 * Throws away whatever is kept for an item's path on behalf of every user now it has 
+	 * been changed through it, keeping the item itself if it is new or was the kept instance
+	 * @param item the changed (or newly created) item
+	 * @param created true if the item has just been created
+	 */
+	static void written(BaseFOM item, boolean created) {
+		IdentityMap map = of(item.fdb);
+		if(map != null) {
+			map.replace(item, created);
+		}
+	}
+	
+	/**
+	 * Works out the path an item is kept under, ignoring any trailing slash
+	 */
+	private static String resourceOf(String path) {
+		int end = path.length();
+		while(end > 0 && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		return path.startsWith("/") ? path.substring(0, end) : "/"+path.substring(0, end);
+	}
+	
+	/**
+	 * Works out the key an item is kept under
+	 */
+	private static String keyOf(String resource, BaseFOM item) {
+		// never the password, which the Authorization header is only an encoding of
+		String identity = item.fdb.getCredentials().getIdentity();
+		return identity == null ? resource : resource + ' ' + identity;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private synchronized <T extends BaseFOM> T get(T item) {
+		String key = keyOf(resourceOf(item.getPath()), item);
+		Entry entry = this.entries.get(key);
+		if(entry != null && entry.expires <= System.currentTimeMillis()) {
+			this.remove(key);
+			this.expirations++;
+			entry = null;
+		}
+		if(entry == null || entry.item.getClass() != item.getClass()) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return (T)entry.item;
+	}
+	
+	/**
+	 * Keeps an item unless another thread kept one with the same key first
+	 * @return the instance kept
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized <T extends BaseFOM> T put(T item) {
+		String resource = resourceOf(item.getPath());
+		String key = keyOf(resource, item);
+		Entry entry = this.entries.get(key);
+		if(entry != null && entry.expires > System.currentTimeMillis() && entry.item.getClass() == item.getClass()) {
+			return (T)entry.item;
+		}
+		this.remove(key);
+		this.keep(new Entry(key, resource, item, this.expiry()));
+		return item;
+	}
+	
+	private synchronized void replace(BaseFOM item, boolean created) {
+		String resource = resourceOf(item.getPath());
+		String key = keyOf(resource, item);
+		Entry entry = this.entries.get(key);
+		boolean keep = created || (entry != null && entry.item == item);
+		this.invalidate(resource);
+		if(keep) {
+			this.keep(new Entry(key, resource, item, this.expiry()));
+		}
+	}
+	
+	private long expiry() {
+		long now = System.currentTimeMillis();
+		return this.timeToLive > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + this.timeToLive;
+	}
+	
+	private void keep(Entry entry) {
+		this.entries.put(entry.key, entry);
+		Set<String> keys = this.keysByResource.get(entry.resource);
+		if(keys == null) {
+			keys = new HashSet<String>();
+			this.keysByResource.put(entry.resource, keys);
+		}
+		keys.add(entry.key);
+		Iterator<Entry> eldest = this.entries.values().iterator();
+		while(this.entries.size() > this.maxEntries && eldest.hasNext()) {
+			Entry evicted = eldest.next();
+			eldest.remove();
+			this.forget(evicted);
+			this.evictions++;
+		}
+	}
+	
+	private void remove(String key) {
+		Entry entry = this.entries.remove(key);
+		if(entry != null) {
+			this.forget(entry);
+		}
+	}
+	
+	/**
+	 * Tidies up after an entry has left the map
+	 */
+	private void forget(Entry entry) {
+		Set<String> keys = this.keysByResource.get(entry.resource);
+		if(keys != null) {
+			keys.remove(entry.key);
+			if(keys.isEmpty()) {
+				this.keysByResource.remove(entry.resource);
+			}
+		}
+	}
+	
+	/**
+	 * Throws away whatever is kept for a path on behalf of every user (e.g. after it was 
+	 * changed by something other than the FOM classes)
+	 * @param path the path of the namespace, tag, user or object (e.g. /tags/test/rating)
+	 */
+	public synchronized void invalidate(String path) {
+		Set<String> keys = this.keysByResource.remove(resourceOf(path));
+		if(keys != null) {
+			for(String key : keys) {
+				if(this.entries.remove(key) != null) {
+					this.invalidations++;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Throws away everything kept
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.keysByResource.clear();
+	}
+	
+	/**
+	 * @return the bound on the number of instances kept
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+	
+	/**
+	 * @return how long an instance is handed back for in milliseconds
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+	
+	/**
+	 * @return the number of instances kept
+	 */
+	public synchronized int getEntryCount() {
+		return this.entries.size();
+	}
+	
+	/**
+	 * @return the number of lookups answered with a kept instance
+	 */
+	public synchronized long getHitCount() {
+		return this.hits;
+	}
+	
+	/**
+	 * @return the number of lookups that had to call FluidDB
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+	
+	/**
+	 * @return the number of instances evicted to keep the map within its bound
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictions;
+	}
+	
+	/**
+	 * @return the number of instances thrown away because their time to live ran out
+	 */
+	public synchronized long getExpiredCount() {
+		return this.expirations;
+	}
+	
+	/**
+	 * @return the number of instances thrown away because they were changed
+	 */
+	public synchronized long getInvalidationCount() {
+		return this.invalidations;
+	}
+	
+	@Override
+	public String toString() {
+		return "IdentityMap[entries: "+this.getEntryCount()+", hits: "+this.getHitCount()+", misses: "+this.getMissCount()+"]";
+	}
+}
@@ -22,6 +22,7 @@
 package com.fluidinfo.fom;
 
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.Hashtable;
 
 import org.json.JSONException;
@@ -30,6 +31,7 @@ import org.json.JSONObject;
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.metrics.FOMEvent;
 import com.fluidinfo.utils.Method;
 import com.fluidinfo.utils.StringUtil;
 
@@ -50,13 +52,21 @@ import com.fluidinfo.utils.StringUtil;
  */
 public class Namespace extends BaseFOM {
 	
+	/**
+	 * The fields of a namespace that can be asked for when getting it from FluidDB (its id 
+	 * always comes back)
+	 */
+	public enum Field {
+		DESCRIPTION, NAMESPACES, TAGS
+	}
+	
 	private String name = null;
 	
-	protected String description = null;
+	protected volatile String description = null;
 	
-	protected String[] namespaces = null;
+	protected volatile String[] namespaces = null;
 	
-	protected String[] tags = null;
+	protected volatile String[] tags = null;
 
 	/**
 	 * Constructor
@@ -74,16 +84,48 @@ public class Namespace extends BaseFOM {
 	
 	@Override
 	public void getItem() throws FluidException, IOException, FOMException, JSONException {
-		Hashtable<String, String> args = new Hashtable<String, String>();
-		args.put("returnDescription", "True");
-		args.put("returnNamespaces", "True");
-		args.put("returnTags", "True");
-		FluidResponse response = this.Call(Method.GET, 200, "", args);
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.description = jsonResult.getString("description");
-		this.namespaces = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("namespaceNames"));
-		this.tags = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("tagNames"));
+		this.getItem(EnumSet.allOf(Field.class));
+	}
+	
+	/**
+	 * Gets just some of the namespace's fields from FluidDB (e.g. only its description, 
+	 * without the names of what's in it), leaving the others as they are
+	 * @param fields the fields to get
+	 * @throws FluidException
+	 * @throws IOException
+	 * @throws FOMException
+	 * @throws JSONException
+	 */
+	public void getItem(EnumSet<Field> fields) throws FluidException, IOException, FOMException, JSONException {
+		FOMEvent event = this.beginEvent();
+		boolean succeeded = false;
+		try {
+			Hashtable<String, String> args = new Hashtable<String, String>();
+			if(fields.contains(Field.DESCRIPTION)){
+				args.put("returnDescription", "True");
+			}
+			if(fields.contains(Field.NAMESPACES)){
+				args.put("returnNamespaces", "True");
+			}
+			if(fields.contains(Field.TAGS)){
+				args.put("returnTags", "True");
+			}
+			FluidResponse response = this.Call(Method.GET, 200, "", args);
+			JSONObject jsonResult = this.getJsonObject(response);
+			this.id = jsonResult.getString("id");
+			if(fields.contains(Field.DESCRIPTION)){
+				this.description = jsonResult.getString("description");
+			}
+			if(fields.contains(Field.NAMESPACES)){
+				this.namespaces = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("namespaceNames"));
+			}
+			if(fields.contains(Field.TAGS)){
+				this.tags = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("tagNames"));
+			}
+			succeeded = true;
+		} finally {
+			this.commitEvent(event, "getItem", succeeded);
+		}
 	}
 	
 	/**
@@ -102,10 +144,14 @@ public class Namespace extends BaseFOM {
 	public String getDescription() throws FOMException {
 		// If this.description is null then call back to FluidDB to check its value
 		if(this.description==null){
-			try {
-				this.getItem();
-			} catch(Exception ex) {
-				throw new FOMException("Unable to get description.", ex);
+			synchronized(this.loading){
+				if(this.description==null){
+					try {
+						this.getItem(EnumSet.of(Field.DESCRIPTION));
+					} catch(Exception ex) {
+						throw new FOMException("Unable to get description.", ex);
+					}
+				}
 			}
 		}
 		return this.description;
@@ -123,6 +169,7 @@ public class Namespace extends BaseFOM {
 		jsonPayload.put("description", description);
 		this.Call(Method.PUT, 204, jsonPayload.toString());
 		this.description=description;
+		IdentityMap.written(this, false);
 	}
 	
 	/**
@@ -139,12 +186,21 @@ public class Namespace extends BaseFOM {
 		JSONObject jsonPayload = new JSONObject();
 		jsonPayload.put("description", description);
 		jsonPayload.put("name", name);
-		FluidResponse response = this.Call(Method.POST, 201, jsonPayload.toString());
+		String[] newPath = {this.path, name};
+		String[] newPathURI = {this.rootPath, this.path, name};
+		FluidResponse response;
+		try {
+			response = this.Call(Method.POST, 201, jsonPayload.toString());
+		} finally {
+			// once created, so a lookup begun before this can't remember it missing
+			NegativeCache.present(this.fdb, StringUtil.URIJoin(newPathURI));
+		}
 		JSONObject jsonResult = StringUtil.getJsonObjectFromString(response.getResponseContent());
 		String newId = jsonResult.getString("id");
-		String[] newPath = {this.path, name};
 		Namespace newNamespace = new Namespace(this.fdb, newId, StringUtil.URIJoin(newPath));
 		newNamespace.description = description;
+		IdentityMap.invalidate(this.fdb, this.getPath());
+		IdentityMap.written(newNamespace, true);
 		return newNamespace;
 	}
 	
@@ -155,6 +211,8 @@ public class Namespace extends BaseFOM {
 	 */
 	public void delete() throws FluidException, IOException{
 		this.Call(Method.DELETE, 204, "");
+		String[] parentPath = {this.rootPath, this.getParentPath()};
+		IdentityMap.invalidate(this.fdb, this.getPath(), StringUtil.URIJoin(parentPath));
 	}
 	
 	/**
@@ -175,12 +233,20 @@ public class Namespace extends BaseFOM {
 		jsonPayload.put("name", name);
 		String[] tagPath = {"/tags", this.path};
 		String tagPathURI = StringUtil.URIJoin(tagPath);
-		FluidResponse response = this.Call(Method.POST, 201, jsonPayload.toString(), new Hashtable<String, String>(), tagPathURI);
+		String[] newTagPath = {"/tags", this.path, name};
+		FluidResponse response;
+		try {
+			response = this.Call(Method.POST, 201, jsonPayload.toString(), new Hashtable<String, String>(), tagPathURI);
+		} finally {
+			NegativeCache.present(this.fdb, StringUtil.URIJoin(newTagPath));
+		}
 		JSONObject jsonResult = StringUtil.getJsonObjectFromString(response.getResponseContent());
 		String newId = jsonResult.getString("id");
 		String[] tagFullPath = {this.path, name};
 		String tagFullURI = StringUtil.URIJoin(tagFullPath);
 		Tag newTag = new Tag(this.fdb, newId, indexed, description, tagFullURI);
+		IdentityMap.invalidate(this.fdb, this.getPath());
+		IdentityMap.written(newTag, true);
 		return newTag;
 	}
 	
@@ -194,10 +260,14 @@ public class Namespace extends BaseFOM {
 	 */
 	public String[] getTagNames() throws FluidException, IOException, FOMException, JSONException {
 		if(this.tags==null){
-			try {
-				this.getItem();
-			} catch(Exception ex) {
-				throw new FOMException("Unable to get tag names.", ex);
+			synchronized(this.loading){
+				if(this.tags==null){
+					try {
+						this.getItem(EnumSet.of(Field.TAGS));
+					} catch(Exception ex) {
+						throw new FOMException("Unable to get tag names.", ex);
+					}
+				}
 			}
 		}
 		return this.tags;
@@ -213,10 +283,14 @@ public class Namespace extends BaseFOM {
 	 */
 	public String[] getNamespaceNames() throws FluidException, IOException, FOMException, JSONException {
 		if(this.namespaces==null){
-			try {
-				this.getItem();
-			} catch(Exception ex) {
-				throw new FOMException("Unable to get namespace names.", ex);
+			synchronized(this.loading){
+				if(this.namespaces==null){
+					try {
+						this.getItem(EnumSet.of(Field.NAMESPACES));
+					} catch(Exception ex) {
+						throw new FOMException("Unable to get namespace names.", ex);
+					}
+				}
 			}
 		}
 		return this.namespaces;
@@ -234,9 +308,7 @@ public class Namespace extends BaseFOM {
 	public Tag getTag(String name) throws FluidException, IOException, FOMException, JSONException {
 		String[] tagPath = {this.path, name};
 		String newPath = StringUtil.URIJoin(tagPath);
-		Tag childTag = new Tag(this.fdb, "", newPath);
-		childTag.getItem();
-		return childTag;
+		return IdentityMap.load(new Tag(this.fdb, "", newPath));
 	}
 	
 	/**
@@ -252,8 +324,7 @@ public class Namespace extends BaseFOM {
 		// Define the child namespace
 		String[] childPath = {this.path, name};
 		Namespace childNamespace = new Namespace(this.fdb, "", StringUtil.URIJoin(childPath));
-		// populate it
-		childNamespace.getItem();
-		return childNamespace;
+		// populate it (or hand back the one already populated)
+		return IdentityMap.load(childNamespace);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.fom;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.utils.BloomFilter;
+
+/**
+ * Remembers the namespaces, tags, objects and tag values (e.g. /objects/1234/test/rating)
+ * FluidDB has said aren't there, so Object.hasTag, Object.getTagValue and getting a missing
+ * namespace or tag don't have to ask again
+ * 
+ * The paths are kept in Bloom filters rather than stored, so the memory used is fixed 
+ * whatever the paths look like. The price is that a path never seen can (rarely, at about 
+ * the false positive rate the cache was made with) be taken for a missing one. Paths are 
+ * forgotten once the time to live has passed, or up to a quarter sooner: the filters are 
+ * used in turn, the oldest being emptied each quarter of the time to live (or sooner if 
+ * more than a quarter of the most entries have been added in the meantime).
+ * 
+ * Object.tag, Namespace.createTag and Namespace.createNamespace forget the paths they 
+ * create. Anything created any other way (e.g. by another client) is seen once the time to
+ * live runs out. A lookup takes the cache's epoch with begin() before asking FluidDB and 
+ * hands it to addAbsent, so a 404 that was answered before a path was created, but arrives
+ * after it has been forgotten, isn't remembered.
+ * 
+ * @author rossjones
+ *
+ */
+public class NegativeCache {
+	
+	/**
+	 * The default number of paths the cache is sized for
+	 */
+	public final static int DEFAULT_MAX_ENTRIES = 100000;
+	
+	/**
+	 * The default time a path is remembered for in milliseconds
+	 */
+	public final static long DEFAULT_TIME_TO_LIVE = 60000;
+	
+	/**
+	 * The default chance of taking a path never seen for a missing one
+	 */
+	public final static double DEFAULT_FALSE_POSITIVE_RATE = 0.000001;
+	
+	/**
+	 * The number of filters used in turn
+	 */
+	private final static int GENERATIONS = 4;
+	
+	private final int maxEntries;
+	
+	private final long timeToLive;
+	
+	private final double falsePositiveRate;
+	
+	private final BloomFilter[] generations = new BloomFilter[GENERATIONS];
+	
+	/**
+	 * The filter paths are being added to
+	 */
+	private int current = 0;
+	
+	private long rotatedAt = System.currentTimeMillis();
+	
+	private long rotations = 0;
+	
+	/**
+	 * Paths created since they were added (they can't be taken out of a Bloom filter), 
+	 * with the rotation they were created in
+	 */
+	private final Map<String, Long> created = new HashMap<String, Long>();
+	
+	/**
+	 * Counts the invalidations, so a lookup can tell if its path was created while in flight
+	 */
+	private long epoch = 0;
+	
+	/**
+	 * The epoch each recently created path was last invalidated at, oldest first
+	 */
+	private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<String, Long>();
+	
+	/**
+	 * The epoch of the latest invalidation no longer in invalidatedAt (lookups begun before 
+	 * it can't be checked, so their 404s aren't remembered)
+	 */
+	private long forgottenAt = 0;
+	
+	private long hits = 0;
+	
+	private long misses = 0;
+	
+	private long invalidations = 0;
+	
+	private long evictions = 0;
+	
+	/**
+	 * Default constructor
+	 */
+	public NegativeCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, DEFAULT_FALSE_POSITIVE_RATE);
+	}
+	
+	/**
+	 * Constructor
+	 * @param maxEntries the number of paths to size the cache for (within a time to live)
+	 * @param timeToLive how long a path is remembered for in milliseconds
+	 * @param falsePositiveRate the chance of taking a path never seen for a missing one
+	 */
+	public NegativeCache(int maxEntries, long timeToLive, double falsePositiveRate) {
+		if(maxEntries < GENERATIONS) {
+			throw new IllegalArgumentException("maxEntries must be at least "+GENERATIONS);
+		}
+		if(timeToLive < GENERATIONS) {
+			throw new IllegalArgumentException("timeToLive must be at least "+GENERATIONS);
+		}
+		this.maxEntries = maxEntries;
+		this.timeToLive = timeToLive;
+		this.falsePositiveRate = falsePositiveRate;
+		for(int i = 0; i < GENERATIONS; i++) {
+			// each is looked in, so share the false positive rate between them
+			this.generations[i] = new BloomFilter(maxEntries / GENERATIONS, falsePositiveRate / GENERATIONS);
+		}
+	}
+	
+	/**
+	 * Turns on the negative cache for a connector and its sessions: namespaces, tags, objects
+	 * and tag values FluidDB has answered with a 404 through the FOM classes aren't asked for 
+	 * again for a while
+	 * @param fdb the connector
+	 * @param cache the negative cache to use, or null to turn it off (the default)
+	 */
+	public static void attach(FluidConnector fdb, NegativeCache cache) {
+		fdb.setAttachment(NegativeCache.class, cache);
+	}
+	
+	/**
+	 * @param fdb a connector
+	 * @return the connector's negative cache (with its hit and miss counts), or null if it is off
+	 */
+	public static NegativeCache of(FluidConnector fdb) {
+		return fdb.getAttachment(NegativeCache.class);
+	}
+	
+	/**
+	 * Checks whether FluidDB is known not to have something, if the connector has a 
+	 * negative cache
+	 * @param fdb the connector to ask through
+	 * @param path the path of the thing (e.g. /tags/test/rating)
+	 * @return true if it's known not to be there
+	 */
+	static boolean isAbsent(FluidConnector fdb, String path) {
+		NegativeCache cache = of(fdb);
+		return cache != null && cache.isAbsent(path);
+	}
+	
+	/**
+	 * Marks the start of a lookup, if the connector has a negative cache
+	 * @param fdb the connector FluidDB is about to be asked through
+	 * @return the epoch to pass to absent if FluidDB answers with a 404
+	 */
+	static long begin(FluidConnector fdb) {
+		NegativeCache cache = of(fdb);
+		return cache == null ? 0 : cache.begin();
+	}
+	
+	/**
+	 * Remembers FluidDB doesn't have something, if the connector has a negative cache
+	 * @param fdb the connector FluidDB was asked through
+	 * @param path the path FluidDB answered with a 404
+	 * @param since the epoch from begin before FluidDB was asked
+	 */
+	static void absent(FluidConnector fdb, String path, long since) {
+		NegativeCache cache = of(fdb);
+		if(cache != null) {
+			cache.addAbsent(path, since);
+		}
+	}
+	
+	/**
+	 * Forgets something was missing, if the connector has a negative cache
+	 * @param fdb the connector it is being created through
+	 * @param path the path of the thing created
+	 */
+	static void present(FluidConnector fdb, String path) {
+		NegativeCache cache = of(fdb);
+		if(cache != null) {
+			cache.invalidate(path);
+		}
+	}
+	
+	/**
+	 * Makes the response for something known not to be there
+	 * @param path the path asked for
+	 * @return a 404
+	 */
+	static FluidResponse notFound(String path) {
+		return new FluidResponse(404, "Not Found", "", "", "Known to be missing: "+path, "").copyWithSource(FluidResponse.Source.CACHE);
+	}
+	
+	/**
+	 * Works out the key a path is kept under, ignoring any trailing slash
+	 */
+	private static String keyOf(String path) {
+		int end = path.length();
+		while(end > 0 && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		return path.startsWith("/") ? path.substring(0, end) : "/"+path.substring(0, end);
+	}
+	
+	/**
+	 * Checks whether FluidDB is known not to have something
+	 * @param path the path of the thing (e.g. /objects/1234/test/rating)
+	 * @return true if it's known not to be there (or, rarely, if the path has never been 
+	 * seen but looks like one that has)
+	 */
+	public synchronized boolean isAbsent(String path) {
+		this.expire(System.currentTimeMillis());
+		String key = keyOf(path);
+		if(this.mightContain(key) && !this.created.containsKey(key)) {
+			this.hits++;
+			return true;
+		}
+		this.misses++;
+		return false;
+	}
+	
+	/**
+	 * Marks the start of a lookup whose 404 may be remembered with addAbsent
+	 * @return the epoch to pass to addAbsent
+	 */
+	public synchronized long begin() {
+		return this.epoch;
+	}
+	
+	/**
+	 * Remembers FluidDB doesn't have something, when nothing can be creating it meanwhile
+	 * @param path the path FluidDB answered with a 404
+	 */
+	public synchronized void addAbsent(String path) {
+		this.addAbsent(path, this.epoch);
+	}
+	
+	/**
+	 * Remembers FluidDB doesn't have something, unless it has been invalidated since the 
+	 * lookup began (the 404 may have been answered before it was created)
+	 * @param path the path FluidDB answered with a 404
+	 * @param since the epoch from begin before FluidDB was asked
+	 */
+	public synchronized void addAbsent(String path, long since) {
+		String key = keyOf(path);
+		Long invalidated = this.invalidatedAt.get(key);
+		if(since < this.forgottenAt || (invalidated != null && invalidated > since)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		this.expire(now);
+		this.created.remove(key);
+		if(this.generations[this.current].getEntryCount() >= this.maxEntries / GENERATIONS) {
+			// full, so make room by forgetting the oldest paths early
+			this.evictions += this.generations[(this.current + 1) % GENERATIONS].getEntryCount();
+			this.rotate(now);
+		}
+		this.generations[this.current].add(key);
+	}
+	
+	/**
+	 * Forgets that something was missing (e.g. because it has just been created)
+	 * @param path the path of the thing
+	 */
+	public synchronized void invalidate(String path) {
+		this.expire(System.currentTimeMillis());
+		String key = keyOf(path);
+		this.epoch++;
+		this.invalidatedAt.remove(key);
+		this.invalidatedAt.put(key, this.epoch);
+		if(this.invalidatedAt.size() > this.maxEntries) {
+			Iterator<Long> oldest = this.invalidatedAt.values().iterator();
+			this.forgottenAt = oldest.next();
+			oldest.remove();
+		}
+		if(this.mightContain(key)) {
+			if(this.created.put(key, this.rotations) == null) {
+				this.invalidations++;
+			}
+			if(this.created.size() > this.maxEntries) {
+				this.clear();
+			}
+		}
+	}
+	
+	private boolean mightContain(String key) {
+		for(BloomFilter generation : this.generations) {
+			if(generation.getEntryCount() > 0 && generation.mightContain(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Empties the oldest filter for each quarter of the time to live that has passed
+	 */
+	private void expire(long now) {
+		long period = this.timeToLive / GENERATIONS;
+		if(now - this.rotatedAt >= this.timeToLive) {
+			this.clear();
+			this.rotatedAt = now;
+			return;
+		}
+		while(now - this.rotatedAt >= period) {
+			this.rotate(this.rotatedAt + period);
+		}
+	}
+	
+	/**
+	 * Moves on to the next filter, emptying it
+	 */
+	private void rotate(long at) {
+		this.rotations++;
+		this.current = (this.current + 1) % GENERATIONS;
+		this.generations[this.current].clear();
+		this.rotatedAt = at;
+		// a path created only needs remembering until the filters it was added to are gone
+		Iterator<Long> createdIn = this.created.values().iterator();
+		while(createdIn.hasNext()) {
+			if(createdIn.next() <= this.rotations - GENERATIONS) {
+				createdIn.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Forgets everything
+	 */
+	public synchronized void clear() {
+		for(BloomFilter generation : this.generations) {
+			generation.clear();
+		}
+		this.created.clear();
+	}
+	
+	/**
+	 * @return the number of paths the cache is sized for
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+	
+	/**
+	 * @return how long a path is remembered for in milliseconds
+	 */
+	public long getTimeToLive() {
+		return this.timeToLive;
+	}
+	
+	/**
+	 * @return the chance of taking a path never seen for a missing one
+	 */
+	public double getFalsePositiveRate() {
+		return this.falsePositiveRate;
+	}
+	
+	/**
+	 * @return the size of the cache's filters in bytes
+	 */
+	public long getSizeInBytes() {
+		long bits = 0;
+		for(BloomFilter generation : this.generations) {
+			bits += generation.getBitCount();
+		}
+		return bits / 8;
+	}
+	
+	/**
+	 * @return the number of paths remembered
+	 */
+	public synchronized int getEntryCount() {
+		int entries = 0;
+		for(BloomFilter generation : this.generations) {
+			entries += generation.getEntryCount();
+		}
+		return entries;
+	}
+	
+	/**
+	 * @return the number of checks answered without asking FluidDB
+	 */
+	public synchronized long getHitCount() {
+		return this.hits;
+	}
+	
+	/**
+	 * @return the number of checks that had to ask FluidDB
+	 */
+	public synchronized long getMissCount() {
+		return this.misses;
+	}
+	
+	/**
+	 * @return the number of paths forgotten because they were created
+	 */
+	public synchronized long getInvalidationCount() {
+		return this.invalidations;
+	}
+	
+	/**
+	 * @return the number of paths forgotten early to keep the cache within its size
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictions;
+	}
+	
+	@Override
+	public String toString() {
+		return "NegativeCache[entries: "+this.getEntryCount()+", hits: "+this.getHitCount()+", misses: "+this.getMissCount()+"]";
+	}
+}
@@ -22,11 +22,21 @@
 package com.fluidinfo.fom;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.metrics.FOMEvent;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
 import com.fluidinfo.utils.Method;
 import com.fluidinfo.utils.StringUtil;
 
@@ -47,9 +57,16 @@ import org.json.JSONObject;
  */
 public class Object extends BaseFOM{
 
-    private String about = null;
+    /**
+     * The fields of an object that can be asked for when getting it from FluidDB
+     */
+    public enum Field {
+        ABOUT, TAG_PATHS
+    }
+
+    private volatile String about = null;
     
-    private String[] tagPaths = null;
+    private volatile String[] tagPaths = null;
     
     /**
      * Constructor
@@ -70,11 +87,83 @@ public class Object extends BaseFOM{
     
     @Override
     public void getItem() throws FluidException, IOException, FOMException, JSONException {
+        this.getItem(EnumSet.allOf(Field.class));
+    }
+    
+    /**
+     * Gets just some of the object's fields from FluidDB, leaving the others as they are. 
+     * FluidDB sends the tag paths whether they're asked for or not (so they're always 
+     * filled in), but asking for them alone saves looking up the about tag.
+     * @param fields the fields to get
+     * @throws FluidException
+     * @throws IOException
+     * @throws FOMException
+     * @throws JSONException
+     */
+    public void getItem(EnumSet<Field> fields) throws FluidException, IOException, FOMException, JSONException {
+        FOMEvent event = this.beginEvent();
+        boolean succeeded = false;
+        try {
+            FluidResponse response = this.Call(Method.GET, 200, "", argsFor(fields));
+            this.populate(response, fields);
+            succeeded = true;
+        } finally {
+            this.commitEvent(event, "getItem", succeeded);
+        }
+    }
+    
+    /**
+     * Gets and caches the item from FluidDB without blocking the calling thread
+     * @return a future that completes once the item has been populated
+     */
+    public CompletableFuture<Void> getItemAsync() {
+        return this.getItemAsync(EnumSet.allOf(Field.class));
+    }
+    
+    /**
+     * Gets and caches some of the object's fields from FluidDB without blocking the calling 
+     * thread
+     * @param fields the fields to get
+     * @return a future that completes once the fields have been populated
+     */
+    public CompletableFuture<Void> getItemAsync(final EnumSet<Field> fields) {
+        final FOMEvent event = this.beginEvent();
+        return this.CallAsync(Method.GET, 200, "", argsFor(fields), this.getPath(), "application/json; charset=utf-8").thenApply(response -> {
+            try {
+                this.populate(response, fields);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            return (Void)null;
+        }).whenComplete((v, e) -> this.commitEvent(event, "getItem", e == null));
+    }
+    
+    /**
+     * Works out the arguments for a GET on the object that asks for some fields
+     * @param fields the fields wanted
+     * @return the arguments
+     */
+    private static Hashtable<String, String> argsFor(EnumSet<Field> fields) {
         Hashtable<String, String> args = new Hashtable<String, String>();
-        args.put("showAbout", "True");
-        FluidResponse response = this.Call(Method.GET, 200, "", args);
+        if(fields.contains(Field.ABOUT)){
+            args.put("showAbout", "True");
+        }
+        return args;
+    }
+    
+    /**
+     * Fills in the tag paths (and the about tag if asked for) from FluidDB's response to a 
+     * GET on the object
+     * @param response the response from FluidDB
+     * @param fields the fields asked for
+     * @throws FOMException
+     * @throws JSONException
+     */
+    private void populate(FluidResponse response, EnumSet<Field> fields) throws FOMException, JSONException {
         JSONObject jsonResult = this.getJsonObject(response);
-        this.about = jsonResult.getString("about");
+        if(fields.contains(Field.ABOUT)){
+            this.about = jsonResult.getString("about");
+        }
         if(jsonResult.has("tagPaths")){
             this.tagPaths = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("tagPaths"));
         } else {
@@ -98,10 +187,14 @@ public class Object extends BaseFOM{
     public String getAbout() throws FOMException {
         // If this.about is null then call back to FluidDB to check its value
         if(this.about==null){
-            try {
-                this.getItem();
-            } catch(Exception ex) {
-                throw new FOMException("Unable to get the value of the 'about' tag.", ex);
+            synchronized(this.loading){
+                if(this.about==null){
+                    try {
+                        this.getItem(EnumSet.of(Field.ABOUT));
+                    } catch(Exception ex) {
+                        throw new FOMException("Unable to get the value of the 'about' tag.", ex);
+                    }
+                }
             }
         }
         return this.about;
@@ -118,10 +211,14 @@ public class Object extends BaseFOM{
     public String[] getTagPaths() throws FOMException {
         // If this.tagPaths is null then call back to FluidDB to check its value
         if(this.tagPaths==null){
-            try {
-                this.getItem();
-            } catch(Exception ex) {
-                throw new FOMException("Unable to get tag paths.", ex);
+            synchronized(this.loading){
+                if(this.tagPaths==null){
+                    try {
+                        this.getItem(EnumSet.of(Field.TAG_PATHS));
+                    } catch(Exception ex) {
+                        throw new FOMException("Unable to get tag paths.", ex);
+                    }
+                }
             }
         }
         return this.tagPaths;
@@ -138,7 +235,15 @@ public class Object extends BaseFOM{
      */
     public boolean hasTag(String path) throws FluidException, IOException {
         String[] pathToTag = {this.rootPath, this.path, path};
-        FluidResponse response = this.fdb.Call(Method.HEAD, StringUtil.URIJoin(pathToTag));
+        String tagPath = StringUtil.URIJoin(pathToTag);
+        if(NegativeCache.isAbsent(this.fdb, tagPath)){
+            return false;
+        }
+        long since = NegativeCache.begin(this.fdb);
+        FluidResponse response = this.fdb.Call(Method.HEAD, tagPath);
+        if(response.getResponseCode()==404){
+            NegativeCache.absent(this.fdb, tagPath, since);
+        }
         return response.getResponseCode()==200;
     }
     
@@ -166,6 +271,7 @@ public class Object extends BaseFOM{
     public void deleteTag(String path) throws FOMException, FluidException, IOException {
         String[] pathToTag = {this.rootPath, this.path, path};
         FluidResponse response = this.fdb.Call(Method.DELETE, StringUtil.URIJoin(pathToTag));
+        IdentityMap.invalidate(this.fdb, this.getPath());
         if(response.getResponseCode()==401){
             throw new FOMException("You don't have persmission to do that.");
         }
@@ -248,6 +354,57 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, String[] values) throws FluidException, IOException {
+        this.tagPrimitive(tag, this.toJsonArray(values));
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and an opaque value read from a stream, 
+     * which is sent as it is read rather than being loaded into memory first (the stream is 
+     * left open)
+     * @param tag the tag to associate with this object
+     * @param value the stream to read the value from
+     * @param mimeType the MIME type of the value, e.g. image/png
+     * @param length the number of bytes to read from the stream, or -1 to read to the end 
+     * of it (the value is then sent chunked)
+     * @throws FluidException
+     * @throws IOException
+     */
+    public void tag(Tag tag, InputStream value, String mimeType, long length) throws FluidException, IOException {
+        this.tagOpaque(tag, RequestBody.of(value, length), mimeType);
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the contents of a file as an opaque 
+     * value, which is sent straight from the file
+     * @param tag the tag to associate with this object
+     * @param value the file holding the value
+     * @param mimeType the MIME type of the value, e.g. application/pdf
+     * @throws FluidException
+     * @throws IOException
+     */
+    public void tag(Tag tag, Path value, String mimeType) throws FluidException, IOException {
+        this.tagOpaque(tag, RequestBody.of(value), mimeType);
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and an opaque value read from a channel's
+     * current position to its end (the channel's position isn't moved and it is left open)
+     * @param tag the tag to associate with this object
+     * @param value the channel holding the value
+     * @param mimeType the MIME type of the value, e.g. application/pdf
+     * @throws FluidException
+     * @throws IOException
+     */
+    public void tag(Tag tag, FileChannel value, String mimeType) throws FluidException, IOException {
+        this.tagOpaque(tag, RequestBody.of(value), mimeType);
+    }
+    
+    /**
+     * Encodes a string array as a json array
+     * @param values the strings to encode
+     * @return the json representation of the values
+     */
+    private String toJsonArray(String[] values) {
         StringBuffer jsonArray = new StringBuffer();
         jsonArray.append("[ ");
         for(int i=0; i<values.length; i++) {
@@ -256,7 +413,73 @@ public class Object extends BaseFOM{
         }
         jsonArray.deleteCharAt(jsonArray.length()-1);
         jsonArray.append(" ]");
-        this.tagPrimitive(tag, jsonArray.toString());
+        return jsonArray.toString();
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated value "null" without
+     * blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @return a future that completes once FluidDB has stored the value
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag) {
+        return this.tagPrimitiveAsync(tag, "null");
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated boolean value without
+     * blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @param value the boolean value of the tag on this object
+     * @return a future that completes once FluidDB has stored the value
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag, boolean value) {
+        return this.tagPrimitiveAsync(tag, Boolean.toString(value));
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated integer value without
+     * blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @param value the integer value of the tag on this object
+     * @return a future that completes once FluidDB has stored the value
+     * @throws JSONException
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag, int value) throws JSONException {
+        return this.tagPrimitiveAsync(tag, JSONObject.numberToString(value));
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated double (floating point)
+     * value without blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @param value the floating point value of the tag on this object
+     * @return a future that completes once FluidDB has stored the value
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag, double value) {
+        return this.tagPrimitiveAsync(tag, JSONObject.doubleToString(value));
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated string value without
+     * blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @param value the string value of the tag on this object
+     * @return a future that completes once FluidDB has stored the value
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag, String value) {
+        return this.tagPrimitiveAsync(tag, JSONObject.quote(value));
+    }
+    
+    /**
+     * Tag this object with the passed Tag instance and the associated string array value 
+     * without blocking the calling thread
+     * @param tag the tag to associate with this object
+     * @param values the string array value of the tag on this object
+     * @return a future that completes once FluidDB has stored the value
+     */
+    public CompletableFuture<FluidResponse> tagAsync(Tag tag, String[] values) {
+        return this.tagPrimitiveAsync(tag, this.toJsonArray(values));
     }
     
     /**
@@ -268,7 +491,50 @@ public class Object extends BaseFOM{
      */
     private void tagPrimitive(Tag tag, String jsonValue) throws FluidException, IOException {
         String[] tagPath = {this.getPath(), tag.path};
-        this.Call(Method.PUT, 204, jsonValue, StringUtil.URIJoin(tagPath), "application/vnd.fluiddb.value+json");
+        String tagPathURI = StringUtil.URIJoin(tagPath);
+        try {
+            this.Call(Method.PUT, 204, jsonValue, tagPathURI, "application/vnd.fluiddb.value+json");
+        } finally {
+            // the kept copy's tag paths may be out of date now
+            IdentityMap.invalidate(this.fdb, this.getPath());
+            // once written, so a check begun before this can't remember it missing
+            NegativeCache.present(this.fdb, tagPathURI);
+        }
+    }
+    
+    /**
+     * Tags this object with the passed tag and an opaque value streamed from its source
+     * @param tag the tag to associate with this object
+     * @param value the value of the tag on this object
+     * @param mimeType the MIME type of the value
+     * @throws FluidException
+     * @throws IOException
+     */
+    private void tagOpaque(Tag tag, RequestBody value, String mimeType) throws FluidException, IOException {
+        String[] tagPath = {this.getPath(), tag.path};
+        String tagPathURI = StringUtil.URIJoin(tagPath);
+        try {
+            this.Call(Method.PUT, 204, value, tagPathURI, mimeType);
+        } finally {
+            IdentityMap.invalidate(this.fdb, this.getPath());
+            NegativeCache.present(this.fdb, tagPathURI);
+        }
+    }
+    
+    /**
+     * Tags this object with the passed tag and primitive jsonValue without blocking
+     * @param tag the tag to associate with this object
+     * @param jsonValue the value of the tag on this object expressed in json
+     * @return a future that completes once FluidDB has stored the value
+     */
+    private CompletableFuture<FluidResponse> tagPrimitiveAsync(Tag tag, String jsonValue) {
+        String[] tagPath = {this.getPath(), tag.path};
+        final String tagPathURI = StringUtil.URIJoin(tagPath);
+        return this.CallAsync(Method.PUT, 204, jsonValue, new Hashtable<String, String>(), tagPathURI, "application/vnd.fluiddb.value+json")
+                .whenComplete((response, e) -> {
+                    IdentityMap.invalidate(this.fdb, this.getPath());
+                    NegativeCache.present(this.fdb, tagPathURI);
+                });
     }
     
     /**
@@ -282,4 +548,76 @@ public class Object extends BaseFOM{
         String[] tagPath = {this.getPath(), tag.path};
         return this.Call(Method.GET, 200, "", new Hashtable<String, String>(), StringUtil.URIJoin(tagPath));
     }
+    
+    /**
+     * Copies the value of the passed tag to a stream as it arrives, rather than holding it 
+     * in memory (the stream is left open)
+     * @param tag the tag whose value we're interested in
+     * @param out where to write the value
+     * @return the response from FluidDB, with the value's content type and the number of 
+     * bytes written (see FluidResponse.getResponseStreamedLength)
+     * @throws FluidException
+     * @throws IOException
+     */
+    public FluidResponse getTagValue(Tag tag, OutputStream out) throws FluidException, IOException {
+        return this.getTagValue(tag, out, 0, -1);
+    }
+    
+    /**
+     * Copies part of the value of the passed tag to a stream as it arrives (the stream is 
+     * left open)
+     * @param tag the tag whose value we're interested in
+     * @param out where to write the value
+     * @param offset the first byte wanted
+     * @param length the number of bytes wanted, or -1 for everything from the offset on
+     * @return the response from FluidDB: a 206 with a Content-Range header if just the part
+     * asked for was sent, or a 200 if FluidDB sent the whole value
+     * @throws FluidException
+     * @throws IOException
+     */
+    public FluidResponse getTagValue(Tag tag, OutputStream out, long offset, long length) throws FluidException, IOException {
+        String[] tagPath = {this.getPath(), tag.path};
+        return this.Call(Method.GET, ResponseBody.of(out), offset, length, StringUtil.URIJoin(tagPath));
+    }
+    
+    /**
+     * Copies the value of the passed tag to a file as it arrives, replacing the file if it 
+     * already exists
+     * @param tag the tag whose value we're interested in
+     * @param file where to write the value
+     * @return the response from FluidDB, with the value's content type and the number of 
+     * bytes written (see FluidResponse.getResponseStreamedLength)
+     * @throws FluidException
+     * @throws IOException
+     */
+    public FluidResponse getTagValueTo(Tag tag, Path file) throws FluidException, IOException {
+        return this.getTagValueTo(tag, file, 0, -1);
+    }
+    
+    /**
+     * Copies part of the value of the passed tag to a file as it arrives, replacing the file
+     * if it already exists
+     * @param tag the tag whose value we're interested in
+     * @param file where to write the value
+     * @param offset the first byte wanted
+     * @param length the number of bytes wanted, or -1 for everything from the offset on
+     * @return the response from FluidDB: a 206 with a Content-Range header if just the part
+     * asked for was sent, or a 200 if FluidDB sent the whole value
+     * @throws FluidException
+     * @throws IOException
+     */
+    public FluidResponse getTagValueTo(Tag tag, Path file, long offset, long length) throws FluidException, IOException {
+        String[] tagPath = {this.getPath(), tag.path};
+        return this.Call(Method.GET, ResponseBody.of(file), offset, length, StringUtil.URIJoin(tagPath));
+    }
+    
+    /**
+     * Returns a future for the FluidResponse containing the value of the passed tag
+     * @param tag the tag whose value we're interested in
+     * @return a future for the tag's value expressed as a FluidResponse
+     */
+    public CompletableFuture<FluidResponse> getTagValueAsync(Tag tag) {
+        String[] tagPath = {this.getPath(), tag.path};
+        return this.CallAsync(Method.GET, 200, "", new Hashtable<String, String>(), StringUtil.URIJoin(tagPath), "application/json; charset=utf-8");
+    }
 }
@@ -30,7 +30,9 @@ import org.json.JSONObject;
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.metrics.FOMEvent;
 import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
 
 /**
  * 
@@ -52,12 +54,12 @@ public class Tag extends BaseFOM {
 	/**
 	 * The description associated with this tag
 	 */
-	private String description = null;
+	private volatile String description = null;
 	
 	/**
 	 * Whether of not tag values should be indexed
 	 */
-	private boolean indexed = true;
+	private volatile boolean indexed = true;
 	
 	public Tag(FluidConnector fdb, String id, String path) throws FOMException {
 		super(fdb, id);
@@ -87,13 +89,20 @@ public class Tag extends BaseFOM {
 	@Override
 	public void getItem() throws FluidException, IOException, FOMException,
 			JSONException {
-		Hashtable<String, String> args = new Hashtable<String, String>();
-		args.put("returnDescription", "True");
-		FluidResponse response = this.Call(Method.GET, 200, "", args);
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.description = jsonResult.getString("description");
-		this.indexed = jsonResult.getBoolean("indexed");
+		FOMEvent event = this.beginEvent();
+		boolean succeeded = false;
+		try {
+			Hashtable<String, String> args = new Hashtable<String, String>();
+			args.put("returnDescription", "True");
+			FluidResponse response = this.Call(Method.GET, 200, "", args);
+			JSONObject jsonResult = this.getJsonObject(response);
+			this.id = jsonResult.getString("id");
+			this.description = jsonResult.getString("description");
+			this.indexed = jsonResult.getBoolean("indexed");
+			succeeded = true;
+		} finally {
+			this.commitEvent(event, "getItem", succeeded);
+		}
 	}
 	
 	/**
@@ -111,10 +120,14 @@ public class Tag extends BaseFOM {
 	 */
 	public String getDescription() throws FOMException {
 		if(this.description==null){
-			try {
-				this.getItem();
-			} catch(Exception ex) {
-				throw new FOMException("Unable to get description.", ex);
+			synchronized(this.loading){
+				if(this.description==null){
+					try {
+						this.getItem();
+					} catch(Exception ex) {
+						throw new FOMException("Unable to get description.", ex);
+					}
+				}
 			}
 		}
 		return this.description;
@@ -132,6 +145,7 @@ public class Tag extends BaseFOM {
 		jsonPayload.put("description", description);
 		this.Call(Method.PUT, 204, jsonPayload.toString());
 		this.description=description;
+		IdentityMap.written(this, false);
 	}
 	
 	/**
@@ -149,6 +163,8 @@ public class Tag extends BaseFOM {
 	 */
 	public void delete() throws FluidException, IOException{
 		this.Call(Method.DELETE, 204, "");
+		String[] namespacePath = {"/namespaces", this.getParentPath()};
+		IdentityMap.invalidate(this.fdb, this.getPath(), StringUtil.URIJoin(namespacePath));
 	}
 
 }
@@ -26,6 +26,7 @@ import java.io.IOException;
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.metrics.FOMEvent;
 import com.fluidinfo.utils.Method;
 
 import org.json.JSONException;
@@ -45,7 +46,7 @@ import org.json.JSONObject;
  */
 public class User extends BaseFOM{
 	
-	private String name;
+	private volatile String name;
 
 	/**
 	 * Constructor
@@ -65,10 +66,17 @@ public class User extends BaseFOM{
 	@Override
 	public void getItem() throws FluidException, IOException, FOMException,
 			JSONException {
-		FluidResponse response = this.Call(Method.GET, 200, "");
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.name = jsonResult.getString("name");
+		FOMEvent event = this.beginEvent();
+		boolean succeeded = false;
+		try {
+			FluidResponse response = this.Call(Method.GET, 200, "");
+			JSONObject jsonResult = this.getJsonObject(response);
+			this.id = jsonResult.getString("id");
+			this.name = jsonResult.getString("name");
+			succeeded = true;
+		} finally {
+			this.commitEvent(event, "getItem", succeeded);
+		}
 	}
 	
 	/**
@@ -91,8 +99,7 @@ public class User extends BaseFOM{
 	 */
 	public Namespace RootNamespace() throws FluidException, IOException, FOMException, JSONException {
 		Namespace rootNamespace = new Namespace(this.fdb, "", this.name);
-		// populate it
-		rootNamespace.getItem();
-		return rootNamespace;
+		// populate it (or hand back the one already populated)
+		return IdentityMap.load(rootNamespace);
 	}
 }
@@ -0,0 +1,135 @@
+package com.fluidinfo.fom.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+
+/**
+ * Checks instances shared between threads only fetch each missing field once (no sandbox 
+ * required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestConcurrentLoading {
+	
+	private final static int THREADS = 16;
+	
+	private FluidDBEmulator emulator = null;
+	
+	private FluidConnector fdb = null;
+	
+	private ExecutorService threads = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.emulator = new FluidDBEmulator();
+		this.emulator.addUser("alice", "secret-a");
+		this.fdb = new FluidConnector();
+		this.fdb.setUrl("http://fluiddb.test");
+		this.fdb.setTransport(this.emulator.getTransport());
+		FluidDB db = new FluidDB(this.fdb);
+		db.Login("alice", "secret-a");
+		db.getNamespace("alice").createTag("rating", "How good it is", true);
+		this.threads = Executors.newFixedThreadPool(THREADS);
+		// long enough for every thread to ask while the first fetch is under way
+		this.emulator.setLatency(100);
+	}
+	
+	@After
+	public void tearDown() {
+		this.threads.shutdownNow();
+	}
+	
+	/**
+	 * Runs some work on every thread at once
+	 * @return what each thread's work returned
+	 */
+	private <T> List<T> everyThread(final Callable<T> work) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for(int i = 0; i < THREADS; i++) {
+			futures.add(this.threads.submit(new Callable<T>() {
+				public T call() throws Exception {
+					start.await();
+					return work.call();
+				}
+			}));
+		}
+		start.countDown();
+		List<T> results = new ArrayList<T>();
+		for(Future<T> future : futures) {
+			results.add(future.get());
+		}
+		return results;
+	}
+	
+	@Test
+	public void testNamespace() throws Exception {
+		final Namespace namespace = new Namespace(this.fdb, "", "alice");
+		long requests = this.emulator.getRequestCount();
+		for(String[] names : this.everyThread(new Callable<String[]>() {
+			public String[] call() throws Exception {
+				return namespace.getTagNames();
+			}
+		})) {
+			assertSame(namespace.getTagNames(), names);
+			assertTrue(Arrays.asList(names).contains("rating"));
+		}
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		// a different field is fetched on its own, again only once
+		for(String description : this.everyThread(new Callable<String>() {
+			public String call() throws Exception {
+				return namespace.getDescription();
+			}
+		})) {
+			assertNotNull(description);
+		}
+		assertEquals(requests + 2, this.emulator.getRequestCount());
+	}
+	
+	@Test
+	public void testTagAndObject() throws Exception {
+		final Tag tag = new Tag(this.fdb, "", "alice/rating");
+		long requests = this.emulator.getRequestCount();
+		for(String description : this.everyThread(new Callable<String>() {
+			public String call() throws Exception {
+				return tag.getDescription();
+			}
+		})) {
+			assertEquals("How good it is", description);
+		}
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		
+		Object created = new FluidDB(this.fdb).createObject("shared");
+		final Object o = new Object(this.fdb, created.getId(), created.getId());
+		requests = this.emulator.getRequestCount();
+		for(String about : this.everyThread(new Callable<String>() {
+			public String call() throws Exception {
+				String about = o.getAbout();
+				// the tag paths came back with the about tag
+				o.getTagPaths();
+				return about;
+			}
+		})) {
+			assertEquals("shared", about);
+		}
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+	}
+}
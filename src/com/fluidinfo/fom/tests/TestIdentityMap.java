@@ -0,0 +1,151 @@
+package com.fluidinfo.fom.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.IdentityMap;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+
+/**
+ * Checks the identity map hands back the same instances and keeps them up to date (no 
+ * sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestIdentityMap {
+	
+	private FluidDBEmulator emulator = null;
+	
+	private FluidConnector fdb = null;
+	
+	private FluidDB db = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.emulator = new FluidDBEmulator();
+		this.emulator.addUser("alice", "secret-a");
+		this.emulator.addUser("bob", "secret-b");
+		this.fdb = new FluidConnector();
+		this.fdb.setUrl("http://fluiddb.test");
+		this.fdb.setTransport(this.emulator.getTransport());
+		IdentityMap.attach(this.fdb, new IdentityMap());
+		this.db = new FluidDB(this.fdb);
+		this.db.Login("alice", "secret-a");
+		this.db.getNamespace("alice").createTag("rating", "How good it is", true);
+		IdentityMap.of(this.fdb).clear();
+	}
+	
+	@Test
+	public void testSameInstance() throws Exception {
+		IdentityMap map = IdentityMap.of(this.fdb);
+		Tag tag = this.db.getTag("alice/rating");
+		long requests = this.emulator.getRequestCount();
+		assertSame(tag, this.db.getTag("alice/rating"));
+		assertSame(tag, this.db.getTag("/alice/rating/"));
+		assertSame(tag, this.db.getNamespace("alice").getTag("rating"));
+		assertSame(this.db.getNamespace("alice"), this.db.getLoggedInUser().RootNamespace());
+		assertSame(this.db.getUser("alice"), this.db.getLoggedInUser());
+		assertEquals(requests + 2, this.emulator.getRequestCount());
+		// one more miss from setting up
+		assertEquals(4, map.getMissCount());
+		assertEquals(7, map.getHitCount());
+		
+		// another user gets their own instance
+		FluidDB bob = this.db.session("bob", "secret-b");
+		Tag bobs = bob.getTag("alice/rating");
+		assertNotSame(tag, bobs);
+		assertSame(bobs, bob.getTag("alice/rating"));
+		assertEquals(tag.getId(), bobs.getId());
+		
+		// without the map every call fetches a new one
+		IdentityMap.attach(this.fdb, null);
+		assertNotSame(this.db.getTag("alice/rating"), this.db.getTag("alice/rating"));
+	}
+	
+	@Test
+	public void testWriteThrough() throws Exception {
+		IdentityMap map = IdentityMap.of(this.fdb);
+		FluidDB bob = this.db.session("bob", "secret-b");
+		Tag tag = this.db.getTag("alice/rating");
+		Tag bobs = bob.getTag("alice/rating");
+		tag.setDescription("How much I like it");
+		// the changed instance is still kept, everyone else's copy is gone
+		assertSame(tag, this.db.getTag("alice/rating"));
+		Tag bobsAgain = bob.getTag("alice/rating");
+		assertNotSame(bobs, bobsAgain);
+		assertEquals("How much I like it", bobsAgain.getDescription());
+		
+		// new tags and namespaces are kept, and their namespace is fetched again
+		Namespace namespace = this.db.getNamespace("alice");
+		assertFalse(Arrays.asList(namespace.getTagNames()).contains("seen"));
+		Tag seen = namespace.createTag("seen", "", false);
+		assertSame(seen, this.db.getTag("alice/seen"));
+		Namespace books = namespace.createNamespace("books", "Books");
+		assertSame(books, this.db.getNamespace("alice/books"));
+		Namespace again = this.db.getNamespace("alice");
+		assertNotSame(namespace, again);
+		assertTrue(Arrays.asList(again.getTagNames()).contains("seen"));
+		assertTrue(Arrays.asList(again.getNamespaceNames()).contains("books"));
+		
+		// deleting throws away the item and its namespace
+		seen.delete();
+		books.delete();
+		try {
+			this.db.getTag("alice/seen");
+			fail("Expected a FluidException");
+		} catch (FluidException e) {
+			// expected
+		}
+		assertFalse(Arrays.asList(this.db.getNamespace("alice").getTagNames()).contains("seen"));
+		assertFalse(Arrays.asList(this.db.getNamespace("alice").getNamespaceNames()).contains("books"));
+		
+		// tagging an object throws away the kept copy with the old tag paths
+		Object o = this.db.createObject("identity");
+		Object kept = this.db.getObject(o.getId());
+		assertSame(kept, this.db.getObject(o.getId()));
+		assertSame(kept, this.db.getObjectAsync(o.getId()).get());
+		kept.tag(tag, 5);
+		Object tagged = this.db.getObject(o.getId());
+		assertNotSame(kept, tagged);
+		assertTrue(Arrays.asList(tagged.getTagPaths()).contains("alice/rating"));
+		assertTrue(map.getInvalidationCount() > 0);
+	}
+	
+	@Test
+	public void testEvictionAndExpiry() throws Exception {
+		IdentityMap map = new IdentityMap(2, 100);
+		IdentityMap.attach(this.fdb, map);
+		Namespace namespace = this.db.getNamespace("alice");
+		namespace.createTag("a", "", false);
+		namespace.createTag("b", "", false);
+		map.clear();
+		Tag a = this.db.getTag("alice/a");
+		this.db.getTag("alice/b");
+		this.db.getTag("alice/rating");
+		assertEquals(2, map.getEntryCount());
+		assertEquals(1, map.getEvictionCount());
+		// a was the least recently used
+		assertNotSame(a, this.db.getTag("alice/a"));
+		Tag rating = this.db.getTag("alice/rating");
+		assertSame(rating, this.db.getTag("alice/rating"));
+		Thread.sleep(150);
+		assertNotSame(rating, this.db.getTag("alice/rating"));
+		assertEquals(1, map.getExpiredCount());
+		try {
+			new IdentityMap(0, 100);
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -7,6 +7,7 @@ import org.json.JSONException;
 import com.fluidinfo.*;
 import com.fluidinfo.fom.*;
 import com.fluidinfo.tests.TestUtils;
+import java.util.EnumSet;
 import java.util.UUID;
 
 /**
@@ -42,6 +43,27 @@ public class TestNamespace extends Namespace {
 		assertEquals(true, testNamespace.getId().length()>0);
 	}
 	
+	@Test
+	public void testGetItemFields() throws Exception {
+		this.getItem(EnumSet.of(Namespace.Field.DESCRIPTION));
+		assertNotNull(this.description);
+		assertNull(this.namespaces);
+		assertNull(this.tags);
+		// the lazy getters only fetch what's missing
+		long calls = this.fdb.getMetrics().getTotalCalls();
+		this.getDescription();
+		assertEquals(calls, this.fdb.getMetrics().getTotalCalls());
+		this.getTagNames();
+		assertNotNull(this.tags);
+		assertNull(this.namespaces);
+		assertEquals(calls+1, this.fdb.getMetrics().getTotalCalls());
+		this.getNamespaceNames();
+		assertNotNull(this.namespaces);
+		assertEquals(calls+2, this.fdb.getMetrics().getTotalCalls());
+		this.getItem(EnumSet.noneOf(Namespace.Field.class));
+		assertTrue(this.getId().length()>0);
+	}
+	
 	@Test
 	public void testGetSetDescription() throws FOMException, JSONException, FluidException, IOException {
 		// We'll make use of the user's default root namespace (defined by their username)
@@ -0,0 +1,221 @@
+package com.fluidinfo.fom.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletionException;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.NegativeCache;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.utils.BloomFilter;
+
+/**
+ * Checks what FluidDB says is missing isn't asked for again until it's created (no 
+ * sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestNegativeCache {
+	
+	private FluidDBEmulator emulator = null;
+	
+	private FluidConnector fdb = null;
+	
+	private FluidDB db = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.emulator = new FluidDBEmulator();
+		this.emulator.addUser("alice", "secret-a");
+		this.fdb = new FluidConnector();
+		this.fdb.setUrl("http://fluiddb.test");
+		this.fdb.setTransport(this.emulator.getTransport());
+		NegativeCache.attach(this.fdb, new NegativeCache());
+		this.db = new FluidDB(this.fdb);
+		this.db.Login("alice", "secret-a");
+	}
+	
+	private void assertMissingTag(String path) throws Exception {
+		try {
+			this.db.getTag(path);
+			fail("Expected a FluidException");
+		} catch (FluidException e) {
+			assertTrue(e.getMessage().contains("404"));
+		}
+	}
+	
+	@Test
+	public void testHasTag() throws Exception {
+		NegativeCache cache = NegativeCache.of(this.fdb);
+		Namespace namespace = this.db.getNamespace("alice");
+		Tag rating = namespace.createTag("rating", "", false);
+		Object o = this.db.createObject("negative");
+		long requests = this.emulator.getRequestCount();
+		assertFalse(o.hasTag(rating));
+		assertFalse(o.hasTag(rating));
+		assertFalse(o.hasTag("/alice/rating/"));
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		assertEquals(2, cache.getHitCount());
+		// getting the value is known to fail too
+		try {
+			o.getTagValue(rating);
+			fail("Expected a FluidException");
+		} catch (FluidException e) {
+			// expected
+		}
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		// tagging forgets it was missing
+		o.tag(rating, 5);
+		assertTrue(o.hasTag(rating));
+		assertEquals(200, o.getTagValue(rating).getResponseCode());
+		assertEquals(1, cache.getInvalidationCount());
+		// as does tagging through another instance of the object on the same connector
+		Tag seen = namespace.createTag("seen", "", false);
+		assertFalse(o.hasTag(seen));
+		new Object(this.fdb, o.getId(), o.getId()).tagAsync(seen).get();
+		assertTrue(o.hasTag(seen));
+	}
+	
+	@Test
+	public void testAsync() throws Exception {
+		NegativeCache cache = NegativeCache.of(this.fdb);
+		Tag rating = this.db.getNamespace("alice").createTag("rating", "", false);
+		Object o = this.db.createObject("async");
+		long requests = this.emulator.getRequestCount();
+		for(int i = 0; i < 2; i++) {
+			try {
+				o.getTagValueAsync(rating).join();
+				fail("Expected a FluidException");
+			} catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof FluidException);
+			}
+		}
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		assertEquals(1, cache.getHitCount());
+		// the blocking calls know about it too
+		assertFalse(o.hasTag(rating));
+		assertEquals(requests + 1, this.emulator.getRequestCount());
+		// tagging forgets it was missing
+		o.tagAsync(rating, 5).get();
+		assertEquals(200, o.getTagValueAsync(rating).get().getResponseCode());
+	}
+	
+	@Test
+	public void testMissingPaths() throws Exception {
+		Namespace namespace = this.db.getNamespace("alice");
+		long requests = this.emulator.getRequestCount();
+		this.assertMissingTag("alice/books");
+		this.assertMissingTag("alice/books");
+		try {
+			this.db.getNamespace("alice/books");
+			fail("Expected a FluidException");
+		} catch (FluidException e) {
+			// expected
+		}
+		try {
+			namespace.getNamespace("books");
+			fail("Expected a FluidException");
+		} catch (FluidException e) {
+			// expected
+		}
+		assertEquals(requests + 2, this.emulator.getRequestCount());
+		// creating them forgets they were missing
+		namespace.createTag("books", "", false);
+		namespace.createNamespace("books", "");
+		assertEquals("books", this.db.getTag("alice/books").getName());
+		assertEquals("books", this.db.getNamespace("alice/books").getName());
+		// without the cache FluidDB is asked every time
+		NegativeCache.attach(this.fdb, null);
+		requests = this.emulator.getRequestCount();
+		this.assertMissingTag("alice/films");
+		this.assertMissingTag("alice/films");
+		assertEquals(requests + 2, this.emulator.getRequestCount());
+	}
+	
+	@Test
+	public void testExpiryAndSize() throws Exception {
+		NegativeCache cache = new NegativeCache(8, 200, 0.001);
+		cache.addAbsent("/tags/alice/a");
+		assertTrue(cache.isAbsent("/tags/alice/a"));
+		assertFalse(cache.isAbsent("/tags/alice/b"));
+		cache.invalidate("/tags/alice/a");
+		assertFalse(cache.isAbsent("/tags/alice/a"));
+		cache.addAbsent("/tags/alice/a");
+		assertTrue(cache.isAbsent("/tags/alice/a"));
+		// gone once the time to live has passed
+		Thread.sleep(250);
+		assertFalse(cache.isAbsent("/tags/alice/a"));
+		// and the oldest are forgotten early to keep within the size
+		for(int i = 0; i < 20; i++) {
+			cache.addAbsent("/tags/alice/"+i);
+		}
+		assertTrue(cache.getEntryCount() <= 8);
+		assertTrue(cache.getEvictionCount() > 0);
+		assertTrue(cache.isAbsent("/tags/alice/19"));
+		assertFalse(cache.isAbsent("/tags/alice/0"));
+	}
+	
+	@Test
+	public void testLookupRacingCreate() throws Exception {
+		NegativeCache cache = new NegativeCache(8, 60000, 0.001);
+		// a lookup begins, the tag is created, then the lookup's 404 arrives
+		long since = cache.begin();
+		cache.invalidate("/objects/1/alice/rating");
+		cache.addAbsent("/objects/1/alice/rating", since);
+		assertFalse(cache.isAbsent("/objects/1/alice/rating"));
+		// a lookup begun after the create is remembered
+		since = cache.begin();
+		cache.addAbsent("/objects/1/alice/rating", since);
+		assertTrue(cache.isAbsent("/objects/1/alice/rating"));
+		// as are other paths looked up at the same time
+		since = cache.begin();
+		cache.invalidate("/objects/1/alice/seen");
+		cache.addAbsent("/objects/1/alice/books", since);
+		assertTrue(cache.isAbsent("/objects/1/alice/books"));
+		// once more paths have been created than are kept, older lookups aren't remembered
+		since = cache.begin();
+		for(int i = 0; i < 20; i++) {
+			cache.invalidate("/objects/2/alice/"+i);
+		}
+		cache.addAbsent("/objects/3/alice/rating", since);
+		assertFalse(cache.isAbsent("/objects/3/alice/rating"));
+		// the same goes for a check in flight while an object is tagged
+		Namespace namespace = this.db.getNamespace("alice");
+		Tag rating = namespace.createTag("rating", "", false);
+		Object o = this.db.createObject("racing");
+		String path = "/objects/"+o.getId()+"/alice/rating";
+		since = NegativeCache.of(this.fdb).begin();
+		o.tag(rating, 5);
+		NegativeCache.of(this.fdb).addAbsent(path, since);
+		assertTrue(o.hasTag(rating));
+	}
+
+	@Test
+	public void testBloomFilter() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for(int i = 0; i < 10000; i++) {
+			filter.add("/objects/"+i+"/test/rating");
+		}
+		for(int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain("/objects/"+i+"/test/rating"));
+		}
+		int falsePositives = 0;
+		for(int i = 10000; i < 20000; i++) {
+			if(filter.mightContain("/objects/"+i+"/test/rating")) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 200);
+		assertTrue(filter.getBitCount() < 10000 * 10);
+		filter.clear();
+		assertFalse(filter.mightContain("/objects/1/test/rating"));
+	}
+}
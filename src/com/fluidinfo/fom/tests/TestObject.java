@@ -8,6 +8,11 @@ import com.fluidinfo.FluidResponse;
 import com.fluidinfo.fom.*;
 import com.fluidinfo.fom.Object;
 import com.fluidinfo.tests.TestUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
 import java.util.UUID;
 
 /**
@@ -51,6 +56,24 @@ public class TestObject extends Object {
         assertEquals(true, o.getTagPaths().length>1);
     }
     
+    @Test
+    public void testGetItemFields() throws Exception {
+        Object o = new Object(this.fdb, "", this.getId());
+        o.getItem(EnumSet.of(Object.Field.TAG_PATHS));
+        long calls = this.fdb.getMetrics().getTotalCalls();
+        assertEquals(true, o.getTagPaths().length>1);
+        assertEquals(calls, this.fdb.getMetrics().getTotalCalls());
+        // only the missing field is fetched
+        assertEquals(true, o.getAbout().length()>0);
+        assertEquals(calls+1, this.fdb.getMetrics().getTotalCalls());
+        Object about = new Object(this.fdb, "", this.getId());
+        about.getItem(EnumSet.of(Object.Field.ABOUT));
+        assertEquals(o.getAbout(), about.getAbout());
+        // the tag paths come back anyway
+        assertEquals(o.getTagPaths().length, about.getTagPaths().length);
+        assertEquals(calls+2, this.fdb.getMetrics().getTotalCalls());
+    }
+    
     @Test
     public void testGetAbout() throws Exception {
         Object o = new Object(this.fdb, "", this.getId());
@@ -261,4 +284,67 @@ public class TestObject extends Object {
         o.deleteTag(t);
         t.delete();
     }
+    
+    @Test
+    public void testTagOpaque() throws Exception {
+        Object o = new Object(this.fdb, this.getId(), this.getId());
+        User u = new User(this.fdb, "", this.fdb.getUsername());
+        Namespace n = u.RootNamespace();
+        String tagName = UUID.randomUUID().toString();
+        Tag t = n.createTag(tagName, "A test tag", true);
+        // Stream an opaque value with its own MIME type
+        byte[] value = "<html><body>Hello</body></html>".getBytes("UTF-8");
+        o.tag(t, new ByteArrayInputStream(value), "text/html", value.length);
+        assertEquals(true, o.hasTag(t));
+        FluidResponse fr = o.getTagValue(t);
+        assertEquals("<html><body>Hello</body></html>", fr.getResponseContent());
+        assertEquals("text/html", fr.getResponseContentType());
+        // and from a file
+        Path file = Files.createTempFile("jfluiddb", ".txt");
+        try {
+            Files.write(file, "Hello world".getBytes("UTF-8"));
+            o.tag(t, file, "text/plain");
+        } finally {
+            Files.delete(file);
+        }
+        fr = o.getTagValue(t);
+        assertEquals("Hello world", fr.getResponseContent());
+        assertEquals("text/plain", fr.getResponseContentType());
+        // Housekeeping
+        o.deleteTag(t);
+        t.delete();
+    }
+    
+    @Test
+    public void testGetTagValueStreaming() throws Exception {
+        Object o = new Object(this.fdb, this.getId(), this.getId());
+        User u = new User(this.fdb, "", this.fdb.getUsername());
+        Namespace n = u.RootNamespace();
+        String tagName = UUID.randomUUID().toString();
+        Tag t = n.createTag(tagName, "A test tag", true);
+        byte[] value = "0123456789".getBytes("UTF-8");
+        o.tag(t, new ByteArrayInputStream(value), "text/plain", value.length);
+        // the whole value straight to a stream
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FluidResponse fr = o.getTagValue(t, out);
+        assertEquals("0123456789", out.toString("UTF-8"));
+        assertEquals("text/plain", fr.getResponseContentType());
+        assertEquals(10, fr.getResponseStreamedLength());
+        // part of it to a file (FluidDB may send the whole value instead)
+        Path file = Files.createTempFile("jfluiddb", ".txt");
+        try {
+            fr = o.getTagValueTo(t, file, 2, 3);
+            String content = new String(Files.readAllBytes(file), "UTF-8");
+            if(fr.getResponseCode() == 206) {
+                assertEquals("234", content);
+            } else {
+                assertEquals("0123456789", content);
+            }
+        } finally {
+            Files.delete(file);
+        }
+        // Housekeeping
+        o.deleteTag(t);
+        t.delete();
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for a call made through FluidConnector.Call, from building
+ * the request to the response coming back (including any retries)
+ * 
+ * The fields are only filled in when the event is going to be recorded, so calls cost next
+ * to nothing when Flight Recorder isn't running.
+ * 
+ * @author rossjones
+ *
+ */
+@Name("com.fluidinfo.Call")
+@Label("FluidDB Call")
+@Category({"FluidDB"})
+@Description("A call to FluidDB")
+public class CallEvent extends Event {
+    
+    /**
+     * The call was answered over the network first time
+     */
+    public final static String NETWORK = "network";
+    
+    /**
+     * The call was answered over the network after one or more retries
+     */
+    public final static String RETRIED = "retried";
+    
+    /**
+     * The call was answered from the response cache
+     */
+    public final static String CACHED = "cache";
+    
+    /**
+     * The call was answered from the cache once FluidDB said the entry was still fresh
+     */
+    public final static String REVALIDATED = "revalidated";
+    
+    /**
+     * The call shared the response of an identical call already in flight
+     */
+    public final static String COALESCED = "coalesced";
+    
+    /**
+     * The call threw an exception
+     */
+    public final static String FAILED = "failed";
+    
+    @Label("Method")
+    public String method;
+    
+    @Label("Path Template")
+    @Description("The kind of resource called, e.g. /objects/{id}/{tag}")
+    public String pathTemplate;
+    
+    @Label("Path")
+    public String path;
+    
+    @Label("Status")
+    @Description("The HTTP status code (-1 if the call failed)")
+    public int status;
+    
+    @Label("Request Bytes")
+    @DataAmount
+    public long requestBytes;
+    
+    @Label("Response Bytes")
+    @Description("The size of the response body as it came over the wire")
+    @DataAmount
+    public long responseBytes;
+    
+    @Label("Attempts")
+    public int attempts;
+    
+    @Label("Outcome")
+    @Description("network, retried, cache, revalidated, coalesced or failed")
+    public String outcome;
+    
+    @Label("Request Id")
+    @Description("The X-FluidDB-Request-Id response header")
+    public String requestId;
+}
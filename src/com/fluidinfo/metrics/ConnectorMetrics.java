@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Latency histograms and counters for every call a FluidConnector makes, kept per method
+ * and path template (see PathTemplate)
+ * 
+ * The counters for every method and template are created up front, so finding them and 
+ * recording a call never allocates or takes a lock. Read them with snapshot() or over JMX 
+ * once registerMBean has been called.
+ * 
+ * @author rossjones
+ *
+ */
+public class ConnectorMetrics implements ConnectorMetricsMXBean {
+    
+    private final EndpointMetrics[][] endpoints;
+    
+    private volatile ObjectName objectName = null;
+    
+    /**
+     * Constructor
+     */
+    public ConnectorMetrics() {
+        Method[] methods = Method.values();
+        this.endpoints = new EndpointMetrics[methods.length][PathTemplate.COUNT];
+        for(Method m : methods) {
+            for(int i = 0; i < PathTemplate.COUNT; i++) {
+                this.endpoints[m.ordinal()][i] = new EndpointMetrics(m, PathTemplate.get(i));
+            }
+        }
+    }
+    
+    /**
+     * Finds the counters for a call
+     * @param m the HTTP method
+     * @param path the path called, e.g. /objects/1234
+     * @return the counters for the method and the path's template
+     */
+    public EndpointMetrics getEndpoint(Method m, String path) {
+        return this.endpoints[m.ordinal()][PathTemplate.indexOf(path)];
+    }
+    
+    /**
+     * @return a snapshot of every method and path template that has been called
+     */
+    public List<EndpointSnapshot> snapshot() {
+        List<EndpointSnapshot> snapshots = new ArrayList<EndpointSnapshot>();
+        for(EndpointMetrics[] byTemplate : this.endpoints) {
+            for(EndpointMetrics endpoint : byTemplate) {
+                EndpointSnapshot snapshot = endpoint.snapshot();
+                if(snapshot.getCount() > 0 || snapshot.getInFlight() > 0) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        return snapshots;
+    }
+    
+    public List<EndpointSnapshot> getEndpoints() {
+        return this.snapshot();
+    }
+    
+    public long getTotalCalls() {
+        long total = 0;
+        for(EndpointSnapshot snapshot : this.snapshot()) {
+            total += snapshot.getCount();
+        }
+        return total;
+    }
+    
+    public int getInFlight() {
+        int inFlight = 0;
+        for(EndpointMetrics[] byTemplate : this.endpoints) {
+            for(EndpointMetrics endpoint : byTemplate) {
+                inFlight += endpoint.getInFlight();
+            }
+        }
+        return inFlight;
+    }
+    
+    public void reset() {
+        for(EndpointMetrics[] byTemplate : this.endpoints) {
+            for(EndpointMetrics endpoint : byTemplate) {
+                endpoint.reset();
+            }
+        }
+    }
+    
+    /**
+     * Publishes the metrics on the platform MBean server as 
+     * com.fluidinfo:type=FluidConnector,name=<i>name</i>
+     * @param name a name for the connector, unique within the JVM
+     * @return the name the metrics were registered under
+     * @throws JMException if they couldn't be registered (e.g. the name is taken)
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        this.unregisterMBean();
+        ObjectName objectName = new ObjectName("com.fluidinfo:type=FluidConnector,name="+ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+        return objectName;
+    }
+    
+    /**
+     * Removes the metrics from the platform MBean server (if they were registered)
+     * @throws JMException if they couldn't be removed
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if(this.objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            this.objectName = null;
+        }
+    }
+}
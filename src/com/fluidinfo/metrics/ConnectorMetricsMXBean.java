@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.List;
+
+/**
+ * The JMX view of a connector's metrics
+ * 
+ * @author rossjones
+ *
+ */
+public interface ConnectorMetricsMXBean {
+    
+    /**
+     * @return a snapshot of every method and path template called so far
+     */
+    List<EndpointSnapshot> getEndpoints();
+    
+    /**
+     * @return the number of calls finished
+     */
+    long getTotalCalls();
+    
+    /**
+     * @return the number of calls in flight
+     */
+    int getInFlight();
+    
+    /**
+     * Zeroes the counters
+     */
+    void reset();
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * The counters for one method and path template, e.g. GET /namespaces/{path}
+ * 
+ * Recording only uses atomic increments on fields created up front, so it never blocks 
+ * and never allocates.
+ * 
+ * @author rossjones
+ *
+ */
+public class EndpointMetrics {
+    
+    /**
+     * Status codes are counted up to (but not including) this
+     */
+    private final static int MAX_STATUS = 600;
+    
+    private final Method method;
+    
+    private final String template;
+    
+    private final LatencyHistogram latency = new LatencyHistogram();
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    private final AtomicLong requestBytes = new AtomicLong();
+    
+    private final AtomicLong responseBytes = new AtomicLong();
+    
+    private final AtomicLong failures = new AtomicLong();
+    
+    /**
+     * Counts of each status code (index 0 counts anything out of range)
+     */
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+    
+    EndpointMetrics(Method method, String template) {
+        this.method = method;
+        this.template = template;
+    }
+    
+    /**
+     * Records the start of a call
+     * @return the time the call started (to pass to succeeded or failed)
+     */
+    public long started() {
+        this.inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+    
+    /**
+     * Records a call that got a response
+     * @param startTime the value returned by started
+     * @param requestLength the number of bytes of body sent
+     * @param status the status code of the response
+     * @param responseLength the number of bytes of body received
+     */
+    public void succeeded(long startTime, long requestLength, int status, long responseLength) {
+        this.latency.record(System.nanoTime() - startTime);
+        this.inFlight.decrementAndGet();
+        this.requestBytes.addAndGet(requestLength);
+        this.responseBytes.addAndGet(responseLength);
+        this.statusCounts.incrementAndGet(status > 0 && status < MAX_STATUS ? status : 0);
+    }
+    
+    /**
+     * Records a call that ended with an exception
+     * @param startTime the value returned by started
+     * @param requestLength the number of bytes of body sent
+     */
+    public void failed(long startTime, long requestLength) {
+        this.latency.record(System.nanoTime() - startTime);
+        this.inFlight.decrementAndGet();
+        this.requestBytes.addAndGet(requestLength);
+        this.failures.incrementAndGet();
+    }
+    
+    /**
+     * @return the HTTP method
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+    
+    /**
+     * @return the path template, e.g. /objects/{id}
+     */
+    public String getTemplate() {
+        return this.template;
+    }
+    
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+    
+    /**
+     * @return a copy of the counters as they are now
+     */
+    public EndpointSnapshot snapshot() {
+        long[] statuses = new long[MAX_STATUS];
+        for(int i = 0; i < MAX_STATUS; i++) {
+            statuses[i] = this.statusCounts.get(i);
+        }
+        return new EndpointSnapshot(this.method.toString(), this.template, this.latency.snapshot(), 
+                this.inFlight.get(), this.requestBytes.get(), this.responseBytes.get(), 
+                this.failures.get(), statuses);
+    }
+    
+    /**
+     * Zeroes the counters (but not the in-flight gauge)
+     */
+    void reset() {
+        this.latency.reset();
+        this.requestBytes.set(0);
+        this.responseBytes.set(0);
+        this.failures.set(0);
+        for(int i = 0; i < MAX_STATUS; i++) {
+            this.statusCounts.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The counters for one method and path template at a point in time (latencies are in 
+ * microseconds)
+ * 
+ * @author rossjones
+ *
+ */
+public class EndpointSnapshot {
+    
+    private final String method;
+    
+    private final String template;
+    
+    private final long count;
+    
+    private final long p50;
+    
+    private final long p90;
+    
+    private final long p99;
+    
+    private final long p999;
+    
+    private final long max;
+    
+    private final double mean;
+    
+    private final int inFlight;
+    
+    private final long requestBytes;
+    
+    private final long responseBytes;
+    
+    private final long failures;
+    
+    private final Map<Integer, Long> statusCounts;
+    
+    EndpointSnapshot(String method, String template, LatencyHistogram.Snapshot latency, int inFlight, 
+            long requestBytes, long responseBytes, long failures, long[] statuses) {
+        this(method, template, latency.getCount(), latency.getPercentile(0.5), latency.getPercentile(0.9), 
+                latency.getPercentile(0.99), latency.getPercentile(0.999), latency.getMax(), latency.getMean(), 
+                inFlight, requestBytes, responseBytes, failures, toMap(statuses));
+    }
+    
+    /**
+     * Constructor (used to rebuild snapshots read over JMX)
+     */
+    @ConstructorProperties({"method", "template", "count", "p50", "p90", "p99", "p999", "max", "mean",
+        "inFlight", "requestBytes", "responseBytes", "failures", "statusCounts"})
+    public EndpointSnapshot(String method, String template, long count, long p50, long p90, long p99, long p999,
+            long max, double mean, int inFlight, long requestBytes, long responseBytes, long failures, 
+            Map<Integer, Long> statusCounts) {
+        this.method = method;
+        this.template = template;
+        this.count = count;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+        this.mean = mean;
+        this.inFlight = inFlight;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.failures = failures;
+        this.statusCounts = statusCounts;
+    }
+    
+    private static Map<Integer, Long> toMap(long[] statuses) {
+        Map<Integer, Long> map = new TreeMap<Integer, Long>();
+        for(int i = 0; i < statuses.length; i++) {
+            if(statuses[i] > 0) {
+                map.put(i, statuses[i]);
+            }
+        }
+        return map;
+    }
+    
+    /**
+     * @return the HTTP method, e.g. GET
+     */
+    public String getMethod() {
+        return this.method;
+    }
+    
+    /**
+     * @return the path template, e.g. /objects/{id}
+     */
+    public String getTemplate() {
+        return this.template;
+    }
+    
+    /**
+     * @return the number of calls finished
+     */
+    public long getCount() {
+        return this.count;
+    }
+    
+    /**
+     * @return the median latency in microseconds
+     */
+    public long getP50() {
+        return this.p50;
+    }
+    
+    /**
+     * @return the 90th percentile latency in microseconds
+     */
+    public long getP90() {
+        return this.p90;
+    }
+    
+    /**
+     * @return the 99th percentile latency in microseconds
+     */
+    public long getP99() {
+        return this.p99;
+    }
+    
+    /**
+     * @return the 99.9th percentile latency in microseconds
+     */
+    public long getP999() {
+        return this.p999;
+    }
+    
+    /**
+     * @return the highest latency in microseconds
+     */
+    public long getMax() {
+        return this.max;
+    }
+    
+    /**
+     * @return the mean latency in microseconds
+     */
+    public double getMean() {
+        return this.mean;
+    }
+    
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        return this.inFlight;
+    }
+    
+    /**
+     * @return the number of bytes of body sent
+     */
+    public long getRequestBytes() {
+        return this.requestBytes;
+    }
+    
+    /**
+     * @return the number of bytes of body received (as they came over the wire)
+     */
+    public long getResponseBytes() {
+        return this.responseBytes;
+    }
+    
+    /**
+     * @return the number of calls that ended with an exception
+     */
+    public long getFailures() {
+        return this.failures;
+    }
+    
+    /**
+     * @return the number of responses with each status code
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        return this.statusCounts;
+    }
+    
+    @Override
+    public String toString() {
+        return this.method+" "+this.template+" count="+this.count+" p50="+this.p50+"us p90="+this.p90+
+            "us p99="+this.p99+"us p999="+this.p999+"us max="+this.max+"us in-flight="+this.inFlight+
+            " statuses="+this.statusCounts;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for an operation in the Fluid Object Model (such as 
+ * getItem), which will contain the com.fluidinfo.Call events for the calls it made
+ * 
+ * @author rossjones
+ *
+ */
+@Name("com.fluidinfo.FOM")
+@Label("FluidDB FOM Operation")
+@Category({"FluidDB"})
+@Description("An operation on a FluidDB object, tag, namespace or user")
+public class FOMEvent extends Event {
+    
+    @Label("Operation")
+    @Description("e.g. getItem")
+    public String operation;
+    
+    @Label("Type")
+    @Description("The FOM class, e.g. Namespace")
+    public String type;
+    
+    @Label("Path")
+    public String path;
+    
+    @Label("Method")
+    @Description("The HTTP method (for single calls)")
+    public String method;
+    
+    @Label("Status")
+    @Description("The HTTP status code (for single calls, -1 if the call failed)")
+    public int status;
+    
+    @Label("Succeeded")
+    public boolean succeeded;
+}
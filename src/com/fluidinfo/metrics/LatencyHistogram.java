@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, recorded in microseconds
+ * 
+ * Buckets are log-linear: every power of two is split into 16 equal buckets, so any value 
+ * is reported to within about 6%. Recording is a handful of atomic increments and never 
+ * allocates or blocks.
+ * 
+ * @author rossjones
+ *
+ */
+public class LatencyHistogram {
+    
+    private final static int SUB_BUCKET_BITS = 4;
+    
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    /**
+     * Enough buckets for any positive long
+     */
+    private final static int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    
+    private final AtomicLong count = new AtomicLong();
+    
+    private final AtomicLong total = new AtomicLong();
+    
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a latency
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        this.counts.incrementAndGet(bucketOf(micros));
+        this.count.incrementAndGet();
+        this.total.addAndGet(micros);
+        long current = this.max.get();
+        while(micros > current && !this.max.compareAndSet(current, micros)) {
+            current = this.max.get();
+        }
+    }
+    
+    static int bucketOf(long micros) {
+        if(micros < SUB_BUCKETS) {
+            return (int)micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int)(micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    /**
+     * @return the highest value (in microseconds) that falls in a bucket
+     */
+    static long highestValueIn(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+    
+    /**
+     * @return a copy of the histogram as it is now
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new Snapshot(copy, this.count.get(), this.total.get(), this.max.get());
+    }
+    
+    /**
+     * Empties the histogram (values recorded at the same time may be lost)
+     */
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+    
+    /**
+     * A copy of a histogram at a point in time
+     */
+    public static class Snapshot {
+        
+        private final long[] counts;
+        
+        private final long count;
+        
+        private final long total;
+        
+        private final long max;
+        
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+        
+        /**
+         * @return the number of values recorded
+         */
+        public long getCount() {
+            return this.count;
+        }
+        
+        /**
+         * @return the largest value recorded in microseconds
+         */
+        public long getMax() {
+            return this.max;
+        }
+        
+        /**
+         * @return the mean of the values recorded in microseconds
+         */
+        public double getMean() {
+            return this.count == 0 ? 0 : (double)this.total / this.count;
+        }
+        
+        /**
+         * @param percentile the percentile wanted, e.g. 0.99
+         * @return the value (in microseconds) that percentile of the values recorded were at
+         * or below
+         */
+        public long getPercentile(double percentile) {
+            long recorded = 0;
+            for(long c : this.counts) {
+                recorded += c;
+            }
+            if(recorded == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(percentile * recorded));
+            long seen = 0;
+            for(int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if(seen >= rank) {
+                    return Math.min(highestValueIn(i), this.max);
+                }
+            }
+            return this.max;
+        }
+        
+        /**
+         * @param unit the unit wanted
+         * @param percentile the percentile wanted, e.g. 0.99
+         * @return the percentile in the given unit
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            return unit.convert(this.getPercentile(percentile), TimeUnit.MICROSECONDS);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+/**
+ * Turns the path of a call to FluidDB into a template such as /objects/{id}/{tag}, so that 
+ * calls to the same kind of resource are counted together
+ * 
+ * Templates are picked from a fixed list by index, so working one out never allocates.
+ * 
+ * @author rossjones
+ *
+ */
+public final class PathTemplate {
+    
+    /**
+     * Every template, indexed by the values returned from indexOf
+     */
+    private final static String[] TEMPLATES = {
+        "/objects",
+        "/objects/{id}",
+        "/objects/{id}/{tag}",
+        "/about/{about}",
+        "/about/{about}/{tag}",
+        "/namespaces",
+        "/namespaces/{path}",
+        "/tags",
+        "/tags/{path}",
+        "/users",
+        "/users/{name}",
+        "/permissions/{path}",
+        "/policies/{path}",
+        "/values",
+        "/",
+        "/{other}"
+    };
+    
+    private final static int OBJECTS = 0;
+    private final static int ABOUT = 3;
+    private final static int NAMESPACES = 5;
+    private final static int TAGS = 7;
+    private final static int USERS = 9;
+    private final static int PERMISSIONS = 11;
+    private final static int POLICIES = 12;
+    private final static int VALUES = 13;
+    private final static int ROOT = 14;
+    private final static int OTHER = 15;
+    
+    /**
+     * The number of templates
+     */
+    public final static int COUNT = TEMPLATES.length;
+    
+    private PathTemplate() {
+    }
+    
+    /**
+     * @param index an index returned from indexOf
+     * @return the template, e.g. /namespaces/{path}
+     */
+    public static String get(int index) {
+        return TEMPLATES[index];
+    }
+    
+    /**
+     * Works out which template a path fits
+     * @param path the path called, e.g. /objects/1234/test/rating
+     * @return the index of the template, e.g. that of /objects/{id}/{tag}
+     */
+    public static int indexOf(String path) {
+        if(path == null) {
+            return ROOT;
+        }
+        int start = 0;
+        int length = path.length();
+        while(start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        while(length > start && path.charAt(length - 1) == '/') {
+            length--;
+        }
+        if(start == length) {
+            return ROOT;
+        }
+        int end = path.indexOf('/', start);
+        if(end < 0 || end > length) {
+            end = length;
+        }
+        // the segments after the first one
+        int rest = end == length ? 0 : segments(path, end + 1, length);
+        if(matches(path, start, end, "objects")) {
+            return OBJECTS + Math.min(rest, 2);
+        } else if(matches(path, start, end, "about")) {
+            return rest == 0 ? OTHER : ABOUT + Math.min(rest - 1, 1);
+        } else if(matches(path, start, end, "namespaces")) {
+            return NAMESPACES + Math.min(rest, 1);
+        } else if(matches(path, start, end, "tags")) {
+            return TAGS + Math.min(rest, 1);
+        } else if(matches(path, start, end, "users")) {
+            return USERS + Math.min(rest, 1);
+        } else if(matches(path, start, end, "permissions")) {
+            return PERMISSIONS;
+        } else if(matches(path, start, end, "policies")) {
+            return POLICIES;
+        } else if(matches(path, start, end, "values")) {
+            return VALUES;
+        }
+        return OTHER;
+    }
+    
+    /**
+     * Works out the template a path fits
+     * @param path the path called, e.g. /objects/1234/test/rating
+     * @return the template, e.g. /objects/{id}/{tag}
+     */
+    public static String of(String path) {
+        return TEMPLATES[indexOf(path)];
+    }
+    
+    private static boolean matches(String path, int start, int end, String segment) {
+        return end - start == segment.length() && path.regionMatches(start, segment, 0, segment.length());
+    }
+    
+    private static int segments(String path, int start, int end) {
+        int count = 1;
+        for(int i = start; i < end; i++) {
+            if(path.charAt(i) == '/') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,163 @@
+package com.fluidinfo.metrics.tests;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.transport.ResponseCache;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks calls are recorded as Flight Recorder events (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestEvents {
+
+    private FluidConnector fdb = null;
+
+    private InMemoryTransport transport = null;
+
+    @Before
+    public void setUp() {
+        this.fdb = new FluidConnector();
+        this.transport = new InMemoryTransport();
+        FluidResponse response = new FluidResponse(200, "OK", "application/json", "{}");
+        TreeMap<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("X-FluidDB-Request-Id", "abc123");
+        headers.put("Cache-Control", "max-age=60");
+        response.setResponseHeaders(headers);
+        this.transport.addResponse(Method.GET, "/namespaces/test", response);
+        this.fdb.setTransport(this.transport);
+    }
+
+    /**
+     * Runs the calls with a recording on and returns the events recorded
+     */
+    private List<RecordedEvent> record(Runnable calls) throws Exception {
+        Path file = Files.createTempFile("fluiddb", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable("com.fluidinfo.Call");
+            recording.enable("com.fluidinfo.FOM");
+            recording.start();
+            calls.run();
+            recording.stop();
+            recording.dump(file);
+            recording.close();
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for(RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if(event.getEventType().getName().startsWith("com.fluidinfo.")) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCallEvents() throws Exception {
+        this.fdb.setResponseCache(new ResponseCache(1024 * 1024));
+        List<RecordedEvent> events = this.record(new Runnable() {
+            public void run() {
+                try {
+                    fdb.Call(Method.GET, "/namespaces/test");
+                    fdb.Call(Method.GET, "/namespaces/test");
+                    fdb.Call(Method.GET, "/objects/1234/test/rating");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertEquals(3, events.size());
+        RecordedEvent first = events.get(0);
+        assertEquals("com.fluidinfo.Call", first.getEventType().getName());
+        assertEquals("GET", first.getString("method"));
+        assertEquals("/namespaces/{path}", first.getString("pathTemplate"));
+        assertEquals(200, first.getInt("status"));
+        assertEquals(1, first.getInt("attempts"));
+        assertEquals("network", first.getString("outcome"));
+        assertEquals("abc123", first.getString("requestId"));
+        assertEquals("cache", events.get(1).getString("outcome"));
+        assertEquals(0, events.get(1).getInt("attempts"));
+        assertEquals("/objects/{id}/{tag}", events.get(2).getString("pathTemplate"));
+        assertEquals(404, events.get(2).getInt("status"));
+    }
+
+    @Test
+    public void testFOMEvents() throws Exception {
+        List<RecordedEvent> events = this.record(new Runnable() {
+            public void run() {
+                try {
+                    new Tag(fdb, "", "test/missing").getItem();
+                    fail("Expected a FluidException");
+                } catch (FluidException e) {
+                    // expected
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        // the call, the FOM call around it and the getItem around that
+        assertEquals(3, events.size());
+        assertEquals("com.fluidinfo.Call", events.get(0).getEventType().getName());
+        RecordedEvent call = events.get(1);
+        assertEquals("Call", call.getString("operation"));
+        assertEquals("Tag", call.getString("type"));
+        assertEquals(404, call.getInt("status"));
+        assertFalse(call.getBoolean("succeeded"));
+        RecordedEvent getItem = events.get(2);
+        assertEquals("getItem", getItem.getString("operation"));
+        assertEquals("/tags/test/missing", getItem.getString("path"));
+        assertFalse(getItem.getBoolean("succeeded"));
+        assertTrue(getItem.getDuration().compareTo(call.getDuration()) >= 0);
+    }
+
+    @Test
+    public void testAsyncFOMEvents() throws Exception {
+        List<RecordedEvent> events = this.record(new Runnable() {
+            public void run() {
+                try {
+                    new com.fluidinfo.fom.Object(fdb, "1234", "1234").getItemAsync().join();
+                    fail("Expected a FluidException");
+                } catch (CompletionException e) {
+                    assertTrue(e.getCause() instanceof FluidException);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        // recorded just as a blocking getItem is
+        assertEquals(3, events.size());
+        assertEquals("com.fluidinfo.Call", events.get(0).getEventType().getName());
+        RecordedEvent call = events.get(1);
+        assertEquals("Call", call.getString("operation"));
+        assertEquals("Object", call.getString("type"));
+        assertEquals("GET", call.getString("method"));
+        assertEquals(404, call.getInt("status"));
+        assertFalse(call.getBoolean("succeeded"));
+        RecordedEvent getItem = events.get(2);
+        assertEquals("getItem", getItem.getString("operation"));
+        assertEquals("/objects/1234", getItem.getString("path"));
+        assertFalse(getItem.getBoolean("succeeded"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.fluidinfo.metrics.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.metrics.ConnectorMetrics;
+import com.fluidinfo.metrics.EndpointMetrics;
+import com.fluidinfo.metrics.EndpointSnapshot;
+import com.fluidinfo.metrics.LatencyHistogram;
+import com.fluidinfo.metrics.PathTemplate;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the per-endpoint metrics (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestMetrics {
+
+    @Test
+    public void testPathTemplates() {
+        assertEquals("/objects", PathTemplate.of("/objects"));
+        assertEquals("/objects/{id}", PathTemplate.of("/objects/5a7e1c4a-9d5b-4a3c-8f1e-0d2a6b9c3e7f"));
+        assertEquals("/objects/{id}/{tag}", PathTemplate.of("/objects/1234/test/rating"));
+        assertEquals("/objects/{id}/{tag}", PathTemplate.of("objects/1234/fluiddb/about/"));
+        assertEquals("/about/{about}", PathTemplate.of("/about/paris"));
+        assertEquals("/about/{about}/{tag}", PathTemplate.of("/about/paris/test/rating"));
+        assertEquals("/namespaces", PathTemplate.of("/namespaces"));
+        assertEquals("/namespaces/{path}", PathTemplate.of("/namespaces/test/child"));
+        assertEquals("/tags/{path}", PathTemplate.of("/tags/test/rating"));
+        assertEquals("/users/{name}", PathTemplate.of("/users/test"));
+        assertEquals("/permissions/{path}", PathTemplate.of("/permissions/namespaces/test"));
+        assertEquals("/", PathTemplate.of("/"));
+        assertEquals("/{other}", PathTemplate.of("/objectsx/1"));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500000, snapshot.getPercentile(0.5), 500000 * 0.07);
+        assertEquals(900000, snapshot.getPercentile(0.9), 900000 * 0.07);
+        assertEquals(990000, snapshot.getPercentile(0.99), 990000 * 0.07);
+        assertEquals(500500, snapshot.getMean(), 1);
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        ConnectorMetrics metrics = new ConnectorMetrics();
+        long id = Thread.currentThread().getId();
+        for(int round = 0; round < 2; round++) {
+            // the first round warms up
+            long before = allocations.getThreadAllocatedBytes(id);
+            for(int i = 0; i < 100000; i++) {
+                EndpointMetrics endpoint = metrics.getEndpoint(Method.GET, "/objects/1234/test/rating");
+                long start = endpoint.started();
+                endpoint.succeeded(start, 0, 200, 42);
+            }
+            long allocated = allocations.getThreadAllocatedBytes(id) - before;
+            if(round == 1) {
+                assertTrue("allocated "+allocated+" bytes", allocated < 1024);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectorRecordsCalls() throws Exception {
+        FluidConnector fdb = new FluidConnector();
+        InMemoryTransport transport = new InMemoryTransport();
+        transport.addResponse(Method.GET, "/objects/1234", new FluidResponse(200, "OK", "application/json", "{}"));
+        fdb.setTransport(transport);
+        fdb.Call(Method.GET, "/objects/1234");
+        fdb.Call(Method.GET, "/objects/5678");
+        fdb.Call(Method.PUT, "/objects/1234/test/rating", "5");
+        List<EndpointSnapshot> snapshots = fdb.getMetrics().snapshot();
+        assertEquals(2, snapshots.size());
+        EndpointSnapshot get = null;
+        for(EndpointSnapshot snapshot : snapshots) {
+            if(snapshot.getMethod().equals("GET")) {
+                get = snapshot;
+            }
+        }
+        assertEquals("/objects/{id}", get.getTemplate());
+        assertEquals(2, get.getCount());
+        assertEquals(Long.valueOf(1), get.getStatusCounts().get(200));
+        assertEquals(Long.valueOf(1), get.getStatusCounts().get(404));
+        assertEquals(2, get.getResponseBytes());
+        assertEquals(0, get.getInFlight());
+        assertEquals(3, fdb.getMetrics().getTotalCalls());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        FluidConnector fdb = new FluidConnector();
+        fdb.setTransport(new InMemoryTransport());
+        fdb.Call(Method.GET, "/namespaces/test");
+        ObjectName name = fdb.getMetrics().registerMBean("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "TotalCalls"));
+            CompositeData[] endpoints = (CompositeData[])server.getAttribute(name, "Endpoints");
+            assertEquals(1, endpoints.length);
+            assertEquals("/namespaces/{path}", endpoints[0].get("template"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "TotalCalls"));
+        } finally {
+            fdb.getMetrics().unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,142 @@
+package com.fluidinfo.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+
+import com.fluidinfo.Credentials;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks sessions with their own credentials share one connector safely (no sandbox 
+ * required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestCredentials {
+	
+	private FluidDBEmulator emulator = null;
+	
+	private FluidConnector fdb = null;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.emulator = new FluidDBEmulator();
+		this.emulator.addUser("alice", "secret-a");
+		this.emulator.addUser("bob", "secret-b");
+		this.fdb = new FluidConnector();
+		this.fdb.setUrl(this.emulator.start());
+		this.fdb.setConnectionPool(new ConnectionPool(4, 30000));
+	}
+	
+	@After
+	public void tearDown() {
+		this.fdb.getTransport().close();
+		this.emulator.stop();
+	}
+	
+	@Test
+	public void testCredentials() {
+		Credentials c = new Credentials("alice", "secret-a");
+		assertEquals("alice", c.getUsername());
+		assertEquals("secret-a", c.getPassword());
+		assertFalse(c.isAnonymous());
+		assertTrue(c.getAuthorization().startsWith("Basic "));
+		assertFalse(c.toString().contains("secret"));
+		assertTrue(Credentials.ANONYMOUS.isAnonymous());
+		assertNull(new Credentials(null, null).getAuthorization());
+		// the identity stands in for the password without giving it away
+		assertEquals(c.getIdentity(), new Credentials("alice", "secret-a").getIdentity());
+		assertEquals(c.getIdentity(), Credentials.identityOf(c.getAuthorization()));
+		assertFalse(c.getIdentity().equals(new Credentials("alice", "secret-b").getIdentity()));
+		assertFalse(c.getIdentity().contains("secret"));
+		assertFalse(c.getIdentity().contains(c.getAuthorization().substring(6)));
+		assertNull(Credentials.ANONYMOUS.getIdentity());
+		// the old setters still work, one half at a time
+		this.fdb.setUsername("alice");
+		this.fdb.setPassword("secret-a");
+		assertEquals(c.getAuthorization(), this.fdb.getCredentials().getAuthorization());
+	}
+	
+	@Test
+	public void testSessionsShareEverythingButCredentials() throws Exception {
+		this.fdb.setCredentials(new Credentials("alice", "secret-a"));
+		FluidConnector bob = this.fdb.withCredentials("bob", "secret-b");
+		assertEquals("bob", bob.getUsername());
+		assertEquals("alice", this.fdb.getUsername());
+		assertSame(this.fdb.getTransport(), bob.getTransport());
+		assertSame(this.fdb.getMetrics(), bob.getMetrics());
+		assertSame(this.fdb.getCompressionStats(), bob.getCompressionStats());
+		assertEquals(this.fdb.getUrl(), bob.getUrl());
+		// settings changed through a session are shared
+		bob.setReadTimeout(1234);
+		assertEquals(1234, this.fdb.getReadTimeout());
+		// but credentials aren't
+		bob.setCredentials(Credentials.ANONYMOUS);
+		assertEquals("alice", this.fdb.getUsername());
+		// a session of a session still shares the original connector
+		FluidConnector carol = bob.withCredentials("carol", "secret-c");
+		carol.setConnectTimeout(4321);
+		assertEquals(4321, this.fdb.getConnectTimeout());
+		// each call goes as its own user
+		assertEquals(201, this.fdb.withCredentials("bob", "secret-b").Call(Method.POST, "/namespaces/bob", "{\"name\": \"books\", \"description\": \"\"}").getResponseCode());
+		assertEquals(401, this.fdb.Call(Method.POST, "/namespaces/bob", "{\"name\": \"films\", \"description\": \"\"}").getResponseCode());
+		
+		// FluidDB sessions too
+		FluidDB db = new FluidDB(this.fdb);
+		FluidDB session = db.session("bob", "secret-b");
+		assertEquals("bob", session.getLoggedInUser().getName());
+		assertEquals("alice", db.getLoggedInUser().getName());
+		session.Logout();
+		assertEquals("alice", db.getLoggedInUser().getName());
+	}
+	
+	@Test
+	public void testConcurrentSessions() throws Exception {
+		final Tag aliceTag = new Namespace(this.fdb.withCredentials("alice", "secret-a"), "", "alice").createTag("rating", "", false);
+		final Tag bobTag = new Namespace(this.fdb.withCredentials("bob", "secret-b"), "", "bob").createTag("rating", "", false);
+		final String id = this.fdb.Call(Method.POST, "/objects", "{}").getResponseContent().replaceAll(".*\"id\": *\"([^\"]+)\".*", "$1");
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for(int i = 0; i < 8; i++) {
+				final boolean alice = i % 2 == 0;
+				results.add(threads.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						int done = 0;
+						for(int j = 0; j < 50; j++) {
+							// a session per request, each only able to write its own tag
+							FluidConnector session = alice ? fdb.withCredentials("alice", "secret-a") : fdb.withCredentials("bob", "secret-b");
+							new Object(session, id, id).tag(alice ? aliceTag : bobTag, j);
+							done++;
+						}
+						return done;
+					}
+				}));
+			}
+			for(Future<Integer> result : results) {
+				assertEquals(50, result.get().intValue());
+			}
+		} finally {
+			threads.shutdown();
+		}
+		// all over the one pool
+		assertTrue(this.fdb.getConnectionPool().getConnectionsCreated() <= 8);
+		assertTrue(this.fdb.getConnectionPool().getConnectionsReused() >= 400 - 8);
+	}
+}
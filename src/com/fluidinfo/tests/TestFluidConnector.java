@@ -224,7 +224,7 @@ public class TestFluidConnector extends TestCase {
 	}
 	
 	@Test
-	public void testGetUrl() {
-		assertEquals(FluidConnector.SandboxURL, this.fdb.getUrl());
+	public void testGetUrl() throws FluidException {
+		assertEquals(TestUtils.getUrl(), this.fdb.getUrl());
 	}
 }
@@ -49,8 +49,8 @@ public class TestFluidDB extends FluidDB{
 	
 	@Test
 	public void testGetNamespace() throws FOMException, FluidException, IOException, JSONException {
-		FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-		assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+		FluidDB fdb = new FluidDB(TestUtils.getUrl());
+		assertEquals(TestUtils.getUrl(), fdb.getURL());
 		// lets get the test user's root namespace (the same as their username)
 		Namespace ns = fdb.getNamespace(this.testUsername);
 		assertEquals(this.testUsername, ns.getName());
@@ -60,8 +60,8 @@ public class TestFluidDB extends FluidDB{
 	
 	@Test
 	public void testGetTag() throws FOMException, FluidException, IOException, JSONException {
-		FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-		assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+		FluidDB fdb = new FluidDB(TestUtils.getUrl());
+		assertEquals(TestUtils.getUrl(), fdb.getURL());
 		// lets get the username tag from the fluidDB user
 		Tag usernameTag = fdb.getTag("fluiddb/users/username");
 		assertEquals("username", usernameTag.getName());
@@ -69,8 +69,8 @@ public class TestFluidDB extends FluidDB{
 	
 	@Test
 	public void testGetLoggedInUser() throws Exception {
-	    FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-        assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+	    FluidDB fdb = new FluidDB(TestUtils.getUrl());
+        assertEquals(TestUtils.getUrl(), fdb.getURL());
 	    fdb.Login(this.testUsername, this.testPassword);
 	    User u = fdb.getLoggedInUser();
 	    assertEquals(this.testUsername, u.getName());
@@ -78,8 +78,8 @@ public class TestFluidDB extends FluidDB{
     
     @Test
     public void testGetUser() throws FOMException, FluidException, IOException, JSONException {
-        FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-        assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+        FluidDB fdb = new FluidDB(TestUtils.getUrl());
+        assertEquals(TestUtils.getUrl(), fdb.getURL());
         User user = fdb.getUser(this.testUsername);
         assertEquals(this.testUsername, user.getName());
         assertEquals(true, user.getId().length()>0);
@@ -87,8 +87,8 @@ public class TestFluidDB extends FluidDB{
     
     @Test
     public void testCreateObject() throws FOMException, JSONException, FluidException, IOException {
-        FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-        assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+        FluidDB fdb = new FluidDB(TestUtils.getUrl());
+        assertEquals(TestUtils.getUrl(), fdb.getURL());
         String about = "jFluidDBUnitTest: "+UUID.randomUUID().toString();
         Object o = fdb.createObject(about);
         assertEquals(true, o.getId().length()>0);
@@ -97,8 +97,8 @@ public class TestFluidDB extends FluidDB{
 	
 	@Test
 	public void testGetObject() throws FOMException, FluidException, IOException, JSONException {
-	    FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
-        assertEquals(FluidConnector.SandboxURL, fdb.getURL());
+	    FluidDB fdb = new FluidDB(TestUtils.getUrl());
+        assertEquals(TestUtils.getUrl(), fdb.getURL());
         User user = fdb.getUser(this.testUsername);
         Object o = fdb.getObject(user.getId());
         assertEquals(user.getId(), o.getId());
@@ -109,7 +109,7 @@ public class TestFluidDB extends FluidDB{
 	@Test
 	public void testSearchObjects() throws Exception {
 	    // Lets set up a little scenario we can use to play with
-	    FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
+	    FluidDB fdb = new FluidDB(TestUtils.getUrl());
         fdb.Login(this.testUsername, this.testPassword);
         User u = fdb.getLoggedInUser();
         Namespace root = u.RootNamespace();
@@ -130,7 +130,7 @@ public class TestFluidDB extends FluidDB{
 	@Test(expected=FluidException.class)
     public void testSearchObjectsFail() throws FluidException, IOException, JSONException {
         // Can't get the name from this path
-	    FluidDB fdb = new FluidDB(FluidConnector.SandboxURL);
+	    FluidDB fdb = new FluidDB(TestUtils.getUrl());
 	    fdb.searchObjects("/foo/bar = 1");
     }
 }
@@ -18,4 +18,30 @@ public class TestFluidResponse extends TestCase{
 		assertEquals("application/json", fr.getResponseContentType());
 		assertEquals("{\"value\": \"testing 123\"}", fr.getResponseContent());
 	}
+	
+	/**
+	 * Tests that a response built from bytes is only decoded when asked for
+	 */
+	@Test 
+	public void testFluidResponseFromBytes() throws Exception
+	{
+		byte[] body = "{\"value\": \"caf\u00e9\"}\n".getBytes("UTF-8");
+		FluidResponse fr = new FluidResponse(200, "OK", "application/json", body, null, "abc123");
+		assertSame(body, fr.getResponseBytes());
+		assertEquals(body.length, fr.getResponseLength());
+		// newlines and non-ascii characters survive
+		assertEquals("{\"value\": \"caf\u00e9\"}\n", fr.getResponseContent());
+		assertEquals("abc123", fr.getErrorRequestID());
+		java.io.InputStream in = fr.getResponseStream();
+		assertEquals('{', in.read());
+		
+		// the charset in the content-type is honoured
+		body = "caf\u00e9".getBytes("ISO-8859-1");
+		fr = new FluidResponse(200, "OK", "text/plain; charset=ISO-8859-1", body, null, null);
+		assertEquals("caf\u00e9", fr.getResponseContent());
+		
+		// and a response built from a String can still give up its bytes
+		fr = new FluidResponse(200, "OK", "application/json", "\"caf\u00e9\"");
+		assertEquals(7, fr.getResponseLength());
+	}
 }
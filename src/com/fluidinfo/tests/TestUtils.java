@@ -10,16 +10,57 @@ import org.json.JSONTokener;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
+import com.fluidinfo.emulator.FluidDBEmulator;
 
 /**
  * A utility class containing lots of static methods and other useful stuff for use by the 
  * unit test classes
  * 
+ * The tests run against the sandbox unless the fluiddb.emulator system property is true (e.g.
+ * -Dfluiddb.emulator=true), in which case they run against an in-process FluidDBEmulator 
+ * (credentials.json is optional then: the user "test" with password "test" is used if it's
+ * missing)
+ * 
  * @author ntoll
  *
  */
 public class TestUtils {
 	
+	/**
+	 * The emulator shared by all the tests (started on first use)
+	 */
+	private static FluidDBEmulator emulator = null;
+	
+	/**
+	 * @return true if the tests should run against the emulator rather than the sandbox
+	 */
+	public static boolean useEmulator() {
+		return Boolean.getBoolean("fluiddb.emulator");
+	}
+	
+	/**
+	 * The URL of the FluidDB instance to test against
+	 * @return the sandbox URL, or that of the emulator if it's being used
+	 * @throws FluidException if the emulator can't be started
+	 */
+	public static synchronized String getUrl() throws FluidException {
+		if(!TestUtils.useEmulator()) {
+			return FluidConnector.SandboxURL;
+		}
+		if(emulator == null) {
+			try {
+				JSONObject credentials = TestUtils.getSettings();
+				FluidDBEmulator started = new FluidDBEmulator();
+				started.addUser(credentials.getString("username"), credentials.getString("password"));
+				started.start();
+				emulator = started;
+			} catch (Exception e) {
+				throw new FluidException(e);
+			}
+		}
+		return emulator.getUrl();
+	}
+	
 	/**
 	 * Does the passed array contain the string
 	 * @param array the array to check
@@ -43,7 +84,7 @@ public class TestUtils {
 	 */
 	public static FluidConnector getFluidConnection(String username, String password) throws FluidException {
 		FluidConnector fdb = new FluidConnector();
-		fdb.setUrl(FluidConnector.SandboxURL);
+		fdb.setUrl(TestUtils.getUrl());
 		fdb.setUsername(username);
 		fdb.setPassword(password);
 		return fdb;
@@ -58,6 +99,9 @@ public class TestUtils {
 		// Read the credentials.json file found in the home directory of the user 
 		// running the unit tests
 		File file = new File(System.getProperty("user.home"), "credentials.json");
+		if(TestUtils.useEmulator() && !file.exists()) {
+			return new JSONObject().put("username", "test").put("password", "test");
+		}
 		StringBuffer contents = new StringBuffer();
         BufferedReader reader = null;
         try{
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Lets one thread abort a request that another thread is sending, by closing the connection
+ * the request is using (a thread blocked reading a socket can't be interrupted any other way)
+ * 
+ * Transports attach the connection while a request with a cancellation is using it (see 
+ * FluidRequest.setCancellation). Once cancelled the send fails with an IOException and the 
+ * connection is thrown away rather than returned to its pool.
+ * 
+ * @author rossjones
+ *
+ */
+public class Cancellation {
+    
+    private volatile boolean cancelled = false;
+    
+    private Closeable connection = null;
+    
+    /**
+     * Registers the connection a request is using
+     * @param connection what to close if the request is cancelled
+     * @return false if the request has already been cancelled (the connection is closed 
+     * straight away)
+     */
+    public boolean attach(Closeable connection) {
+        synchronized(this) {
+            if(!this.cancelled) {
+                this.connection = connection;
+                return true;
+            }
+        }
+        closeQuietly(connection);
+        return false;
+    }
+    
+    /**
+     * Forgets a connection the request has finished with
+     * @param connection the connection passed to attach
+     */
+    public synchronized void detach(Closeable connection) {
+        if(this.connection == connection) {
+            this.connection = null;
+        }
+    }
+    
+    /**
+     * Aborts the request, closing its connection if it has one
+     */
+    public void cancel() {
+        Closeable connection;
+        synchronized(this) {
+            this.cancelled = true;
+            connection = this.connection;
+            this.connection = null;
+        }
+        if(connection != null) {
+            closeQuietly(connection);
+        }
+    }
+    
+    /**
+     * @return true once cancel has been called
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+    
+    private static void closeQuietly(Closeable connection) {
+        try {
+            connection.close();
+        } catch(IOException e) {
+            // it's being thrown away anyway
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a response body sent with "Transfer-Encoding: chunked", leaving the connection 
+ * positioned at the next response once the last chunk (and any trailers) has been read
+ * 
+ * @author rossjones
+ *
+ */
+public class ChunkedInputStream extends InputStream {
+    
+    private final InputStream in;
+    
+    private int chunkRemaining = 0;
+    
+    private boolean finished = false;
+    
+    /**
+     * Constructor
+     * @param in the connection's stream
+     */
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+    
+    /**
+     * Moves on to the next chunk if the current one is used up
+     * @return false once the last chunk has been read
+     */
+    private boolean nextChunk() throws IOException {
+        if(this.finished) {
+            return false;
+        }
+        if(this.chunkRemaining > 0) {
+            return true;
+        }
+        String sizeLine = PooledTransport.readLine(this.in);
+        if(sizeLine == null) {
+            throw new EOFException("Chunked response body ended early");
+        }
+        if(sizeLine.length() == 0) {
+            // the CRLF that ends the previous chunk
+            sizeLine = PooledTransport.readLine(this.in);
+            if(sizeLine == null) {
+                throw new EOFException("Chunked response body ended early");
+            }
+        }
+        int semicolon = sizeLine.indexOf(';');
+        if(semicolon != -1) {
+            sizeLine = sizeLine.substring(0, semicolon);
+        }
+        this.chunkRemaining = Integer.parseInt(sizeLine.trim(), 16);
+        if(this.chunkRemaining == 0) {
+            // skip any trailers
+            PooledTransport.readHeaders(this.in);
+            this.finished = true;
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if(!this.nextChunk()) {
+            return -1;
+        }
+        int b = this.in.read();
+        if(b == -1) {
+            throw new EOFException("Chunked response body ended early");
+        }
+        this.chunkRemaining--;
+        return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(!this.nextChunk()) {
+            return -1;
+        }
+        int read = this.in.read(b, off, Math.min(len, this.chunkRemaining));
+        if(read == -1) {
+            throw new EOFException("Chunked response body ended early");
+        }
+        this.chunkRemaining -= read;
+        return read;
+    }
+    
+    /**
+     * Skips whatever is left of the body (the connection itself stays open)
+     */
+    @Override
+    public void close() throws IOException {
+        byte[] skip = new byte[1024];
+        while(this.read(skip, 0, skip.length) != -1) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a request body with "Transfer-Encoding: chunked", one chunk per write. Closing it
+ * writes the last chunk but leaves the connection open.
+ * 
+ * @author rossjones
+ *
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+    
+    private final static byte[] CRLF = {'\r', '\n'};
+    
+    private final static byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    
+    private boolean closed = false;
+    
+    /**
+     * Constructor
+     * @param out the connection's stream
+     */
+    public ChunkedOutputStream(OutputStream out) {
+        super(out);
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] {(byte)b}, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(len == 0) {
+            // an empty chunk would end the body
+            return;
+        }
+        this.out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        this.out.write(CRLF);
+        this.out.write(b, off, len);
+        this.out.write(CRLF);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if(!this.closed) {
+            this.closed = true;
+            this.out.write(LAST_CHUNK);
+            this.out.flush();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+/**
+ * Stops calls going to an endpoint that keeps failing, so callers fail fast instead of 
+ * waiting on requests that are doomed anyway
+ * 
+ * The breaker starts CLOSED. After failureThreshold consecutive failures it trips OPEN and 
+ * refuses every call for openDuration milliseconds. It then goes HALF_OPEN and lets a single
+ * trial call through: if that succeeds the breaker closes again, otherwise it re-opens. If 
+ * the trial never reports back (e.g. it was interrupted) another is let through after a 
+ * further openDuration.
+ * 
+ * @author rossjones
+ *
+ */
+public class CircuitBreaker {
+    
+    /**
+     * The states a circuit breaker can be in
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+    
+    private final String endpoint;
+    
+    private final int failureThreshold;
+    
+    private final long openDuration;
+    
+    private State state = State.CLOSED;
+    
+    private int consecutiveFailures = 0;
+    
+    private long openedAt = 0;
+    
+    private boolean trialInFlight = false;
+    
+    private long trialStartedAt = 0;
+    
+    private long timesOpened = 0;
+    
+    private long rejected = 0;
+    
+    /**
+     * Constructor
+     * @param endpoint a name for the endpoint the breaker protects
+     * @param failureThreshold the number of consecutive failures that trips the breaker
+     * @param openDuration the time (in milliseconds) the breaker stays open before allowing a 
+     * trial call
+     */
+    public CircuitBreaker(String endpoint, int failureThreshold, long openDuration) {
+        if(failureThreshold < 1 || openDuration < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+    
+    /**
+     * Asks permission to make a call
+     * @return true if the call may go ahead, false if the breaker is open
+     */
+    public synchronized boolean allowRequest() {
+        if(this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openDuration) {
+            this.state = State.HALF_OPEN;
+            this.trialInFlight = false;
+        }
+        switch(this.state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                long now = System.currentTimeMillis();
+                if(!this.trialInFlight || now - this.trialStartedAt >= this.openDuration) {
+                    this.trialInFlight = true;
+                    this.trialStartedAt = now;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        this.rejected++;
+        return false;
+    }
+    
+    /**
+     * Records a call that worked
+     */
+    public synchronized void recordSuccess() {
+        this.consecutiveFailures = 0;
+        this.trialInFlight = false;
+        this.state = State.CLOSED;
+    }
+    
+    /**
+     * Records a call that failed (an IOException or a 5xx response)
+     */
+    public synchronized void recordFailure() {
+        this.consecutiveFailures++;
+        if(this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+            if(this.state != State.OPEN) {
+                this.timesOpened++;
+            }
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+            this.trialInFlight = false;
+        }
+    }
+    
+    /**
+     * @return the name of the endpoint the breaker protects
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+    
+    /**
+     * @return the current state of the breaker
+     */
+    public synchronized State getState() {
+        if(this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openDuration) {
+            return State.HALF_OPEN;
+        }
+        return this.state;
+    }
+    
+    /**
+     * @return the number of failures since the last success
+     */
+    public synchronized int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+    
+    /**
+     * @return the number of times the breaker has tripped open
+     */
+    public synchronized long getTimesOpened() {
+        return this.timesOpened;
+    }
+    
+    /**
+     * @return the number of calls refused because the breaker was open
+     */
+    public synchronized long getRejectedCount() {
+        return this.rejected;
+    }
+    
+    @Override
+    public String toString() {
+        return "CircuitBreaker["+this.endpoint+": "+this.getState()+"]";
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Helpers for the gzip and deflate content codings
+ * 
+ * @author rossjones
+ *
+ */
+public class Compression {
+    
+    /**
+     * The value sent in the Accept-Encoding header when compression is enabled
+     */
+    public final static String ACCEPT_ENCODING = "gzip, deflate";
+    
+    /**
+     * Wraps a response body so that it is decompressed as it is read
+     * @param in the body as it arrives on the wire
+     * @param contentEncoding the value of the Content-Encoding header (may be null)
+     * @return a stream of the decompressed body (in itself if there is no content coding)
+     * @throws IOException if the content coding isn't supported or the stream is corrupt
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if(!isEncoded(contentEncoding)) {
+            return in;
+        }
+        String coding = contentEncoding.trim().toLowerCase();
+        if(coding.equals("gzip") || coding.equals("x-gzip")) {
+            return new GZIPInputStream(in, 8192);
+        }
+        if(coding.equals("deflate")) {
+            // "deflate" is meant to be zlib wrapped but some servers send a raw deflate 
+            // stream - the zlib header tells us which we've got
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            int cmf = pushback.read();
+            int flg = pushback.read();
+            if(flg != -1) {
+                pushback.unread(flg);
+            }
+            if(cmf != -1) {
+                pushback.unread(cmf);
+            }
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(pushback, new Inflater(!zlib), 8192);
+        }
+        throw new IOException("Unsupported Content-Encoding: "+contentEncoding);
+    }
+    
+    /**
+     * @param contentEncoding the value of a Content-Encoding header (may be null)
+     * @return true if the body has a content coding applied
+     */
+    public static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.trim().length() > 0 
+                && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+    
+    /**
+     * Gzips some data
+     * @param data the data to compress
+     * @return the compressed data
+     */
+    public static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 4, 64));
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+            gzip.write(data);
+            gzip.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            // can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts bytes before and after compression so the bandwidth saved can be seen
+ * 
+ * @author rossjones
+ *
+ */
+public class CompressionStats {
+    
+    private final AtomicLong requestBytes = new AtomicLong();
+    
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    
+    private final AtomicLong responseBytes = new AtomicLong();
+    
+    private final AtomicLong responseWireBytes = new AtomicLong();
+    
+    /**
+     * Records a request body being sent
+     * @param uncompressed the size of the body before compression
+     * @param wire the number of bytes actually sent
+     */
+    public void recordRequest(long uncompressed, long wire) {
+        this.requestBytes.addAndGet(uncompressed);
+        this.requestWireBytes.addAndGet(wire);
+    }
+    
+    /**
+     * Records a response body being received
+     * @param wire the number of bytes actually received
+     * @param uncompressed the size of the body after decompression
+     */
+    public void recordResponse(long wire, long uncompressed) {
+        this.responseWireBytes.addAndGet(wire);
+        this.responseBytes.addAndGet(uncompressed);
+    }
+    
+    /**
+     * @return the total size of request bodies before compression
+     */
+    public long getRequestBytes() {
+        return this.requestBytes.get();
+    }
+    
+    /**
+     * @return the total number of request body bytes sent
+     */
+    public long getRequestWireBytes() {
+        return this.requestWireBytes.get();
+    }
+    
+    /**
+     * @return the total size of response bodies after decompression
+     */
+    public long getResponseBytes() {
+        return this.responseBytes.get();
+    }
+    
+    /**
+     * @return the total number of response body bytes received
+     */
+    public long getResponseWireBytes() {
+        return this.responseWireBytes.get();
+    }
+    
+    /**
+     * @return the number of bytes compression has kept off the wire
+     */
+    public long getBytesSaved() {
+        return (this.getRequestBytes() - this.getRequestWireBytes()) + (this.getResponseBytes() - this.getResponseWireBytes());
+    }
+    
+    @Override
+    public String toString() {
+        return "CompressionStats[request="+this.getRequestBytes()+"/"+this.getRequestWireBytes()
+                +", response="+this.getResponseBytes()+"/"+this.getResponseWireBytes()+"]";
+    }
+}
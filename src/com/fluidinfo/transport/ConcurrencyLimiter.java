@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidTimeoutException;
+
+/**
+ * Limits the number of calls in flight to FluidDB, adapting the limit to how FluidDB is 
+ * coping (additive increase, multiplicative decrease)
+ * 
+ * Every call that comes back promptly raises the limit by 1/limit (so by about one per 
+ * "round" of calls) as long as the current limit is actually being used. A call that fails 
+ * (an IOException, a 5xx or a 429) or takes much longer than the smoothed latency cuts the 
+ * limit by 10%. A 429 or 503 with a Retry-After header holds back every call until the time 
+ * has passed.
+ * 
+ * Calls over the limit wait in a bounded queue for up to maxWait milliseconds. Calls that 
+ * don't fit in the queue, or wait too long, fail with a FluidException.
+ * 
+ * @author rossjones
+ *
+ */
+public class ConcurrencyLimiter {
+    
+    /**
+     * The default limit to start from
+     */
+    public final static int DEFAULT_INITIAL_LIMIT = 10;
+    
+    /**
+     * The default lowest limit
+     */
+    public final static int DEFAULT_MIN_LIMIT = 1;
+    
+    /**
+     * The default highest limit
+     */
+    public final static int DEFAULT_MAX_LIMIT = 200;
+    
+    /**
+     * The default number of calls that may wait for a slot
+     */
+    public final static int DEFAULT_MAX_QUEUED = 1000;
+    
+    /**
+     * The default time (in milliseconds) a call may wait for a slot
+     */
+    public final static long DEFAULT_MAX_WAIT = 10000;
+    
+    /**
+     * How much slower than the smoothed latency a call must be to count as a sign of overload
+     */
+    private final static double LATENCY_TOLERANCE = 2.0;
+    
+    /**
+     * How much the limit is cut by on a sign of overload
+     */
+    private final static double BACKOFF_RATIO = 0.9;
+    
+    /**
+     * How quickly the smoothed latency follows new samples
+     */
+    private final static double SMOOTHING = 0.05;
+    
+    private final int minLimit;
+    
+    private final int maxLimit;
+    
+    private final int maxQueued;
+    
+    private final long maxWait;
+    
+    private final ReentrantLock lock = new ReentrantLock(true);
+    
+    private final Condition available = this.lock.newCondition();
+    
+    private double limit;
+    
+    private int inFlight = 0;
+    
+    private int queued = 0;
+    
+    private long blockedUntil = 0;
+    
+    private boolean blocked = false;
+    
+    private double smoothedLatency = -1;
+    
+    private long rejected = 0;
+    
+    private long decreases = 0;
+    
+    /**
+     * Default constructor
+     */
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUED, DEFAULT_MAX_WAIT);
+    }
+    
+    /**
+     * Constructor
+     * @param initialLimit the limit to start from
+     * @param minLimit the lowest the limit can go
+     * @param maxLimit the highest the limit can go
+     * @param maxQueued the number of calls that may wait for a slot (0 to reject straight away)
+     * @param maxWait the time (in milliseconds) a call may wait for a slot
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, long maxWait) {
+        if(minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit || maxQueued < 0 || maxWait < 0) {
+            throw new IllegalArgumentException("Invalid concurrency limiter settings");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+    }
+    
+    /**
+     * Waits for a slot to make a call in (each successful acquire must be followed by a 
+     * release)
+     * @throws FluidException if the queue is full, the wait is too long (a 
+     * FluidTimeoutException) or the thread is interrupted
+     */
+    public void acquire() throws FluidException {
+        this.acquire(this.maxWait);
+    }
+    
+    /**
+     * Waits for a slot to make a call in (each successful acquire must be followed by a 
+     * release)
+     * @param maxWait the longest time (in milliseconds) to wait, cut down to the limiter's 
+     * own maximum wait
+     * @throws FluidException if the queue is full, the wait is too long (a 
+     * FluidTimeoutException) or the thread is interrupted
+     */
+    public void acquire(long maxWait) throws FluidException {
+        maxWait = Math.min(maxWait, this.maxWait);
+        this.lock.lock();
+        try {
+            long now = System.nanoTime();
+            if(this.queued == 0 && this.canStart(now)) {
+                this.inFlight++;
+                return;
+            }
+            if(this.queued >= this.maxQueued) {
+                this.rejected++;
+                throw new FluidException("Too many calls waiting for FluidDB");
+            }
+            long deadline = now + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            this.queued++;
+            try {
+                while(!this.canStart(now)) {
+                    long wait = deadline - now;
+                    if(wait <= 0) {
+                        this.rejected++;
+                        throw new FluidTimeoutException("Timed out waiting for a slot to call FluidDB");
+                    }
+                    if(this.blocked) {
+                        wait = Math.min(wait, this.blockedUntil - now);
+                    }
+                    this.available.awaitNanos(wait);
+                    now = System.nanoTime();
+                }
+                this.inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FluidException("Interrupted while waiting to call FluidDB", e);
+            } finally {
+                this.queued--;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    private boolean canStart(long now) {
+        if(this.blocked) {
+            if(now - this.blockedUntil < 0) {
+                return false;
+            }
+            this.blocked = false;
+        }
+        return this.inFlight < (int)this.limit;
+    }
+    
+    /**
+     * Hands back a slot and adjusts the limit
+     * @param latency how long the call took in nanoseconds (-1 if no call was made, which 
+     * leaves the limit alone)
+     * @param overloaded true if the call failed in a way that suggests FluidDB is overloaded 
+     * (an IOException, a 5xx or a 429)
+     * @param retryAfter how long (in milliseconds) FluidDB asked us to hold off, or -1
+     */
+    public void release(long latency, boolean overloaded, long retryAfter) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            if(latency < 0) {
+                this.available.signal();
+                return;
+            }
+            if(retryAfter >= 0) {
+                long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfter);
+                if(!this.blocked || until - this.blockedUntil > 0) {
+                    this.blockedUntil = until;
+                    this.blocked = true;
+                }
+            }
+            boolean slow = this.smoothedLatency > 0 && latency > this.smoothedLatency * LATENCY_TOLERANCE;
+            if(overloaded || slow) {
+                this.limit = Math.max(this.minLimit, this.limit * BACKOFF_RATIO);
+                this.decreases++;
+            } else if(this.inFlight + 1 >= this.limit / 2) {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+            }
+            if(!overloaded) {
+                this.smoothedLatency = this.smoothedLatency < 0 ? latency : 
+                    this.smoothedLatency + SMOOTHING * (latency - this.smoothedLatency);
+            }
+            this.available.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the current limit on calls in flight
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int)this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls waiting for a slot
+     */
+    public int getQueueDepth() {
+        this.lock.lock();
+        try {
+            return this.queued;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls turned away because the queue was full or they waited too 
+     * long
+     */
+    public long getRejectedCount() {
+        this.lock.lock();
+        try {
+            return this.rejected;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of times the limit has been cut
+     */
+    public long getLimitDecreases() {
+        this.lock.lock();
+        try {
+            return this.decreases;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return how long (in milliseconds) calls are being held back for because of a 
+     * Retry-After header (0 if they aren't)
+     */
+    public long getRetryAfterRemaining() {
+        this.lock.lock();
+        try {
+            long remaining = this.blocked ? this.blockedUntil - System.nanoTime() : 0;
+            return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) : 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter[limit: "+this.getLimit()+", in flight: "+this.getInFlight()+", queued: "+this.getQueueDepth()+"]";
+    }
+}
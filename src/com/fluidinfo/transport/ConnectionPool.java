@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A pool of keep-alive connections to FluidDB, grouped by host
+ * 
+ * At most maxConnectionsPerHost sockets are open to any one host at a time (callers
+ * wait for one to be released) and sockets that have been idle for longer than the
+ * idle timeout are closed.
+ * 
+ * @author rossjones
+ *
+ */
+public class ConnectionPool {
+    
+    /**
+     * The default number of connections allowed to any one host
+     */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+    
+    /**
+     * The default time (in milliseconds) a connection may sit unused before it is closed
+     */
+    public final static long DEFAULT_IDLE_TIMEOUT = 30000;
+    
+    private final int maxConnectionsPerHost;
+    
+    private final long idleTimeout;
+    
+    private final ConcurrentHashMap<String, HostPool> hosts = new ConcurrentHashMap<String, HostPool>();
+    
+    private final AtomicLong created = new AtomicLong();
+    
+    private final AtomicLong reused = new AtomicLong();
+    
+    private final AtomicLong evicted = new AtomicLong();
+    
+    private final Timer evictor;
+    
+    private volatile boolean closed = false;
+    
+    /**
+     * Default constructor
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+    }
+    
+    /**
+     * Constructor
+     * @param maxConnectionsPerHost the maximum number of open connections to any one host
+     * @param idleTimeout the time (in milliseconds) a connection may sit unused before it is closed
+     */
+    public ConnectionPool(int maxConnectionsPerHost, long idleTimeout) {
+        if(maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+        }
+        if(idleTimeout < 1) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        // Sweep the pool for expired connections in the background so that an otherwise
+        // quiet pool doesn't hold on to sockets the server has long forgotten about
+        this.evictor = new Timer("JFluidDB-ConnectionPool-evictor", true);
+        long period = Math.max(idleTimeout / 2, 1);
+        this.evictor.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, period, period);
+    }
+    
+    /**
+     * @return the maximum number of open connections to any one host
+     */
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+    
+    /**
+     * @return the time (in milliseconds) a connection may sit unused before it is closed
+     */
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+    
+    /**
+     * @return the number of sockets opened by this pool
+     */
+    public long getConnectionsCreated() {
+        return this.created.get();
+    }
+    
+    /**
+     * @return the number of requests that were served by an already open socket
+     */
+    public long getConnectionsReused() {
+        return this.reused.get();
+    }
+    
+    /**
+     * @return the number of idle sockets closed because they exceeded the idle timeout
+     */
+    public long getConnectionsEvicted() {
+        return this.evicted.get();
+    }
+    
+    /**
+     * @return the number of open sockets waiting in the pool to be reused
+     */
+    public int getIdleConnectionCount() {
+        int count = 0;
+        for(HostPool host : this.hosts.values()) {
+            synchronized(host) {
+                count += host.idle.size();
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * @return the number of sockets currently checked out of the pool
+     */
+    public int getActiveConnectionCount() {
+        int count = 0;
+        for(HostPool host : this.hosts.values()) {
+            count += this.maxConnectionsPerHost - host.permits.availablePermits();
+        }
+        return count;
+    }
+    
+    /**
+     * Checks out a connection to the given host, reusing an idle one if there is one. Blocks 
+     * while maxConnectionsPerHost connections to the host are already in use.
+     * @param scheme http or https
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param connectTimeout the connect timeout in milliseconds (0 means no timeout), which 
+     * covers both waiting for a connection to be free and opening a new one
+     * @return an open connection
+     * @throws IOException if a new socket could not be opened
+     */
+    public PooledConnection acquire(String scheme, String host, int port, int connectTimeout) throws IOException {
+        return this.acquire(scheme, host, port, connectTimeout, 0);
+    }
+    
+    /**
+     * Checks out a connection to the given host, reusing an idle one if there is one. Blocks 
+     * while maxConnectionsPerHost connections to the host are already in use.
+     * @param scheme http or https
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param connectTimeout the connect timeout in milliseconds (0 means no timeout), which 
+     * covers waiting for a connection to be free, opening a new one and its TLS handshake
+     * @param readTimeout the read timeout in milliseconds (0 means no timeout), which bounds 
+     * the TLS handshake instead when there is no connect timeout
+     * @return an open connection
+     * @throws IOException if a new socket could not be opened (a SocketTimeoutException if 
+     * it timed out)
+     */
+    public PooledConnection acquire(String scheme, String host, int port, int connectTimeout, int readTimeout) throws IOException {
+        if(this.closed) {
+            throw new IOException("The connection pool has been closed");
+        }
+        String key = scheme+"://"+host+":"+port;
+        HostPool hostPool = this.hosts.get(key);
+        if(hostPool == null) {
+            HostPool newPool = new HostPool(this.maxConnectionsPerHost);
+            hostPool = this.hosts.putIfAbsent(key, newPool);
+            if(hostPool == null) {
+                hostPool = newPool;
+            }
+        }
+        long startedAt = System.nanoTime();
+        try {
+            if(connectTimeout > 0) {
+                if(!hostPool.permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new SocketTimeoutException("Timed out waiting for a connection to "+key);
+                }
+            } else {
+                hostPool.permits.acquire();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to "+key);
+        }
+        try {
+            PooledConnection connection = this.pollIdle(hostPool);
+            if(connection != null) {
+                this.reused.incrementAndGet();
+                return connection;
+            }
+            int timeout = connectTimeout;
+            if(connectTimeout > 0) {
+                // only what's left after waiting for a permit, so the call takes at most connectTimeout
+                timeout -= (int)TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                if(timeout <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a connection to "+key);
+                }
+            }
+            connection = new PooledConnection(key, this.openSocket(scheme, host, port, timeout, readTimeout));
+            this.created.incrementAndGet();
+            return connection;
+        } catch(IOException e) {
+            hostPool.permits.release();
+            throw e;
+        } catch(RuntimeException e) {
+            hostPool.permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Returns a connection to the pool
+     * @param connection the connection to return
+     * @param reusable false if the connection must be closed rather than kept alive
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        HostPool hostPool = this.hosts.get(connection.getKey());
+        if(reusable && !this.closed && !connection.isClosed()) {
+            connection.touch();
+            synchronized(hostPool) {
+                hostPool.idle.push(connection);
+            }
+        } else {
+            connection.close();
+        }
+        hostPool.permits.release();
+    }
+    
+    /**
+     * Closes any idle connections that have exceeded the idle timeout
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for(HostPool hostPool : this.hosts.values()) {
+            synchronized(hostPool) {
+                Iterator<PooledConnection> i = hostPool.idle.iterator();
+                while(i.hasNext()) {
+                    PooledConnection connection = i.next();
+                    if(now - connection.getLastUsed() >= this.idleTimeout || connection.isClosed()) {
+                        i.remove();
+                        connection.close();
+                        this.evicted.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Closes all idle connections and stops the pool from handing out any more
+     */
+    public void close() {
+        this.closed = true;
+        this.evictor.cancel();
+        for(HostPool hostPool : this.hosts.values()) {
+            synchronized(hostPool) {
+                while(!hostPool.idle.isEmpty()) {
+                    hostPool.idle.pop().close();
+                }
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ConnectionPool[created=").append(this.getConnectionsCreated());
+        sb.append(", reused=").append(this.getConnectionsReused());
+        sb.append(", evicted=").append(this.getConnectionsEvicted());
+        sb.append(", active=").append(this.getActiveConnectionCount());
+        sb.append(", idle=").append(this.getIdleConnectionCount());
+        sb.append("]");
+        return sb.toString();
+    }
+    
+    /**
+     * Takes the most recently used idle connection that is still usable
+     */
+    private PooledConnection pollIdle(HostPool hostPool) {
+        long now = System.currentTimeMillis();
+        synchronized(hostPool) {
+            while(!hostPool.idle.isEmpty()) {
+                PooledConnection connection = hostPool.idle.pop();
+                if(now - connection.getLastUsed() < this.idleTimeout && !connection.isClosed()) {
+                    return connection;
+                }
+                connection.close();
+                this.evicted.incrementAndGet();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Opens a socket, bounding the TLS handshake by what's left of the connect timeout (or 
+     * by the read timeout if there isn't one)
+     */
+    private Socket openSocket(String scheme, String host, int port, int connectTimeout, int readTimeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            long startedAt = System.nanoTime();
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            if("https".equalsIgnoreCase(scheme)) {
+                int handshakeTimeout = readTimeout;
+                if(connectTimeout > 0) {
+                    handshakeTimeout = connectTimeout - (int)TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                    if(handshakeTimeout <= 0) {
+                        throw new SocketTimeoutException("Timed out connecting to "+host+":"+port);
+                    }
+                }
+                // a server that accepts but never answers the handshake mustn't hang the call
+                socket.setSoTimeout(handshakeTimeout);
+                SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
+                SSLSocket sslSocket = (SSLSocket)factory.createSocket(socket, host, port, true);
+                SSLParameters params = sslSocket.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(params);
+                sslSocket.startHandshake();
+                return sslSocket;
+            }
+            return socket;
+        } catch(IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * The connections to a single host
+     */
+    private static class HostPool {
+        final Semaphore permits;
+        final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+        
+        HostPool(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidException;
+
+/**
+ * Runs calls to FluidDB in the background and hands back a CompletableFuture for each
+ * 
+ * Both the number of calls in flight and the number waiting to start are bounded: when the
+ * queue is full new calls fail straight away rather than piling up.
+ * 
+ * @author rossjones
+ *
+ */
+public class Dispatcher {
+    
+    /**
+     * The default number of calls that may be in flight at once (matches the default 
+     * number of pooled connections per host)
+     */
+    public final static int DEFAULT_MAX_CONCURRENT_CALLS = ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    
+    /**
+     * The default number of calls that may wait for a free slot
+     */
+    public final static int DEFAULT_MAX_QUEUED_CALLS = 1000;
+    
+    private final ThreadPoolExecutor executor;
+    
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Default constructor
+     */
+    public Dispatcher() {
+        this(DEFAULT_MAX_CONCURRENT_CALLS, DEFAULT_MAX_QUEUED_CALLS);
+    }
+    
+    /**
+     * Constructor
+     * @param maxConcurrentCalls the number of calls that may be in flight at once
+     * @param maxQueuedCalls the number of calls that may wait for a free slot
+     */
+    public Dispatcher(int maxConcurrentCalls, int maxQueuedCalls) {
+        if(maxConcurrentCalls < 1 || maxQueuedCalls < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls and maxQueuedCalls must be at least 1");
+        }
+        this.executor = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueuedCalls), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JFluidDB-dispatcher-"+count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Schedules a call
+     * @param call the work to do
+     * @return a future completed with the result of the call, or exceptionally if it threw or 
+     *         could not be queued
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    if(future.isDone()) {
+                        // cancelled while it was queued
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } catch(Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            this.rejected.incrementAndGet();
+            future.completeExceptionally(new FluidException("Too many outstanding calls to FluidDB", e));
+        }
+        return future;
+    }
+    
+    /**
+     * @return the maximum number of calls that may be in flight at once
+     */
+    public int getMaxConcurrentCalls() {
+        return this.executor.getMaximumPoolSize();
+    }
+    
+    /**
+     * @return the number of calls currently in flight
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+    
+    /**
+     * @return the number of calls waiting for a free slot
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+    
+    /**
+     * @return the number of calls turned away because the queue was full
+     */
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+    
+    /**
+     * Stops accepting new calls (calls already queued still run)
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
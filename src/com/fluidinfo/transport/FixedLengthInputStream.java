@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads exactly Content-Length bytes of a response body from a kept-alive connection and 
+ * then reports the end of the stream, leaving the connection positioned at the next response
+ * 
+ * @author rossjones
+ *
+ */
+public class FixedLengthInputStream extends InputStream {
+    
+    private final InputStream in;
+    
+    private long remaining;
+    
+    /**
+     * Constructor
+     * @param in the connection's stream
+     * @param length the length of the body
+     */
+    public FixedLengthInputStream(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if(this.remaining <= 0) {
+            return -1;
+        }
+        int b = this.in.read();
+        if(b == -1) {
+            throw new EOFException("Response body ended with "+this.remaining+" bytes still expected");
+        }
+        this.remaining--;
+        return b;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(this.remaining <= 0) {
+            return -1;
+        }
+        int read = this.in.read(b, off, (int)Math.min(len, this.remaining));
+        if(read == -1) {
+            throw new EOFException("Response body ended with "+this.remaining+" bytes still expected");
+        }
+        this.remaining -= read;
+        return read;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        return (int)Math.min(this.in.available(), this.remaining);
+    }
+    
+    /**
+     * @return the number of bytes of the body not yet read
+     */
+    public long getRemaining() {
+        return this.remaining;
+    }
+    
+    /**
+     * Skips whatever is left of the body (the connection itself stays open)
+     */
+    @Override
+    public void close() throws IOException {
+        byte[] skip = new byte[1024];
+        while(this.read(skip, 0, skip.length) != -1) {
+            // discard
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Sends a second, identical request when a read is taking longer than most recent reads did,
+ * and uses whichever answer arrives first
+ * 
+ * The hedge delay is a percentile (the 95th by default) of the latency of the last few 
+ * hundred reads. Hedges are paid for out of a budget that grows by a fraction (5% by 
+ * default) of a request for every read, so the extra load on FluidDB stays bounded even
+ * when it is slow across the board.
+ * 
+ * Both attempts run on a bounded set of threads (by default one per connection the 
+ * ConnectionPool allows to a host). When they are all busy a read is sent on the caller's 
+ * thread without a hedge. Whichever attempt loses is aborted by closing its connection (see
+ * Cancellation), so it hands back its thread and its pooled connection straight away rather
+ * than when FluidDB gets round to answering it. The price of a hedge is therefore one extra 
+ * request to FluidDB and, when the loser is aborted, one new connection to replace the one 
+ * closed (a transport that can't be aborted, such as the InMemoryTransport, runs the loser 
+ * to the end).
+ * 
+ * @author rossjones
+ *
+ */
+public class Hedger {
+    
+    /**
+     * The default latency percentile after which a hedge is sent
+     */
+    public final static double DEFAULT_PERCENTILE = 0.95;
+    
+    /**
+     * The default ratio of hedges to reads
+     */
+    public final static double DEFAULT_MAX_EXTRA_LOAD = 0.05;
+    
+    /**
+     * The default number of threads attempts are sent on
+     */
+    public final static int DEFAULT_MAX_THREADS = ConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    
+    /**
+     * The number of recent latencies the percentile is worked out from
+     */
+    public final static int WINDOW_SIZE = 512;
+    
+    /**
+     * The number of latencies needed before any hedges are sent
+     */
+    public final static int MIN_SAMPLES = 20;
+    
+    /**
+     * How often (in samples) the hedge delay is recalculated
+     */
+    private final static int RECALCULATE_EVERY = 32;
+    
+    /**
+     * The most hedges that can be saved up while FluidDB is fast
+     */
+    private final static double MAX_BUDGET = 10;
+    
+    private final double percentile;
+    
+    private final double maxExtraLoad;
+    
+    private final int maxThreads;
+    
+    private final ExecutorService executor;
+    
+    private final long[] latencies = new long[WINDOW_SIZE];
+    
+    private final AtomicLong samples = new AtomicLong();
+    
+    private volatile long hedgeDelay = -1;
+    
+    private double budget = 0;
+    
+    private final AtomicLong reads = new AtomicLong();
+    
+    private final AtomicLong hedges = new AtomicLong();
+    
+    private final AtomicLong hedgesWon = new AtomicLong();
+    
+    private final AtomicLong unhedged = new AtomicLong();
+    
+    /**
+     * Default constructor
+     */
+    public Hedger() {
+        this(DEFAULT_PERCENTILE, DEFAULT_MAX_EXTRA_LOAD);
+    }
+    
+    /**
+     * Constructor
+     * @param percentile the latency percentile (e.g. 0.95) after which a hedge is sent
+     * @param maxExtraLoad the ratio of hedges to reads (e.g. 0.05 for at most 5% extra 
+     * requests)
+     */
+    public Hedger(double percentile, double maxExtraLoad) {
+        this(percentile, maxExtraLoad, DEFAULT_MAX_THREADS);
+    }
+    
+    /**
+     * Constructor
+     * @param percentile the latency percentile (e.g. 0.95) after which a hedge is sent
+     * @param maxExtraLoad the ratio of hedges to reads (e.g. 0.05 for at most 5% extra 
+     * requests)
+     * @param maxThreads the most attempts (primary or hedge) in flight at once, which there 
+     * is no point setting above the ConnectionPool's maxConnectionsPerHost
+     */
+    public Hedger(double percentile, double maxExtraLoad, int maxThreads) {
+        if(percentile <= 0 || percentile >= 1 || maxExtraLoad < 0 || maxExtraLoad > 1 || maxThreads < 1) {
+            throw new IllegalArgumentException("Invalid hedging settings");
+        }
+        this.percentile = percentile;
+        this.maxExtraLoad = maxExtraLoad;
+        this.maxThreads = maxThreads;
+        // no queue, so an attempt either gets a thread straight away or is rejected
+        this.executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "JFluidDB-hedge-"+count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    /**
+     * @param m an HTTP method
+     * @return true if requests with the method can be hedged (GET and HEAD)
+     */
+    public static boolean isHedgeable(Method m) {
+        return m == Method.GET || m == Method.HEAD;
+    }
+    
+    /**
+     * Sends a read, hedging it if it is slow and the budget allows
+     * @param transport the transport to send the request (and any hedge) with
+     * @param request the request
+     * @return the first response to arrive
+     * @throws FluidException if interrupted
+     * @throws IOException if every request sent failed
+     */
+    public FluidResponse send(final Transport transport, final FluidRequest request) throws FluidException, IOException {
+        this.reads.incrementAndGet();
+        this.addToBudget();
+        long start = System.nanoTime();
+        long delay = this.hedgeDelay;
+        if(delay < 0) {
+            // still learning what normal looks like
+            FluidResponse response = transport.send(request);
+            this.recordLatency(System.nanoTime() - start);
+            return response;
+        }
+        CompletionService<FluidResponse> completion = new ExecutorCompletionService<FluidResponse>(this.executor);
+        FluidRequest primaryRequest = attemptOf(request);
+        FluidRequest hedgeRequest = null;
+        Future<FluidResponse> primary;
+        try {
+            primary = completion.submit(sender(transport, primaryRequest));
+        } catch (RejectedExecutionException e) {
+            // every thread is busy with other reads, so this one goes unhedged
+            this.unhedged.incrementAndGet();
+            FluidResponse response = transport.send(request);
+            this.recordLatency(System.nanoTime() - start);
+            return response;
+        }
+        Future<FluidResponse> hedge = null;
+        try {
+            Future<FluidResponse> first = completion.poll(delay, TimeUnit.NANOSECONDS);
+            if(first == null) {
+                if(this.spendBudget()) {
+                    try {
+                        hedgeRequest = attemptOf(request);
+                        hedge = completion.submit(sender(transport, hedgeRequest));
+                        this.hedges.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        this.unhedged.incrementAndGet();
+                        this.refundBudget();
+                    }
+                }
+                first = completion.take();
+            }
+            try {
+                FluidResponse response = first.get();
+                if(first == hedge) {
+                    this.hedgesWon.incrementAndGet();
+                }
+                this.recordLatency(System.nanoTime() - start);
+                return response;
+            } catch (ExecutionException e) {
+                if(hedge == null) {
+                    throw unwrap(e);
+                }
+                // the other request may still work
+                try {
+                    FluidResponse response = completion.take().get();
+                    if(first == primary) {
+                        this.hedgesWon.incrementAndGet();
+                    }
+                    this.recordLatency(System.nanoTime() - start);
+                    return response;
+                } catch (ExecutionException ignored) {
+                    throw unwrap(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FluidException("Interrupted while waiting for FluidDB", e);
+        } finally {
+            // the loser's answer isn't needed, so free its thread and connection (this does
+            // nothing to an attempt that has already finished)
+            primary.cancel(true);
+            primaryRequest.getCancellation().cancel();
+            if(hedge != null) {
+                hedge.cancel(true);
+                hedgeRequest.getCancellation().cancel();
+            }
+        }
+    }
+    
+    /**
+     * Copies a request for one attempt, with its own cancellation so the loser can be
+     * aborted without touching the winner
+     */
+    private static FluidRequest attemptOf(FluidRequest request) {
+        FluidRequest attempt = new FluidRequest(request);
+        attempt.setAttempts(request.getAttempts());
+        attempt.setCancellation(new Cancellation());
+        return attempt;
+    }
+    
+    private static Callable<FluidResponse> sender(final Transport transport, final FluidRequest request) {
+        return new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                return transport.send(request);
+            }
+        };
+    }
+    
+    private static IOException unwrap(ExecutionException e) throws FluidException {
+        Throwable cause = e.getCause();
+        if(cause instanceof IOException) {
+            return (IOException)cause;
+        }
+        if(cause instanceof FluidException) {
+            throw (FluidException)cause;
+        }
+        if(cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        }
+        throw new FluidException(cause);
+    }
+    
+    private synchronized void addToBudget() {
+        this.budget = Math.min(MAX_BUDGET, this.budget + this.maxExtraLoad);
+    }
+    
+    private synchronized boolean spendBudget() {
+        if(this.budget >= 1) {
+            this.budget -= 1;
+            return true;
+        }
+        return false;
+    }
+    
+    private synchronized void refundBudget() {
+        this.budget = Math.min(MAX_BUDGET, this.budget + 1);
+    }
+    
+    private void recordLatency(long nanos) {
+        long n = this.samples.getAndIncrement();
+        synchronized(this.latencies) {
+            this.latencies[(int)(n % WINDOW_SIZE)] = nanos;
+        }
+        n++;
+        if(n >= MIN_SAMPLES && (n % RECALCULATE_EVERY == 0 || this.hedgeDelay < 0)) {
+            long[] window;
+            synchronized(this.latencies) {
+                window = Arrays.copyOf(this.latencies, (int)Math.min(n, WINDOW_SIZE));
+            }
+            Arrays.sort(window);
+            this.hedgeDelay = window[(int)Math.min(window.length - 1, (long)(window.length * this.percentile))];
+        }
+    }
+    
+    /**
+     * @return the latency percentile after which a hedge is sent
+     */
+    public double getPercentile() {
+        return this.percentile;
+    }
+    
+    /**
+     * @return the maximum ratio of hedges to reads
+     */
+    public double getMaxExtraLoad() {
+        return this.maxExtraLoad;
+    }
+    
+    /**
+     * @return the most attempts in flight at once
+     */
+    public int getMaxThreads() {
+        return this.maxThreads;
+    }
+    
+    /**
+     * @return the current hedge delay in milliseconds (-1 until enough reads have been made)
+     */
+    public long getHedgeDelay() {
+        long delay = this.hedgeDelay;
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+    
+    /**
+     * @return the number of reads sent through the hedger
+     */
+    public long getReadCount() {
+        return this.reads.get();
+    }
+    
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedgeCount() {
+        return this.hedges.get();
+    }
+    
+    /**
+     * @return the number of hedges that answered before the request they were backing up
+     */
+    public long getHedgesWon() {
+        return this.hedgesWon.get();
+    }
+    
+    /**
+     * @return the number of reads that went unhedged because every thread was busy
+     */
+    public long getUnhedgedCount() {
+        return this.unhedged.get();
+    }
+    
+    /**
+     * Stops the threads used to send hedged requests
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+    
+    @Override
+    public String toString() {
+        return "Hedger[reads: "+this.getReadCount()+", hedges: "+this.getHedgeCount()+", won: "+this.getHedgesWon()+"]";
+    }
+}
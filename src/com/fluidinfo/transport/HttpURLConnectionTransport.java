@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   - Derived from code by Nicholas H.Tollervey
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.utils.BufferPool;
+import com.fluidinfo.utils.CountingInputStream;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StreamUtil;
+
+/**
+ * The original engine: a new HttpURLConnection for every request (the JVM's own keep-alive
+ * cache decides whether the socket underneath is reused)
+ * 
+ * @author rossjones, ntoll
+ *
+ */
+public class HttpURLConnectionTransport implements Transport {
+    
+    public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+        Method m = request.getMethod();
+        byte[] data = request.getBody();
+        
+        // Declare some vars we'll use in a moment...
+        InputStream       reader      = null;
+        OutputStream      writer      = null;
+        HttpURLConnection connection  = null;
+        FluidResponse 	  response	  = null;
+        boolean           reusable    = false;
+        boolean           streaming   = false;
+        Cancellation      cancellation = request.getCancellation();
+        Closeable         abort       = null;
+        
+        // Lets build the HTTP request and attempt to get a response
+        try{
+            // Basic setup of the connection to FluidDB
+            connection = (HttpURLConnection)new URL( request.getURI() ).openConnection();
+            if ( cancellation != null ){
+                final HttpURLConnection attached = connection;
+                abort = () -> attached.disconnect();
+                if ( !cancellation.attach(abort) )
+                    throw new InterruptedIOException("Request cancelled");
+            }
+            connection.setRequestMethod(  m.toString().toUpperCase() );
+            if ( m == Method.POST || m == Method.PUT )
+                connection.setDoInput(true);
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(request.getConnectTimeout());
+            connection.setReadTimeout(request.getReadTimeout());
+            for(Map.Entry<String, String> header : request.getHeaders().entrySet()){
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            RequestBody body = request.getRequestBody();
+            if ( body != null ){
+                // Stream the body rather than letting the connection buffer all of it
+                if ( body.getLength() >= 0 )
+                    connection.setFixedLengthStreamingMode(body.getLength());
+                else
+                    connection.setChunkedStreamingMode(BufferPool.BUFFER_SIZE);
+                writer = connection.getOutputStream();
+                body.writeTo(writer);
+                writer.close();
+            } else if ( data != null && data.length > 0 ){
+                connection.setFixedLengthStreamingMode(data.length);
+                writer = connection.getOutputStream();
+                writer.write(data);
+                writer.close();
+            }
+            
+            CountingInputStream wire = new CountingInputStream(connection.getInputStream());
+            reader = wire;
+            ResponseBody target = request.getResponseBody();
+            if ( target != null && ResponseBody.isStreamed(connection.getResponseCode()) ){
+                // Copy the body straight to where it's wanted (a failure part way through
+                // can't be turned into an error response)
+                streaming = true;
+                long streamed = this.streamBody(connection, wire, target);
+                reader.close();
+                reusable = true;
+                response = this.BuildResponse(connection, new byte[0], wire.getCount());
+                response.setResponseStreamedLength(streamed);
+            } else {
+                // Read the entire response as bytes (sized by Content-Length if we have one)
+                byte[] content = this.readBody(connection, wire);
+                reader.close();
+                reusable = true;
+                response = this.BuildResponse(connection, content, wire.getCount());
+            }
+        } catch (FileNotFoundException fnfe){
+            // Build a 404 response
+            response = this.readErrorResponse(connection);
+            reusable = true;
+        } catch ( SocketTimeoutException e) {
+            // Don't wait around for the rest of a response that has stalled
+            throw new FluidTimeoutException("Timed out calling FluidDB: "+e.getMessage(), e);
+        } catch ( IOException e) {
+            if ( streaming || (cancellation != null && cancellation.isCancelled()) )
+                throw e;
+            // Build a 401 (usually)
+            response = this.readErrorResponse(connection);
+            reusable = true;
+        } catch ( Exception e ) {
+            // catch all of the other exceptions so that we can provide more 
+            // fine-grained error handling for the response object otherwise barf with
+            // a FluidException
+            if(connection != null && connection.getHeaderFields().containsKey("X-FluidDB-Error-Class")) {
+                response =  this.BuildResponse(connection, new byte[0], 0);
+            } else {
+                throw new FluidException(e);
+            }
+        } finally {
+            // Tidy up after ourselves ;-) A connection whose response has been read to the 
+            // end is left open so that the JVM can keep it alive for the next call
+            if(abort != null){
+                cancellation.detach(abort);
+            }
+            if(!reusable && connection != null){
+                connection.disconnect();
+            }
+            reader = null;
+            writer = null;
+            connection = null;
+        }
+        // et voila!
+        return response;
+    }
+    
+    /**
+     * Nothing to release - the JVM manages the connections
+     */
+    public void close() {
+    }
+    
+    /**
+     * Reads a body, decompressing it if it was sent with a Content-Encoding
+     * 
+     * @param connection The connection made to FluidDB
+     * @param wire The body as it arrives on the wire
+     * @return the (decompressed) body
+     * @throws IOException
+     */
+    private byte[] readBody(HttpURLConnection connection, InputStream wire) throws IOException {
+        String contentEncoding = connection.getContentEncoding();
+        if(Compression.isEncoded(contentEncoding)){
+            return StreamUtil.readToEnd(Compression.decode(wire, contentEncoding));
+        }
+        return StreamUtil.readBody(wire, connection.getContentLengthLong());
+    }
+    
+    /**
+     * Copies a body to a ResponseBody, decompressing it if it was sent with a 
+     * Content-Encoding
+     * 
+     * @param connection The connection made to FluidDB
+     * @param wire The body as it arrives on the wire
+     * @param target Where to copy the body
+     * @return the number of (decompressed) bytes copied
+     * @throws IOException
+     */
+    private long streamBody(HttpURLConnection connection, InputStream wire, ResponseBody target) throws IOException {
+        String contentEncoding = connection.getContentEncoding();
+        if(Compression.isEncoded(contentEncoding)){
+            return target.readFrom(Compression.decode(wire, contentEncoding), -1);
+        }
+        return target.readFrom(wire, connection.getContentLengthLong());
+    }
+    
+    /**
+     * Builds the response for a failed call from its error stream, reading it to the end
+     * (which also lets the underlying socket be kept alive)
+     * 
+     * @param connection The connection made to FluidDB
+     * @return the response, with the body of the error (empty if there isn't one)
+     * @throws IOException 
+     */
+    private FluidResponse readErrorResponse(HttpURLConnection connection) throws IOException {
+        InputStream errorStream = connection.getErrorStream();
+        if(errorStream == null){
+            return this.BuildResponse(connection, new byte[0], 0);
+        }
+        CountingInputStream wire = new CountingInputStream(errorStream);
+        byte[] content;
+        try {
+            content = this.readBody(connection, wire);
+            wire.close();
+        } catch (IOException e) {
+            connection.disconnect();
+            content = new byte[0];
+        }
+        return this.BuildResponse(connection, content, wire.getCount());
+    }
+
+    /**
+     * Utility method to build new FluidDBResponse instances given a connection and some content
+     * 
+     * @param connection The connection made to FluidDB
+     * @param content The payload of the response
+     * @param wireLength The number of bytes of payload that came over the wire
+     * @return a new FluidDBResponse instance
+     * @throws IOException
+     */
+    private FluidResponse BuildResponse(HttpURLConnection connection, byte[] content, long wireLength) throws IOException {
+        // Grab some useful information
+        int responseCode = connection.getResponseCode();
+        String responseMessage = connection.getResponseMessage();
+        String responseEncoding = connection.getHeaderField("Content-Type");
+        String responseError = connection.getHeaderField("X-FluidDB-Error-Class");
+        String requestID = connection.getHeaderField("X-FluidDB-Request-Id");
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for(Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()){
+            // the status line comes back with a null name
+            if(header.getKey() != null && !header.getValue().isEmpty()){
+                headers.put(header.getKey(), String.join(", ", header.getValue()));
+            }
+        }
+        // Build the FluidResponse object
+        FluidResponse response = new FluidResponse(responseCode, responseMessage, responseEncoding, content, responseError, requestID, wireLength);
+        response.setResponseHeaders(headers);
+        return response;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.utils.Method;
+
+/**
+ * A transport that never touches the network: it answers each request with a canned 
+ * response registered for its method and path
+ * 
+ * Useful for measuring the cost of the client (serialization, the FOM classes etc) on its own
+ * and for testing code that uses FluidDB without a sandbox. Each call gets its own copy of
+ * the canned response. Streamed request bodies are read as a server would read them, and a
+ * successful response's body is written to the request's ResponseBody if it has one.
+ * 
+ * @author rossjones
+ *
+ */
+public class InMemoryTransport implements Transport {
+    
+    private final Map<String, FluidResponse> responses = new ConcurrentHashMap<String, FluidResponse>();
+    
+    private volatile FluidResponse defaultResponse = new FluidResponse(404, "Not Found", "text/plain", "", "TNoSuchResource", null);
+    
+    private final AtomicLong requestCount = new AtomicLong();
+    
+    private volatile FluidRequest lastRequest = null;
+    
+    /**
+     * Registers the response to return for a method and path
+     * @param m the HTTP method
+     * @param path the path (without the query string) e.g. /objects/1234
+     * @param response the response to return
+     */
+    public void addResponse(Method m, String path, FluidResponse response) {
+        this.responses.put(key(m, path), response);
+    }
+    
+    /**
+     * Removes the response registered for a method and path
+     * @param m the HTTP method
+     * @param path the path
+     */
+    public void removeResponse(Method m, String path) {
+        this.responses.remove(key(m, path));
+    }
+    
+    /**
+     * Sets the response returned when nothing has been registered for a request (a 404 by
+     * default)
+     * @param response the response to return
+     */
+    public void setDefaultResponse(FluidResponse response) {
+        this.defaultResponse = response;
+    }
+    
+    /**
+     * @return the number of requests this transport has answered
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+    
+    /**
+     * @return the most recent request this transport answered (with any streamed body read
+     * into it)
+     */
+    public FluidRequest getLastRequest() {
+        return this.lastRequest;
+    }
+    
+    public FluidResponse send(FluidRequest request) throws IOException {
+        this.requestCount.incrementAndGet();
+        if(request.getRequestBody() != null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            request.getRequestBody().writeTo(body);
+            FluidRequest buffered = new FluidRequest(request);
+            buffered.setRequestBody(null);
+            buffered.setBody(body.toByteArray());
+            request = buffered;
+        }
+        this.lastRequest = request;
+        FluidResponse canned = this.responses.get(key(request.getMethod(), request.getPath()));
+        if(canned == null) {
+            canned = this.defaultResponse;
+        }
+        byte[] content = canned.getResponseBytes();
+        ResponseBody target = request.getResponseBody();
+        boolean streamed = target != null && ResponseBody.isStreamed(canned.getResponseCode());
+        FluidResponse response = new FluidResponse(canned.getResponseCode(), canned.getResponseMessage(), canned.getResponseContentType(), 
+                streamed ? new byte[0] : content.clone(), canned.getResponseError(), canned.getErrorRequestID(), content.length);
+        response.setResponseHeaders(canned.getResponseHeaders());
+        if(streamed) {
+            response.setResponseStreamedLength(target.readFrom(new ByteArrayInputStream(content), content.length));
+        }
+        return response;
+    }
+    
+    public void close() {
+        this.responses.clear();
+    }
+    
+    private static String key(Method m, String path) {
+        return m.toString()+" "+path;
+    }
+}
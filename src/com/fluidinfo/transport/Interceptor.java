@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+
+/**
+ * Sits between FluidConnector and its Transport, seeing every attempt at a call (see 
+ * FluidConnector.addInterceptor)
+ * 
+ * An interceptor can inspect or rewrite the request before passing it on with 
+ * chain.proceed, answer it itself by returning a FluidResponse without calling proceed, or
+ * time and look at the response that proceed returns.
+ * 
+ * @author rossjones
+ *
+ */
+public interface Interceptor {
+    
+    /**
+     * The rest of the chain, ending at the transport
+     */
+    interface Chain {
+        
+        /**
+         * @return the request as passed to this interceptor
+         */
+        FluidRequest request();
+        
+        /**
+         * Hands the request on to the next interceptor (or the transport)
+         * @param request the request to send (the one from request(), or a rewritten one)
+         * @return the response
+         * @throws FluidException
+         * @throws IOException
+         */
+        FluidResponse proceed(FluidRequest request) throws FluidException, IOException;
+    }
+    
+    /**
+     * Handles an attempt at a call
+     * @param chain the rest of the chain
+     * @return the response (never null)
+     * @throws FluidException
+     * @throws IOException
+     */
+    FluidResponse intercept(Chain chain) throws FluidException, IOException;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+
+/**
+ * A Transport that passes each request through a list of interceptors before handing it 
+ * to the real transport
+ * 
+ * @author rossjones
+ *
+ */
+public class InterceptorChain implements Transport {
+    
+    private final Transport transport;
+    
+    private final Interceptor[] interceptors;
+    
+    /**
+     * Constructor
+     * @param transport the transport at the end of the chain
+     * @param interceptors the interceptors, outermost first
+     */
+    public InterceptorChain(Transport transport, Interceptor[] interceptors) {
+        this.transport = transport;
+        this.interceptors = interceptors.clone();
+    }
+    
+    /**
+     * @return the transport at the end of the chain
+     */
+    public Transport getTransport() {
+        return this.transport;
+    }
+    
+    /**
+     * Sends a copy of the request through the chain, so that changes made by interceptors
+     * don't build up when a call is retried
+     */
+    public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+        return this.proceed(0, new FluidRequest(request));
+    }
+    
+    /**
+     * Hands a request to the interceptor at a position in the chain (or the transport once 
+     * past the end)
+     */
+    private FluidResponse proceed(int index, FluidRequest request) throws FluidException, IOException {
+        if(index == this.interceptors.length) {
+            return this.transport.send(request);
+        }
+        Interceptor interceptor = this.interceptors[index];
+        FluidResponse response = interceptor.intercept(new Link(index + 1, request));
+        if(response == null) {
+            throw new FluidException("Interceptor "+interceptor+" returned no response");
+        }
+        return response;
+    }
+    
+    /**
+     * Closes the transport at the end of the chain
+     */
+    public void close() {
+        this.transport.close();
+    }
+    
+    /**
+     * The position in the chain passed to one interceptor
+     */
+    private final class Link implements Interceptor.Chain {
+        
+        private final int index;
+        
+        private final FluidRequest request;
+        
+        Link(int index, FluidRequest request) {
+            this.index = index;
+            this.request = request;
+        }
+        
+        public FluidRequest request() {
+            return this.request;
+        }
+        
+        public FluidResponse proceed(FluidRequest request) throws FluidException, IOException {
+            return InterceptorChain.this.proceed(this.index, request);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * A keep-alive socket checked out of a ConnectionPool
+ * 
+ * @author rossjones
+ *
+ */
+public class PooledConnection {
+    
+    private final String key;
+    
+    private final Socket socket;
+    
+    private final InputStream in;
+    
+    private final OutputStream out;
+    
+    private volatile long lastUsed;
+    
+    private int useCount = 0;
+    
+    PooledConnection(String key, Socket socket) throws IOException {
+        this.key = key;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+    
+    /**
+     * @return the scheme://host:port this connection is open to
+     */
+    public String getKey() {
+        return this.key;
+    }
+    
+    /**
+     * @return the underlying socket
+     */
+    public Socket getSocket() {
+        return this.socket;
+    }
+    
+    /**
+     * @return the (buffered) stream to read responses from
+     */
+    public InputStream getInputStream() {
+        return this.in;
+    }
+    
+    /**
+     * @return the (buffered) stream to write requests to
+     */
+    public OutputStream getOutputStream() {
+        return this.out;
+    }
+    
+    /**
+     * @return the time this connection was last returned to the pool
+     */
+    public long getLastUsed() {
+        return this.lastUsed;
+    }
+    
+    /**
+     * @return true if this connection has already carried at least one request
+     */
+    public boolean isReused() {
+        return this.useCount > 0;
+    }
+    
+    /**
+     * Record that a request has been carried by this connection
+     */
+    void touch() {
+        this.useCount++;
+        this.lastUsed = System.currentTimeMillis();
+    }
+    
+    /**
+     * @return true if the socket has been closed by either side
+     */
+    public boolean isClosed() {
+        return this.socket.isClosed() || this.socket.isInputShutdown() || this.socket.isOutputShutdown();
+    }
+    
+    /**
+     * Closes the socket, ignoring any errors
+     */
+    public void close() {
+        try {
+            this.socket.close();
+        } catch(IOException e) {
+            // nothing sensible to do here
+        }
+    }
+}
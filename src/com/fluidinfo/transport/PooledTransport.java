@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.utils.BufferPool;
+import com.fluidinfo.utils.CountingInputStream;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StreamUtil;
+
+/**
+ * Speaks HTTP/1.1 to FluidDB over keep-alive sockets borrowed from a ConnectionPool
+ * 
+ * Pair it with a Dispatcher (see FluidConnector.callAsync) sized to the pool for 
+ * asynchronous calls that never wait on a socket.
+ * 
+ * @author rossjones
+ *
+ */
+public class PooledTransport implements Transport {
+    
+    private final static byte[] CRLF = {'\r', '\n'};
+    
+    private final ConnectionPool pool;
+    
+    private int connectTimeout = 0;
+    
+    /**
+     * Constructor
+     * @param pool the pool to borrow connections from
+     */
+    public PooledTransport(ConnectionPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * @return the pool connections are borrowed from
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.pool;
+    }
+    
+    /**
+     * @param connectTimeout the connect timeout in milliseconds (0 means no timeout) used 
+     * when the request doesn't have one of its own
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+    
+    /**
+     * @return the connect timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+    
+    public FluidResponse send(FluidRequest request) throws FluidException, IOException {
+        Method m = request.getMethod();
+        Endpoint endpoint = this.getEndpoint(request.getUrl());
+        boolean retried = false;
+        while(true) {
+            int connectTimeout = request.getConnectTimeout() > 0 ? request.getConnectTimeout() : this.connectTimeout;
+            PooledConnection connection;
+            try {
+                connection = this.pool.acquire(endpoint.scheme, endpoint.host, endpoint.port, connectTimeout, request.getReadTimeout());
+            } catch(SocketTimeoutException e) {
+                throw new FluidTimeoutException("Timed out connecting to FluidDB: "+e.getMessage(), e);
+            }
+            boolean reusable = false;
+            boolean responseStarted = false;
+            Cancellation cancellation = request.getCancellation();
+            try {
+                if(cancellation != null && !cancellation.attach(connection.getSocket())) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                connection.getSocket().setSoTimeout(request.getReadTimeout());
+                this.writeRequest(connection.getOutputStream(), endpoint, request);
+                InputStream in = connection.getInputStream();
+                String statusLine = readLine(in);
+                if(statusLine == null) {
+                    throw new EOFException("Connection closed by FluidDB before a response was sent");
+                }
+                responseStarted = true;
+                // e.g. HTTP/1.1 200 OK
+                String[] status = statusLine.split(" ", 3);
+                if(status.length < 2 || !status[0].startsWith("HTTP/")) {
+                    throw new IOException("Malformed status line: "+statusLine);
+                }
+                int responseCode = Integer.parseInt(status[1]);
+                String responseMessage = status.length > 2 ? status[2] : "";
+                Map<String, String> responseHeaders = readHeaders(in);
+                
+                boolean keepAlive = !"close".equalsIgnoreCase(responseHeaders.get("Connection"));
+                if(status[0].equals("HTTP/1.0")) {
+                    keepAlive = "keep-alive".equalsIgnoreCase(responseHeaders.get("Connection"));
+                }
+                InputStream bodyStream;
+                long contentLength = -1;
+                if(m == Method.HEAD || responseCode == 204 || responseCode == 304 || responseCode < 200) {
+                    contentLength = 0;
+                    bodyStream = new FixedLengthInputStream(in, 0);
+                } else if("chunked".equalsIgnoreCase(responseHeaders.get("Transfer-Encoding"))) {
+                    bodyStream = new ChunkedInputStream(in);
+                } else if(responseHeaders.containsKey("Content-Length")) {
+                    contentLength = Long.parseLong(responseHeaders.get("Content-Length").trim());
+                    bodyStream = new FixedLengthInputStream(in, contentLength);
+                } else {
+                    // No framing so the body runs until the server closes the connection
+                    bodyStream = in;
+                    keepAlive = false;
+                }
+                
+                // Decompress (if need be) as we read, counting what came over the wire
+                CountingInputStream wire = new CountingInputStream(bodyStream);
+                String contentEncoding = responseHeaders.get("Content-Encoding");
+                ResponseBody target = request.getResponseBody();
+                byte[] content;
+                long streamed = -1;
+                if(target != null && ResponseBody.isStreamed(responseCode)) {
+                    content = new byte[0];
+                    if(Compression.isEncoded(contentEncoding)) {
+                        streamed = target.readFrom(Compression.decode(wire, contentEncoding), -1);
+                    } else {
+                        streamed = target.readFrom(wire, contentLength);
+                    }
+                } else if(Compression.isEncoded(contentEncoding)) {
+                    content = StreamUtil.readToEnd(Compression.decode(wire, contentEncoding));
+                } else {
+                    content = StreamUtil.readBody(wire, contentLength);
+                }
+                if(bodyStream != in) {
+                    // skip anything the decompressor left behind (e.g. the last chunk)
+                    bodyStream.close();
+                }
+                reusable = keepAlive;
+                
+                FluidResponse response = new FluidResponse(responseCode, responseMessage, responseHeaders.get("Content-Type"), 
+                        content, responseHeaders.get("X-FluidDB-Error-Class"), 
+                        responseHeaders.get("X-FluidDB-Request-Id"), wire.getCount());
+                response.setResponseHeaders(responseHeaders);
+                if(streamed >= 0) {
+                    response.setResponseStreamedLength(streamed);
+                }
+                return response;
+            } catch(SocketTimeoutException e) {
+                // FluidDB may still be working on it, so it isn't safe to try again
+                throw new FluidTimeoutException("Timed out waiting for FluidDB: "+e.getMessage(), e);
+            } catch(IOException e) {
+                // A kept-alive socket may have been closed by the server while it sat in the 
+                // pool. If nothing came back we know the request wasn't processed so it's 
+                // safe to try once more on a fresh connection (if the body can be sent again).
+                if(!responseStarted && connection.isReused() && !retried && request.isRepeatable() 
+                        && (cancellation == null || !cancellation.isCancelled())) {
+                    retried = true;
+                    continue;
+                }
+                throw e;
+            } finally {
+                if(cancellation != null) {
+                    cancellation.detach(connection.getSocket());
+                }
+                this.pool.release(connection, reusable);
+            }
+        }
+    }
+    
+    /**
+     * Closes the connection pool
+     */
+    public void close() {
+        this.pool.close();
+    }
+    
+    /**
+     * Writes the request line, headers and body. The head is built in a per-thread buffer 
+     * and copied straight into the connection's buffered stream.
+     */
+    private void writeRequest(OutputStream out, Endpoint endpoint, FluidRequest request) throws IOException {
+        Method m = request.getMethod();
+        byte[] body = request.getBody();
+        StringBuilder sb = HEAD_BUFFER.get();
+        sb.setLength(0);
+        sb.append(m.name()).append(' ').append(endpoint.basePath);
+        request.appendPathAndQuery(sb);
+        if(sb.length() == m.name().length() + 1) {
+            sb.append('/');
+        }
+        sb.append(" HTTP/1.1\r\nHost: ").append(endpoint.hostHeader).append("\r\n");
+        for(Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        RequestBody requestBody = request.getRequestBody();
+        if(requestBody != null) {
+            if(requestBody.getLength() >= 0) {
+                sb.append("Content-Length: ").append(requestBody.getLength()).append("\r\n");
+            } else {
+                sb.append("Transfer-Encoding: chunked\r\n");
+            }
+        } else if(body != null && body.length > 0) {
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        } else if(m == Method.POST || m == Method.PUT) {
+            sb.append("Content-Length: 0\r\n");
+        }
+        sb.append("\r\n");
+        writeAscii(out, sb);
+        if(sb.capacity() > 16384) {
+            HEAD_BUFFER.remove();
+        }
+        if(requestBody != null) {
+            if(requestBody.getLength() >= 0) {
+                requestBody.writeTo(out);
+            } else {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                requestBody.writeTo(chunked);
+                chunked.close();
+            }
+        } else if(body != null && body.length > 0) {
+            out.write(body);
+        }
+        out.flush();
+    }
+    
+    /**
+     * Writes the characters of a request head (which are all ISO-8859-1) as bytes
+     */
+    private static void writeAscii(OutputStream out, CharSequence s) throws IOException {
+        byte[] scratch = BufferPool.acquire();
+        try {
+            int length = s.length();
+            int position = 0;
+            while(position < length) {
+                int count = Math.min(scratch.length, length - position);
+                for(int i=0; i<count; i++) {
+                    scratch[i] = (byte)s.charAt(position + i);
+                }
+                out.write(scratch, 0, count);
+                position += count;
+            }
+        } finally {
+            BufferPool.release(scratch);
+        }
+    }
+    
+    /**
+     * Parses the FluidDB URL, reusing the last result when it hasn't changed
+     */
+    private Endpoint getEndpoint(String url) throws IOException {
+        Endpoint endpoint = this.endpoint;
+        if(endpoint == null || !endpoint.url.equals(url)) {
+            endpoint = new Endpoint(url);
+            this.endpoint = endpoint;
+        }
+        return endpoint;
+    }
+    
+    private volatile Endpoint endpoint = null;
+    
+    private final static ThreadLocal<StringBuilder> HEAD_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(512);
+        }
+    };
+    
+    /**
+     * The parts of the FluidDB URL needed to open connections and write requests
+     */
+    private static class Endpoint {
+        final String url;
+        final String scheme;
+        final String host;
+        final int port;
+        final String hostHeader;
+        final String basePath;
+        
+        Endpoint(String url) throws IOException {
+            URL parsed = new URL(url);
+            this.url = url;
+            this.scheme = parsed.getProtocol();
+            this.host = parsed.getHost();
+            this.port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+            this.hostHeader = parsed.getPort() == -1 ? this.host : this.host+":"+parsed.getPort();
+            String path = parsed.getPath();
+            // the request path supplies the leading "/"
+            this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+    }
+    
+    /**
+     * Reads a CRLF terminated line (returns null if the stream is already at an end)
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while((c = in.read()) != -1) {
+            if(c == '\n') {
+                int end = sb.length();
+                if(end > 0 && sb.charAt(end - 1) == '\r') {
+                    sb.setLength(end - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char)c);
+        }
+        if(sb.length() == 0) {
+            return null;
+        }
+        throw new EOFException("Unexpected end of stream reading: "+sb);
+    }
+    
+    static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if(colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            String existing = headers.get(name);
+            headers.put(name, existing == null ? value : existing+", "+value);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fluidinfo.utils.BufferPool;
+
+/**
+ * A request body that is written straight from its source to the connection rather than 
+ * being held in memory first (see FluidConnector.Call(Method, String, RequestBody, String))
+ * 
+ * Bodies read from a file can be sent again if a call is retried; one read from an 
+ * InputStream can only be sent once so calls carrying one are never retried.
+ * 
+ * @author rossjones
+ *
+ */
+public abstract class RequestBody {
+    
+    /**
+     * @return the number of bytes in the body, or -1 if it isn't known up front (in which
+     * case it is sent chunked)
+     */
+    public abstract long getLength();
+    
+    /**
+     * @return true if the body can be written more than once
+     */
+    public abstract boolean isRepeatable();
+    
+    /**
+     * Writes the whole body
+     * @param out where to write it
+     * @throws IOException if the body couldn't be read, was shorter than its length or has 
+     * already been sent (and isn't repeatable)
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+    
+    /**
+     * A body read from a stream (which is left open)
+     * @param in the stream to read the body from
+     * @param length the number of bytes to send, or -1 to send everything up to the end of 
+     * the stream
+     * @return the body
+     */
+    public static RequestBody of(final InputStream in, final long length) {
+        return new RequestBody() {
+            private final AtomicBoolean sent = new AtomicBoolean(false);
+            
+            public long getLength() {
+                return length;
+            }
+            
+            public boolean isRepeatable() {
+                return false;
+            }
+            
+            public void writeTo(OutputStream out) throws IOException {
+                if(!this.sent.compareAndSet(false, true)) {
+                    throw new IOException("The body has already been read from its stream");
+                }
+                byte[] buffer = BufferPool.acquire();
+                try {
+                    long remaining = length < 0 ? Long.MAX_VALUE : length;
+                    while(remaining > 0) {
+                        int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                        if(read == -1) {
+                            if(length < 0) {
+                                return;
+                            }
+                            throw new EOFException("The stream ended "+remaining+" bytes short of the body's length");
+                        }
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+        };
+    }
+    
+    /**
+     * A body read from a file (opened afresh each time the body is sent)
+     * @param file the file to send
+     * @return the body
+     * @throws IOException if the size of the file couldn't be read
+     */
+    public static RequestBody of(final Path file) throws IOException {
+        final long length = Files.size(file);
+        return new RequestBody() {
+            public long getLength() {
+                return length;
+            }
+            
+            public boolean isRepeatable() {
+                return true;
+            }
+            
+            public void writeTo(OutputStream out) throws IOException {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                try {
+                    transfer(channel, 0, length, out);
+                } finally {
+                    channel.close();
+                }
+            }
+        };
+    }
+    
+    /**
+     * A body read from a channel's current position to its end (the channel's position 
+     * isn't moved and it is left open)
+     * @param channel the channel to send
+     * @return the body
+     * @throws IOException if the channel's size or position couldn't be read
+     */
+    public static RequestBody of(final FileChannel channel) throws IOException {
+        final long position = channel.position();
+        final long length = channel.size() - position;
+        return new RequestBody() {
+            public long getLength() {
+                return length;
+            }
+            
+            public boolean isRepeatable() {
+                return true;
+            }
+            
+            public void writeTo(OutputStream out) throws IOException {
+                transfer(channel, position, length, out);
+            }
+        };
+    }
+    
+    /**
+     * Copies part of a file to a stream with FileChannel.transferTo
+     */
+    private static void transfer(FileChannel channel, long position, long length, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long done = 0;
+        while(done < length) {
+            long count = channel.transferTo(position + done, length - done, target);
+            if(count <= 0 && position + done >= channel.size()) {
+                throw new EOFException("The file ended "+(length - done)+" bytes short of the body's length");
+            }
+            done += count;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Coalesces identical GET and HEAD requests that are in flight at the same time: the first
+ * caller makes the call and everyone who asks for the same thing before it finishes waits 
+ * for, and shares, its FluidResponse (or its exception)
+ * 
+ * Requests are identical if they have the same method, URI, arguments and credentials (see
+ * FluidRequest.getRequestKey). Nothing is remembered once a call has finished.
+ * 
+ * @author rossjones
+ *
+ */
+public class RequestCoalescer {
+    
+    /**
+     * Something that sends a request
+     */
+    public interface Call {
+        FluidResponse send(FluidRequest request) throws FluidException, IOException;
+    }
+    
+    private final ConcurrentHashMap<String, CompletableFuture<FluidResponse>> inFlight = new ConcurrentHashMap<String, CompletableFuture<FluidResponse>>();
+    
+    private final AtomicLong calls = new AtomicLong();
+    
+    private final AtomicLong coalesced = new AtomicLong();
+    
+    /**
+     * @param m an HTTP method
+     * @return true if requests with the method can be coalesced (GET and HEAD)
+     */
+    public static boolean isCoalescable(Method m) {
+        return m == Method.GET || m == Method.HEAD;
+    }
+    
+    /**
+     * Sends a request, or waits for an identical one that is already in flight
+     * @param request the request
+     * @param call how to send it
+     * @return the response (shared with every other caller of the same request)
+     * @throws FluidException if the call failed or the wait was interrupted
+     * @throws IOException if the call failed
+     */
+    public FluidResponse send(FluidRequest request, Call call) throws FluidException, IOException {
+        String key = request.getRequestKey();
+        CompletableFuture<FluidResponse> future = new CompletableFuture<FluidResponse>();
+        CompletableFuture<FluidResponse> leader = this.inFlight.putIfAbsent(key, future);
+        if(leader != null) {
+            this.coalesced.incrementAndGet();
+            return await(leader);
+        }
+        this.calls.incrementAndGet();
+        try {
+            FluidResponse response = call.send(request);
+            future.complete(response);
+            return response;
+        } catch (FluidException | IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, future);
+        }
+    }
+    
+    private static FluidResponse await(CompletableFuture<FluidResponse> leader) throws FluidException, IOException {
+        try {
+            // don't wait past the caller's own deadline
+            Deadline deadline = Deadline.current();
+            if(deadline == null) {
+                return leader.get();
+            }
+            return leader.get(deadline.remaining(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new FluidTimeoutException("Deadline exceeded waiting for an identical call to FluidDB", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FluidException("Interrupted while waiting for FluidDB", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if(cause instanceof FluidException) {
+                throw (FluidException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new FluidException(cause);
+        }
+    }
+    
+    /**
+     * @return the number of calls actually sent
+     */
+    public long getCallCount() {
+        return this.calls.get();
+    }
+    
+    /**
+     * @return the number of requests that shared the response of a call already in flight
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+    
+    /**
+     * @return the number of distinct calls in flight
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+    
+    @Override
+    public String toString() {
+        return "RequestCoalescer[calls: "+this.getCallCount()+", coalesced: "+this.getCoalescedCount()+"]";
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.fluidinfo.utils.BufferPool;
+
+/**
+ * Where to copy the body of a successful response straight from the connection, rather 
+ * than holding it in memory (see FluidConnector.Call(Method, String, ResponseBody, long, 
+ * long))
+ * 
+ * Error responses are still read into the FluidResponse as usual.
+ * 
+ * @author rossjones
+ *
+ */
+public abstract class ResponseBody {
+    
+    /**
+     * Largest number of bytes handed to FileChannel.transferFrom at once
+     */
+    private final static long TRANSFER_SIZE = 1 << 20;
+    
+    /**
+     * Copies a response body to its target
+     * @param in the body as it arrives (already decompressed)
+     * @param length the number of bytes in the body, or -1 if it runs to the end of the 
+     * stream
+     * @return the number of bytes copied
+     * @throws IOException if the body couldn't be read or written, or ended early
+     */
+    public abstract long readFrom(InputStream in, long length) throws IOException;
+    
+    /**
+     * @return true if the body can be copied again (e.g. if the call is retried)
+     */
+    public abstract boolean isRepeatable();
+    
+    /**
+     * @param responseCode the status of a response
+     * @return true if a response with that status has its body copied to the target
+     */
+    public static boolean isStreamed(int responseCode) {
+        return responseCode >= 200 && responseCode < 300 && responseCode != 204;
+    }
+    
+    /**
+     * A target that writes to a stream (which is left open). Once anything has been written 
+     * the call can't be retried.
+     * @param out where to write the body
+     * @return the target
+     */
+    public static ResponseBody of(final OutputStream out) {
+        return new ResponseBody() {
+            private volatile boolean written = false;
+            
+            public long readFrom(InputStream in, long length) throws IOException {
+                byte[] buffer = BufferPool.acquire();
+                try {
+                    long copied = 0;
+                    long remaining = length < 0 ? Long.MAX_VALUE : length;
+                    while(remaining > 0) {
+                        int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                        if(read == -1) {
+                            if(length < 0) {
+                                break;
+                            }
+                            throw new EOFException("The response ended "+remaining+" bytes early");
+                        }
+                        this.written = true;
+                        out.write(buffer, 0, read);
+                        copied += read;
+                        remaining -= read;
+                    }
+                    return copied;
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+            
+            public boolean isRepeatable() {
+                return !this.written;
+            }
+        };
+    }
+    
+    /**
+     * A target that writes to a file with FileChannel.transferFrom, replacing anything the 
+     * file held before (so the call can be retried)
+     * @param file the file to write
+     * @return the target
+     */
+    public static ResponseBody of(final Path file) {
+        return new ResponseBody() {
+            public long readFrom(InputStream in, long length) throws IOException {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    ReadableByteChannel source = Channels.newChannel(in);
+                    long copied = 0;
+                    while(length < 0 || copied < length) {
+                        long count = length < 0 ? TRANSFER_SIZE : Math.min(TRANSFER_SIZE, length - copied);
+                        // a blocking source only comes back empty at the end of the stream
+                        long transferred = channel.transferFrom(source, copied, count);
+                        if(transferred == 0) {
+                            if(length < 0) {
+                                break;
+                            }
+                            throw new EOFException("The response ended "+(length - copied)+" bytes early");
+                        }
+                        copied += transferred;
+                    }
+                    return copied;
+                } finally {
+                    channel.close();
+                }
+            }
+            
+            public boolean isRepeatable() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Keeps the responses to GET calls and revalidates them with If-None-Match and 
+ * If-Modified-Since, so an unchanged namespace, tag or tag value isn't sent again
+ * 
+ * A response is kept if it is a 200 with an ETag, a Last-Modified date or a Cache-Control
+ * max-age (and no "no-store"). Until max-age runs out it is handed back without asking 
+ * FluidDB at all; after that it is revalidated, and a 304 hands back the kept copy. 
+ * Responses are keyed by method, path, arguments and credentials. The cache is bounded by 
+ * the total size of the bodies kept, evicting the least recently used first.
+ * 
+ * Any POST, PUT or DELETE throws away the responses kept for its path and the paths above 
+ * it (e.g. a PUT to /objects/1234/test/tag also drops GETs of /objects/1234). A GET that 
+ * was sent before such a write, but answered after it, isn't kept.
+ * 
+ * @author rossjones
+ *
+ */
+public class ResponseCache {
+    
+    /**
+     * The default bound on the size of the cache in bytes
+     */
+    public final static long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+    
+    /**
+     * A rough count of the bytes used by an entry on top of its body and key
+     */
+    private final static int ENTRY_OVERHEAD = 256;
+    
+    /**
+     * The number of resources whose last invalidation is remembered
+     */
+    private final static int MAX_INVALIDATED = 10000;
+    
+    /**
+     * A kept response
+     */
+    private final static class Entry {
+        final String key;
+        final String resource;
+        final FluidResponse response;
+        final String etag;
+        final String lastModified;
+        final long size;
+        long expires;
+        
+        Entry(String key, String resource, FluidResponse response, long expires) {
+            this.key = key;
+            this.resource = resource;
+            this.response = response;
+            this.etag = response.getResponseHeader("ETag");
+            this.lastModified = response.getResponseHeader("Last-Modified");
+            this.size = response.getResponseLength() + 2L * key.length() + ENTRY_OVERHEAD;
+            this.expires = expires;
+        }
+    }
+    
+    private final long maxBytes;
+    
+    /**
+     * Entries in least recently used order
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    
+    /**
+     * The keys of the entries for each URL and path
+     */
+    private final Map<String, Set<String>> keysByResource = new HashMap<String, Set<String>>();
+    
+    /**
+     * Counts the invalidations, so a GET can tell if its resource changed while in flight
+     */
+    private long version = 0;
+    
+    /**
+     * The version each recently changed resource was last invalidated at, oldest first
+     */
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<String, Long>();
+    
+    /**
+     * The version of the latest invalidation no longer in invalidatedAt (GETs sent before 
+     * it can't be checked, so aren't kept)
+     */
+    private long forgottenAt = 0;
+    
+    private long size = 0;
+    
+    private long hits = 0;
+    
+    private long revalidated = 0;
+    
+    private long misses = 0;
+    
+    private long evictions = 0;
+    
+    /**
+     * Default constructor
+     */
+    public ResponseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+    
+    /**
+     * Constructor
+     * @param maxBytes the bound on the total size of the cache in bytes
+     */
+    public ResponseCache(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+    
+    /**
+     * Sends a request, answering GETs from the cache where possible
+     * @param request the request
+     * @param call how to send it to FluidDB
+     * @return the response (see FluidResponse.getResponseSource for where it came from)
+     * @throws FluidException if the call failed
+     * @throws IOException if the call failed
+     */
+    public FluidResponse send(FluidRequest request, RequestCoalescer.Call call) throws FluidException, IOException {
+        if(request.getMethod() != Method.GET) {
+            if(request.getMethod() == Method.HEAD) {
+                return call.send(request);
+            }
+            this.invalidate(request.getUrl(), request.getPath());
+            try {
+                return call.send(request);
+            } finally {
+                // and again once written, so a GET sent before this can't keep the old value
+                this.invalidate(request.getUrl(), request.getPath());
+            }
+        }
+        String key = request.getRequestKey();
+        String resource = resourceOf(request.getUrl(), request.getPath());
+        Entry entry;
+        long since;
+        synchronized(this) {
+            since = this.version;
+            entry = this.entries.get(key);
+            if(entry != null && entry.expires > System.currentTimeMillis()) {
+                this.hits++;
+                return entry.response.copyWithSource(FluidResponse.Source.CACHE);
+            }
+        }
+        if(entry != null) {
+            if(entry.etag != null) {
+                request.setHeader("If-None-Match", entry.etag);
+            }
+            if(entry.lastModified != null) {
+                request.setHeader("If-Modified-Since", entry.lastModified);
+            }
+        }
+        FluidResponse response = call.send(request);
+        if(response.getResponseCode() == 304) {
+            if(entry != null) {
+                synchronized(this) {
+                    this.revalidated++;
+                    if(response.getResponseHeader("Cache-Control") != null) {
+                        entry.expires = expiryOf(response);
+                    }
+                }
+                return entry.response.copyWithSource(FluidResponse.Source.REVALIDATED);
+            }
+            // answered for a copy we don't have (e.g. an identical call in flight)
+            request.removeHeader("If-None-Match");
+            request.removeHeader("If-Modified-Since");
+            response = call.send(request);
+        }
+        synchronized(this) {
+            this.misses++;
+            this.remove(key);
+            long expires = expiryOf(response);
+            if(response.getResponseCode() == 200 && expires != Long.MIN_VALUE && !this.changedSince(resource, since)) {
+                this.put(new Entry(key, resource, response, expires));
+            }
+        }
+        return response;
+    }
+    
+    /**
+     * Works out when a response stops being fresh
+     * @return the time (in milliseconds) it must be revalidated after, or Long.MIN_VALUE if
+     * it can't be kept
+     */
+    private static long expiryOf(FluidResponse response) {
+        long maxAge = -1;
+        String cacheControl = response.getResponseHeader("Cache-Control");
+        if(cacheControl != null) {
+            for(String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if(directive.equals("no-store")) {
+                    return Long.MIN_VALUE;
+                } else if(directive.equals("no-cache")) {
+                    maxAge = 0;
+                    break;
+                } else if(directive.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring(8).replace("\"", "").trim());
+                    } catch (NumberFormatException e) {
+                        maxAge = 0;
+                    }
+                }
+            }
+        }
+        if(maxAge <= 0 && response.getResponseHeader("ETag") == null && response.getResponseHeader("Last-Modified") == null) {
+            // nothing to revalidate with
+            return Long.MIN_VALUE;
+        }
+        return maxAge <= 0 ? 0 : System.currentTimeMillis() + maxAge * 1000;
+    }
+    
+    /**
+     * Works out the resource a path refers to, ignoring any trailing slash
+     */
+    private static String resourceOf(String url, String path) {
+        int end = path.length();
+        while(end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        StringBuilder sb = new StringBuilder(url.length() + end + 1).append(url);
+        if(end > 0 && path.charAt(0) != '/') {
+            sb.append('/');
+        }
+        return sb.append(path, 0, end).toString();
+    }
+    
+    /**
+     * Checks whether a resource may have been invalidated after the given version
+     */
+    private boolean changedSince(String resource, long since) {
+        Long invalidated = this.invalidatedAt.get(resource);
+        return since < this.forgottenAt || (invalidated != null && invalidated > since);
+    }
+    
+    private void put(Entry entry) {
+        if(entry.size > this.maxBytes) {
+            return;
+        }
+        this.entries.put(entry.key, entry);
+        Set<String> keys = this.keysByResource.get(entry.resource);
+        if(keys == null) {
+            keys = new HashSet<String>();
+            this.keysByResource.put(entry.resource, keys);
+        }
+        keys.add(entry.key);
+        this.size += entry.size;
+        Iterator<Entry> eldest = this.entries.values().iterator();
+        while(this.size > this.maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            this.forget(evicted);
+            this.evictions++;
+        }
+    }
+    
+    private void remove(String key) {
+        Entry entry = this.entries.remove(key);
+        if(entry != null) {
+            this.forget(entry);
+        }
+    }
+    
+    /**
+     * Tidies up after an entry has left the map
+     */
+    private void forget(Entry entry) {
+        this.size -= entry.size;
+        Set<String> keys = this.keysByResource.get(entry.resource);
+        if(keys != null) {
+            keys.remove(entry.key);
+            if(keys.isEmpty()) {
+                this.keysByResource.remove(entry.resource);
+            }
+        }
+    }
+    
+    /**
+     * Throws away the responses kept for a path and every path above it
+     * @param url the URL for FluidDB
+     * @param path the path that changed (e.g. /objects/1234/test/tag)
+     */
+    public synchronized void invalidate(String url, String path) {
+        String resource = resourceOf(url, path == null ? "" : path);
+        this.version++;
+        while(resource.length() >= url.length()) {
+            this.invalidatedAt.remove(resource);
+            this.invalidatedAt.put(resource, this.version);
+            Set<String> keys = this.keysByResource.remove(resource);
+            if(keys != null) {
+                for(String key : keys) {
+                    Entry entry = this.entries.remove(key);
+                    if(entry != null) {
+                        this.size -= entry.size;
+                    }
+                }
+            }
+            int slash = resource.lastIndexOf('/');
+            if(slash < url.length()) {
+                break;
+            }
+            resource = resource.substring(0, slash);
+        }
+        Iterator<Long> oldest = this.invalidatedAt.values().iterator();
+        while(this.invalidatedAt.size() > MAX_INVALIDATED) {
+            this.forgottenAt = oldest.next();
+            oldest.remove();
+        }
+    }
+    
+    /**
+     * Throws away everything in the cache
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.keysByResource.clear();
+        this.size = 0;
+        // GETs in flight mustn't bring anything back
+        this.forgottenAt = ++this.version;
+    }
+    
+    /**
+     * @return the bound on the total size of the cache in bytes
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+    
+    /**
+     * @return the (approximate) number of bytes used by the cache
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+    
+    /**
+     * @return the number of responses kept
+     */
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+    
+    /**
+     * @return the number of GETs answered without asking FluidDB
+     */
+    public synchronized long getHitCount() {
+        return this.hits;
+    }
+    
+    /**
+     * @return the number of GETs answered from the cache after a 304
+     */
+    public synchronized long getRevalidatedCount() {
+        return this.revalidated;
+    }
+    
+    /**
+     * @return the number of GETs FluidDB had to answer in full
+     */
+    public synchronized long getMissCount() {
+        return this.misses;
+    }
+    
+    /**
+     * @return the number of responses evicted to keep the cache within its bound
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictions;
+    }
+    
+    @Override
+    public String toString() {
+        return "ResponseCache[entries: "+this.getEntryCount()+", bytes: "+this.getSize()+"]";
+    }
+}
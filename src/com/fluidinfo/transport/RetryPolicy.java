@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Decides whether (and after how long) a failed call to FluidDB should be tried again
+ * 
+ * Only idempotent methods (GET, HEAD, PUT and DELETE) are retried, after an IOException (such
+ * as a connection reset) or a 429, 500, 502, 503 or 504 response. The wait between attempts 
+ * grows exponentially and is "full jitter": a random time between zero and the exponential 
+ * backoff, so that many clients recovering at once don't retry in lock step. A Retry-After
+ * header sent with the response is honoured, unless it asks for a longer wait than the 
+ * maximum backoff, in which case the call isn't retried.
+ * 
+ * @author rossjones
+ *
+ */
+public class RetryPolicy {
+    
+    /**
+     * The default number of retries (on top of the first attempt)
+     */
+    public final static int DEFAULT_MAX_RETRIES = 3;
+    
+    /**
+     * The default backoff (in milliseconds) before the first retry
+     */
+    public final static long DEFAULT_INITIAL_BACKOFF = 100;
+    
+    /**
+     * The default cap (in milliseconds) on the backoff between retries
+     */
+    public final static long DEFAULT_MAX_BACKOFF = 5000;
+    
+    private final int maxRetries;
+    
+    private final long initialBackoff;
+    
+    private final long maxBackoff;
+    
+    /**
+     * Default constructor
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+    
+    /**
+     * Constructor
+     * @param maxRetries the number of retries (on top of the first attempt)
+     * @param initialBackoff the backoff (in milliseconds) before the first retry, doubling for
+     * each retry after that
+     * @param maxBackoff the cap (in milliseconds) on the backoff between retries
+     */
+    public RetryPolicy(int maxRetries, long initialBackoff, long maxBackoff) {
+        if(maxRetries < 0 || initialBackoff < 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+    
+    /**
+     * @return the number of retries (on top of the first attempt)
+     */
+    public int getMaxRetries() {
+        return this.maxRetries;
+    }
+    
+    /**
+     * @return the backoff (in milliseconds) before the first retry
+     */
+    public long getInitialBackoff() {
+        return this.initialBackoff;
+    }
+    
+    /**
+     * @return the cap (in milliseconds) on the backoff between retries
+     */
+    public long getMaxBackoff() {
+        return this.maxBackoff;
+    }
+    
+    /**
+     * @param m an HTTP method
+     * @return true if repeating a request with the method has no further effect
+     */
+    public static boolean isIdempotent(Method m) {
+        return m == Method.GET || m == Method.HEAD || m == Method.PUT || m == Method.DELETE;
+    }
+    
+    /**
+     * @param responseCode an HTTP response code
+     * @return true if the response code suggests the problem is temporary
+     */
+    public static boolean isTransient(int responseCode) {
+        return responseCode == 429 || responseCode == 500 || responseCode == 502 || responseCode == 503 || responseCode == 504;
+    }
+    
+    /**
+     * Decides whether to try a call again
+     * @param m the HTTP method of the call
+     * @param retriesSoFar the number of retries already made
+     * @param responseCode the response code (ignored if there was an exception)
+     * @param failure the exception thrown by the attempt (null if there was a response)
+     * @return true if the call should be tried again
+     */
+    public boolean shouldRetry(Method m, int retriesSoFar, int responseCode, Exception failure) {
+        if(retriesSoFar >= this.maxRetries || !isIdempotent(m)) {
+            return false;
+        }
+        return failure != null || isTransient(responseCode);
+    }
+    
+    /**
+     * Works out how long FluidDB asked us to wait in a Retry-After header
+     * @param response a response (may be null)
+     * @return the time to wait in milliseconds, or -1 if there was no (valid) Retry-After 
+     * header
+     */
+    public static long getRetryAfter(FluidResponse response) {
+        String retryAfter = response == null ? null : response.getResponseHeader("Retry-After");
+        if(retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            // not a number of seconds so it should be an HTTP date
+        }
+        try {
+            ZonedDateTime when = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, when.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Works out how long to wait before the next retry
+     * @param retriesSoFar the number of retries already made
+     * @return the time to wait in milliseconds
+     */
+    public long getBackoff(int retriesSoFar) {
+        long backoff = this.initialBackoff << Math.min(retriesSoFar, 30);
+        if(backoff > this.maxBackoff || backoff < 0) {
+            backoff = this.maxBackoff;
+        }
+        return backoff == 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+
+/**
+ * The engine FluidConnector uses to actually carry a request to FluidDB and bring back the
+ * response
+ * 
+ * Implementations must be safe to use from several threads at once.
+ * 
+ * @author rossjones
+ *
+ */
+public interface Transport {
+	
+	/**
+	 * Sends a request and returns the response (error responses such as 404 are returned 
+	 * rather than thrown)
+	 * @param request the request to send
+	 * @return the response from FluidDB
+	 * @throws FluidException if the request couldn't be made
+	 * @throws IOException if there was a problem talking to FluidDB
+	 */
+	FluidResponse send(FluidRequest request) throws FluidException, IOException;
+	
+	/**
+	 * Releases any resources (sockets, threads) held by the transport
+	 */
+	void close();
+}
@@ -0,0 +1,134 @@
+package com.fluidinfo.transport.tests;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fluidinfo.FluidConnector;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server for the transport tests that need to control exactly how each request
+ * is answered (those that just need FluidDB use the FluidDBEmulator instead)
+ *
+ * Requests are handled on their own threads, so a handler may block or sleep without
+ * holding up the others.
+ *
+ * @author rossjones
+ *
+ */
+public class StubServer {
+
+    private final HttpServer server;
+
+    private final ExecutorService threads;
+
+    private final AtomicInteger hits = new AtomicInteger(0);
+
+    /**
+     * Starts a server on a free port of 127.0.0.1
+     * @param handler how to answer every request
+     * @throws IOException if the server can't be started
+     */
+    public StubServer(final HttpHandler handler) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.threads = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.threads);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                hits.incrementAndGet();
+                handler.handle(exchange);
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * @return the URL to give FluidConnector.setUrl
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:"+this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return a new connector calling this server
+     */
+    public FluidConnector connect() {
+        FluidConnector fdb = new FluidConnector();
+        fdb.setUrl(this.getUrl());
+        return fdb;
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public int getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Stops the server, abandoning any requests still being handled
+     */
+    public void stop() {
+        this.server.stop(0);
+        this.threads.shutdownNow();
+    }
+
+    /**
+     * Answers with a JSON body (just the headers for a HEAD)
+     * @param exchange the request
+     * @param status the status to answer with
+     * @param json the body
+     * @throws IOException if the client has gone
+     */
+    public static void json(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, status, json.getBytes("UTF-8"));
+    }
+
+    /**
+     * Answers with a body (just the headers for a HEAD)
+     * @param exchange the request
+     * @param status the status to answer with
+     * @param body the body
+     * @throws IOException if the client has gone
+     */
+    public static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if(exchange.getRequestMethod().equals("HEAD")) {
+            status(exchange, status);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Answers with just a status (e.g. a 204, or a 503 to fail the request)
+     * @param exchange the request
+     * @param status the status to answer with
+     * @throws IOException if the client has gone
+     */
+    public static void status(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    /**
+     * Waits before answering, as a slow server would (an interrupt just ends the wait)
+     * @param millis the time to wait in milliseconds
+     */
+    public static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // just answer
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StreamUtil;
+
+/**
+ * Exercises response and request compression (no sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestCompression {
+    
+    private StubServer server = null;
+    
+    private FluidConnector fdb = null;
+    
+    private String expected = null;
+    
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder sb = new StringBuilder("{\"ids\": [");
+        for(int i=0; i<2000; i++) {
+            sb.append(i > 0 ? ", " : "").append("\"0000000-0000-0000-0000-").append(i).append("\"");
+        }
+        this.expected = sb.append("]}").toString();
+        this.server = new StubServer(exchange -> {
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            byte[] body;
+            if(exchange.getRequestMethod().equals("PUT")) {
+                // report the size of the (decompressed) body we were sent
+                InputStream in = exchange.getRequestBody();
+                if("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                body = Integer.toString(StreamUtil.readToEnd(in).length).getBytes("UTF-8");
+            } else {
+                body = expected.getBytes("UTF-8");
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            OutputStream out = encoded;
+            if(accept != null && exchange.getRequestURI().getPath().equals("/deflate")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "deflate");
+                out = new DeflaterOutputStream(encoded);
+            } else if(accept != null) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                out = new GZIPOutputStream(encoded);
+            }
+            out.write(body);
+            out.close();
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if(exchange.getRequestURI().getPath().equals("/chunked")) {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream response = exchange.getResponseBody();
+                encoded.writeTo(response);
+                response.close();
+            } else {
+                StubServer.send(exchange, 200, encoded.toByteArray());
+            }
+        });
+        this.fdb = this.server.connect();
+    }
+    
+    @After
+    public void tearDown() {
+        this.fdb.getTransport().close();
+        this.server.stop();
+    }
+    
+    @Test
+    public void testCompressionIsOptIn() throws Exception {
+        assertFalse(this.fdb.isCompressionEnabled());
+        FluidResponse r = this.fdb.Call(Method.GET, "/objects");
+        assertEquals(this.expected, r.getResponseContent());
+        assertEquals(r.getResponseLength(), r.getResponseWireLength());
+        assertEquals(0, this.fdb.getCompressionStats().getBytesSaved());
+    }
+    
+    @Test
+    public void testHttpURLConnectionTransport() throws Exception {
+        this.checkResponses();
+    }
+    
+    @Test
+    public void testPooledTransport() throws Exception {
+        ConnectionPool pool = new ConnectionPool();
+        this.fdb.setConnectionPool(pool);
+        this.checkResponses();
+        // the compressed bodies were read to the end so the connection was kept alive
+        assertEquals(1, pool.getConnectionsCreated());
+    }
+    
+    private void checkResponses() throws Exception {
+        this.fdb.setCompressionEnabled(true);
+        String[] paths = {"/gzip", "/deflate", "/chunked"};
+        for(String path : paths) {
+            FluidResponse r = this.fdb.Call(Method.GET, path);
+            assertEquals(200, r.getResponseCode());
+            assertEquals(this.expected, r.getResponseContent());
+            assertTrue(r.getResponseWireLength() < r.getResponseLength());
+        }
+        assertEquals(3 * this.expected.length(), this.fdb.getCompressionStats().getResponseBytes());
+        assertTrue(this.fdb.getCompressionStats().getBytesSaved() > 0);
+    }
+    
+    @Test
+    public void testRequestCompression() throws Exception {
+        this.fdb.setRequestCompressionThreshold(1024);
+        // below the threshold is sent as is
+        FluidResponse r = this.fdb.Call(Method.PUT, "/objects/abc/test/tag", "\"small\"");
+        assertEquals("7", r.getResponseContent());
+        assertEquals(7, this.fdb.getCompressionStats().getRequestWireBytes());
+        // above it is gzipped
+        r = this.fdb.Call(Method.PUT, "/objects/abc/test/tag", this.expected);
+        assertEquals(Integer.toString(this.expected.length()), r.getResponseContent());
+        assertEquals(7 + this.expected.length(), this.fdb.getCompressionStats().getRequestBytes());
+        assertTrue(this.fdb.getCompressionStats().getRequestWireBytes() < this.fdb.getCompressionStats().getRequestBytes());
+    }
+}
@@ -0,0 +1,130 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.transport.ConcurrencyLimiter;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the adaptive concurrency limiter and Retry-After handling (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestConcurrencyLimiter {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    /**
+     * The number of requests to answer with a 429 before answering normally
+     */
+    private final AtomicInteger throttled = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            if(throttled.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                StubServer.status(exchange, 429);
+                return;
+            }
+            StubServer.json(exchange, 200, "{}");
+        });
+        this.fdb = this.server.connect();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testQueueAndReject() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 1, 5000);
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    limiter.acquire();
+                    started.countDown();
+                } catch (FluidException e) {
+                    // the test fails on the latch
+                }
+            }
+        };
+        waiter.start();
+        while(limiter.getQueueDepth() == 0) {
+            Thread.sleep(5);
+        }
+        // the queue only has room for one
+        try {
+            limiter.acquire();
+            fail("Expected a FluidException");
+        } catch (FluidException e) {
+            // expected
+        }
+        assertEquals(1, limiter.getRejectedCount());
+        limiter.release(1000000, false, -1);
+        started.await();
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 100, 0, 0);
+        for(int i = 0; i < 100; i++) {
+            for(int j = 0; j < limiter.getLimit(); j++) {
+                limiter.acquire();
+            }
+            for(int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.release(1000000, false, -1);
+            }
+        }
+        int raised = limiter.getLimit();
+        assertTrue(raised > 4);
+        limiter.acquire();
+        limiter.release(1000000, true, -1);
+        assertTrue(limiter.getLimit() < raised);
+        assertEquals(1, limiter.getLimitDecreases());
+    }
+
+    @Test
+    public void testRetryAfterHoldsCallsBack() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        this.fdb.setConcurrencyLimiter(limiter);
+        this.throttled.set(1);
+        assertEquals(429, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        assertTrue(limiter.getRetryAfterRemaining() > 0);
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testRetryHonoursRetryAfter() throws Exception {
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 2000));
+        this.throttled.set(1);
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        assertTrue(System.currentTimeMillis() - start >= 900);
+        // asked to wait longer than the maximum backoff: give up
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 500));
+        this.throttled.set(1);
+        assertEquals(429, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+    }
+}
@@ -0,0 +1,101 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Exercises the ConnectionPool against the FluidDB emulator over HTTP (no sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestConnectionPool {
+    
+    private FluidDBEmulator emulator = null;
+    
+    private FluidConnector fdb = null;
+    
+    private String id = null;
+    
+    @Before
+    public void setUp() throws Exception {
+        this.emulator = new FluidDBEmulator();
+        this.emulator.addUser("alice", "secret-a");
+        this.fdb = new FluidConnector();
+        this.fdb.setUrl(this.emulator.start());
+        this.fdb.setUsername("alice");
+        this.fdb.setPassword("secret-a");
+        FluidResponse r = this.fdb.Call(Method.POST, "/objects", "{\"about\": \"pooled\"}");
+        this.id = new JSONObject(r.getResponseContent()).getString("id");
+        this.fdb.Call(Method.POST, "/tags/alice", "{\"name\": \"rating\", \"description\": \"\", \"indexed\": false}");
+    }
+    
+    @After
+    public void tearDown() {
+        if(this.fdb.getConnectionPool() != null) {
+            this.fdb.getConnectionPool().close();
+        }
+        this.emulator.stop();
+    }
+    
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 10000);
+        this.fdb.setConnectionPool(pool);
+        for(int i=0; i<3; i++) {
+            FluidResponse r = this.fdb.Call(Method.GET, "/objects/"+this.id);
+            assertEquals(200, r.getResponseCode());
+            assertEquals("fluiddb/about", new JSONObject(r.getResponseContent()).getJSONArray("tagPaths").getString(0));
+            assertEquals("application/json", r.getResponseContentType());
+        }
+        assertEquals(1, pool.getConnectionsCreated());
+        assertEquals(2, pool.getConnectionsReused());
+        assertEquals(1, pool.getIdleConnectionCount());
+        assertEquals(0, pool.getActiveConnectionCount());
+    }
+    
+    @Test
+    public void testErrorResponsesKeepConnectionAlive() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 10000);
+        this.fdb.setConnectionPool(pool);
+        FluidResponse r = this.fdb.Call(Method.GET, "/tags/alice/missing");
+        assertEquals(404, r.getResponseCode());
+        assertEquals("TNonexistentTag", r.getResponseError());
+        r = this.fdb.Call(Method.HEAD, "/objects/"+this.id+"/fluiddb/about");
+        assertEquals(200, r.getResponseCode());
+        assertEquals(1, pool.getConnectionsCreated());
+        assertEquals(1, pool.getConnectionsReused());
+    }
+    
+    @Test
+    public void testIdleConnectionsAreEvicted() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 50);
+        this.fdb.setConnectionPool(pool);
+        this.fdb.Call(Method.GET, "/objects/"+this.id);
+        assertEquals(1, pool.getIdleConnectionCount());
+        Thread.sleep(200);
+        pool.evictIdleConnections();
+        assertEquals(0, pool.getIdleConnectionCount());
+        assertEquals(1, pool.getConnectionsEvicted());
+        this.fdb.Call(Method.GET, "/objects/"+this.id);
+        assertEquals(2, pool.getConnectionsCreated());
+    }
+    
+    @Test
+    public void testPostWithBody() throws Exception {
+        this.fdb.setConnectionPool(new ConnectionPool());
+        FluidResponse r = this.fdb.Call(Method.POST, "/objects", "{\"about\": \"test\"}");
+        assertEquals(201, r.getResponseCode());
+        r = this.fdb.Call(Method.PUT, "/objects/"+this.id+"/alice/rating", "5");
+        assertEquals(204, r.getResponseCode());
+        assertEquals(1, this.fdb.getConnectionPool().getConnectionsCreated());
+    }
+}
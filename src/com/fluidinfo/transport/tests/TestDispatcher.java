@@ -0,0 +1,105 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.Dispatcher;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Exercises asynchronous calls and the Dispatcher (no sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestDispatcher {
+    
+    private StubServer server = null;
+    
+    private FluidConnector fdb = null;
+    
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            // echo the query string back so we can tell the args arrived
+            String query = exchange.getRequestURI().getRawQuery();
+            StubServer.json(exchange, 200, "{\"query\": \""+(query == null ? "" : query)+"\"}");
+        });
+        this.fdb = this.server.connect();
+    }
+    
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+    
+    @Test
+    public void testCallAsync() throws Exception {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", "has fluiddb/about");
+        CompletableFuture<FluidResponse> future = this.fdb.callAsync(Method.GET, "/objects", "", args);
+        // the dictionary is copied so changing it doesn't affect the call
+        args.clear();
+        FluidResponse r = future.get();
+        assertEquals(200, r.getResponseCode());
+        assertEquals("{\"query\": \"query=has+fluiddb%2Fabout\"}", r.getResponseContent());
+    }
+    
+    @Test
+    public void testManyCallsAsync() throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[50];
+        for(int i=0; i<futures.length; i++) {
+            futures[i] = this.fdb.callAsync(Method.GET, "/objects/"+i);
+        }
+        CompletableFuture.allOf(futures).get();
+        assertEquals(0, this.fdb.getDispatcher().getRejectedCount());
+    }
+    
+    @Test
+    public void testQueueIsBounded() throws Exception {
+        Dispatcher dispatcher = new Dispatcher(1, 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        Callable<String> blocked = new Callable<String>() {
+            public String call() throws Exception {
+                latch.await();
+                return "done";
+            }
+        };
+        CompletableFuture<String> running = dispatcher.submit(blocked);
+        CompletableFuture<String> queued = dispatcher.submit(blocked);
+        CompletableFuture<String> rejected = dispatcher.submit(blocked);
+        try {
+            rejected.get();
+            fail("expected the third call to be rejected");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof FluidException);
+        }
+        assertEquals(1, dispatcher.getRejectedCount());
+        latch.countDown();
+        assertEquals("done", running.get());
+        assertEquals("done", queued.get());
+        dispatcher.shutdown();
+    }
+    
+    @Test
+    public void testFailuresCompleteExceptionally() throws Exception {
+        this.server.stop();
+        try {
+            this.fdb.callAsync(Method.GET, "/objects").get();
+            fail("expected the call to fail");
+        } catch(ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
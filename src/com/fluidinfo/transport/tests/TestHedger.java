@@ -0,0 +1,126 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.Hedger;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks slow reads are hedged against a local server that stalls (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestHedger {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    /**
+     * The number of requests for /objects/slow seen so far (only the first one stalls)
+     */
+    private final AtomicInteger slowHits = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            if(exchange.getRequestURI().getPath().equals("/objects/slow") && slowHits.getAndIncrement() == 0) {
+                StubServer.pause(3000);
+            } else {
+                // a steady latency, so the hedge delay is long enough for the first
+                // request to reach the server before any hedge does
+                StubServer.pause(20);
+            }
+            StubServer.json(exchange, 200, "{}");
+        });
+        this.fdb = this.server.connect();
+    }
+
+    @After
+    public void tearDown() {
+        if(this.fdb.getHedger() != null) {
+            this.fdb.getHedger().shutdown();
+        }
+        this.server.stop();
+    }
+
+    private void warmUp(int reads) throws Exception {
+        for(int i = 0; i < reads; i++) {
+            assertEquals(200, this.fdb.Call(Method.GET, "/objects/fast").getResponseCode());
+        }
+    }
+
+    @Test
+    public void testSlowReadIsHedged() throws Exception {
+        // enough budget that hedged warm up reads can't use it all up
+        Hedger hedger = new Hedger(0.9, 0.5);
+        this.fdb.setHedger(hedger);
+        this.warmUp(Hedger.MIN_SAMPLES * 2);
+        assertTrue(hedger.getHedgeDelay() >= 0);
+        // a warm up read may have been hedged too
+        long won = hedger.getHedgesWon();
+        long start = System.currentTimeMillis();
+        FluidResponse r = this.fdb.Call(Method.GET, "/objects/slow");
+        assertEquals(200, r.getResponseCode());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(won + 1, hedger.getHedgesWon());
+        assertEquals(2, this.slowHits.get());
+        // writes are never hedged
+        this.fdb.Call(Method.PUT, "/objects/fast/test/tag", "1");
+        assertEquals(Hedger.MIN_SAMPLES * 2 + 1, hedger.getReadCount());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        Hedger hedger = new Hedger(0.9, 0);
+        this.fdb.setHedger(hedger);
+        this.warmUp(Hedger.MIN_SAMPLES * 2);
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/slow").getResponseCode());
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        assertEquals(0, hedger.getHedgeCount());
+        assertEquals(1, this.slowHits.get());
+    }
+
+    @Test
+    public void testLoserIsAborted() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, 10000);
+        this.fdb.setConnectionPool(pool);
+        Hedger hedger = new Hedger(0.9, 0.5);
+        this.fdb.setHedger(hedger);
+        this.warmUp(Hedger.MIN_SAMPLES * 2);
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/slow").getResponseCode());
+        assertEquals(2, this.slowHits.get());
+        // the stalled request gives its connection back long before FluidDB answers it
+        while(pool.getActiveConnectionCount() > 0 && System.currentTimeMillis() - start < 2000) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getActiveConnectionCount());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        pool.close();
+    }
+
+    @Test
+    public void testBoundedThreads() throws Exception {
+        Hedger hedger = new Hedger(0.9, 0.5, 1);
+        this.fdb.setHedger(hedger);
+        this.warmUp(Hedger.MIN_SAMPLES * 2);
+        long hedges = hedger.getHedgeCount();
+        // the read's own attempt has the only thread, so there is none for a hedge
+        long start = System.currentTimeMillis();
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/slow").getResponseCode());
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        assertEquals(hedges, hedger.getHedgeCount());
+        assertTrue(hedger.getUnhedgedCount() > 0);
+        assertEquals(1, this.slowHits.get());
+    }
+}
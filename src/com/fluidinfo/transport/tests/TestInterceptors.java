@@ -0,0 +1,153 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.transport.Interceptor;
+import com.fluidinfo.transport.InterceptorChain;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks interceptors can rewrite, answer and observe calls (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestInterceptors {
+
+    private FluidConnector fdb = null;
+
+    private InMemoryTransport transport = null;
+
+    private final List<String> seen = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        this.fdb = new FluidConnector();
+        this.transport = new InMemoryTransport();
+        this.transport.addResponse(Method.GET, "/namespaces/test", new FluidResponse(200, "OK", "application/json", "{}"));
+        this.fdb.setTransport(this.transport);
+    }
+
+    /**
+     * Records the path it sees under a name
+     */
+    private Interceptor recorder(final String name) {
+        return new Interceptor() {
+            public FluidResponse intercept(Chain chain) throws FluidException, IOException {
+                seen.add(name+" "+chain.request().getPath());
+                return chain.proceed(chain.request());
+            }
+        };
+    }
+
+    @Test
+    public void testNoInterceptorsUsesTransportDirectly() throws Exception {
+        assertTrue(this.fdb.getInterceptors().isEmpty());
+        assertEquals(200, this.fdb.Call(Method.GET, "/namespaces/test").getResponseCode());
+        assertSame(this.transport, this.fdb.getTransport());
+    }
+
+    @Test
+    public void testRewriteInOrder() throws Exception {
+        this.fdb.addInterceptor(this.recorder("outer"));
+        this.fdb.addInterceptor(new Interceptor() {
+            public FluidResponse intercept(Chain chain) throws FluidException, IOException {
+                FluidRequest request = chain.request();
+                request.setPath("/namespaces/test");
+                request.getArgs().put("returnDescription", "True");
+                request.setHeader("X-Trace", "1");
+                return chain.proceed(request);
+            }
+        });
+        this.fdb.addInterceptor(this.recorder("inner"));
+        assertEquals(200, this.fdb.Call(Method.GET, "/namespaces/old").getResponseCode());
+        assertEquals("outer /namespaces/old", this.seen.get(0));
+        assertEquals("inner /namespaces/test", this.seen.get(1));
+        FluidRequest sent = this.transport.getLastRequest();
+        assertEquals("True", sent.getArgs().get("returnDescription"));
+        assertEquals("1", sent.getHeader("x-trace"));
+        assertEquals(3, this.fdb.getInterceptors().size());
+    }
+
+    @Test
+    public void testShortCircuit() throws Exception {
+        this.fdb.addInterceptor(new Interceptor() {
+            public FluidResponse intercept(Chain chain) {
+                return new FluidResponse(418, "I'm a teapot", "text/plain", "");
+            }
+        });
+        assertEquals(418, this.fdb.Call(Method.GET, "/namespaces/test").getResponseCode());
+        assertEquals(0, this.transport.getRequestCount());
+    }
+
+    @Test
+    public void testObserveAndRemove() throws Exception {
+        final long[] elapsed = {-1};
+        final int[] status = {0};
+        Interceptor timer = new Interceptor() {
+            public FluidResponse intercept(Chain chain) throws FluidException, IOException {
+                long start = System.nanoTime();
+                FluidResponse response = chain.proceed(chain.request());
+                elapsed[0] = System.nanoTime() - start;
+                status[0] = response.getResponseCode();
+                return response;
+            }
+        };
+        this.fdb.addInterceptor(timer);
+        this.fdb.Call(Method.GET, "/namespaces/missing");
+        assertTrue(elapsed[0] >= 0);
+        assertEquals(404, status[0]);
+        assertTrue(this.fdb.removeInterceptor(timer));
+        assertFalse(this.fdb.removeInterceptor(timer));
+        status[0] = 0;
+        this.fdb.Call(Method.GET, "/namespaces/missing");
+        assertEquals(0, status[0]);
+    }
+
+    @Test
+    public void testRetriesSeeFreshRequest() throws Exception {
+        final int[] attempts = {0};
+        this.fdb.setRetryPolicy(new RetryPolicy(2, 1, 10));
+        this.fdb.addInterceptor(new Interceptor() {
+            public FluidResponse intercept(Chain chain) throws FluidException, IOException {
+                FluidRequest request = chain.request();
+                assertNull(request.getArgs().get("attempt"));
+                request.getArgs().put("attempt", String.valueOf(++attempts[0]));
+                if(attempts[0] == 1) {
+                    // inject a fault
+                    throw new IOException("Connection reset");
+                }
+                return chain.proceed(request);
+            }
+        });
+        assertEquals(200, this.fdb.Call(Method.GET, "/namespaces/test").getResponseCode());
+        assertEquals("2", this.transport.getLastRequest().getArgs().get("attempt"));
+    }
+
+    @Test
+    public void testNullResponse() throws Exception {
+        InterceptorChain chain = new InterceptorChain(this.transport, new Interceptor[] {new Interceptor() {
+            public FluidResponse intercept(Chain chain) {
+                return null;
+            }
+        }});
+        try {
+            chain.send(new FluidRequest(Method.GET, "", "/", null, null, null));
+            fail("Expected a FluidException");
+        } catch (FluidException e) {
+            // expected
+        }
+    }
+}
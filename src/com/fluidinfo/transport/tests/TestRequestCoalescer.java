@@ -0,0 +1,119 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.fluidinfo.Credentials;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.Dispatcher;
+import com.fluidinfo.transport.RequestCoalescer;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks identical GETs in flight at the same time are only sent once (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestRequestCoalescer {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    /**
+     * Holds every response back until the test is ready
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // just answer
+            }
+            StubServer.json(exchange, 200, "{\"id\": \"1234\"}");
+        });
+        this.fdb = this.server.connect();
+        this.fdb.setDispatcher(new Dispatcher(20, 100));
+    }
+
+    @After
+    public void tearDown() {
+        this.fdb.getDispatcher().shutdown();
+        this.server.stop();
+    }
+
+    @Test
+    public void testIdenticalGetsCoalesced() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        this.fdb.setRequestCoalescer(coalescer);
+        List<CompletableFuture<FluidResponse>> futures = new ArrayList<CompletableFuture<FluidResponse>>();
+        for(int i = 0; i < 10; i++) {
+            Hashtable<String, String> args = new Hashtable<String, String>();
+            args.put("returnDescription", "True");
+            args.put("returnNamespaces", "True");
+            futures.add(this.fdb.callAsync(Method.GET, "/namespaces/test", "", args));
+        }
+        // wait until all but the first are waiting on it
+        long deadline = System.currentTimeMillis() + 5000;
+        while(coalescer.getCoalescedCount() < 9 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        this.release.countDown();
+        FluidResponse first = futures.get(0).get();
+        for(CompletableFuture<FluidResponse> future : futures) {
+            assertSame(first, future.get());
+        }
+        assertEquals("{\"id\": \"1234\"}", first.getResponseContent());
+        assertEquals(1, this.server.getHits());
+        assertEquals(1, coalescer.getCallCount());
+        assertEquals(9, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testRequestKey() {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("b", "2");
+        args.put("a", "1 2");
+        FluidRequest request = new FluidRequest(Method.GET, "http://fluiddb", "/objects", args, null, null);
+        assertEquals("GET http://fluiddb/objects?a=1+2&b=2", request.getRequestKey());
+        // different credentials must never share a response
+        Credentials alice = new Credentials("alice", "secret-a");
+        request.setCredentials(alice);
+        String key = request.getRequestKey();
+        assertEquals("GET http://fluiddb/objects?a=1+2&b=2 "+alice.getIdentity(), key);
+        assertFalse(key.contains(alice.getAuthorization().substring("Basic ".length())));
+        request.setCredentials(new Credentials("alice", "secret-b"));
+        assertFalse(key.equals(request.getRequestKey()));
+        // copies (e.g. for hedges and interceptors) carry the identity along
+        assertEquals(request.getRequestKey(), new FluidRequest(request).getRequestKey());
+        // a header set any other way (e.g. by an interceptor) is keyed by its own identity
+        request.setHeader("Authorization", alice.getAuthorization());
+        assertEquals(key, request.getRequestKey());
+    }
+
+    @Test
+    public void testWritesNotCoalesced() throws Exception {
+        this.fdb.setRequestCoalescer(new RequestCoalescer());
+        this.release.countDown();
+        CompletableFuture<FluidResponse> a = this.fdb.callAsync(Method.PUT, "/objects/1234/test/tag", "1");
+        CompletableFuture<FluidResponse> b = this.fdb.callAsync(Method.PUT, "/objects/1234/test/tag", "1");
+        assertNotSame(a.get(), b.get());
+        assertEquals(2, this.server.getHits());
+        assertEquals(0, this.fdb.getRequestCoalescer().getCallCount());
+    }
+}
@@ -0,0 +1,152 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.RequestCoalescer;
+import com.fluidinfo.transport.ResponseCache;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks GET responses are kept and revalidated (no sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestResponseCache {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    private ResponseCache cache = null;
+
+    private final AtomicInteger notModified = new AtomicInteger(0);
+
+    /**
+     * Paths starting /fresh are sent with a max-age, /private with no-store and everything
+     * else with just an ETag (which is the path)
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String etag = "\""+path+"\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if(path.startsWith("/fresh")) {
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            } else if(path.startsWith("/private")) {
+                exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            }
+            if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                StubServer.status(exchange, 304);
+                return;
+            }
+            StubServer.json(exchange, 200, "{\"path\": \""+path+"\"}");
+        });
+        this.fdb = this.server.connect();
+        this.cache = new ResponseCache();
+        this.fdb.setResponseCache(this.cache);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        FluidResponse r = this.fdb.Call(Method.GET, "/tags/test/rating");
+        assertEquals(FluidResponse.Source.NETWORK, r.getResponseSource());
+        r = this.fdb.Call(Method.GET, "/tags/test/rating");
+        assertEquals(FluidResponse.Source.REVALIDATED, r.getResponseSource());
+        assertEquals(200, r.getResponseCode());
+        assertEquals("{\"path\": \"/tags/test/rating\"}", r.getResponseContent());
+        assertEquals(2, this.server.getHits());
+        assertEquals(1, this.notModified.get());
+        assertEquals(1, this.cache.getRevalidatedCount());
+        assertEquals(1, this.cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        assertEquals(FluidResponse.Source.NETWORK, this.fdb.Call(Method.GET, "/fresh/1").getResponseSource());
+        FluidResponse r = this.fdb.Call(Method.GET, "/fresh/1");
+        assertEquals(FluidResponse.Source.CACHE, r.getResponseSource());
+        assertEquals("{\"path\": \"/fresh/1\"}", r.getResponseContent());
+        assertEquals(1, this.server.getHits());
+        assertEquals(1, this.cache.getHitCount());
+    }
+
+    @Test
+    public void testNoStore() throws Exception {
+        this.fdb.Call(Method.GET, "/private/1");
+        assertEquals(FluidResponse.Source.NETWORK, this.fdb.Call(Method.GET, "/private/1").getResponseSource());
+        assertEquals(0, this.cache.getEntryCount());
+    }
+
+    @Test
+    public void testWriteInvalidates() throws Exception {
+        this.fdb.Call(Method.GET, "/fresh/1234");
+        this.fdb.Call(Method.GET, "/fresh/1234/test/rating");
+        this.fdb.Call(Method.GET, "/fresh/5678");
+        assertEquals(3, this.cache.getEntryCount());
+        // the tag value and the object it is on are dropped, other objects are kept
+        this.fdb.Call(Method.PUT, "/fresh/1234/test/rating", "5");
+        assertEquals(1, this.cache.getEntryCount());
+        assertEquals(FluidResponse.Source.NETWORK, this.fdb.Call(Method.GET, "/fresh/1234").getResponseSource());
+        assertEquals(FluidResponse.Source.CACHE, this.fdb.Call(Method.GET, "/fresh/5678").getResponseSource());
+    }
+
+    @Test
+    public void testWriteDuringGet() throws Exception {
+        final ResponseCache cache = new ResponseCache();
+        final String url = "http://fluiddb.test";
+        final RequestCoalescer.Call write = request -> new FluidResponse(204, "No Content", "", "");
+        final RequestCoalescer.Call read = request -> {
+            FluidResponse r = new FluidResponse(200, "OK", "application/json", "{\"tagPaths\": []}");
+            r.setResponseHeaders(Collections.singletonMap("Cache-Control", "max-age=60"));
+            return r;
+        };
+        // the object is tagged after FluidDB answered the GET, but before the answer is kept
+        cache.send(new FluidRequest(Method.GET, url, "/objects/1234", null, null, null), request -> {
+            FluidResponse r = read.send(request);
+            cache.send(new FluidRequest(Method.PUT, url, "/objects/1234/test/rating", null, "5".getBytes("UTF-8"), "application/vnd.fluiddb.value+json"), write);
+            return r;
+        });
+        assertEquals(0, cache.getEntryCount());
+        // a GET sent once it was written is kept, as is one of anything else
+        cache.send(new FluidRequest(Method.GET, url, "/objects/1234", null, null, null), read);
+        assertEquals(1, cache.getEntryCount());
+        cache.send(new FluidRequest(Method.GET, url, "/objects/5678", null, null, null), request -> {
+            FluidResponse r = read.send(request);
+            cache.send(new FluidRequest(Method.PUT, url, "/objects/1234/test/rating", null, "6".getBytes("UTF-8"), "application/vnd.fluiddb.value+json"), write);
+            return r;
+        });
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(FluidResponse.Source.CACHE, cache.send(new FluidRequest(Method.GET, url, "/objects/5678", null, null, null), read).getResponseSource());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        ResponseCache small = new ResponseCache(1500);
+        this.fdb.setResponseCache(small);
+        for(int i = 0; i < 10; i++) {
+            this.fdb.Call(Method.GET, "/fresh/"+i);
+            // keep the first one in use
+            this.fdb.Call(Method.GET, "/fresh/0");
+        }
+        assertTrue(small.getEvictionCount() > 0);
+        assertTrue(small.getSize() <= 1500);
+        assertEquals(FluidResponse.Source.CACHE, this.fdb.Call(Method.GET, "/fresh/0").getResponseSource());
+        assertEquals(FluidResponse.Source.NETWORK, this.fdb.Call(Method.GET, "/fresh/1").getResponseSource());
+    }
+}
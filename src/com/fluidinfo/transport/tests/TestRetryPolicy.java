@@ -0,0 +1,169 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.CircuitBreakerOpenException;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.transport.CircuitBreaker;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks retries and circuit breakers against a local server that injects failures (no
+ * sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestRetryPolicy {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    /**
+     * The number of requests to fail before answering normally
+     */
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    /**
+     * True to fail by dropping the connection, false to fail with a 503
+     */
+    private volatile boolean reset = false;
+
+    private final AtomicInteger hits = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            hits.incrementAndGet();
+            if(failures.getAndDecrement() > 0) {
+                if(reset) {
+                    exchange.close();
+                } else {
+                    StubServer.status(exchange, 503);
+                }
+                return;
+            }
+            StubServer.json(exchange, 200, "{}");
+        });
+        this.fdb = this.server.connect();
+        this.fdb.setTransport(new PooledTransport(new ConnectionPool()));
+    }
+
+    @After
+    public void tearDown() {
+        this.fdb.getTransport().close();
+        this.server.stop();
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for(int i = 0; i < 100; i++) {
+            assertTrue(policy.getBackoff(0) <= 100);
+            assertTrue(policy.getBackoff(2) <= 400);
+            assertTrue(policy.getBackoff(9) <= 1000);
+            assertTrue(policy.getBackoff(0) >= 0);
+        }
+        assertTrue(policy.shouldRetry(Method.GET, 0, 503, null));
+        assertTrue(policy.shouldRetry(Method.DELETE, 0, -1, new IOException()));
+        assertFalse(policy.shouldRetry(Method.POST, 0, 503, null));
+        assertFalse(policy.shouldRetry(Method.GET, 0, 404, null));
+        assertFalse(policy.shouldRetry(Method.GET, 10, 503, null));
+    }
+
+    @Test
+    public void testNoRetryByDefault() throws Exception {
+        this.failures.set(1);
+        assertEquals(503, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        assertEquals(1, this.hits.get());
+    }
+
+    @Test
+    public void testRetryTransientStatus() throws Exception {
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        this.failures.set(2);
+        FluidResponse r = this.fdb.Call(Method.GET, "/objects/abc");
+        assertEquals(200, r.getResponseCode());
+        assertEquals(3, this.hits.get());
+        // give up once the retries are used up
+        this.failures.set(10);
+        this.hits.set(0);
+        assertEquals(503, this.fdb.Call(Method.PUT, "/objects/abc/test/tag", "1").getResponseCode());
+        assertEquals(4, this.hits.get());
+    }
+
+    @Test
+    public void testRetryConnectionReset() throws Exception {
+        this.reset = true;
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        this.failures.set(2);
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        this.failures.set(10);
+        try {
+            this.fdb.Call(Method.GET, "/objects/abc");
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPostNotRetried() throws Exception {
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        this.failures.set(1);
+        assertEquals(503, this.fdb.Call(Method.POST, "/objects", "{}").getResponseCode());
+        assertEquals(1, this.hits.get());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        this.fdb.setCircuitBreaker(2, 200);
+        this.failures.set(2);
+        this.fdb.Call(Method.GET, "/objects/abc");
+        this.fdb.Call(Method.GET, "/objects/abc");
+        String endpoint = this.fdb.getUrl()+"/objects";
+        CircuitBreaker breaker = this.fdb.getCircuitBreaker(endpoint);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // fails fast without touching the server
+        try {
+            this.fdb.Call(Method.GET, "/objects/abc");
+            fail("Expected a CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+        assertEquals(2, this.hits.get());
+        assertEquals(1, breaker.getRejectedCount());
+        // other endpoints are unaffected
+        assertEquals(200, this.fdb.Call(Method.GET, "/namespaces/test").getResponseCode());
+        // after the open period a trial call closes the breaker again
+        Thread.sleep(250);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(200, this.fdb.Call(Method.GET, "/objects/abc").getResponseCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void testHalfOpenFailureReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        // half open after the open period: one trial call at a time
+        Thread.sleep(60);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(2, breaker.getTimesOpened());
+    }
+}
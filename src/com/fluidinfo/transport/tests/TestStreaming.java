@@ -0,0 +1,253 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StreamUtil;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * Checks opaque tag values are streamed to and from a local server by each transport (no 
+ * sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestStreaming {
+    
+    private StubServer server = null;
+    
+    private FluidConnector fdb = null;
+    
+    /**
+     * The values PUT so far by path
+     */
+    private final Map<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+    
+    /**
+     * How the last PUT was framed ("chunked" or its Content-Length)
+     */
+    private volatile String framing = null;
+    
+    private volatile String contentType = null;
+    
+    /**
+     * The number of PUTs to fail with a 503 before storing values
+     */
+    private final AtomicInteger failures = new AtomicInteger(0);
+    
+    private final AtomicInteger hits = new AtomicInteger(0);
+    
+    private byte[] value = null;
+    
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            hits.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            String transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+            framing = transferEncoding != null ? transferEncoding : exchange.getRequestHeaders().getFirst("Content-Length");
+            contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] body = StreamUtil.readToEnd(exchange.getRequestBody());
+            if(failures.getAndDecrement() > 0) {
+                StubServer.status(exchange, 503);
+                return;
+            }
+            values.put(path, body);
+            StubServer.status(exchange, 204);
+        });
+        this.fdb = this.server.connect();
+        // bigger than a pooled buffer so it goes in several writes
+        this.value = new byte[100000];
+        new Random(42).nextBytes(this.value);
+    }
+    
+    @After
+    public void tearDown() {
+        this.fdb.getTransport().close();
+        this.server.stop();
+    }
+    
+    @Test
+    public void testHttpURLConnectionTransport() throws Exception {
+        this.checkStreaming();
+    }
+    
+    @Test
+    public void testPooledTransport() throws Exception {
+        this.fdb.setTransport(new PooledTransport(new ConnectionPool()));
+        this.checkStreaming();
+    }
+    
+    private void checkStreaming() throws Exception {
+        Object o = new Object(this.fdb, "abc", "abc");
+        Tag t = new Tag(this.fdb, "", "test/document");
+        // a stream of known length is sent with a Content-Length
+        o.tag(t, new ByteArrayInputStream(this.value), "application/pdf", this.value.length);
+        assertArrayEquals(this.value, this.values.get("/objects/abc/test/document"));
+        assertEquals(Integer.toString(this.value.length), this.framing);
+        assertEquals("application/pdf", this.contentType);
+        // and only as much of the stream as asked for
+        o.tag(t, new ByteArrayInputStream(this.value), "application/pdf", 10);
+        assertArrayEquals(Arrays.copyOf(this.value, 10), this.values.get("/objects/abc/test/document"));
+        // one of unknown length is sent chunked
+        o.tag(t, new ByteArrayInputStream(this.value), "image/png", -1);
+        assertArrayEquals(this.value, this.values.get("/objects/abc/test/document"));
+        assertEquals("chunked", this.framing);
+        assertEquals("image/png", this.contentType);
+        // straight from a file
+        Path file = Files.createTempFile("jfluiddb", ".bin");
+        try {
+            Files.write(file, this.value);
+            o.tag(t, file, "application/octet-stream");
+            assertArrayEquals(this.value, this.values.get("/objects/abc/test/document"));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                channel.position(1000);
+                o.tag(t, channel, "application/octet-stream");
+                assertArrayEquals(Arrays.copyOfRange(this.value, 1000, this.value.length), this.values.get("/objects/abc/test/document"));
+                assertEquals(1000, channel.position());
+            } finally {
+                channel.close();
+            }
+        } finally {
+            Files.delete(file);
+        }
+        // the connection is still usable afterwards
+        assertEquals(204, this.fdb.Call(Method.PUT, "/objects/abc/test/rating", "1").getResponseCode());
+    }
+    
+    @Test
+    public void testShortStream() throws Exception {
+        this.fdb.setTransport(new PooledTransport(new ConnectionPool()));
+        InputStream in = new ByteArrayInputStream(this.value);
+        try {
+            this.fdb.Call(Method.PUT, "/objects/abc/test/document", RequestBody.of(in, this.value.length + 1), "application/pdf");
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testRetries() throws Exception {
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        // a file can be sent again...
+        Path file = Files.createTempFile("jfluiddb", ".bin");
+        try {
+            Files.write(file, this.value);
+            this.failures.set(1);
+            assertEquals(204, this.fdb.Call(Method.PUT, "/objects/abc/test/document", RequestBody.of(file), "application/pdf").getResponseCode());
+            assertEquals(2, this.hits.get());
+            assertArrayEquals(this.value, this.values.get("/objects/abc/test/document"));
+        } finally {
+            Files.delete(file);
+        }
+        // ...but a stream can't
+        this.failures.set(1);
+        this.hits.set(0);
+        RequestBody body = RequestBody.of(new ByteArrayInputStream(this.value), this.value.length);
+        assertEquals(503, this.fdb.Call(Method.PUT, "/objects/abc/test/document", body, "application/pdf").getResponseCode());
+        assertEquals(1, this.hits.get());
+    }
+    
+    @Test
+    public void testDownload() throws Exception {
+        FluidDBEmulator emulator = new FluidDBEmulator();
+        emulator.addUser("test", "secret");
+        try {
+            this.fdb.setUrl(emulator.start());
+            this.fdb.setUsername("test");
+            this.fdb.setPassword("secret");
+            this.checkDownload();
+            this.fdb.setTransport(new PooledTransport(new ConnectionPool()));
+            this.checkDownload();
+            this.fdb.setTransport(emulator.getTransport());
+            this.checkDownload();
+        } finally {
+            emulator.stop();
+        }
+    }
+    
+    private void checkDownload() throws Exception {
+        String name = "document-"+System.nanoTime();
+        Tag t = new Namespace(this.fdb, "", "test").createTag(name, "", false);
+        String id = StringUtil.getJsonObjectFromString(this.fdb.Call(Method.POST, "/objects", "{}").getResponseContent()).getString("id");
+        Object o = new Object(this.fdb, id, id);
+        o.tag(t, new ByteArrayInputStream(this.value), "application/octet-stream", this.value.length);
+        // the whole value to a stream
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FluidResponse r = o.getTagValue(t, out);
+        assertEquals(200, r.getResponseCode());
+        assertEquals("application/octet-stream", r.getResponseContentType());
+        assertEquals(this.value.length, r.getResponseStreamedLength());
+        assertEquals(0, r.getResponseLength());
+        assertArrayEquals(this.value, out.toByteArray());
+        // part of it
+        out.reset();
+        r = o.getTagValue(t, out, 1000, 500);
+        assertEquals(206, r.getResponseCode());
+        assertEquals("bytes 1000-1499/"+this.value.length, r.getResponseHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(this.value, 1000, 1500), out.toByteArray());
+        // to a file
+        Path file = Files.createTempFile("jfluiddb", ".bin");
+        try {
+            Files.write(file, new byte[200000]);
+            r = o.getTagValueTo(t, file);
+            assertEquals(this.value.length, r.getResponseStreamedLength());
+            assertArrayEquals(this.value, Files.readAllBytes(file));
+            r = o.getTagValueTo(t, file, 99000, -1);
+            assertEquals(206, r.getResponseCode());
+            assertArrayEquals(Arrays.copyOfRange(this.value, 99000, this.value.length), Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+        // errors are read as usual and nothing is written
+        out.reset();
+        try {
+            o.getTagValue(t, out, this.value.length, 10);
+            fail("Expected a FluidException");
+        } catch (FluidException e) {
+            // expected
+        }
+        assertEquals(0, out.size());
+        assertEquals(416, this.fdb.Call(Method.GET, o.getPath()+"/test/"+name, ResponseBody.of(out), this.value.length, 10).getResponseCode());
+        o.deleteTag(t);
+        try {
+            o.getTagValue(t, out);
+            fail("Expected a FluidException");
+        } catch (FluidException e) {
+            // expected
+        }
+        assertEquals(0, out.size());
+        t.delete();
+    }
+}
@@ -0,0 +1,221 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.*;
+
+import com.fluidinfo.CircuitBreakerOpenException;
+import com.fluidinfo.Deadline;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.FluidTimeoutException;
+import com.fluidinfo.transport.CircuitBreaker;
+import com.fluidinfo.transport.ConcurrencyLimiter;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.RetryPolicy;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks read timeouts and deadlines against a local server that answers slowly (no 
+ * sandbox required)
+ *
+ * @author rossjones
+ *
+ */
+public class TestTimeouts {
+
+    private StubServer server = null;
+
+    private FluidConnector fdb = null;
+
+    /**
+     * Requests for /slow take 2 seconds, everything else 100 milliseconds
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.server = new StubServer(exchange -> {
+            StubServer.pause(exchange.getRequestURI().getPath().equals("/slow") ? 2000 : 100);
+            try {
+                StubServer.json(exchange, 200, "{\"ids\": []}");
+            } catch (IOException e) {
+                // the client gave up
+            }
+        });
+        this.fdb = this.server.connect();
+    }
+
+    @After
+    public void tearDown() {
+        this.fdb.getTransport().close();
+        this.server.stop();
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        this.fdb.setReadTimeout(200);
+        this.checkReadTimeout();
+    }
+
+    @Test
+    public void testReadTimeoutPooled() throws Exception {
+        this.fdb.setReadTimeout(200);
+        this.fdb.setConnectionPool(new ConnectionPool());
+        assertTrue(this.fdb.getTransport() instanceof PooledTransport);
+        this.checkReadTimeout();
+        // the timed out connection isn't handed out again
+        assertEquals(200, this.fdb.Call(Method.GET, "/fast").getResponseCode());
+    }
+
+    @Test
+    public void testStalledHandshake() throws Exception {
+        // the connection is accepted (by the backlog) but nothing ever answers the handshake
+        ServerSocket silent = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        FluidConnector tls = new FluidConnector();
+        try {
+            tls.setUrl("https://127.0.0.1:"+silent.getLocalPort());
+            tls.setConnectionPool(new ConnectionPool());
+            tls.setConnectTimeout(300);
+            tls.setReadTimeout(0);
+            this.checkTimeout(tls, "/objects");
+            // without a connect timeout the read timeout bounds it
+            tls.setConnectTimeout(0);
+            tls.setReadTimeout(300);
+            this.checkTimeout(tls, "/objects");
+        } finally {
+            tls.getTransport().close();
+            silent.close();
+        }
+    }
+
+    private void checkTimeout(FluidConnector connector, String path) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            connector.Call(Method.GET, path);
+            fail("Expected a FluidTimeoutException");
+        } catch (FluidTimeoutException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    private void checkReadTimeout() throws Exception {
+        this.checkTimeout(this.fdb, "/slow");
+    }
+
+    @Test
+    public void testTimeoutTripsBreaker() throws Exception {
+        this.fdb.setReadTimeout(200);
+        this.fdb.setCircuitBreaker(2, 60000);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        this.fdb.setConcurrencyLimiter(limiter);
+        this.fdb.setRetryPolicy(new RetryPolicy(3, 1, 10));
+        this.checkReadTimeout();
+        this.checkReadTimeout();
+        // timeouts aren't retried, but count against the breaker and the limiter
+        assertEquals(2, this.server.getHits());
+        assertEquals(CircuitBreaker.State.OPEN, this.fdb.getCircuitBreaker(this.fdb.getUrl()+"/slow").getState());
+        assertEquals(2, limiter.getLimitDecreases());
+        assertEquals(0, limiter.getInFlight());
+        try {
+            this.fdb.Call(Method.GET, "/slow");
+            fail("Expected a CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            // expected
+        }
+        assertEquals(2, this.server.getHits());
+    }
+
+    @Test
+    public void testDeadlineSharedAcrossCalls() throws Exception {
+        long start = System.currentTimeMillis();
+        Deadline.Scope scope = Deadline.after(350).apply();
+        try {
+            for(int i = 0; i < 10; i++) {
+                this.fdb.Call(Method.GET, "/fast");
+            }
+            fail("Expected a FluidTimeoutException");
+        } catch (FluidTimeoutException e) {
+            // expected
+        } finally {
+            scope.close();
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(this.server.getHits() <= 4);
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testExpiredDeadlineFailsFast() throws Exception {
+        Deadline.Scope scope = Deadline.after(0).apply();
+        try {
+            this.fdb.Call(Method.GET, "/fast");
+            fail("Expected a FluidTimeoutException");
+        } catch (FluidTimeoutException e) {
+            // expected
+        } finally {
+            scope.close();
+        }
+        assertEquals(0, this.server.getHits());
+    }
+
+    @Test
+    public void testNestedDeadlineKeepsEarliest() {
+        Deadline outer = Deadline.after(100);
+        Deadline.Scope a = outer.apply();
+        try {
+            Deadline.Scope b = Deadline.after(60000).apply();
+            try {
+                assertSame(outer, Deadline.current());
+            } finally {
+                b.close();
+            }
+            assertSame(outer, Deadline.current());
+        } finally {
+            a.close();
+        }
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testAsyncCallsShareDeadline() throws Exception {
+        Deadline.Scope scope = Deadline.after(300).apply();
+        try {
+            this.fdb.callAsync(Method.GET, "/slow").get();
+            fail("Expected a FluidTimeoutException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FluidTimeoutException);
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void testFluidDBWithDeadline() throws Exception {
+        final FluidDB fluid = new FluidDB(this.fdb.getUrl());
+        String[] ids = fluid.withDeadline(1000, new Callable<String[]>() {
+            public String[] call() throws Exception {
+                return fluid.searchObjects("has test/tag");
+            }
+        });
+        assertEquals(0, ids.length);
+        try {
+            fluid.withDeadline(250, new Callable<String[]>() {
+                public String[] call() throws Exception {
+                    fluid.searchObjects("has test/tag");
+                    fluid.searchObjects("has test/tag");
+                    return fluid.searchObjects("has test/tag");
+                }
+            });
+            fail("Expected a FluidTimeoutException");
+        } catch (FluidTimeoutException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.fluidinfo.transport.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.json.JSONObject;
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.emulator.FluidDBEmulator;
+import com.fluidinfo.fom.Object;
+import com.fluidinfo.transport.ConnectionPool;
+import com.fluidinfo.transport.HttpURLConnectionTransport;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.RequestBody;
+import com.fluidinfo.transport.ResponseBody;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks each Transport behaves the same way underneath FluidConnector (no sandbox required)
+ * 
+ * @author rossjones
+ *
+ */
+public class TestTransport {
+    
+    private FluidDBEmulator emulator = null;
+    
+    private FluidConnector fdb = null;
+    
+    @Before
+    public void setUp() throws Exception {
+        this.emulator = new FluidDBEmulator();
+        this.emulator.addUser("alice", "secret-a");
+        this.fdb = new FluidConnector();
+        this.fdb.setUrl(this.emulator.start());
+        this.fdb.setUsername("alice");
+        this.fdb.setPassword("secret-a");
+    }
+    
+    @After
+    public void tearDown() {
+        this.fdb.getTransport().close();
+        this.emulator.stop();
+    }
+    
+    @Test
+    public void testDefaultTransport() {
+        assertTrue(this.fdb.getTransport() instanceof HttpURLConnectionTransport);
+        assertNull(this.fdb.getConnectionPool());
+        ConnectionPool pool = new ConnectionPool();
+        this.fdb.setConnectionPool(pool);
+        assertTrue(this.fdb.getTransport() instanceof PooledTransport);
+        assertSame(pool, this.fdb.getConnectionPool());
+    }
+    
+    @Test
+    public void testHttpURLConnectionTransport() throws Exception {
+        this.checkTransport();
+    }
+    
+    @Test
+    public void testPooledTransport() throws Exception {
+        this.fdb.setTransport(new PooledTransport(new ConnectionPool()));
+        this.checkTransport();
+    }
+    
+    private void checkTransport() throws Exception {
+        FluidResponse r = this.fdb.Call(Method.GET, "/users/alice");
+        assertEquals(200, r.getResponseCode());
+        assertEquals("alice", new JSONObject(r.getResponseContent()).getString("name"));
+        assertEquals("application/json", r.getResponseContentType());
+        assertNotNull(r.getErrorRequestID());
+        assertEquals(r.getErrorRequestID(), r.getResponseHeader("x-fluiddb-request-id"));
+        assertTrue(r.getResponseHeaders().containsKey("Content-Type"));
+        r = this.fdb.Call(Method.GET, "/users/nobody");
+        assertEquals(404, r.getResponseCode());
+        assertEquals("TNoSuchUser", r.getResponseError());
+        r = this.fdb.Call(Method.POST, "/tags/alice", "{\"name\": \"tag\", \"description\": \"\", \"indexed\": false}");
+        assertEquals(201, r.getResponseCode());
+        String id = new JSONObject(this.fdb.Call(Method.POST, "/objects", "{}").getResponseContent()).getString("id");
+        r = this.fdb.Call(Method.PUT, "/objects/"+id+"/alice/tag", "\"value\"");
+        assertEquals(204, r.getResponseCode());
+    }
+    
+    @Test
+    public void testInMemoryTransport() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport();
+        transport.addResponse(Method.GET, "/objects/1234", new FluidResponse(200, "OK", "application/json", 
+                "{\"about\": \"in memory\", \"tagPaths\": [\"fluiddb/about\"]}"));
+        this.fdb.setTransport(transport);
+        // the FOM classes work unchanged on top of it
+        Object o = new Object(this.fdb, "1234", "1234");
+        assertEquals("in memory", o.getAbout());
+        assertEquals("fluiddb/about", o.getTagPaths()[0]);
+        assertEquals("True", transport.getLastRequest().getArgs().get("showAbout"));
+        // anything else is a 404
+        assertEquals(404, this.fdb.Call(Method.GET, "/objects/5678").getResponseCode());
+        assertEquals(2, transport.getRequestCount());
+        // each call gets its own response
+        FluidResponse first = this.fdb.Call(Method.GET, "/objects/1234");
+        FluidResponse second = this.fdb.Call(Method.GET, "/objects/1234");
+        assertNotSame(first, second);
+        first.getResponseBytes()[0] = 'x';
+        assertEquals('{', second.getResponseBytes()[0]);
+        // the body is streamed to a target, and a streamed request body is read
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FluidResponse streamed = this.fdb.Call(Method.GET, "/objects/1234", ResponseBody.of(out));
+        assertEquals("{\"about\": \"in memory\", \"tagPaths\": [\"fluiddb/about\"]}", out.toString("UTF-8"));
+        assertEquals(out.size(), streamed.getResponseStreamedLength());
+        assertEquals(0, streamed.getResponseLength());
+        byte[] value = "5".getBytes("UTF-8");
+        this.fdb.Call(Method.PUT, "/objects/1234/test/rating", RequestBody.of(new ByteArrayInputStream(value), value.length), "application/vnd.fluiddb.value+json");
+        assertArrayEquals(value, transport.getLastRequest().getBody());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.utils;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size Bloom filter of strings: a compact set that can answer "definitely not 
+ * added" or "probably added", wrongly saying "probably added" at about the false positive 
+ * rate it was sized for (as long as no more than the expected number of strings are added)
+ * 
+ * Not thread safe - callers sharing a filter must synchronize.
+ * 
+ * @author rossjones
+ *
+ */
+public class BloomFilter {
+	
+	private final long[] bits;
+	
+	private final int bitCount;
+	
+	private final int hashCount;
+	
+	private int entryCount = 0;
+	
+	/**
+	 * Constructor
+	 * @param expectedEntries the number of strings that will be added
+	 * @param falsePositiveRate the chance of wrongly saying a string was added once that 
+	 * many have been (e.g. 0.01)
+	 */
+	public BloomFilter(int expectedEntries, double falsePositiveRate) {
+		if(expectedEntries < 1) {
+			throw new IllegalArgumentException("expectedEntries must be at least 1");
+		}
+		if(!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+		}
+		double ln2 = Math.log(2);
+		long bitCount = (long)Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+		// a whole number of longs
+		bitCount = Math.max(64, Math.min(Integer.MAX_VALUE - 63, (bitCount + 63) / 64 * 64));
+		this.bitCount = (int)bitCount;
+		this.bits = new long[this.bitCount / 64];
+		this.hashCount = Math.max(1, (int)Math.round((double)bitCount / expectedEntries * ln2));
+	}
+	
+	/**
+	 * Adds a string
+	 * @param s the string
+	 */
+	public void add(String s) {
+		long h1 = hash(s);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for(int i = 0; i < this.hashCount; i++) {
+			int bit = (int)Long.remainderUnsigned(h1 + i * h2, this.bitCount);
+			this.bits[bit >>> 6] |= 1L << bit;
+		}
+		this.entryCount++;
+	}
+	
+	/**
+	 * Checks whether a string has (probably) been added
+	 * @param s the string
+	 * @return false if the string definitely hasn't been added, true if it probably has
+	 */
+	public boolean mightContain(String s) {
+		long h1 = hash(s);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for(int i = 0; i < this.hashCount; i++) {
+			int bit = (int)Long.remainderUnsigned(h1 + i * h2, this.bitCount);
+			if((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Forgets every string added
+	 */
+	public void clear() {
+		Arrays.fill(this.bits, 0);
+		this.entryCount = 0;
+	}
+	
+	/**
+	 * @return the number of strings added since the filter was made or last cleared
+	 */
+	public int getEntryCount() {
+		return this.entryCount;
+	}
+	
+	/**
+	 * @return the size of the filter in bits
+	 */
+	public int getBitCount() {
+		return this.bitCount;
+	}
+	
+	/**
+	 * @return the number of bits set for each string
+	 */
+	public int getHashCount() {
+		return this.hashCount;
+	}
+	
+	/**
+	 * A 64 bit hash of a string (FNV-1a over its chars, then mixed)
+	 */
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+	
+	/**
+	 * Spreads the bits of a hash (the MurmurHash3 finalizer)
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe1a85ec3L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of fixed size scratch buffers, so that reading response bodies of unknown
+ * length doesn't allocate (and throw away) a fresh buffer for every call
+ * 
+ * @author rossjones
+ *
+ */
+public class BufferPool {
+	
+	/**
+	 * The size of each buffer in the pool
+	 */
+	public final static int BUFFER_SIZE = 8192;
+	
+	/**
+	 * The most buffers that will be kept for reuse
+	 */
+	public final static int MAX_POOLED_BUFFERS = 256;
+	
+	private final static ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	
+	private final static AtomicInteger pooled = new AtomicInteger();
+	
+	/**
+	 * Takes a buffer of BUFFER_SIZE bytes from the pool (or allocates one if the pool is empty)
+	 * @return a scratch buffer - its contents are undefined
+	 */
+	public static byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		if(buffer == null) {
+			return new byte[BUFFER_SIZE];
+		}
+		pooled.decrementAndGet();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. Buffers of the wrong size, or beyond what the pool will 
+	 * keep, are left to the garbage collector.
+	 * @param buffer the buffer to return (must not be used again by the caller)
+	 */
+	public static void release(byte[] buffer) {
+		if(buffer == null || buffer.length != BUFFER_SIZE) {
+			return;
+		}
+		if(pooled.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+}
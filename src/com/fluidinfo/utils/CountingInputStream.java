@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes read through it
+ * 
+ * @author rossjones
+ *
+ */
+public class CountingInputStream extends FilterInputStream {
+	
+	private long count = 0;
+	
+	/**
+	 * Constructor
+	 * @param in the stream to count
+	 */
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+	
+	/**
+	 * @return the number of bytes read so far
+	 */
+	public long getCount() {
+		return this.count;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b != -1) {
+			this.count++;
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = super.read(b, off, len);
+		if(read > 0) {
+			this.count += read;
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		this.count += skipped;
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
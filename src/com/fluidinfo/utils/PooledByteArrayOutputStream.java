@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.utils;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * An OutputStream that collects bytes in buffers borrowed from the BufferPool and only 
+ * allocates once, when the exact-sized result is asked for
+ * 
+ * Call close() once finished to hand the buffers back.
+ * 
+ * @author rossjones
+ *
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+	
+	private final ArrayList<byte[]> buffers = new ArrayList<byte[]>();
+	
+	private byte[] current = null;
+	
+	private int position = BufferPool.BUFFER_SIZE;
+	
+	private long size = 0;
+	
+	@Override
+	public void write(int b) {
+		this.ensureSpace();
+		this.current[this.position++] = (byte)b;
+		this.size++;
+	}
+	
+	@Override
+	public void write(byte[] data, int offset, int length) {
+		while(length > 0) {
+			this.ensureSpace();
+			int count = Math.min(length, this.current.length - this.position);
+			System.arraycopy(data, offset, this.current, this.position, count);
+			this.position += count;
+			offset += count;
+			length -= count;
+			this.size += count;
+		}
+	}
+	
+	/**
+	 * Returns the space left in the current buffer, borrowing a new one if it's full. Lets 
+	 * callers read straight into the pooled buffer (see getBuffer / commit).
+	 * @return the number of bytes that can be written at getPosition() in getBuffer()
+	 */
+	public int ensureSpace() {
+		if(this.current == null || this.position == this.current.length) {
+			this.current = BufferPool.acquire();
+			this.buffers.add(this.current);
+			this.position = 0;
+		}
+		return this.current.length - this.position;
+	}
+	
+	/**
+	 * @return the buffer currently being filled
+	 */
+	public byte[] getBuffer() {
+		return this.current;
+	}
+	
+	/**
+	 * @return the next free position in the buffer currently being filled
+	 */
+	public int getPosition() {
+		return this.position;
+	}
+	
+	/**
+	 * Records that count bytes have been written directly into getBuffer() at getPosition()
+	 * @param count the number of bytes written
+	 */
+	public void commit(int count) {
+		this.position += count;
+		this.size += count;
+	}
+	
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long size() {
+		return this.size;
+	}
+	
+	/**
+	 * @return a copy of everything written so far
+	 */
+	public byte[] toByteArray() {
+		if(this.size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too much data for a byte array: "+this.size);
+		}
+		byte[] result = new byte[(int)this.size];
+		int offset = 0;
+		for(int i=0; i<this.buffers.size(); i++) {
+			byte[] buffer = this.buffers.get(i);
+			int count = (i == this.buffers.size() - 1) ? this.position : buffer.length;
+			System.arraycopy(buffer, 0, result, offset, count);
+			offset += count;
+		}
+		return result;
+	}
+	
+	/**
+	 * Hands the buffers back to the pool. The stream is empty afterwards.
+	 */
+	@Override
+	public void close() {
+		for(byte[] buffer : this.buffers) {
+			BufferPool.release(buffer);
+		}
+		this.buffers.clear();
+		this.current = null;
+		this.position = BufferPool.BUFFER_SIZE;
+		this.size = 0;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009 Ross Jones and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helpers for reading HTTP bodies as bytes
+ * 
+ * @author rossjones
+ *
+ */
+public class StreamUtil {
+	
+	/**
+	 * The largest length read straight into an array allocated up front: longer bodies are 
+	 * read into pooled buffers, so a bogus Content-Length can't allocate more than arrives
+	 */
+	public final static int DIRECT_READ_LIMIT = BufferPool.BUFFER_SIZE * 8;
+	
+	/**
+	 * Reads exactly length bytes, straight into a right-sized array when the length is small
+	 * @param in the stream to read
+	 * @param length the number of bytes to read (e.g. from Content-Length)
+	 * @return the bytes read
+	 * @throws IOException if the stream ends early
+	 */
+	public static byte[] readFully(InputStream in, int length) throws IOException {
+		if(length > DIRECT_READ_LIMIT) {
+			PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+			try {
+				readFully(in, length, out);
+				return out.toByteArray();
+			} finally {
+				out.close();
+			}
+		}
+		byte[] data = new byte[length];
+		int offset = 0;
+		while(offset < length) {
+			int read = in.read(data, offset, length - offset);
+			if(read == -1) {
+				throw new EOFException("Stream ended after "+offset+" of "+length+" bytes");
+			}
+			offset += read;
+		}
+		return data;
+	}
+	
+	/**
+	 * Reads exactly length bytes into pooled buffers
+	 */
+	private static void readFully(InputStream in, int length, PooledByteArrayOutputStream out) throws IOException {
+		while(out.size() < length) {
+			int count = (int)Math.min(out.ensureSpace(), length - out.size());
+			int read = in.read(out.getBuffer(), out.getPosition(), count);
+			if(read == -1) {
+				throw new EOFException("Stream ended after "+out.size()+" of "+length+" bytes");
+			}
+			out.commit(read);
+		}
+	}
+	
+	/**
+	 * Reads until the stream ends, using pooled buffers until the total length is known
+	 * @param in the stream to read
+	 * @return the bytes read
+	 * @throws IOException
+	 */
+	public static byte[] readToEnd(InputStream in) throws IOException {
+		PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+		try {
+			while(true) {
+				int space = out.ensureSpace();
+				int read = in.read(out.getBuffer(), out.getPosition(), space);
+				if(read == -1) {
+					return out.toByteArray();
+				}
+				out.commit(read);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Reads a body, directly into a right-sized array when the length is known and small
+	 * @param in the stream to read
+	 * @param contentLength the length from the Content-Length header, or -1 if unknown
+	 * @return the bytes read
+	 * @throws IOException
+	 */
+	public static byte[] readBody(InputStream in, long contentLength) throws IOException {
+		if(contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+			return readFully(in, (int)contentLength);
+		}
+		return readToEnd(in);
+	}
+}
@@ -67,7 +67,27 @@ public class StringUtil {
 	 * @return the resulting path
 	 */
 	public static String URIJoin(String[] s){
-		return StringUtil.join(s, "/").replaceAll("/[/]*", "/");
+		if (s == null || s.length==0) return "";
+		int length = s.length;
+		for(int i=0; i<s.length; i++){
+			length += s[i] == null ? 4 : s[i].length();
+		}
+		// Join with "/" and collapse any runs of "/" in a single pass
+		char[] joined = new char[length];
+		int position = 0;
+		for(int i=0; i<s.length; i++){
+			if(i>0 && (position==0 || joined[position-1]!='/')){
+				joined[position++] = '/';
+			}
+			String part = String.valueOf(s[i]);
+			for(int j=0; j<part.length(); j++){
+				char c = part.charAt(j);
+				if(c!='/' || position==0 || joined[position-1]!='/'){
+					joined[position++] = c;
+				}
+			}
+		}
+		return new String(joined, 0, position);
 	}
 	
 	/**
@@ -79,6 +99,49 @@ public class StringUtil {
 		return StringUtil.URIJoin(s.toArray(new String[0]));
 	}
 	
+	/**
+	 * Appends the application/x-www-form-urlencoded form of a string (UTF-8, as 
+	 * URLEncoder.encode(s, "UTF-8") would produce) without creating any intermediate strings
+	 * @param sb Where to append the encoded string
+	 * @param s The string to encode
+	 * @return sb
+	 */
+	public static StringBuilder appendURLEncoded(StringBuilder sb, String s){
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			if((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='.' || c=='-' || c=='*' || c=='_'){
+				sb.append(c);
+			} else if(c==' '){
+				sb.append('+');
+			} else if(c<0x80){
+				appendPercentEncoded(sb, c);
+			} else if(c<0x800){
+				appendPercentEncoded(sb, 0xc0 | (c >> 6));
+				appendPercentEncoded(sb, 0x80 | (c & 0x3f));
+			} else if(Character.isHighSurrogate(c) && i+1<s.length() && Character.isLowSurrogate(s.charAt(i+1))){
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				appendPercentEncoded(sb, 0xf0 | (cp >> 18));
+				appendPercentEncoded(sb, 0x80 | ((cp >> 12) & 0x3f));
+				appendPercentEncoded(sb, 0x80 | ((cp >> 6) & 0x3f));
+				appendPercentEncoded(sb, 0x80 | (cp & 0x3f));
+			} else if(Character.isSurrogate(c)){
+				// an unpaired surrogate can't be encoded - URLEncoder substitutes "?"
+				appendPercentEncoded(sb, '?');
+			} else {
+				appendPercentEncoded(sb, 0xe0 | (c >> 12));
+				appendPercentEncoded(sb, 0x80 | ((c >> 6) & 0x3f));
+				appendPercentEncoded(sb, 0x80 | (c & 0x3f));
+			}
+		}
+		return sb;
+	}
+	
+	private final static char[] HEX = "0123456789ABCDEF".toCharArray();
+	
+	private static void appendPercentEncoded(StringBuilder sb, int b){
+		sb.append('%').append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+	}
+	
 	/**
      * Given a string of json code will return an appropriate representation as a JSONObject
      * @param jsonInput The string of json code to be turned into a JSONObject instance 
@@ -0,0 +1,79 @@
+package com.fluidinfo.utils.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+
+import org.junit.*;
+import com.fluidinfo.utils.*;
+
+/**
+ * Exercise the StreamUtil and PooledByteArrayOutputStream classes
+ * 
+ * @author rossjones
+ *
+ */
+public class TestStreamUtil {
+	
+	private byte[] data(int length) {
+		byte[] data = new byte[length];
+		for(int i=0; i<length; i++) {
+			data[i] = (byte)(i % 251);
+		}
+		return data;
+	}
+	
+	@Test
+	public void testReadFully() throws Exception {
+		byte[] data = this.data(1000);
+		InputStream in = new ByteArrayInputStream(data);
+		assertArrayEquals(data, StreamUtil.readFully(in, 1000));
+		// The stream ending early is an error
+		in = new ByteArrayInputStream(data);
+		try {
+			StreamUtil.readFully(in, 1001);
+			fail("expected an EOFException");
+		} catch(EOFException e) {
+			// expected
+		}
+		// longer bodies are read in pooled buffers as they arrive
+		data = this.data(StreamUtil.DIRECT_READ_LIMIT + BufferPool.BUFFER_SIZE + 3);
+		assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), data.length));
+		assertArrayEquals(data, StreamUtil.readBody(new ByteArrayInputStream(data), data.length));
+		// so a Content-Length far beyond the body ends early rather than allocating it all
+		try {
+			StreamUtil.readBody(new ByteArrayInputStream(data), Integer.MAX_VALUE);
+			fail("expected an EOFException");
+		} catch(EOFException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testReadToEnd() throws Exception {
+		// spans several pooled buffers
+		byte[] data = this.data(BufferPool.BUFFER_SIZE * 3 + 17);
+		assertArrayEquals(data, StreamUtil.readToEnd(new ByteArrayInputStream(data)));
+		assertArrayEquals(new byte[0], StreamUtil.readToEnd(new ByteArrayInputStream(new byte[0])));
+		// an exact multiple of the buffer size
+		data = this.data(BufferPool.BUFFER_SIZE);
+		assertArrayEquals(data, StreamUtil.readBody(new ByteArrayInputStream(data), -1));
+		assertArrayEquals(data, StreamUtil.readBody(new ByteArrayInputStream(data), data.length));
+	}
+	
+	@Test
+	public void testPooledByteArrayOutputStream() throws Exception {
+		byte[] data = this.data(BufferPool.BUFFER_SIZE + 10);
+		PooledByteArrayOutputStream out = new PooledByteArrayOutputStream();
+		out.write(data, 0, 5);
+		out.write(data[5]);
+		out.write(data, 6, data.length - 6);
+		assertEquals(data.length, out.size());
+		assertArrayEquals(data, out.toByteArray());
+		out.close();
+		assertEquals(0, out.size());
+		assertEquals(0, out.toByteArray().length);
+	}
+}
@@ -45,6 +45,25 @@ public class TestStringUtil {
 		assertEquals("/foo/bar/baz", StringUtil.URIJoin(paths)); // make sure it works with a collection
 	}
 	
+	@Test
+	public void testURIJoinEdgeCases() {
+		assertEquals("", StringUtil.URIJoin(new String[0]));
+		assertEquals("/", StringUtil.URIJoin(new String[] {"/", "/"}));
+		assertEquals("/x", StringUtil.URIJoin(new String[] {"", "x"}));
+		assertEquals("a/", StringUtil.URIJoin(new String[] {"a", ""}));
+		assertEquals("/objects/abc/ns/tag", StringUtil.URIJoin(new String[] {"/objects//abc/", "//ns", "tag"}));
+	}
+	
+	@Test
+	public void testAppendURLEncoded() throws Exception {
+		String[] values = {"has fluiddb/about", "a+b=c&d", "caf\u00e9 \u20ac \ud83d\ude00", "-_.*~!'()", ""};
+		for(String value : values) {
+			StringBuilder sb = new StringBuilder();
+			StringUtil.appendURLEncoded(sb, value);
+			assertEquals(java.net.URLEncoder.encode(value, "UTF-8"), sb.toString());
+		}
+	}
+	
 	@Test
     public void testGetStringArrayFromJSONArray() throws JSONException {
         String jsonInput = "{\"foo\": [ \"bar\", \"baz\"]}";